@@ -0,0 +1,172 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.enrichment;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.EmbeddedBatchAware;
+
+/**
+ * Adds tags looked up by service name, such as the owning team or tier. The mapping is a {@link
+ * EnrichmentTable CSV file} read on the driver.
+ *
+ * <p>The table is sent to each executor once as a broadcast variable, as opposed to inside every
+ * task. Before each batch, the file's modification time is checked. When it changed, the file is
+ * read into a new broadcast, which tasks of that batch use, and the old broadcast is released. In
+ * an embedded job, which has no Spark context, the table is held directly instead.
+ *
+ * <p>When new settings replace this adjuster, the job {@link #close() closes} it, releasing the
+ * last broadcast.
+ */
+public final class EnrichmentAdjuster extends Adjuster implements EmbeddedBatchAware, Closeable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(EnrichmentAdjuster.class);
+
+  /** @param path path to the CSV file on the driver */
+  public static EnrichmentAdjuster create(String path) {
+    if (path == null) throw new NullPointerException("path == null");
+    return new EnrichmentAdjuster(path);
+  }
+
+  final String path;
+  /** Only the ID of the broadcast is serialized with tasks, not its value. */
+  volatile Broadcast<EnrichmentTable> table;
+  /** Used instead of {@link #table} in an embedded job */
+  transient volatile EnrichmentTable localTable;
+  // transient so that a job recovered from a checkpoint re-reads the file into a new broadcast
+  transient boolean loaded;
+  transient long lastModified;
+
+  EnrichmentAdjuster(String path) {
+    this.path = path;
+  }
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  @Override public synchronized void prepareBatch(JavaSparkContext context) {
+    EnrichmentTable update = readIfModified();
+    if (update == null) return;
+
+    Broadcast<EnrichmentTable> old = table;
+    table = context.broadcast(update);
+    log().info("broadcasting enrichment table of {} services from {}", update.size(), path);
+    if (old != null) unpersist(old); // tasks of the last batch have completed
+  }
+
+  /**
+   * Releases executor copies of the broadcast. The driver keeps it, so tasks of a batch that still
+   * uses this adjuster can read it again.
+   */
+  @Override public synchronized void close() {
+    if (table != null) unpersist(table);
+  }
+
+  void unpersist(Broadcast<EnrichmentTable> broadcast) {
+    try {
+      broadcast.unpersist(false);
+    } catch (RuntimeException e) {
+      log().debug("unable to unpersist the last enrichment table", e); // ex. after recovery
+    }
+  }
+
+  @Override public synchronized void prepareEmbeddedBatch() {
+    EnrichmentTable update = readIfModified();
+    if (update == null) return;
+
+    localTable = update;
+    log().info("read enrichment table of {} services from {}", update.size(), path);
+  }
+
+  /** Returns the table when the file changed since it was last read, or null to keep the last. */
+  EnrichmentTable readIfModified() {
+    File file = new File(path);
+    long modified = file.lastModified(); // zero when the file doesn't exist
+    if (loaded && modified == lastModified) return null;
+
+    EnrichmentTable result;
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), Util.UTF_8)) {
+      result = EnrichmentTable.read(reader);
+    } catch (IOException | RuntimeException e) {
+      log().warn("unable to read enrichment table " + path + "; keeping the last one", e);
+      return null; // try again next batch
+    }
+    loaded = true;
+    lastModified = modified;
+    return result;
+  }
+
+  @Override protected boolean shouldAdjust(Span span) {
+    return localTable != null || table != null;
+  }
+
+  @Override protected Span adjust(Span span) {
+    EnrichmentTable localTable = this.localTable;
+    return enrich(span, localTable != null ? localTable : table.value());
+  }
+
+  static Span enrich(Span span, EnrichmentTable table) {
+    List<Endpoint> endpoints = new ArrayList<>(2);
+    for (Annotation a : span.annotations) addEndpoint(endpoints, a.endpoint);
+    for (BinaryAnnotation b : span.binaryAnnotations) {
+      if (b.type != BinaryAnnotation.Type.BOOL) addEndpoint(endpoints, b.endpoint); // not addresses
+    }
+
+    List<BinaryAnnotation> tags = null;
+    for (Endpoint endpoint : endpoints) {
+      int row = table.row(endpoint.serviceName);
+      if (row == -1) continue;
+      for (int k = 0; k < table.tagKeys.length; k++) {
+        String value = table.value(row, k);
+        if (value == null || hasTag(span, table.tagKeys[k], endpoint)) continue;
+        if (tags == null) tags = new ArrayList<>(span.binaryAnnotations);
+        tags.add(BinaryAnnotation.create(table.tagKeys[k], value, endpoint));
+      }
+    }
+    if (tags == null) return span;
+    return span.toBuilder().binaryAnnotations(tags).build();
+  }
+
+  static void addEndpoint(List<Endpoint> endpoints, Endpoint endpoint) {
+    if (endpoint != null && !endpoints.contains(endpoint)) endpoints.add(endpoint);
+  }
+
+  static boolean hasTag(Span span, String key, Endpoint endpoint) {
+    for (BinaryAnnotation b : span.binaryAnnotations) {
+      if (b.key.equals(key) && endpoint.equals(b.endpoint)) return true;
+    }
+    return false;
+  }
+
+  @Override public String toString() {
+    return "EnrichmentAdjuster{path=" + path + "}";
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.enrichment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tags to add by service name, read from CSV. The header row is "service" followed by tag keys,
+ * and each following row is a service name followed by tag values. Empty values are skipped. Lines
+ * that are blank or start with '#' are ignored, and values can't contain commas.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * service,owner,tier
+ * frontend,web-team,1
+ * accounts,payments-team,0
+ * }</pre>
+ *
+ * <p>This is broadcast to executors, so it is stored as flat arrays: an open-addressing table of
+ * service names, and a row of values per slot.
+ */
+final class EnrichmentTable implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  static EnrichmentTable read(Reader input) throws IOException {
+    BufferedReader reader = new BufferedReader(input);
+    String[] header = null;
+    List<String[]> rows = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.charAt(0) == '#') continue;
+      String[] cells = line.split(",", -1);
+      for (int i = 0; i < cells.length; i++) cells[i] = cells[i].trim();
+      if (header == null) {
+        header = cells;
+      } else {
+        rows.add(cells);
+      }
+    }
+    if (header == null) throw new IOException("missing header row");
+    return new EnrichmentTable(Arrays.copyOfRange(header, 1, header.length), rows);
+  }
+
+  final String[] tagKeys;
+  final String[] serviceNames; // null when the slot is empty
+  final String[] values; // tagKeys.length values per slot, null when there's no value
+  final int mask;
+
+  EnrichmentTable(String[] tagKeys, List<String[]> rows) {
+    this.tagKeys = tagKeys;
+    int capacity = Integer.highestOneBit(Math.max(rows.size(), 1) * 2 - 1) << 1; // load <= 0.5
+    serviceNames = new String[capacity];
+    values = new String[capacity * tagKeys.length];
+    mask = capacity - 1;
+    for (String[] row : rows) {
+      if (row[0].isEmpty()) continue;
+      int slot = slot(row[0].toLowerCase());
+      serviceNames[slot] = row[0].toLowerCase();
+      for (int k = 0; k < tagKeys.length; k++) {
+        String value = k + 1 < row.length ? row[k + 1] : "";
+        values[slot * tagKeys.length + k] = value.isEmpty() ? null : value;
+      }
+    }
+  }
+
+  /** Returns the row of the service name, or -1 if there is none. */
+  int row(String serviceName) {
+    int slot = slot(serviceName);
+    return serviceNames[slot] != null ? slot : -1;
+  }
+
+  /** Returns the value of the tag key at the given index, or null. */
+  String value(int row, int tagKey) {
+    return values[row * tagKeys.length + tagKey];
+  }
+
+  int size() {
+    int result = 0;
+    for (String serviceName : serviceNames) if (serviceName != null) result++;
+    return result;
+  }
+
+  /** Returns the slot holding the service name, or the empty slot where it would go. */
+  int slot(String serviceName) {
+    int h = serviceName.hashCode();
+    int i = (h ^ (h >>> 16)) & mask;
+    while (serviceNames[i] != null && !serviceNames[i].equals(serviceName)) i = (i + 1) & mask;
+    return i;
+  }
+}
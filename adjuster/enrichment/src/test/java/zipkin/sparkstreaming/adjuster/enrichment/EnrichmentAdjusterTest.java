@@ -0,0 +1,176 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.enrichment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Util;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.Constants.CLIENT_SEND;
+import static zipkin.Constants.SERVER_ADDR;
+import static zipkin.Constants.SERVER_RECV;
+
+public class EnrichmentAdjusterTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  static final Endpoint FRONTEND = Endpoint.create("frontend", 172 << 24 | 17 << 16 | 3);
+  static final Endpoint BACKEND = Endpoint.create("backend", 172 << 24 | 17 << 16 | 4);
+
+  EnrichmentTable table = read(""
+      + "# owners of each service\n"
+      + "service,owner,tier\n"
+      + "Frontend,web-team,1\n"
+      + "\n"
+      + "backend,,0\n");
+
+  Span span = Span.builder().traceId(1L).id(1L).name("get")
+      .addAnnotation(Annotation.create(1L, SERVER_RECV, FRONTEND))
+      .build();
+
+  @Test
+  public void readsTable() {
+    assertThat(table.tagKeys).containsExactly("owner", "tier");
+    assertThat(table.size()).isEqualTo(2);
+
+    int frontend = table.row("frontend");
+    assertThat(table.value(frontend, 0)).isEqualTo("web-team");
+    assertThat(table.value(frontend, 1)).isEqualTo("1");
+
+    int backend = table.row("backend");
+    assertThat(table.value(backend, 0)).isNull(); // empty
+    assertThat(table.value(backend, 1)).isEqualTo("0");
+
+    assertThat(table.row("accounts")).isEqualTo(-1);
+  }
+
+  @Test
+  public void readsManyServices() {
+    StringBuilder csv = new StringBuilder("service,owner\n");
+    for (int i = 0; i < 1000; i++) {
+      csv.append("service").append(i).append(",team").append(i % 7).append('\n');
+    }
+    EnrichmentTable table = read(csv.toString());
+
+    assertThat(table.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(table.value(table.row("service" + i), 0)).isEqualTo("team" + i % 7);
+    }
+  }
+
+  @Test
+  public void emptyTableIsInvalid() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("missing header row");
+
+    EnrichmentTable.read(new StringReader("# nothing here\n"));
+  }
+
+  @Test
+  public void addsTagsOfTheServiceEndpoint() {
+    Span adjusted = EnrichmentAdjuster.enrich(span, table);
+
+    assertThat(adjusted.binaryAnnotations).containsExactly(
+        BinaryAnnotation.create("owner", "web-team", FRONTEND),
+        BinaryAnnotation.create("tier", "1", FRONTEND)
+    );
+  }
+
+  @Test
+  public void addsTagsOfEachEndpoint() {
+    Span clientAndServer = span.toBuilder()
+        .addAnnotation(Annotation.create(1L, CLIENT_SEND, BACKEND))
+        .build();
+
+    Span adjusted = EnrichmentAdjuster.enrich(clientAndServer, table);
+
+    assertThat(adjusted.binaryAnnotations).containsExactlyInAnyOrder( // spans sort tags by key
+        BinaryAnnotation.create("owner", "web-team", FRONTEND),
+        BinaryAnnotation.create("tier", "1", FRONTEND),
+        BinaryAnnotation.create("tier", "0", BACKEND)
+    );
+  }
+
+  @Test
+  public void doesntOverwriteExistingTags() {
+    Span tagged = span.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.create("owner", "search-team", FRONTEND))
+        .build();
+
+    Span adjusted = EnrichmentAdjuster.enrich(tagged, table);
+
+    assertThat(adjusted.binaryAnnotations).containsExactly(
+        BinaryAnnotation.create("owner", "search-team", FRONTEND),
+        BinaryAnnotation.create("tier", "1", FRONTEND)
+    );
+  }
+
+  @Test
+  public void ignoresAddressAnnotations() {
+    Span localSpan = Span.builder().traceId(1L).id(1L).name("get")
+        .addBinaryAnnotation(BinaryAnnotation.address(SERVER_ADDR, FRONTEND))
+        .build();
+
+    assertThat(EnrichmentAdjuster.enrich(localSpan, table)).isSameAs(localSpan);
+  }
+
+  @Test
+  public void returnsSameSpanWhenServiceIsUnknown() {
+    Span unknown = Span.builder().traceId(1L).id(1L).name("get")
+        .addAnnotation(Annotation.create(1L, SERVER_RECV, Endpoint.create("accounts", 0)))
+        .build();
+
+    assertThat(EnrichmentAdjuster.enrich(unknown, table)).isSameAs(unknown);
+  }
+
+  @Test
+  public void doesntAdjustBeforeTheFirstBatch() {
+    EnrichmentAdjuster adjuster = EnrichmentAdjuster.create("enrichment.csv");
+
+    assertThat(adjuster.adjust(asList(span))).containsExactly(span);
+  }
+
+  @Test
+  public void embeddedBatchReadsTableWithoutBroadcast() throws IOException {
+    File csv = folder.newFile("enrichment.csv");
+    Files.write(csv.toPath(), "service,owner\nfrontend,web-team\n".getBytes(Util.UTF_8));
+    EnrichmentAdjuster adjuster = EnrichmentAdjuster.create(csv.getPath());
+
+    adjuster.prepareEmbeddedBatch();
+
+    assertThat(adjuster.table).isNull();
+    assertThat(adjuster.adjust(asList(span)).iterator().next().binaryAnnotations)
+        .containsExactly(BinaryAnnotation.create("owner", "web-team", FRONTEND));
+  }
+
+  static EnrichmentTable read(String csv) {
+    try {
+      return EnrichmentTable.read(new StringReader(csv));
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -14,10 +14,10 @@
 package zipkin.sparkstreaming.adjuster.finagle;
 
 import com.google.auto.value.AutoValue;
-import zipkin.BinaryAnnotation;
 import zipkin.Span;
 import zipkin.internal.ApplyTimestampAndDuration;
 import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.SpanFeatures;
 
 /**
  * Contains adjustments that pertain to Finagle tracing. Detection is based on the binary
@@ -25,6 +25,9 @@ import zipkin.sparkstreaming.Adjuster;
  */
 @AutoValue
 public abstract class FinagleAdjuster extends Adjuster {
+  static final SpanFeatures FEATURES = SpanFeatures.newBuilder()
+      .addTagKeyContaining("finagle.version")
+      .build();
 
   public static Builder newBuilder() {
     return new AutoValue_FinagleAdjuster.Builder()
@@ -47,11 +50,12 @@ public abstract class FinagleAdjuster extends Adjuster {
     FinagleAdjuster build();
   }
 
-  @Override protected boolean shouldAdjust(Span span) {
-    for (BinaryAnnotation b : span.binaryAnnotations) {
-      if (b.key.indexOf("finagle.version") != -1) return true;
-    }
-    return false;
+  @Override protected SpanFeatures features() {
+    return FEATURES;
+  }
+
+  @Override protected boolean shouldAdjust(Span span, long matchedFeatures) {
+    return matchedFeatures != 0L;
   }
 
   @Override protected Span adjust(Span span) {
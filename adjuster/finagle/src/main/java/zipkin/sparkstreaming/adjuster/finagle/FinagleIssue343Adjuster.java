@@ -16,10 +16,9 @@ package zipkin.sparkstreaming.adjuster.finagle;
 import java.util.ArrayList;
 import java.util.List;
 import zipkin.Annotation;
-import zipkin.BinaryAnnotation;
 import zipkin.Span;
-import zipkin.internal.Util;
 import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.SpanFeatures;
 
 /**
  * This adjuster handles a bug in finagle memcached library where the duration of a span ends
@@ -33,6 +32,12 @@ import zipkin.sparkstreaming.Adjuster;
  *
  */
 public final class FinagleIssue343Adjuster extends Adjuster{
+  static final long FINAGLE_FLUSH = 1L << 0, HIT = 1L << 1, MISS = 1L << 2;
+  static final SpanFeatures FEATURES = SpanFeatures.newBuilder()
+      .addAnnotationValue("finagle.flush") // FINAGLE_FLUSH
+      .addTagValue("Hit") // HIT
+      .addTagValue("Miss") // MISS
+      .build();
 
   FinagleIssue343Adjuster() {}
 
@@ -40,30 +45,12 @@ public final class FinagleIssue343Adjuster extends Adjuster{
     return new FinagleIssue343Adjuster();
   }
 
-  @Override protected boolean shouldAdjust(Span span) {
-    if (containsFinagleFlushAnnotation(span) && containsHitOrMissBinaryAnnotation(span)) {
-      return true;
-    }
-    return false;
-  }
-
-  private boolean containsHitOrMissBinaryAnnotation(Span span) {
-    for (BinaryAnnotation b : span.binaryAnnotations) {
-      String value = new String(b.value, Util.UTF_8);
-      if (value.equals("Hit") || value.equals("Miss")) {
-        return true;
-      }
-    }
-    return false;
+  @Override protected SpanFeatures features() {
+    return FEATURES;
   }
 
-  private boolean containsFinagleFlushAnnotation(Span span) {
-    for (Annotation a : span.annotations) {
-      if (a.value.equals("finagle.flush")) {
-        return true;
-      }
-    }
-    return false;
+  @Override protected boolean shouldAdjust(Span span, long matchedFeatures) {
+    return (matchedFeatures & FINAGLE_FLUSH) != 0L && (matchedFeatures & (HIT | MISS)) != 0L;
   }
 
   @Override protected Span adjust(Span span) {
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.rules;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.internal.Util;
+
+/**
+ * A condition on a span, and what to change when the condition holds. All conditions set must
+ * hold, and a rule without conditions applies to every span.
+ *
+ * <p>Ex. To rename the service of spans tagged by a legacy client
+ * <pre>{@code
+ * Rule rule = Rule.newBuilder()
+ *     .tagKey("client.version")
+ *     .tagValue("1\\..*")
+ *     .renameService("legacy-client")
+ *     .build();
+ * }</pre>
+ */
+@AutoValue
+public abstract class Rule implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  public static Builder newBuilder() {
+    return new AutoValue_Rule.Builder()
+        .serviceNames(Collections.<String>emptySet())
+        .dropTagKeys(Collections.<String>emptySet())
+        .dropAnnotationValues(Collections.<String>emptySet())
+        .addTags(Collections.<String, String>emptyMap());
+  }
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /**
+     * Condition: any annotation or tag is from one of these services. Service names are compared
+     * case-insensitively. Defaults to any service.
+     */
+    public abstract Builder serviceNames(Set<String> serviceNames);
+
+    /** Condition: the span has a tag with this key. */
+    public abstract Builder tagKey(@Nullable String tagKey);
+
+    /** Condition: the value of the {@link #tagKey(String) tag} is a string matching this regex. */
+    public abstract Builder tagValue(@Nullable String tagValueRegex);
+
+    /**
+     * Action: changes the service name of endpoints. When {@link #serviceNames(Set)} is set, only
+     * endpoints of those services are renamed.
+     */
+    public abstract Builder renameService(@Nullable String serviceName);
+
+    /** Action: changes the span name. */
+    public abstract Builder spanName(@Nullable String spanName);
+
+    /** Action: drops tags with these keys. */
+    public abstract Builder dropTagKeys(Set<String> dropTagKeys);
+
+    /** Action: drops annotations with these values. */
+    public abstract Builder dropAnnotationValues(Set<String> dropAnnotationValues);
+
+    /**
+     * Action: adds string tags, replacing any with the same key. The endpoint of the first
+     * annotation, if any, is used for the new tags.
+     */
+    public abstract Builder addTags(Map<String, String> addTags);
+
+    abstract Set<String> serviceNames();
+
+    abstract String tagKey();
+
+    abstract String tagValue();
+
+    abstract String renameService();
+
+    abstract String spanName();
+
+    abstract Set<String> dropTagKeys();
+
+    abstract Set<String> dropAnnotationValues();
+
+    abstract Map<String, String> addTags();
+
+    abstract Rule autoBuild();
+
+    public final Rule build() {
+      if (tagValue() != null) {
+        if (tagKey() == null) throw new IllegalArgumentException("tagValue requires tagKey");
+        Pattern.compile(tagValue()); // fail fast on a bad regex
+      }
+      if (renameService() == null && spanName() == null && dropTagKeys().isEmpty()
+          && dropAnnotationValues().isEmpty() && addTags().isEmpty()) {
+        throw new IllegalArgumentException("rule has no actions");
+      }
+      Set<String> serviceNames = new LinkedHashSet<>();
+      for (String serviceName : serviceNames()) serviceNames.add(serviceName.toLowerCase());
+      serviceNames(Collections.unmodifiableSet(serviceNames));
+      if (renameService() != null) renameService(renameService().toLowerCase());
+      dropTagKeys(Collections.unmodifiableSet(new LinkedHashSet<>(dropTagKeys())));
+      dropAnnotationValues(
+          Collections.unmodifiableSet(new LinkedHashSet<>(dropAnnotationValues())));
+      addTags(Collections.unmodifiableMap(new LinkedHashMap<>(addTags())));
+      return autoBuild();
+    }
+
+    Builder() {
+    }
+  }
+
+  public abstract Set<String> serviceNames();
+
+  @Nullable public abstract String tagKey();
+
+  @Nullable public abstract String tagValue();
+
+  @Nullable public abstract String renameService();
+
+  @Nullable public abstract String spanName();
+
+  public abstract Set<String> dropTagKeys();
+
+  public abstract Set<String> dropAnnotationValues();
+
+  public abstract Map<String, String> addTags();
+
+  @Memoized @Nullable Pattern tagValuePattern() {
+    return tagValue() != null ? Pattern.compile(tagValue()) : null;
+  }
+
+  boolean matches(Span span) {
+    if (!serviceNames().isEmpty() && !hasServiceName(span)) return false;
+    if (tagKey() == null) return true;
+    Pattern tagValuePattern = tagValuePattern();
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = span.binaryAnnotations.get(i);
+      if (!b.key.equals(tagKey())) continue;
+      if (tagValuePattern == null) return true;
+      if (b.type == BinaryAnnotation.Type.STRING
+          && tagValuePattern.matcher(new String(b.value, Util.UTF_8)).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean hasServiceName(Span span) {
+    for (int i = 0, length = span.annotations.size(); i < length; i++) {
+      if (inServiceNames(span.annotations.get(i).endpoint)) return true;
+    }
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      if (inServiceNames(span.binaryAnnotations.get(i).endpoint)) return true;
+    }
+    return false;
+  }
+
+  /** True when the endpoint belongs to one of the {@link #serviceNames()}. */
+  boolean inServiceNames(@Nullable Endpoint endpoint) {
+    return endpoint != null && serviceNames().contains(endpoint.serviceName);
+  }
+
+  /** Returns the input when no action changed it. */
+  Span apply(Span span) {
+    EndpointRenamer renamer = renameService() != null ? new EndpointRenamer() : null;
+    boolean changed = false;
+
+    List<Annotation> annotations = span.annotations;
+    if (renamer != null || !dropAnnotationValues().isEmpty()) {
+      List<Annotation> adjusted = new ArrayList<>(annotations.size());
+      for (int i = 0, length = annotations.size(); i < length; i++) {
+        Annotation a = annotations.get(i);
+        if (dropAnnotationValues().contains(a.value)) continue;
+        Endpoint endpoint = renamer != null ? renamer.apply(a.endpoint) : a.endpoint;
+        adjusted.add(endpoint != a.endpoint ? a.toBuilder().endpoint(endpoint).build() : a);
+      }
+      if (!adjusted.equals(annotations)) {
+        annotations = adjusted;
+        changed = true;
+      }
+    }
+
+    List<BinaryAnnotation> binaryAnnotations = span.binaryAnnotations;
+    if (renamer != null || !dropTagKeys().isEmpty() || !addTags().isEmpty()) {
+      List<BinaryAnnotation> adjusted = new ArrayList<>(binaryAnnotations.size());
+      for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+        BinaryAnnotation b = binaryAnnotations.get(i);
+        if (dropTagKeys().contains(b.key) || addTags().containsKey(b.key)) continue;
+        Endpoint endpoint = renamer != null ? renamer.apply(b.endpoint) : b.endpoint;
+        adjusted.add(endpoint != b.endpoint ? b.toBuilder().endpoint(endpoint).build() : b);
+      }
+      Endpoint endpoint = annotations.isEmpty() ? null : annotations.get(0).endpoint;
+      for (Map.Entry<String, String> tag : addTags().entrySet()) {
+        adjusted.add(BinaryAnnotation.create(tag.getKey(), tag.getValue(), endpoint));
+      }
+      if (!adjusted.equals(binaryAnnotations)) {
+        binaryAnnotations = adjusted;
+        changed = true;
+      }
+    }
+
+    String name = span.name;
+    if (spanName() != null && !spanName().equals(name)) {
+      name = spanName();
+      changed = true;
+    }
+
+    if (!changed) return span;
+    return span.toBuilder()
+        .name(name)
+        .annotations(annotations)
+        .binaryAnnotations(binaryAnnotations)
+        .build();
+  }
+
+  /** Renames endpoints, reusing the result as spans usually repeat the same endpoint. */
+  final class EndpointRenamer {
+    Endpoint lastInput, lastOutput;
+
+    Endpoint apply(@Nullable Endpoint endpoint) {
+      if (endpoint == null) return null;
+      if (endpoint == lastInput) return lastOutput;
+      Endpoint result = endpoint;
+      if ((serviceNames().isEmpty() || inServiceNames(endpoint))
+          && !endpoint.serviceName.equals(renameService())) {
+        result = endpoint.toBuilder().serviceName(renameService()).build();
+      }
+      lastInput = endpoint;
+      return lastOutput = result;
+    }
+  }
+
+  Rule() {
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.rules;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.SpanFeatures;
+
+/**
+ * Applies {@link Rule rules} read from configuration as one adjuster, so that operators can fix up
+ * data without writing and deploying code.
+ *
+ * <p>Rules that could match a span are looked up by its service names and tag keys. Candidate rules
+ * are applied in the order they were declared, each to the result of the last. When a rule changes
+ * the span, candidates are looked up again, so a later rule can match a service or tag that an
+ * earlier rule added.
+ *
+ * <p>Those service names and tag keys are also declared as {@link #features() features}, so spans
+ * that no rule could match are skipped without a lookup.
+ */
+@AutoValue
+public abstract class RuleBasedAdjuster extends Adjuster {
+
+  public static RuleBasedAdjuster create(List<Rule> rules) {
+    return new AutoValue_RuleBasedAdjuster(Collections.unmodifiableList(new ArrayList<>(rules)));
+  }
+
+  public abstract List<Rule> rules();
+
+  /** Built lazily, as memoized fields are transient and not sent to executors. */
+  @Memoized RuleIndex index() {
+    return RuleIndex.create(rules());
+  }
+
+  /**
+   * The indexed service names and tag keys, or null when a rule applies to every span or there are
+   * more than {@link SpanFeatures#MAX_FEATURES}.
+   */
+  @Override @Memoized @Nullable protected SpanFeatures features() {
+    RuleIndex index = index();
+    if (!index.unconditional.isEmpty()) return null;
+    if (index.byServiceName.size() + index.byTagKey.size() > SpanFeatures.MAX_FEATURES) return null;
+    SpanFeatures.Builder result = SpanFeatures.newBuilder();
+    for (String serviceName : index.byServiceName.keySet()) result.addServiceName(serviceName);
+    for (String tagKey : index.byTagKey.keySet()) result.addTagKey(tagKey);
+    return result.build();
+  }
+
+  @Override protected boolean shouldAdjust(Span span, long matchedFeatures) {
+    return features() != null ? matchedFeatures != 0L : !rules().isEmpty();
+  }
+
+  @Override protected Span adjust(Span span) {
+    RuleIndex index = index();
+    BitSet candidates = index.candidates(span);
+    List<Rule> rules = rules();
+    Span result = span;
+    for (int i = candidates != null ? candidates.nextSetBit(0) : -1; i >= 0;
+        i = candidates.nextSetBit(i + 1)) {
+      Rule rule = rules.get(i);
+      if (!rule.matches(result)) continue;
+      Span applied = rule.apply(result);
+      if (applied == result) continue;
+      result = applied;
+      // later rules may match a service or tag this one added
+      candidates = index.candidates(result);
+      if (candidates == null) break;
+    }
+    return result;
+  }
+
+  RuleBasedAdjuster() {
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.rules;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+/**
+ * Finds rules that could match a span, so the cost of a span grows with the rules that mention its
+ * services or tag keys, as opposed to with all rules.
+ *
+ * <p>Rules with a tag key are indexed by it, as a tag key is usually more selective than a service.
+ * Otherwise, rules are indexed by each of their service names. Rules with neither are candidates
+ * for every span.
+ */
+final class RuleIndex {
+  static RuleIndex create(List<Rule> rules) {
+    RuleIndex result = new RuleIndex(rules.size());
+    for (int i = 0; i < rules.size(); i++) {
+      Rule rule = rules.get(i);
+      if (rule.tagKey() != null) {
+        add(result.byTagKey, rule.tagKey(), i);
+      } else if (!rule.serviceNames().isEmpty()) {
+        for (String serviceName : rule.serviceNames()) add(result.byServiceName, serviceName, i);
+      } else {
+        result.unconditional.set(i);
+      }
+    }
+    return result;
+  }
+
+  static void add(Map<String, int[]> index, String key, int rule) {
+    int[] rules = index.get(key);
+    rules = rules == null ? new int[1] : Arrays.copyOf(rules, rules.length + 1);
+    rules[rules.length - 1] = rule;
+    index.put(key, rules);
+  }
+
+  final int ruleCount;
+  final Map<String, int[]> byServiceName = new LinkedHashMap<>();
+  final Map<String, int[]> byTagKey = new LinkedHashMap<>();
+  final BitSet unconditional;
+
+  RuleIndex(int ruleCount) {
+    this.ruleCount = ruleCount;
+    this.unconditional = new BitSet(ruleCount);
+  }
+
+  /** Returns the ordinals of rules that could match the span, or null if there are none. */
+  BitSet candidates(Span span) {
+    BitSet result = unconditional.isEmpty() ? null : (BitSet) unconditional.clone();
+    if (!byServiceName.isEmpty()) {
+      for (int i = 0, length = span.annotations.size(); i < length; i++) {
+        result = addServiceName(result, span.annotations.get(i).endpoint);
+      }
+      for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+        result = addServiceName(result, span.binaryAnnotations.get(i).endpoint);
+      }
+    }
+    if (!byTagKey.isEmpty()) {
+      for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+        result = add(result, byTagKey.get(span.binaryAnnotations.get(i).key));
+      }
+    }
+    return result;
+  }
+
+  BitSet addServiceName(BitSet result, Endpoint endpoint) {
+    return endpoint != null ? add(result, byServiceName.get(endpoint.serviceName)) : result;
+  }
+
+  BitSet add(BitSet result, int[] rules) {
+    if (rules == null) return result;
+    if (result == null) result = new BitSet(ruleCount);
+    for (int rule : rules) result.set(rule);
+    return result;
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.rules;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuleBasedAdjusterTest {
+  @org.junit.Rule public ExpectedException thrown = ExpectedException.none();
+
+  Endpoint frontend = Endpoint.builder().serviceName("frontend").ipv4(127 << 24 | 1).build();
+  Endpoint backend = Endpoint.builder().serviceName("backend").ipv4(127 << 24 | 2).build();
+
+  Span span = Span.builder().traceId(1L).id(2L).name("get")
+      .addAnnotation(Annotation.create(1L, Constants.SERVER_RECV, frontend))
+      .addAnnotation(Annotation.create(2L, "finagle.flush", frontend))
+      .addAnnotation(Annotation.create(3L, Constants.SERVER_SEND, frontend))
+      .addBinaryAnnotation(BinaryAnnotation.create("client.version", "1.2.3", frontend))
+      .addBinaryAnnotation(BinaryAnnotation.create("http.url", "/users/1?token=s3cr3t", frontend))
+      .build();
+
+  @Test
+  public void noRules() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(Collections.emptyList());
+
+    assertThat(adjuster.adjust(TestObjects.TRACE)).containsExactlyElementsOf(TestObjects.TRACE);
+  }
+
+  @Test
+  public void renamesServiceWhenTagValueMatches() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(Rule.newBuilder()
+        .tagKey("client.version")
+        .tagValue("1\\..*")
+        .renameService("Legacy-Frontend")
+        .build()));
+
+    Span adjusted = adjuster.adjust(asList(span)).iterator().next();
+
+    assertThat(adjusted.serviceNames()).containsExactly("legacy-frontend");
+  }
+
+  @Test
+  public void tagValueMustMatchWholeValue() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(Rule.newBuilder()
+        .tagKey("client.version")
+        .tagValue("1")
+        .renameService("legacy-frontend")
+        .build()));
+
+    assertThat(adjuster.adjust(asList(span))).containsExactly(span);
+  }
+
+  @Test
+  public void renamesOnlySelectedServices() {
+    Span withBackend = span.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.address(Constants.SERVER_ADDR, backend))
+        .build();
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(Rule.newBuilder()
+        .serviceNames(Collections.singleton("Backend"))
+        .renameService("users")
+        .build()));
+
+    Span adjusted = adjuster.adjust(asList(withBackend)).iterator().next();
+
+    assertThat(adjusted.serviceNames()).containsOnly("frontend", "users");
+  }
+
+  @Test
+  public void dropsTagsAndAnnotations_setsNameAndTags() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(Rule.newBuilder()
+        .serviceNames(Collections.singleton("frontend"))
+        .dropTagKeys(Collections.singleton("http.url"))
+        .dropAnnotationValues(Collections.singleton("finagle.flush"))
+        .addTags(Collections.singletonMap("client.version", "unknown"))
+        .spanName("get /users")
+        .build()));
+
+    Span adjusted = adjuster.adjust(asList(span)).iterator().next();
+
+    assertThat(adjusted.name).isEqualTo("get /users");
+    assertThat(adjusted.annotations)
+        .containsExactly(span.annotations.get(0), span.annotations.get(2));
+    assertThat(adjusted.binaryAnnotations).containsExactly(
+        BinaryAnnotation.create("client.version", "unknown", frontend)
+    );
+  }
+
+  @Test
+  public void appliesRulesInOrder() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(
+        Rule.newBuilder().tagKey("http.url").spanName("first").build(),
+        Rule.newBuilder()
+            .serviceNames(Collections.singleton("frontend"))
+            .spanName("second")
+            .build(),
+        Rule.newBuilder().spanName("third").build()
+    ));
+
+    assertThat(adjuster.adjust(asList(span)).iterator().next().name).isEqualTo("third");
+  }
+
+  @Test
+  public void laterRulesMatchWhatEarlierRulesChanged() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(
+        Rule.newBuilder()
+            .tagKey("client.version")
+            .renameService("legacy-frontend")
+            .build(),
+        Rule.newBuilder()
+            .serviceNames(Collections.singleton("legacy-frontend"))
+            .addTags(Collections.singletonMap("deprecated", "true"))
+            .build(),
+        Rule.newBuilder().tagKey("deprecated").spanName("deprecated get").build()
+    ));
+
+    Span adjusted = adjuster.adjust(asList(span)).iterator().next();
+
+    assertThat(adjusted.serviceNames()).containsExactly("legacy-frontend");
+    assertThat(adjusted.name).isEqualTo("deprecated get");
+  }
+
+  @Test
+  public void declaresIndexedServiceNamesAndTagKeys() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(
+        Rule.newBuilder().tagKey("sql.query").spanName("query").build(),
+        Rule.newBuilder()
+            .serviceNames(Collections.singleton("backend"))
+            .spanName("backend")
+            .build()
+    ));
+    Span unrelated = Span.builder().traceId(1L).id(3L).name("get")
+        .addAnnotation(Annotation.create(1L, Constants.SERVER_RECV,
+            Endpoint.builder().serviceName("web").ipv4(127 << 24 | 3).build()))
+        .build();
+
+    assertThat(adjuster.features()).hasToString(
+        "SpanFeatures{service_name=backend, tag_key=sql.query}");
+    assertThat(adjuster.adjust(asList(unrelated)).iterator().next()).isSameAs(unrelated);
+    assertThat(RuleBasedAdjuster.create(asList(Rule.newBuilder().spanName("all").build()))
+        .features()).isNull();
+  }
+
+  @Test
+  public void returnsSameSpanWhenNothingChanged() {
+    RuleBasedAdjuster adjuster = RuleBasedAdjuster.create(asList(Rule.newBuilder()
+        .serviceNames(Collections.singleton("frontend"))
+        .dropTagKeys(Collections.singleton("sql.query"))
+        .build()));
+
+    assertThat(adjuster.adjust(asList(span)).iterator().next()).isSameAs(span);
+  }
+
+  @Test
+  public void indexesRulesByTagKeyThenServiceName() {
+    RuleIndex index = RuleIndex.create(asList(
+        Rule.newBuilder()
+            .serviceNames(new LinkedHashSet<>(asList("frontend", "backend")))
+            .tagKey("sql.query")
+            .spanName("query")
+            .build(),
+        Rule.newBuilder()
+            .serviceNames(Collections.singleton("backend"))
+            .spanName("backend")
+            .build(),
+        Rule.newBuilder().spanName("all").build()
+    ));
+
+    assertThat(index.byTagKey).containsOnlyKeys("sql.query");
+    assertThat(index.byServiceName).containsOnlyKeys("backend");
+    assertThat(index.candidates(span)).hasToString("{2}"); // only the unconditional rule
+  }
+
+  @Test
+  public void tagValueRequiresTagKey() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("tagValue requires tagKey");
+
+    Rule.newBuilder().tagValue("1.*").spanName("foo").build();
+  }
+
+  @Test
+  public void ruleWithoutActions() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("rule has no actions");
+
+    Rule.newBuilder().tagKey("client.version").build();
+  }
+}
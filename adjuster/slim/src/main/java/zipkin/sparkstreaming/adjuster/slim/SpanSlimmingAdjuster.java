@@ -0,0 +1,192 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.slim;
+
+import com.google.auto.value.AutoValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import zipkin.BinaryAnnotation;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.PipelineMetrics;
+
+/**
+ * Drops and truncates tags, so that large values like SQL statements or stack traces don't inflate
+ * the shuffle, storage writes and indexes.
+ *
+ * <p>Tags are looked up by the service name of their endpoint. A tag is dropped if its key is
+ * denied, or if its service has an allow list that doesn't include the key. The service name "*"
+ * applies to all services: denied keys add to those of the service, and an allow list of the service
+ * replaces that of "*". Address annotations, such as "sa", are always kept.
+ *
+ * <p>String values are then truncated to {@link Builder#maxValueBytes(int)}, and to what remains
+ * of {@link Builder#maxSpanBytes(int)} for the span, at a UTF-8 character boundary. The span budget
+ * is spent in key order, as spans sort their tags by key. Tags with no budget left are dropped.
+ * Spans that need no change are returned as-is.
+ *
+ * <p>When the job records metrics, the bytes of tag values dropped or truncated are counted in the
+ * counter {@value #TRIMMED_BYTES}.
+ */
+@AutoValue
+public abstract class SpanSlimmingAdjuster extends Adjuster {
+  static final String ALL_SERVICES = "*";
+
+  /** Name of the metric counting bytes of tag values dropped or truncated. */
+  public static final String TRIMMED_BYTES = "slim.trimmed-bytes";
+
+  public static Builder newBuilder() {
+    return new AutoValue_SpanSlimmingAdjuster.Builder()
+        .allowedTagKeys(Collections.<String, Set<String>>emptyMap())
+        .deniedTagKeys(Collections.<String, Set<String>>emptyMap())
+        .maxValueBytes(0)
+        .maxSpanBytes(0);
+  }
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /**
+     * Tag keys to keep, by service name. Tags of a service with an allow list are dropped unless
+     * their key is in it. Defaults to allow all.
+     */
+    public abstract Builder allowedTagKeys(Map<String, Set<String>> allowedTagKeys);
+
+    /** Tag keys to drop, by service name. Defaults to deny none. */
+    public abstract Builder deniedTagKeys(Map<String, Set<String>> deniedTagKeys);
+
+    /** Maximum UTF-8 bytes of a string tag value. Defaults to zero, which means unlimited. */
+    public abstract Builder maxValueBytes(int maxValueBytes);
+
+    /** Maximum bytes of all tag values in a span. Defaults to zero, which means unlimited. */
+    public abstract Builder maxSpanBytes(int maxSpanBytes);
+
+    abstract Map<String, Set<String>> allowedTagKeys();
+
+    abstract Map<String, Set<String>> deniedTagKeys();
+
+    abstract int maxValueBytes();
+
+    abstract int maxSpanBytes();
+
+    abstract SpanSlimmingAdjuster autoBuild();
+
+    public final SpanSlimmingAdjuster build() {
+      if (maxValueBytes() < 0) throw new IllegalArgumentException("maxValueBytes < 0");
+      if (maxSpanBytes() < 0) throw new IllegalArgumentException("maxSpanBytes < 0");
+      allowedTagKeys(copyOf(allowedTagKeys()));
+      deniedTagKeys(copyOf(deniedTagKeys()));
+      return autoBuild();
+    }
+
+    static Map<String, Set<String>> copyOf(Map<String, Set<String>> input) {
+      Map<String, Set<String>> result = new LinkedHashMap<>();
+      for (Map.Entry<String, Set<String>> entry : input.entrySet()) {
+        result.put(entry.getKey().toLowerCase(),
+            Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+      }
+      return Collections.unmodifiableMap(result);
+    }
+
+    Builder() {
+    }
+  }
+
+  abstract Map<String, Set<String>> allowedTagKeys();
+
+  abstract Map<String, Set<String>> deniedTagKeys();
+
+  abstract int maxValueBytes();
+
+  abstract int maxSpanBytes();
+
+  @Override protected boolean shouldAdjust(Span span) {
+    return !span.binaryAnnotations.isEmpty();
+  }
+
+  @Override protected Span adjust(Span span) {
+    List<BinaryAnnotation> result = null; // allocated on the first change
+    long trimmed = 0L;
+    int spanBudget = maxSpanBytes() > 0 ? maxSpanBytes() : Integer.MAX_VALUE;
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = span.binaryAnnotations.get(i);
+      BinaryAnnotation slimmed = b;
+      // address annotations are how we know the remote side of a span, so never slim them
+      boolean address = b.type == BinaryAnnotation.Type.BOOL && b.endpoint != null;
+      if (address) {
+        slimmed = b;
+      } else if (!keep(b)) {
+        slimmed = null;
+      } else if (b.type == BinaryAnnotation.Type.STRING) {
+        int limit = maxValueBytes() > 0 ? Math.min(maxValueBytes(), spanBudget) : spanBudget;
+        if (b.value.length > limit) {
+          int end = utf8Boundary(b.value, limit);
+          slimmed = end == 0 ? null : b.toBuilder().value(Arrays.copyOf(b.value, end)).build();
+        }
+      }
+      if (slimmed != null) spanBudget -= Math.min(spanBudget, slimmed.value.length);
+
+      if (slimmed == b) {
+        if (result != null) result.add(b);
+        continue;
+      }
+      if (result == null) result = new ArrayList<>(span.binaryAnnotations.subList(0, i));
+      trimmed += b.value.length - (slimmed != null ? slimmed.value.length : 0);
+      if (slimmed != null) result.add(slimmed);
+    }
+    if (result == null) return span;
+    PipelineMetrics metrics = PipelineMetrics.current();
+    if (metrics != null) metrics.increment(TRIMMED_BYTES, trimmed);
+    return span.toBuilder().binaryAnnotations(result).build();
+  }
+
+  boolean keep(BinaryAnnotation b) {
+    String serviceName = b.endpoint != null ? b.endpoint.serviceName : null;
+    if (contains(deniedTagKeys(), serviceName, b.key)) return false;
+    Set<String> allowed = allowed(serviceName);
+    return allowed == null || allowed.contains(b.key);
+  }
+
+  @Nullable Set<String> allowed(@Nullable String serviceName) {
+    if (allowedTagKeys().isEmpty()) return null;
+    Set<String> result = serviceName != null ? allowedTagKeys().get(serviceName) : null;
+    return result != null ? result : allowedTagKeys().get(ALL_SERVICES);
+  }
+
+  static boolean contains(Map<String, Set<String>> keys, @Nullable String serviceName, String key) {
+    if (keys.isEmpty()) return false;
+    Set<String> forService = serviceName != null ? keys.get(serviceName) : null;
+    if (forService != null && forService.contains(key)) return true;
+    Set<String> forAll = keys.get(ALL_SERVICES);
+    return forAll != null && forAll.contains(key);
+  }
+
+  /**
+   * Returns the largest length up to the limit that doesn't split a multi-byte UTF-8 character.
+   * Continuation bytes are of the form 10xxxxxx, so we back up until the next byte isn't one.
+   */
+  static int utf8Boundary(byte[] utf8, int limit) {
+    int end = Math.min(limit, utf8.length);
+    while (end > 0 && end < utf8.length && (utf8[end] & 0xC0) == 0x80) end--;
+    return end;
+  }
+
+  SpanSlimmingAdjuster() {
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.slim;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.PipelineMetrics;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.DB_ENDPOINT;
+
+public class SpanSlimmingAdjusterTest {
+  BinaryAnnotation sql = BinaryAnnotation.create("sql.query", "select * from users", APP_ENDPOINT);
+  BinaryAnnotation error = BinaryAnnotation.create(Constants.ERROR, "timeout", APP_ENDPOINT);
+  BinaryAnnotation serverAddress = BinaryAnnotation.address(Constants.SERVER_ADDR, DB_ENDPOINT);
+
+  Span span = Span.builder().traceId(1L).id(1L).name("query")
+      .addBinaryAnnotation(sql)
+      .addBinaryAnnotation(error)
+      .addBinaryAnnotation(serverAddress)
+      .build();
+
+  @Test
+  public void returnsSameSpanWhenUnchanged() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder().maxValueBytes(100).build();
+
+    assertThat(adjuster.adjust(asList(span)).iterator().next()).isSameAs(span);
+    assertThat(adjuster.adjust(TestObjects.TRACE)).containsExactlyElementsOf(TestObjects.TRACE);
+  }
+
+  @Test
+  public void deniesTagKeysOfService() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder()
+        .deniedTagKeys(Collections.singletonMap(APP_ENDPOINT.serviceName, set("sql.query")))
+        .build();
+
+    assertThat(slim(adjuster).binaryAnnotations).containsExactly(error, serverAddress);
+  }
+
+  @Test
+  public void allowsTagKeysOfAllServices_keepsAddresses() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder()
+        .allowedTagKeys(Collections.singletonMap("*", set(Constants.ERROR)))
+        .build();
+
+    assertThat(slim(adjuster).binaryAnnotations).containsExactly(error, serverAddress);
+  }
+
+  @Test
+  public void serviceAllowListReplacesWildcard() {
+    Map<String, Set<String>> allowedTagKeys = new LinkedHashMap<>();
+    allowedTagKeys.put("*", set(Constants.ERROR));
+    allowedTagKeys.put(APP_ENDPOINT.serviceName, set("sql.query"));
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder()
+        .allowedTagKeys(allowedTagKeys)
+        .build();
+
+    assertThat(slim(adjuster).binaryAnnotations).containsExactly(serverAddress, sql);
+  }
+
+  @Test
+  public void truncatesValues() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder().maxValueBytes(10).build();
+
+    assertThat(slim(adjuster).binaryAnnotations).containsExactly( // sorted by key
+        error,
+        serverAddress,
+        BinaryAnnotation.create("sql.query", "select * f", APP_ENDPOINT)
+    );
+  }
+
+  @Test
+  public void countsTrimmedBytes() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder().maxValueBytes(10).build();
+    PipelineMetrics metrics = new PipelineMetrics();
+    metrics.runRecording(() -> {
+      slim(adjuster);
+      slim(adjuster);
+    });
+
+    assertThat(metrics.counters()).containsExactly(
+        entry(SpanSlimmingAdjuster.TRIMMED_BYTES, 2L * ("select * from users".length() - 10)));
+  }
+
+  @Test
+  public void spanBudgetTruncatesThenDrops() {
+    SpanSlimmingAdjuster adjuster = SpanSlimmingAdjuster.newBuilder().maxSpanBytes(5).build();
+
+    // the budget is spent in key order: "error", then "sa" and "sql.query"
+    assertThat(slim(adjuster).binaryAnnotations).containsExactly(
+        BinaryAnnotation.create(Constants.ERROR, "timeo", APP_ENDPOINT),
+        serverAddress // addresses are kept when there's no budget left
+    );
+  }
+
+  @Test
+  public void truncatesAtCharacterBoundary() {
+    byte[] utf8 = "aé中".getBytes(Util.UTF_8); // 1, 2, then 3 bytes
+
+    assertThat(SpanSlimmingAdjuster.utf8Boundary(utf8, 1)).isEqualTo(1);
+    assertThat(SpanSlimmingAdjuster.utf8Boundary(utf8, 2)).isEqualTo(1); // mid é
+    assertThat(SpanSlimmingAdjuster.utf8Boundary(utf8, 3)).isEqualTo(3);
+    assertThat(SpanSlimmingAdjuster.utf8Boundary(utf8, 5)).isEqualTo(3); // mid 中
+    assertThat(SpanSlimmingAdjuster.utf8Boundary(utf8, 6)).isEqualTo(6);
+  }
+
+  Span slim(SpanSlimmingAdjuster adjuster) {
+    return adjuster.adjust(asList(span)).iterator().next();
+  }
+
+  static Set<String> set(String... values) {
+    return new LinkedHashSet<>(asList(values));
+  }
+}
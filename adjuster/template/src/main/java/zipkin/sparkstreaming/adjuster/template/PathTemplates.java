@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.template;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie of path templates, such as "/users/{userId}/orders/{orderId}". Each path segment is a
+ * level of the trie, and a segment in braces matches any segment. Literal segments are preferred
+ * over placeholders, and there's no backtracking: the lookup cost is the count of segments in the
+ * input, regardless of the count of templates.
+ */
+final class PathTemplates {
+  static final class Node {
+    final Map<String, Node> literals = new LinkedHashMap<>();
+    Node placeholder;
+    String template; // set when a template ends at this node
+  }
+
+  static PathTemplates create(List<String> templates) {
+    PathTemplates result = new PathTemplates();
+    for (String template : templates) result.add(template.toLowerCase());
+    return result;
+  }
+
+  final Node root = new Node();
+
+  void add(String template) {
+    Node node = root;
+    int i = 0, length = template.length();
+    while ((i = nextSegment(template, i)) < length) {
+      int end = segmentEnd(template, i);
+      if (template.charAt(i) == '{' && template.charAt(end - 1) == '}') {
+        if (node.placeholder == null) node.placeholder = new Node();
+        node = node.placeholder;
+      } else {
+        String literal = template.substring(i, end);
+        Node next = node.literals.get(literal);
+        if (next == null) node.literals.put(literal, next = new Node());
+        node = next;
+      }
+      i = end;
+    }
+    node.template = template;
+  }
+
+  /** Returns the template matching the path, or null. */
+  String match(String path) {
+    Node node = root;
+    int i = 0, length = path.length();
+    while ((i = nextSegment(path, i)) < length) {
+      int end = segmentEnd(path, i);
+      Node next = node.literals.isEmpty() ? null : node.literals.get(path.substring(i, end));
+      if (next == null) next = node.placeholder;
+      if (next == null) return null;
+      node = next;
+      i = end;
+    }
+    return node.template;
+  }
+
+  /** Skips slashes, returning the start of the next segment, or the length if there is none. */
+  static int nextSegment(String path, int i) {
+    while (i < path.length() && path.charAt(i) == '/') i++;
+    return i;
+  }
+
+  static int segmentEnd(String path, int i) {
+    int end = path.indexOf('/', i);
+    return end == -1 ? path.length() : end;
+  }
+}
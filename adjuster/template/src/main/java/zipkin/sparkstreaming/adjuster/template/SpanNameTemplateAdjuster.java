@@ -0,0 +1,299 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.template;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import zipkin.BinaryAnnotation;
+import zipkin.Span;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.ExecutorSetup;
+import zipkin.sparkstreaming.PipelineMetrics;
+
+/**
+ * Replaces paths in span names and tag values with templates, so that "get /users/8812/orders/17"
+ * becomes "get /users/{id}/orders/{id}". Names with IDs in them make a distinct name per request,
+ * which bloats name indexes in storage and the span name drop-down in the UI.
+ *
+ * <p>The path is the text starting at the first slash, after a scheme and host if present. The
+ * query string is dropped. Paths are first looked up in the configured {@link
+ * Builder#templates(List) templates}. When none match, segments that look like IDs are replaced
+ * with "{id}": numbers, UUIDs and hex strings at least 8 characters long with at least one digit.
+ *
+ * <p>Results are cached per executor, as the same names repeat across spans and batches. When the
+ * job records metrics, names collapsed into templates are counted in the gauge {@value
+ * #COLLAPSED_NAMES}, estimating distinct names since the job started.
+ */
+@AutoValue
+public abstract class SpanNameTemplateAdjuster extends Adjuster {
+  /** Name of the metric estimating distinct names collapsed into templates. */
+  public static final String COLLAPSED_NAMES = "template.collapsed-names";
+  static final String ID_PLACEHOLDER = "{id}";
+  /** Cached in place of names templating didn't change, so callers get back their own instance */
+  static final String UNCHANGED = new String("");
+
+  public static Builder newBuilder() {
+    return new AutoValue_SpanNameTemplateAdjuster.Builder()
+        .templates(Collections.<String>emptyList())
+        .detectIds(true)
+        .tagKeys(Collections.<String>emptySet())
+        .cacheSize(10_000);
+  }
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /**
+     * Path templates, like "/users/{userId}/orders/{orderId}". Segments in braces match any
+     * segment. Defaults to none.
+     */
+    public abstract Builder templates(List<String> templates);
+
+    /** When no template matches, replace segments that look like IDs with "{id}". Default true */
+    public abstract Builder detectIds(boolean detectIds);
+
+    /** Keys of tags whose string values should also be templated, like "http.path". */
+    public abstract Builder tagKeys(Set<String> tagKeys);
+
+    /** Maximum count of names cached per executor. Default 10000 */
+    public abstract Builder cacheSize(int cacheSize);
+
+    abstract List<String> templates();
+
+    abstract Set<String> tagKeys();
+
+    abstract int cacheSize();
+
+    abstract SpanNameTemplateAdjuster autoBuild();
+
+    public final SpanNameTemplateAdjuster build() {
+      if (cacheSize() < 0) throw new IllegalArgumentException("cacheSize < 0: " + cacheSize());
+      templates(Collections.unmodifiableList(new ArrayList<>(templates())));
+      tagKeys(Collections.unmodifiableSet(new LinkedHashSet<>(tagKeys())));
+      return autoBuild();
+    }
+
+    Builder() {
+    }
+  }
+
+  abstract List<String> templates();
+
+  abstract boolean detectIds();
+
+  abstract Set<String> tagKeys();
+
+  abstract int cacheSize();
+
+  @Memoized PathTemplates pathTemplates() {
+    return PathTemplates.create(templates());
+  }
+
+  /**
+   * Returns the executor-wide cache for this configuration, so that it survives between tasks.
+   * Looked up once per deserialized instance, as memoized fields are transient.
+   */
+  @Memoized NameCache nameCache() {
+    return ExecutorSetup.shared(Arrays.asList(NameCache.class, this),
+        () -> new NameCache(cacheSize()));
+  }
+
+  @Override protected boolean shouldAdjust(Span span) {
+    return true; // any span name could include a path
+  }
+
+  @Override protected Span adjust(Span span) {
+    String name = template(span.name);
+
+    List<BinaryAnnotation> binaryAnnotations = null;
+    if (!tagKeys().isEmpty()) {
+      for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+        BinaryAnnotation b = span.binaryAnnotations.get(i);
+        if (b.type != BinaryAnnotation.Type.STRING || !tagKeys().contains(b.key)) continue;
+        String value = new String(b.value, Util.UTF_8);
+        String templated = template(value);
+        if (templated == value) continue;
+        if (binaryAnnotations == null) binaryAnnotations = new ArrayList<>(span.binaryAnnotations);
+        binaryAnnotations.set(i, BinaryAnnotation.create(b.key, templated, b.endpoint));
+      }
+    }
+
+    if (name == span.name && binaryAnnotations == null) return span;
+    Span.Builder builder = span.toBuilder().name(name);
+    if (binaryAnnotations != null) builder.binaryAnnotations(binaryAnnotations);
+    return builder.build();
+  }
+
+  /** Returns the input when it has no path, or when templating didn't change it. */
+  String template(String value) {
+    if (value.indexOf('/') == -1) return value; // fast path for names like "get"
+    NameCache cache = cacheSize() > 0 ? nameCache() : null;
+    String result = cache != null ? cache.get(value) : null;
+    if (result != null) return result == UNCHANGED ? value : result;
+
+    result = templateUncached(value);
+    if (cache != null) cache.put(value, result == value ? UNCHANGED : result);
+    if (result != value) {
+      // recording a name again doesn't change the estimate, so names evicted from the cache are ok
+      PipelineMetrics metrics = PipelineMetrics.current();
+      if (metrics != null) metrics.recordDistinct(COLLAPSED_NAMES, value);
+    }
+    return result;
+  }
+
+  String templateUncached(String value) {
+    int path = pathStart(value);
+    if (path == -1) return value;
+    int end = value.length();
+    for (int i = path; i < end; i++) {
+      char c = value.charAt(i);
+      if (c == '?' || c == '#') {
+        end = i;
+        break;
+      }
+    }
+    String template = pathTemplates().match(value.substring(path, end));
+    if (template == null && detectIds()) template = replaceIds(value, path, end);
+    if (template == null) {
+      if (end == value.length()) return value;
+      template = value.substring(path, end);
+    }
+    return value.substring(0, path) + template;
+  }
+
+  /** Returns the index of the first slash of the path, or -1 if there is no path. */
+  static int pathStart(String value) {
+    int scheme = value.indexOf("://");
+    if (scheme == -1) return value.indexOf('/');
+    return value.indexOf('/', scheme + 3); // skip the host
+  }
+
+  /** Returns the path with IDs replaced, or null if there were none. */
+  static String replaceIds(String value, int path, int end) {
+    StringBuilder result = null;
+    int i = path;
+    while (i < end) {
+      if (value.charAt(i) == '/') {
+        if (result != null) result.append('/');
+        i++;
+        continue;
+      }
+      int segmentEnd = value.indexOf('/', i);
+      if (segmentEnd == -1 || segmentEnd > end) segmentEnd = end;
+      boolean id = isId(value, i, segmentEnd);
+      if (id && result == null) result = new StringBuilder().append(value, path, i);
+      if (result != null) {
+        if (id) {
+          result.append(ID_PLACEHOLDER);
+        } else {
+          result.append(value, i, segmentEnd);
+        }
+      }
+      i = segmentEnd;
+    }
+    return result != null ? result.toString() : null;
+  }
+
+  static boolean isId(String value, int from, int to) {
+    int length = to - from;
+    if (length == 0) return false;
+    if (length == 36 && isUuid(value, from)) return true;
+    boolean allDigits = true, hasDigit = false;
+    for (int i = from; i < to; i++) {
+      char c = value.charAt(i);
+      boolean digit = c >= '0' && c <= '9';
+      if (!digit && !isHexLetter(c)) return false;
+      allDigits &= digit;
+      hasDigit |= digit;
+    }
+    return allDigits || (length >= 8 && hasDigit);
+  }
+
+  static boolean isUuid(String value, int from) {
+    for (int i = 0; i < 36; i++) {
+      char c = value.charAt(from + i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') return false;
+      } else if (!(c >= '0' && c <= '9') && !isHexLetter(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isHexLetter(char c) {
+    return (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  /**
+   * A least-recently-used cache of templated names, shared by all tasks in an executor. It is split
+   * into stripes by hash code, each with its own lock, so that tasks rarely wait on each other.
+   */
+  static final class NameCache {
+    static final int MAX_STRIPES = 16;
+    /** Below this many names per stripe, fewer stripes are used, so that small caches stay LRU */
+    static final int MIN_STRIPE_SIZE = 256;
+
+    final Stripe[] stripes;
+
+    NameCache(int maxSize) {
+      int count = Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE));
+      stripes = new Stripe[count];
+      for (int i = 0; i < count; i++) stripes[i] = new Stripe((maxSize + count - 1) / count);
+    }
+
+    String get(String name) {
+      Stripe stripe = stripe(name);
+      synchronized (stripe) {
+        return stripe.get(name);
+      }
+    }
+
+    void put(String name, String template) {
+      Stripe stripe = stripe(name);
+      synchronized (stripe) {
+        stripe.put(name, template);
+      }
+    }
+
+    Stripe stripe(String name) {
+      int h = name.hashCode();
+      return stripes[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % stripes.length];
+    }
+  }
+
+  static final class Stripe extends LinkedHashMap<String, String> {
+    final int maxSize;
+
+    Stripe(int maxSize) {
+      super(16, 0.75f, true); // access order
+      this.maxSize = maxSize;
+    }
+
+    @Override protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  SpanNameTemplateAdjuster() {
+  }
+}
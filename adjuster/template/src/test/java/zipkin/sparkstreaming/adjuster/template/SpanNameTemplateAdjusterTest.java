@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.template;
+
+import java.util.Collections;
+import org.junit.Test;
+import zipkin.BinaryAnnotation;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.sparkstreaming.PipelineMetrics;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+import static zipkin.TestObjects.APP_ENDPOINT;
+
+public class SpanNameTemplateAdjusterTest {
+  SpanNameTemplateAdjuster adjuster = SpanNameTemplateAdjuster.newBuilder()
+      .templates(asList("/users/{userId}/orders/{orderId}", "/users/me/orders/{orderId}"))
+      .tagKeys(Collections.singleton("http.url"))
+      .build();
+
+  Span span = Span.builder().traceId(1L).id(1L).name("get").build();
+
+  @Test
+  public void matchesTemplate() {
+    assertThat(adjuster.template("get /users/8812/orders/17"))
+        .isEqualTo("get /users/{userid}/orders/{orderid}");
+  }
+
+  @Test
+  public void literalSegmentsWin() {
+    assertThat(adjuster.template("get /users/me/orders/17"))
+        .isEqualTo("get /users/me/orders/{orderid}");
+  }
+
+  @Test
+  public void detectsIdsWhenNoTemplateMatches() {
+    assertThat(adjuster.template("get /accounts/8812")).isEqualTo("get /accounts/{id}");
+    assertThat(adjuster.template("/items/3f2504e0-4f89-11d3-9a0c-0305e82c3301/details"))
+        .isEqualTo("/items/{id}/details");
+    assertThat(adjuster.template("/blobs/5e1c4f0a9b")).isEqualTo("/blobs/{id}");
+  }
+
+  @Test
+  public void leavesWordsThatLookLikeHex() {
+    assertThat(adjuster.template("/cafe/deadbeef/facade")).isEqualTo("/cafe/deadbeef/facade");
+  }
+
+  @Test
+  public void dropsQueryString() {
+    assertThat(adjuster.template("get /search?q=zipkin")).isEqualTo("get /search");
+  }
+
+  @Test
+  public void ignoresSchemeAndHost() {
+    assertThat(adjuster.template("http://10.0.0.1:8080/accounts/8812"))
+        .isEqualTo("http://10.0.0.1:8080/accounts/{id}");
+  }
+
+  @Test
+  public void returnsSameInstanceWhenUnchanged() {
+    String name = "get /accounts";
+
+    assertThat(adjuster.template(name)).isSameAs(name);
+    assertThat(adjuster.template(new String(name))).isNotSameAs(name); // even when cached
+  }
+
+  @Test
+  public void adjustsNameAndTags() {
+    Span withPath = span.toBuilder().name("get /accounts/8812")
+        .addBinaryAnnotation(
+            BinaryAnnotation.create("http.url", "http://host/accounts/8812?x=1", APP_ENDPOINT))
+        .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/accounts/8812", APP_ENDPOINT))
+        .build();
+
+    Span adjusted = adjuster.adjust(asList(withPath)).iterator().next();
+
+    assertThat(adjusted.name).isEqualTo("get /accounts/{id}");
+    assertThat(adjusted.binaryAnnotations).containsOnly(
+        BinaryAnnotation.create("http.url", "http://host/accounts/{id}", APP_ENDPOINT),
+        BinaryAnnotation.create("http.path", "/accounts/8812", APP_ENDPOINT) // not configured
+    );
+  }
+
+  @Test
+  public void doesntAdjustSpansWithoutPaths() {
+    assertThat(adjuster.adjust(TestObjects.TRACE)).containsExactlyElementsOf(TestObjects.TRACE);
+    assertThat(adjuster.adjust(asList(span)).iterator().next()).isSameAs(span);
+  }
+
+  @Test
+  public void recordsDistinctCollapsedNames() {
+    SpanNameTemplateAdjuster adjuster = SpanNameTemplateAdjuster.newBuilder().cacheSize(2).build();
+    PipelineMetrics metrics = new PipelineMetrics();
+    metrics.runRecording(() -> {
+      adjuster.template("/a/1");
+      adjuster.template("/a/1"); // cached
+      adjuster.template("/b/2");
+      adjuster.template("/c"); // not collapsed
+      adjuster.template("/a/1"); // evicted, but not a new name
+    });
+
+    assertThat(metrics.distinctCounts())
+        .containsExactly(entry(SpanNameTemplateAdjuster.COLLAPSED_NAMES, 2L));
+    assertThat(adjuster.nameCache().stripes).hasSize(1);
+    assertThat(adjuster.nameCache().stripes[0]).containsOnlyKeys("/c", "/a/1");
+  }
+
+  @Test
+  public void largeCachesAreStriped() {
+    SpanNameTemplateAdjuster.NameCache cache = new SpanNameTemplateAdjuster.NameCache(10_000);
+
+    assertThat(cache.stripes).hasSize(SpanNameTemplateAdjuster.NameCache.MAX_STRIPES);
+    assertThat(cache.stripes[0].maxSize).isEqualTo(625);
+    cache.put("/a/1", "/a/{id}");
+    assertThat(cache.get("/a/1")).isEqualTo("/a/{id}");
+  }
+
+  @Test
+  public void withoutCache() {
+    SpanNameTemplateAdjuster adjuster = SpanNameTemplateAdjuster.newBuilder().cacheSize(0).build();
+
+    assertThat(adjuster.template("/a/1")).isEqualTo("/a/{id}");
+  }
+}
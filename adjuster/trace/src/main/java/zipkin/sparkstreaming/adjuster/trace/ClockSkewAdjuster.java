@@ -0,0 +1,46 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+import zipkin.Span;
+import zipkin.internal.CorrectForClockSkew;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.Traces;
+
+/**
+ * Corrects clock skew between hosts, the same way the Zipkin api does when reading a trace. Doing
+ * this once at ingest means the stored trace is already corrected.
+ *
+ * <p>This builds the span tree and shifts timestamps of a server so that they fall within the
+ * client's. It needs spans that share an ID to already be merged, and leaves traces without a root
+ * span as-is.
+ */
+public final class ClockSkewAdjuster extends Adjuster {
+
+  public static ClockSkewAdjuster create() {
+    return new ClockSkewAdjuster();
+  }
+
+  @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+    if (trace == null) throw new NullPointerException("trace was null");
+    return CorrectForClockSkew.apply(Traces.asList(trace));
+  }
+
+  @Override public String toString() {
+    return "ClockSkewAdjuster";
+  }
+
+  ClockSkewAdjuster() {
+  }
+}
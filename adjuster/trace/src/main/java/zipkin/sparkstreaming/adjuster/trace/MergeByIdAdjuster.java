@@ -0,0 +1,99 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Span;
+import zipkin.internal.ApplyTimestampAndDuration;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.Traces;
+
+/**
+ * Merges spans that share an ID, like the Zipkin api does when reading a trace. This stores one row
+ * for an RPC as opposed to one per client and server side, and collapses spans reported twice.
+ *
+ * <p>Identical annotations and tags are dropped, and spans keep the order their ID was first seen.
+ */
+public final class MergeByIdAdjuster extends Adjuster {
+
+  public static MergeByIdAdjuster create() {
+    return new MergeByIdAdjuster();
+  }
+
+  @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+    if (trace == null) throw new NullPointerException("trace was null");
+    List<Span> spans = Traces.asList(trace);
+    int length = spans.size();
+    if (length < 2) return spans;
+
+    SpanIdPositions positions = new SpanIdPositions(length);
+    List<Span> result = new ArrayList<>(length);
+    Merge[] merges = null; // indexed by position, allocated on the first duplicate ID
+    for (int i = 0; i < length; i++) {
+      Span span = spans.get(i);
+      int position = positions.putIfAbsent(span.id, result.size());
+      if (position == -1) {
+        result.add(span);
+        continue;
+      }
+      if (merges == null) merges = new Merge[length];
+      if (merges[position] == null) merges[position] = new Merge(result.get(position));
+      merges[position].add(span);
+    }
+    if (merges == null) return spans;
+    for (int i = 0; i < merges.length; i++) {
+      if (merges[i] != null) result.set(i, merges[i].build());
+    }
+    return result;
+  }
+
+  static final class Merge {
+    final Span.Builder builder;
+    final Set<Annotation> annotations;
+    final Set<BinaryAnnotation> binaryAnnotations;
+
+    Merge(Span first) {
+      builder = first.toBuilder();
+      annotations = new LinkedHashSet<>(first.annotations);
+      binaryAnnotations = new LinkedHashSet<>(first.binaryAnnotations);
+    }
+
+    void add(Span span) {
+      builder.merge(span); // merges fields like name and timestamp
+      annotations.addAll(span.annotations);
+      binaryAnnotations.addAll(span.binaryAnnotations);
+    }
+
+    Span build() {
+      Span merged = builder
+          .annotations(annotations)
+          .binaryAnnotations(binaryAnnotations)
+          .build();
+      // derives timestamp and duration from the merged annotations when neither side had them
+      return ApplyTimestampAndDuration.apply(merged);
+    }
+  }
+
+  @Override public String toString() {
+    return "MergeByIdAdjuster";
+  }
+
+  MergeByIdAdjuster() {
+  }
+}
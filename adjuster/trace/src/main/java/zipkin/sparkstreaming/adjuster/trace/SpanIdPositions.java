@@ -0,0 +1,48 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+/**
+ * Maps span IDs to positions in a list, without boxing. This is an open-addressing table sized for
+ * a known count of keys, so it never resizes.
+ */
+final class SpanIdPositions {
+  final long[] keys;
+  final int[] values; // position + 1, so that zero means the slot is empty
+  final int mask;
+
+  SpanIdPositions(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1; // load <= 0.5
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  /** Returns the existing position of the span ID, or adds the given one and returns -1. */
+  int putIfAbsent(long spanId, int position) {
+    int i = hash(spanId) & mask;
+    while (values[i] != 0) {
+      if (keys[i] == spanId) return values[i] - 1;
+      i = (i + 1) & mask;
+    }
+    keys[i] = spanId;
+    values[i] = position + 1;
+    return -1;
+  }
+
+  static int hash(long spanId) {
+    long h = spanId * 0x9E3779B97F4A7C15L; // span IDs are random, but mix in case they aren't
+    return (int) (h ^ (h >>> 32));
+  }
+}
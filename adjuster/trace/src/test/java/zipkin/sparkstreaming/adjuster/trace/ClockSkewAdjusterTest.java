@@ -0,0 +1,66 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin.Annotation;
+import zipkin.Constants;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
+public class ClockSkewAdjusterTest {
+  ClockSkewAdjuster adjuster = ClockSkewAdjuster.create();
+
+  // the server's clock is behind, so it appears to receive the request before it was sent
+  Span skewed = Span.builder().traceId(1L).id(1L).name("get")
+      .timestamp(100L).duration(20L)
+      .addAnnotation(Annotation.create(100L, Constants.CLIENT_SEND, WEB_ENDPOINT))
+      .addAnnotation(Annotation.create(50L, Constants.SERVER_RECV, APP_ENDPOINT))
+      .addAnnotation(Annotation.create(60L, Constants.SERVER_SEND, APP_ENDPOINT))
+      .addAnnotation(Annotation.create(120L, Constants.CLIENT_RECV, WEB_ENDPOINT))
+      .build();
+
+  @Test
+  public void correctsServerTimestamps() {
+    Span adjusted = adjuster.adjust(asList(skewed)).iterator().next();
+
+    long clientSend = timestamp(adjusted, Constants.CLIENT_SEND);
+    long serverRecv = timestamp(adjusted, Constants.SERVER_RECV);
+    long serverSend = timestamp(adjusted, Constants.SERVER_SEND);
+    assertThat(clientSend).isEqualTo(100L);
+    assertThat(serverRecv).isGreaterThanOrEqualTo(clientSend);
+    assertThat(serverSend).isLessThanOrEqualTo(timestamp(adjusted, Constants.CLIENT_RECV));
+    assertThat(serverSend - serverRecv).isEqualTo(10L); // server duration is kept
+  }
+
+  @Test
+  public void doesntAdjustTraceWithoutSkew() {
+    List<Span> trace = TestObjects.TRACE;
+
+    assertThat(adjuster.adjust(trace)).containsExactlyElementsOf(trace);
+  }
+
+  static long timestamp(Span span, String value) {
+    for (Annotation a : span.annotations) {
+      if (a.value.equals(value)) return a.timestamp;
+    }
+    throw new AssertionError(value + " not in " + span);
+  }
+}
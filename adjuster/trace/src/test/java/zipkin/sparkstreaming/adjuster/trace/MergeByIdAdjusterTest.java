@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
+public class MergeByIdAdjusterTest {
+  MergeByIdAdjuster adjuster = MergeByIdAdjuster.create();
+
+  Span clientSide = Span.builder().traceId(1L).id(2L).parentId(1L).name("get")
+      .timestamp(100L).duration(20L)
+      .addAnnotation(Annotation.create(100L, Constants.CLIENT_SEND, WEB_ENDPOINT))
+      .addAnnotation(Annotation.create(120L, Constants.CLIENT_RECV, WEB_ENDPOINT))
+      .build();
+  Span serverSide = Span.builder().traceId(1L).id(2L).parentId(1L).name("get")
+      .addAnnotation(Annotation.create(105L, Constants.SERVER_RECV, APP_ENDPOINT))
+      .addAnnotation(Annotation.create(115L, Constants.SERVER_SEND, APP_ENDPOINT))
+      .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", APP_ENDPOINT))
+      .build();
+  Span root = Span.builder().traceId(1L).id(1L).name("root")
+      .timestamp(90L).duration(40L)
+      .addAnnotation(Annotation.create(90L, Constants.SERVER_RECV, WEB_ENDPOINT))
+      .addAnnotation(Annotation.create(130L, Constants.SERVER_SEND, WEB_ENDPOINT))
+      .build();
+
+  @Test
+  public void mergesSidesOfAnRpc() {
+    List<Span> adjusted = (List<Span>) adjuster.adjust(asList(root, clientSide, serverSide));
+
+    assertThat(adjusted).hasSize(2);
+    assertThat(adjusted.get(0)).isSameAs(root);
+    Span merged = adjusted.get(1);
+    assertThat(merged.timestamp).isEqualTo(100L);
+    assertThat(merged.duration).isEqualTo(20L);
+    assertThat(merged.annotations).extracting("value").containsExactly(
+        Constants.CLIENT_SEND, Constants.SERVER_RECV, Constants.SERVER_SEND, Constants.CLIENT_RECV
+    );
+    assertThat(merged.binaryAnnotations).containsExactlyElementsOf(serverSide.binaryAnnotations);
+  }
+
+  @Test
+  public void dropsDuplicateAnnotations() {
+    List<Span> adjusted = (List<Span>) adjuster.adjust(asList(serverSide, serverSide));
+
+    assertThat(adjusted).hasSize(1);
+    assertThat(adjusted.get(0).annotations).isEqualTo(serverSide.annotations);
+    assertThat(adjusted.get(0).binaryAnnotations).isEqualTo(serverSide.binaryAnnotations);
+  }
+
+  @Test
+  public void returnsInputWhenIdsAreUnique() {
+    List<Span> trace = asList(root, clientSide);
+
+    assertThat(adjuster.adjust(trace)).isSameAs(trace);
+  }
+
+  @Test
+  public void manySpans() {
+    List<Span> trace = TestObjects.TRACE;
+
+    assertThat(adjuster.adjust(trace)).containsExactlyElementsOf(trace);
+  }
+
+  @Test
+  public void positions() {
+    SpanIdPositions positions = new SpanIdPositions(3);
+
+    assertThat(positions.putIfAbsent(0L, 0)).isEqualTo(-1); // zero is a valid span ID
+    assertThat(positions.putIfAbsent(Long.MIN_VALUE, 1)).isEqualTo(-1);
+    assertThat(positions.putIfAbsent(42L, 2)).isEqualTo(-1);
+    assertThat(positions.putIfAbsent(0L, 3)).isZero();
+    assertThat(positions.putIfAbsent(Long.MIN_VALUE, 3)).isEqualTo(1);
+    assertThat(positions.putIfAbsent(42L, 3)).isEqualTo(2);
+  }
+}
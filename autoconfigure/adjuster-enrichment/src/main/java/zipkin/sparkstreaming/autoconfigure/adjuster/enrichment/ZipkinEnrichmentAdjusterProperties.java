@@ -0,0 +1,38 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.enrichment;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.adjuster.enrichment.EnrichmentAdjuster;
+
+@ConfigurationProperties("zipkin.sparkstreaming.adjuster.enrichment")
+public class ZipkinEnrichmentAdjusterProperties {
+  /** Path to a CSV file on the driver, with a header row of "service" followed by tag keys */
+  private String path;
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = "".equals(path) ? null : path;
+  }
+
+  EnrichmentAdjuster toAdjuster() {
+    if (path == null) {
+      throw new IllegalStateException("zipkin.sparkstreaming.adjuster.enrichment.path is required");
+    }
+    return EnrichmentAdjuster.create(path);
+  }
+}
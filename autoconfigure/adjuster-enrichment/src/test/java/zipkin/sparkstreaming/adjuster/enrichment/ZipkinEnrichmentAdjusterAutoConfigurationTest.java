@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.enrichment;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.autoconfigure.adjuster.enrichment.ZipkinEnrichmentAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinEnrichmentAdjusterAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideAdjusterWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinEnrichmentAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(EnrichmentAdjuster.class);
+  }
+
+  @Test
+  public void providesAdjusterWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.enrichment.enabled:" + true,
+        "zipkin.sparkstreaming.adjuster.enrichment.path:/etc/zipkin/owners.csv");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinEnrichmentAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    EnrichmentAdjuster adjuster = context.getBean(EnrichmentAdjuster.class);
+    assertThat(adjuster.path).isEqualTo("/etc/zipkin/owners.csv");
+  }
+
+  @Test
+  public void pathIsRequired() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.enrichment.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinEnrichmentAdjusterAutoConfiguration.class);
+
+    thrown.expect(BeanCreationException.class);
+    thrown.expectMessage("zipkin.sparkstreaming.adjuster.enrichment.path is required");
+    context.refresh();
+  }
+}
@@ -17,6 +17,7 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import zipkin.sparkstreaming.Adjuster;
 import zipkin.sparkstreaming.adjuster.finagle.FinagleIssue343Adjuster;
 
@@ -29,11 +30,13 @@ import zipkin.sparkstreaming.adjuster.finagle.FinagleIssue343Adjuster;
 public class ZipkinFinagleAdjusterAutoConfiguration {
 
   @Bean
+  @Order(100)
   Adjuster finagleAdjuster(ZipkinFinagleAdjusterProperties properties) {
     return properties.toBuilder().build();
   }
 
   @Bean
+  @Order(110)
   @ConditionalOnProperty(
       value = "zipkin.sparkstreaming.adjuster.finagle.adjust-issue343",
       havingValue = "true"
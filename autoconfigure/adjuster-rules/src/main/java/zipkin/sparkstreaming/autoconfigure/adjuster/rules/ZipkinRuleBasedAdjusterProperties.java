@@ -0,0 +1,130 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.rules;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.adjuster.rules.Rule;
+import zipkin.sparkstreaming.adjuster.rules.RuleBasedAdjuster;
+
+@ConfigurationProperties("zipkin.sparkstreaming.adjuster.rules")
+public class ZipkinRuleBasedAdjusterProperties {
+  private List<RuleProperties> rule = new ArrayList<>();
+
+  public List<RuleProperties> getRule() {
+    return rule;
+  }
+
+  public void setRule(List<RuleProperties> rule) {
+    if (rule != null) this.rule = rule;
+  }
+
+  public static class RuleProperties {
+    private List<String> serviceNames = new ArrayList<>();
+    private String tagKey;
+    private String tagValue;
+    private String renameService;
+    private String spanName;
+    private List<String> dropTagKeys = new ArrayList<>();
+    private List<String> dropAnnotationValues = new ArrayList<>();
+    private Map<String, String> addTags = new LinkedHashMap<>();
+
+    public List<String> getServiceNames() {
+      return serviceNames;
+    }
+
+    public void setServiceNames(List<String> serviceNames) {
+      if (serviceNames != null) this.serviceNames = serviceNames;
+    }
+
+    public String getTagKey() {
+      return tagKey;
+    }
+
+    public void setTagKey(String tagKey) {
+      this.tagKey = "".equals(tagKey) ? null : tagKey;
+    }
+
+    public String getTagValue() {
+      return tagValue;
+    }
+
+    public void setTagValue(String tagValue) {
+      this.tagValue = "".equals(tagValue) ? null : tagValue;
+    }
+
+    public String getRenameService() {
+      return renameService;
+    }
+
+    public void setRenameService(String renameService) {
+      this.renameService = "".equals(renameService) ? null : renameService;
+    }
+
+    public String getSpanName() {
+      return spanName;
+    }
+
+    public void setSpanName(String spanName) {
+      this.spanName = "".equals(spanName) ? null : spanName;
+    }
+
+    public List<String> getDropTagKeys() {
+      return dropTagKeys;
+    }
+
+    public void setDropTagKeys(List<String> dropTagKeys) {
+      if (dropTagKeys != null) this.dropTagKeys = dropTagKeys;
+    }
+
+    public List<String> getDropAnnotationValues() {
+      return dropAnnotationValues;
+    }
+
+    public void setDropAnnotationValues(List<String> dropAnnotationValues) {
+      if (dropAnnotationValues != null) this.dropAnnotationValues = dropAnnotationValues;
+    }
+
+    public Map<String, String> getAddTags() {
+      return addTags;
+    }
+
+    public void setAddTags(Map<String, String> addTags) {
+      if (addTags != null) this.addTags = addTags;
+    }
+
+    Rule toRule() {
+      return Rule.newBuilder()
+          .serviceNames(new LinkedHashSet<>(serviceNames))
+          .tagKey(tagKey)
+          .tagValue(tagValue)
+          .renameService(renameService)
+          .spanName(spanName)
+          .dropTagKeys(new LinkedHashSet<>(dropTagKeys))
+          .dropAnnotationValues(new LinkedHashSet<>(dropAnnotationValues))
+          .addTags(addTags)
+          .build();
+    }
+  }
+
+  RuleBasedAdjuster toAdjuster() {
+    List<Rule> rules = new ArrayList<>();
+    for (RuleProperties properties : rule) rules.add(properties.toRule());
+    return RuleBasedAdjuster.create(rules);
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.rules;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.autoconfigure.adjuster.rules.ZipkinRuleBasedAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinRuleBasedAdjusterAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideAdjusterWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinRuleBasedAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(RuleBasedAdjuster.class);
+  }
+
+  @Test
+  public void providesAdjusterWithoutRules() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.rules.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinRuleBasedAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    RuleBasedAdjuster adjuster = context.getBean(RuleBasedAdjuster.class);
+    assertThat(adjuster.rules()).isEmpty();
+  }
+
+  @Test
+  public void readsRulesInOrder() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.rules.enabled:" + true,
+        "zipkin.sparkstreaming.adjuster.rules.rule[0].service-names:frontend,backend",
+        "zipkin.sparkstreaming.adjuster.rules.rule[0].drop-tag-keys:http.url",
+        "zipkin.sparkstreaming.adjuster.rules.rule[1].tag-key:client.version",
+        "zipkin.sparkstreaming.adjuster.rules.rule[1].tag-value:1\\..*",
+        "zipkin.sparkstreaming.adjuster.rules.rule[1].rename-service:legacy",
+        "zipkin.sparkstreaming.adjuster.rules.rule[1].add-tags.legacy:true");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinRuleBasedAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    RuleBasedAdjuster adjuster = context.getBean(RuleBasedAdjuster.class);
+    assertThat(adjuster.rules()).hasSize(2);
+    assertThat(adjuster.rules().get(0).serviceNames()).containsExactly("frontend", "backend");
+    assertThat(adjuster.rules().get(0).dropTagKeys()).containsExactly("http.url");
+    assertThat(adjuster.rules().get(1).tagKey()).isEqualTo("client.version");
+    assertThat(adjuster.rules().get(1).tagValue()).isEqualTo("1\\..*");
+    assertThat(adjuster.rules().get(1).renameService()).isEqualTo("legacy");
+    assertThat(adjuster.rules().get(1).addTags()).containsExactly(entry("legacy", "true"));
+  }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.slim;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import zipkin.sparkstreaming.Adjuster;
+
+@Configuration
+@EnableConfigurationProperties(ZipkinSpanSlimmingAdjusterProperties.class)
+@ConditionalOnProperty(
+    value = "zipkin.sparkstreaming.adjuster.slim.enabled",
+    havingValue = "true"
+)
+public class ZipkinSpanSlimmingAdjusterAutoConfiguration {
+
+  @Bean
+  @Order(400)
+  Adjuster spanSlimmingAdjuster(ZipkinSpanSlimmingAdjusterProperties properties) {
+    return properties.toBuilder().build();
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.slim;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.StringUtils;
+import zipkin.sparkstreaming.adjuster.slim.SpanSlimmingAdjuster;
+
+@ConfigurationProperties("zipkin.sparkstreaming.adjuster.slim")
+public class ZipkinSpanSlimmingAdjusterProperties {
+  /** Comma-separated tag keys by service name */
+  private Map<String, String> allowedTagKeys = new LinkedHashMap<>();
+  private Map<String, String> deniedTagKeys = new LinkedHashMap<>();
+  private Integer maxValueBytes;
+  private Integer maxSpanBytes;
+
+  public Map<String, String> getAllowedTagKeys() {
+    return allowedTagKeys;
+  }
+
+  public void setAllowedTagKeys(Map<String, String> allowedTagKeys) {
+    if (allowedTagKeys != null) this.allowedTagKeys = allowedTagKeys;
+  }
+
+  public Map<String, String> getDeniedTagKeys() {
+    return deniedTagKeys;
+  }
+
+  public void setDeniedTagKeys(Map<String, String> deniedTagKeys) {
+    if (deniedTagKeys != null) this.deniedTagKeys = deniedTagKeys;
+  }
+
+  public Integer getMaxValueBytes() {
+    return maxValueBytes;
+  }
+
+  public void setMaxValueBytes(Integer maxValueBytes) {
+    this.maxValueBytes = maxValueBytes;
+  }
+
+  public Integer getMaxSpanBytes() {
+    return maxSpanBytes;
+  }
+
+  public void setMaxSpanBytes(Integer maxSpanBytes) {
+    this.maxSpanBytes = maxSpanBytes;
+  }
+
+  SpanSlimmingAdjuster.Builder toBuilder() {
+    SpanSlimmingAdjuster.Builder result = SpanSlimmingAdjuster.newBuilder()
+        .allowedTagKeys(split(allowedTagKeys))
+        .deniedTagKeys(split(deniedTagKeys));
+    if (maxValueBytes != null) result.maxValueBytes(maxValueBytes);
+    if (maxSpanBytes != null) result.maxSpanBytes(maxSpanBytes);
+    return result;
+  }
+
+  static Map<String, Set<String>> split(Map<String, String> tagKeysByService) {
+    Map<String, Set<String>> result = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : tagKeysByService.entrySet()) {
+      Set<String> keys = new LinkedHashSet<>();
+      for (String key : StringUtils.commaDelimitedListToStringArray(entry.getValue())) {
+        if (!key.trim().isEmpty()) keys.add(key.trim());
+      }
+      result.put(entry.getKey(), keys);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.slim;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.autoconfigure.adjuster.slim.ZipkinSpanSlimmingAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinSpanSlimmingAdjusterAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideAdjusterWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanSlimmingAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(SpanSlimmingAdjuster.class);
+  }
+
+  @Test
+  public void providesAdjusterWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.slim.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanSlimmingAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    SpanSlimmingAdjuster adjuster = context.getBean(SpanSlimmingAdjuster.class);
+    assertThat(adjuster.allowedTagKeys()).isEmpty();
+    assertThat(adjuster.deniedTagKeys()).isEmpty();
+    assertThat(adjuster.maxValueBytes()).isZero();
+    assertThat(adjuster.maxSpanBytes()).isZero();
+  }
+
+  @Test
+  public void canOverrideProperties() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.slim.enabled:" + true,
+        "zipkin.sparkstreaming.adjuster.slim.allowed-tag-keys.frontend:http.path,error",
+        "zipkin.sparkstreaming.adjuster.slim.denied-tag-keys.backend:sql.query",
+        "zipkin.sparkstreaming.adjuster.slim.max-value-bytes:1024",
+        "zipkin.sparkstreaming.adjuster.slim.max-span-bytes:8192");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanSlimmingAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    SpanSlimmingAdjuster adjuster = context.getBean(SpanSlimmingAdjuster.class);
+    assertThat(adjuster.allowedTagKeys().get("frontend")).containsExactly("http.path", "error");
+    assertThat(adjuster.deniedTagKeys().get("backend")).containsExactly("sql.query");
+    assertThat(adjuster.maxValueBytes()).isEqualTo(1024);
+    assertThat(adjuster.maxSpanBytes()).isEqualTo(8192);
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.template;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.adjuster.template.SpanNameTemplateAdjuster;
+
+@ConfigurationProperties("zipkin.sparkstreaming.adjuster.template")
+public class ZipkinSpanNameTemplateAdjusterProperties {
+  private List<String> templates = new ArrayList<>();
+  private boolean detectIds = true;
+  private List<String> tagKeys = new ArrayList<>();
+  private Integer cacheSize;
+
+  public List<String> getTemplates() {
+    return templates;
+  }
+
+  public void setTemplates(List<String> templates) {
+    if (templates != null) this.templates = templates;
+  }
+
+  public boolean isDetectIds() {
+    return detectIds;
+  }
+
+  public void setDetectIds(boolean detectIds) {
+    this.detectIds = detectIds;
+  }
+
+  public List<String> getTagKeys() {
+    return tagKeys;
+  }
+
+  public void setTagKeys(List<String> tagKeys) {
+    if (tagKeys != null) this.tagKeys = tagKeys;
+  }
+
+  public Integer getCacheSize() {
+    return cacheSize;
+  }
+
+  public void setCacheSize(Integer cacheSize) {
+    this.cacheSize = cacheSize;
+  }
+
+  SpanNameTemplateAdjuster.Builder toBuilder() {
+    SpanNameTemplateAdjuster.Builder result = SpanNameTemplateAdjuster.newBuilder()
+        .templates(templates)
+        .detectIds(detectIds)
+        .tagKeys(new LinkedHashSet<>(tagKeys));
+    if (cacheSize != null) result.cacheSize(cacheSize);
+    return result;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.template;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.autoconfigure.adjuster.template.ZipkinSpanNameTemplateAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinSpanNameTemplateAdjusterAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideAdjusterWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanNameTemplateAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(SpanNameTemplateAdjuster.class);
+  }
+
+  @Test
+  public void providesAdjusterWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.template.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanNameTemplateAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    SpanNameTemplateAdjuster adjuster = context.getBean(SpanNameTemplateAdjuster.class);
+    assertThat(adjuster.templates()).isEmpty();
+    assertThat(adjuster.detectIds()).isTrue();
+    assertThat(adjuster.cacheSize()).isEqualTo(10_000);
+  }
+
+  @Test
+  public void canOverrideProperties() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.template.enabled:" + true,
+        "zipkin.sparkstreaming.adjuster.template.templates:/users/{id},/orders/{id}",
+        "zipkin.sparkstreaming.adjuster.template.detect-ids:" + false,
+        "zipkin.sparkstreaming.adjuster.template.tag-keys:http.path",
+        "zipkin.sparkstreaming.adjuster.template.cache-size:100");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinSpanNameTemplateAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    SpanNameTemplateAdjuster adjuster = context.getBean(SpanNameTemplateAdjuster.class);
+    assertThat(adjuster.templates()).containsExactly("/users/{id}", "/orders/{id}");
+    assertThat(adjuster.detectIds()).isFalse();
+    assertThat(adjuster.tagKeys()).containsExactly("http.path");
+    assertThat(adjuster.cacheSize()).isEqualTo(100);
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.adjuster.trace;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.adjuster.trace.ClockSkewAdjuster;
+import zipkin.sparkstreaming.adjuster.trace.MergeByIdAdjuster;
+
+/**
+ * Trace adjusters run after the other built-in adjusters, and clock skew is corrected after spans
+ * are merged.
+ *
+ * <p>Built-in adjusters declare their {@link Order order}: finagle 100 and 110, span name templates
+ * 200, rules 300, slimming 400, enrichment 500, merge by ID 900 and clock skew 1000. Adjuster beans
+ * without an order run after all of these. To run between them, declare an order in the gap.
+ */
+@Configuration
+public class ZipkinTraceAdjusterAutoConfiguration {
+
+  @Bean
+  @Order(900)
+  @ConditionalOnProperty(
+      value = "zipkin.sparkstreaming.adjuster.trace.merge-by-id",
+      havingValue = "true"
+  )
+  Adjuster mergeByIdAdjuster() {
+    return MergeByIdAdjuster.create();
+  }
+
+  @Bean
+  @Order(1000)
+  @ConditionalOnProperty(
+      value = "zipkin.sparkstreaming.adjuster.trace.correct-clock-skew",
+      havingValue = "true"
+  )
+  Adjuster clockSkewAdjuster() {
+    return ClockSkewAdjuster.create();
+  }
+}
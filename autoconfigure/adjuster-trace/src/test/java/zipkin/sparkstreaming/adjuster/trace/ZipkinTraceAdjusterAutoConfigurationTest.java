@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.adjuster.trace;
+
+import java.util.List;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import zipkin.Span;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.autoconfigure.adjuster.trace.ZipkinTraceAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinTraceAdjusterAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideClockSkewAdjusterByDefault() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinTraceAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(ClockSkewAdjuster.class);
+  }
+
+  @Test
+  public void providesClockSkewAdjuster() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.trace.correct-clock-skew:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinTraceAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(ClockSkewAdjuster.class)).isNotNull();
+  }
+
+  @Test
+  public void doesntProvideMergeByIdAdjusterByDefault() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinTraceAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(MergeByIdAdjuster.class);
+  }
+
+  @Test
+  public void providesMergeByIdAdjuster() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.trace.merge-by-id:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinTraceAdjusterAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(MergeByIdAdjuster.class)).isNotNull();
+  }
+
+  @Test
+  public void unorderedAdjustersRunAfterTraceAdjusters() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.adjuster.trace.merge-by-id:" + true,
+        "zipkin.sparkstreaming.adjuster.trace.correct-clock-skew:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        CustomAdjusterConfiguration.class, // registered first, yet ordered last
+        ZipkinTraceAdjusterAutoConfiguration.class,
+        AdjustersConfiguration.class);
+    context.refresh();
+
+    List<Adjuster> adjusters = context.getBean(AdjustersConfiguration.class).adjusters;
+    assertThat(adjusters).hasSize(3);
+    assertThat(adjusters.get(0)).isInstanceOf(MergeByIdAdjuster.class);
+    assertThat(adjusters.get(1)).isInstanceOf(ClockSkewAdjuster.class);
+    assertThat(adjusters.get(2)).isSameAs(context.getBean("customAdjuster"));
+  }
+
+  @Configuration
+  static class CustomAdjusterConfiguration {
+    @Bean Adjuster customAdjuster() {
+      return new Adjuster() {
+        @Override protected boolean shouldAdjust(Span span) {
+          return false;
+        }
+
+        @Override protected Span adjust(Span span) {
+          return span;
+        }
+      };
+    }
+  }
+
+  @Configuration
+  static class AdjustersConfiguration {
+    @Autowired List<Adjuster> adjusters;
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.dependencies;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.consumer.dependencies.DependencyLinksConsumer;
+import zipkin.sparkstreaming.consumer.dependencies.FileDependencyLinksWriter;
+
+@ConfigurationProperties("zipkin.sparkstreaming.consumer.dependencies")
+public class ZipkinDependencyLinksConsumerProperties {
+  /** Directory on the driver to write links to */
+  private String path;
+  private DependencyLinksConsumer.Bucket bucket;
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = "".equals(path) ? null : path;
+  }
+
+  public DependencyLinksConsumer.Bucket getBucket() {
+    return bucket;
+  }
+
+  public void setBucket(DependencyLinksConsumer.Bucket bucket) {
+    this.bucket = bucket;
+  }
+
+  DependencyLinksConsumer.Builder toBuilder() {
+    if (path == null) {
+      throw new IllegalStateException(
+          "zipkin.sparkstreaming.consumer.dependencies.path is required");
+    }
+    DependencyLinksConsumer.Builder result = DependencyLinksConsumer.newBuilder()
+        .writer(FileDependencyLinksWriter.create(path));
+    if (bucket != null) result.bucket(bucket);
+    return result;
+  }
+}
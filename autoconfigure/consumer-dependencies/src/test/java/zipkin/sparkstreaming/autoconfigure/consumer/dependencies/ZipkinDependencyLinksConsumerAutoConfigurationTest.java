@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.dependencies;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.consumer.dependencies.DependencyLinksConsumer;
+import zipkin.sparkstreaming.consumer.dependencies.FileDependencyLinksWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinDependencyLinksConsumerAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideConsumerWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinDependencyLinksConsumerAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(DependencyLinksConsumer.class);
+  }
+
+  @Test
+  public void providesConsumerWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.dependencies.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.dependencies.path:/var/zipkin/dependencies");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinDependencyLinksConsumerAutoConfiguration.class);
+    context.refresh();
+
+    DependencyLinksConsumer consumer = context.getBean(DependencyLinksConsumer.class);
+    assertThat(consumer).isEqualTo(DependencyLinksConsumer.newBuilder()
+        .writer(FileDependencyLinksWriter.create("/var/zipkin/dependencies"))
+        .build());
+  }
+
+  @Test
+  public void canOverrideBucket() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.dependencies.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.dependencies.path:/var/zipkin/dependencies",
+        "zipkin.sparkstreaming.consumer.dependencies.bucket:hour");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinDependencyLinksConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(DependencyLinksConsumer.class)).isEqualTo(
+        DependencyLinksConsumer.newBuilder()
+            .bucket(DependencyLinksConsumer.Bucket.HOUR)
+            .writer(FileDependencyLinksWriter.create("/var/zipkin/dependencies"))
+            .build());
+  }
+
+  @Test
+  public void pathIsRequired() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.dependencies.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinDependencyLinksConsumerAutoConfiguration.class);
+
+    thrown.expect(BeanCreationException.class);
+    thrown.expectMessage("zipkin.sparkstreaming.consumer.dependencies.path is required");
+    context.refresh();
+  }
+}
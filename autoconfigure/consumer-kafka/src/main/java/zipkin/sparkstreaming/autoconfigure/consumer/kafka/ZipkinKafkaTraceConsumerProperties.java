@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.kafka;
+
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.consumer.kafka.KafkaTraceConsumer;
+
+@ConfigurationProperties("zipkin.sparkstreaming.consumer.kafka")
+public class ZipkinKafkaTraceConsumerProperties {
+  private String topic;
+  private List<String> bootstrapServers;
+  private KafkaTraceConsumer.Encoding encoding;
+  private Integer lingerMs;
+  private Integer batchSize;
+  private String compressionType;
+
+  public String getTopic() {
+    return topic;
+  }
+
+  public void setTopic(String topic) {
+    this.topic = emptyToNull(topic);
+  }
+
+  public List<String> getBootstrapServers() {
+    return bootstrapServers;
+  }
+
+  public void setBootstrapServers(List<String> bootstrapServers) {
+    if (bootstrapServers != null && !bootstrapServers.isEmpty()) {
+      this.bootstrapServers = bootstrapServers;
+    }
+  }
+
+  public KafkaTraceConsumer.Encoding getEncoding() {
+    return encoding;
+  }
+
+  public void setEncoding(KafkaTraceConsumer.Encoding encoding) {
+    this.encoding = encoding;
+  }
+
+  public Integer getLingerMs() {
+    return lingerMs;
+  }
+
+  public void setLingerMs(Integer lingerMs) {
+    this.lingerMs = lingerMs;
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(Integer batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public String getCompressionType() {
+    return compressionType;
+  }
+
+  public void setCompressionType(String compressionType) {
+    this.compressionType = emptyToNull(compressionType);
+  }
+
+  KafkaTraceConsumer.Builder toBuilder() {
+    if (bootstrapServers == null) {
+      throw new IllegalStateException(
+          "zipkin.sparkstreaming.consumer.kafka.bootstrap-servers is required");
+    }
+    KafkaTraceConsumer.Builder result = KafkaTraceConsumer.newBuilder()
+        .bootstrapServers(bootstrapServers);
+    if (topic != null) result.topic(topic);
+    if (encoding != null) result.encoding(encoding);
+    if (lingerMs != null) result.lingerMs(lingerMs);
+    if (batchSize != null) result.batchSize(batchSize);
+    if (compressionType != null) result.compressionType(compressionType);
+    return result;
+  }
+
+  private static String emptyToNull(String s) {
+    return (s != null && !s.isEmpty()) ? s : null;
+  }
+}
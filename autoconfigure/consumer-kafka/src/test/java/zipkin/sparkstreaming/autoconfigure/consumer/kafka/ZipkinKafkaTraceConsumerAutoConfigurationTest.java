@@ -0,0 +1,100 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.kafka;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.consumer.kafka.KafkaTraceConsumer;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinKafkaTraceConsumerAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideConsumerWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinKafkaTraceConsumerAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(KafkaTraceConsumer.class);
+  }
+
+  @Test
+  public void providesConsumerWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.kafka.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.kafka.bootstrap-servers:127.0.0.1:9092");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinKafkaTraceConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(KafkaTraceConsumer.class)).isEqualTo(
+        KafkaTraceConsumer.newBuilder().bootstrapServers(asList("127.0.0.1:9092")).build());
+  }
+
+  @Test
+  public void canOverrideProducerSettings() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.kafka.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.kafka.bootstrap-servers:127.0.0.1:9092",
+        "zipkin.sparkstreaming.consumer.kafka.topic:traces",
+        "zipkin.sparkstreaming.consumer.kafka.encoding:json",
+        "zipkin.sparkstreaming.consumer.kafka.linger-ms:50",
+        "zipkin.sparkstreaming.consumer.kafka.batch-size:1048576",
+        "zipkin.sparkstreaming.consumer.kafka.compression-type:snappy");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinKafkaTraceConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(KafkaTraceConsumer.class)).isEqualTo(
+        KafkaTraceConsumer.newBuilder()
+            .bootstrapServers(asList("127.0.0.1:9092"))
+            .topic("traces")
+            .encoding(KafkaTraceConsumer.Encoding.JSON)
+            .lingerMs(50)
+            .batchSize(1048576)
+            .compressionType("snappy")
+            .build());
+  }
+
+  @Test
+  public void bootstrapServersAreRequired() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.kafka.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinKafkaTraceConsumerAutoConfiguration.class);
+
+    thrown.expect(BeanCreationException.class);
+    thrown.expectMessage("zipkin.sparkstreaming.consumer.kafka.bootstrap-servers is required");
+    context.refresh();
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.latency;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.consumer.latency.FileLatencyExporter;
+import zipkin.sparkstreaming.consumer.latency.LatencyConsumer;
+
+@ConfigurationProperties("zipkin.sparkstreaming.consumer.latency")
+public class ZipkinLatencyConsumerProperties {
+  /** Directory on the driver to write the latest window to */
+  private String path;
+  /** Milliseconds of spans summarized in each export */
+  private Long window;
+  /** Milliseconds between exports, or zero to export after each batch */
+  private Long slide;
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = "".equals(path) ? null : path;
+  }
+
+  public Long getWindow() {
+    return window;
+  }
+
+  public void setWindow(Long window) {
+    this.window = window;
+  }
+
+  public Long getSlide() {
+    return slide;
+  }
+
+  public void setSlide(Long slide) {
+    this.slide = slide;
+  }
+
+  LatencyConsumer.Builder toBuilder() {
+    if (path == null) {
+      throw new IllegalStateException("zipkin.sparkstreaming.consumer.latency.path is required");
+    }
+    LatencyConsumer.Builder result = LatencyConsumer.newBuilder()
+        .exporter(FileLatencyExporter.create(path));
+    if (window != null) result.windowMillis(window);
+    if (slide != null) result.slideMillis(slide);
+    return result;
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.autoconfigure.consumer.latency;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import zipkin.sparkstreaming.consumer.latency.FileLatencyExporter;
+import zipkin.sparkstreaming.consumer.latency.LatencyConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.test.util.EnvironmentTestUtils.addEnvironment;
+
+public class ZipkinLatencyConsumerAutoConfigurationTest {
+
+  AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @After
+  public void close() {
+    if (context != null) context.close();
+  }
+
+  @Test
+  public void doesntProvideConsumerWhenDisabled() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinLatencyConsumerAutoConfiguration.class);
+    context.refresh();
+
+    thrown.expect(NoSuchBeanDefinitionException.class);
+    context.getBean(LatencyConsumer.class);
+  }
+
+  @Test
+  public void providesConsumerWhenEnabled() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.latency.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.latency.path:/var/zipkin/latency");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinLatencyConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(LatencyConsumer.class)).isEqualTo(LatencyConsumer.newBuilder()
+        .exporter(FileLatencyExporter.create("/var/zipkin/latency"))
+        .build());
+  }
+
+  @Test
+  public void canOverrideWindow() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.latency.enabled:" + true,
+        "zipkin.sparkstreaming.consumer.latency.path:/var/zipkin/latency",
+        "zipkin.sparkstreaming.consumer.latency.window:300000",
+        "zipkin.sparkstreaming.consumer.latency.slide:60000");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinLatencyConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(context.getBean(LatencyConsumer.class)).isEqualTo(LatencyConsumer.newBuilder()
+        .windowMillis(300_000)
+        .slideMillis(60_000)
+        .exporter(FileLatencyExporter.create("/var/zipkin/latency"))
+        .build());
+  }
+
+  @Test
+  public void pathIsRequired() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.latency.enabled:" + true);
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinLatencyConsumerAutoConfiguration.class);
+
+    thrown.expect(BeanCreationException.class);
+    thrown.expectMessage("zipkin.sparkstreaming.consumer.latency.path is required");
+    context.refresh();
+  }
+}
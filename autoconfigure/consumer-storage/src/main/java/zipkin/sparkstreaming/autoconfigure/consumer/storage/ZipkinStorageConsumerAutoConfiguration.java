@@ -14,6 +14,7 @@
 package zipkin.sparkstreaming.autoconfigure.consumer.storage;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Properties;
 import org.springframework.beans.factory.BeanFactory;
@@ -56,26 +57,30 @@ public class ZipkinStorageConsumerAutoConfiguration {
   @Bean StorageConsumer storageConsumer(
       StorageComponent component,
       @Value("${zipkin.sparkstreaming.consumer.storage.fail-fast:true}") boolean failFast,
+      @Value("${zipkin.sparkstreaming.consumer.storage.freshness-target:0}") long freshnessTarget,
       BeanFactory bf
   ) throws IOException {
     if (failFast) checkStorageOk(component);
     Properties properties = extractZipkinProperties(bf.getBean(ConfigurableEnvironment.class));
+    AutoConfigurationStorageConsumer result;
     if (component instanceof V2StorageComponent) {
       zipkin2.storage.StorageComponent v2Storage = ((V2StorageComponent) component).delegate();
       if (v2Storage instanceof ElasticsearchHttpStorage) {
-        return new ElasticsearchStorageConsumer(properties);
+        result = new ElasticsearchStorageConsumer(properties);
       } else if (v2Storage instanceof zipkin2.storage.cassandra.CassandraStorage) {
-        return new Cassandra3StorageConsumer(properties);
+        result = new Cassandra3StorageConsumer(properties);
       } else {
         throw new UnsupportedOperationException(v2Storage + " not yet supported");
       }
     } else if (component instanceof CassandraStorage) {
-      return new CassandraStorageConsumer(properties);
+      result = new CassandraStorageConsumer(properties);
     } else if (component instanceof MySQLStorage) {
-      return new MySQLStorageConsumer(properties);
+      result = new MySQLStorageConsumer(properties);
     } else {
       throw new UnsupportedOperationException(component + " not yet supported");
     }
+    result.freshnessTarget = freshnessTarget;
+    return result;
   }
 
   // fail fast because it is easier to detect problems here than after the cluster starts!
@@ -146,11 +151,21 @@ public class ZipkinStorageConsumerAutoConfiguration {
    */
   static abstract class AutoConfigurationStorageConsumer extends StorageConsumer {
     final Properties properties;
+    long freshnessTarget;
 
     AutoConfigurationStorageConsumer(Properties properties) {
       this.properties = properties;
     }
 
+    @Override protected long freshnessTargetMillis() {
+      return freshnessTarget;
+    }
+
+    /** Copies with the same type and properties share a storage component per executor. */
+    @Override protected Object storageKey() {
+      return Arrays.asList(getClass(), properties);
+    }
+
     @Override protected StorageComponent tryCompute() {
       AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
       PropertiesPropertySource source = new PropertiesPropertySource("consumer", properties);
@@ -91,6 +91,33 @@ public class ZipkinStorageConsumerAutoConfigurationTest {
         ZipkinStorageConsumerAutoConfiguration.MySQLStorageConsumer.class);
   }
 
+  @Test
+  public void freshnessTargetDisabledByDefault() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.storage.fail-fast:false",
+        "zipkin.storage.type:mysql"
+    );
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinStorageConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(freshnessTarget()).isZero();
+  }
+
+  @Test
+  public void canOverrideFreshnessTarget() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.consumer.storage.fail-fast:false",
+        "zipkin.sparkstreaming.consumer.storage.freshness-target:30000",
+        "zipkin.storage.type:mysql"
+    );
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinStorageConsumerAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(freshnessTarget()).isEqualTo(30000L);
+  }
+
   /** fail fast is default, which helps discover storage errors before the job runs */
   @Test public void failFast() {
     addEnvironment(context,
@@ -107,4 +134,9 @@ public class ZipkinStorageConsumerAutoConfigurationTest {
   StorageConsumer storage() {
     return context.getBean(StorageConsumer.class);
   }
+
+  long freshnessTarget() {
+    return ((ZipkinStorageConsumerAutoConfiguration.AutoConfigurationStorageConsumer) storage())
+        .freshnessTargetMillis();
+  }
 }
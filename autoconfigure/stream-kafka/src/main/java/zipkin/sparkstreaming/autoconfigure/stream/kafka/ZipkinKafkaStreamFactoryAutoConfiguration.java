@@ -14,6 +14,7 @@
 package zipkin.sparkstreaming.autoconfigure.stream.kafka;
 
 import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -21,6 +22,7 @@ import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
+import zipkin.sparkstreaming.MessageSource;
 import zipkin.sparkstreaming.StreamFactory;
 
 @Configuration
@@ -32,6 +34,12 @@ public class ZipkinKafkaStreamFactoryAutoConfiguration {
     return properties.toBuilder().build();
   }
 
+  /** Used by the embedded engine, which reads Kafka via Zookeeper */
+  @Bean @ConditionalOnProperty(KafkaServersSetCondition.CONNECT)
+  MessageSource kafkaMessages(ZipkinKafkaStreamFactoryProperties properties) {
+    return properties.toMessageSourceBuilder().build();
+  }
+
   static final class KafkaServersSetCondition extends SpringBootCondition {
     static final String BOOTSTRAP = "zipkin.sparkstreaming.stream.kafka.bootstrap-servers";
     static final String CONNECT = "zipkin.sparkstreaming.stream.kafka.zookeeper.connect";
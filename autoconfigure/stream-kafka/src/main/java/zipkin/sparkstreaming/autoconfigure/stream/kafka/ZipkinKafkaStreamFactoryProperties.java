@@ -15,6 +15,7 @@ package zipkin.sparkstreaming.autoconfigure.stream.kafka;
 
 import java.util.List;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.stream.kafka.KafkaMessageSource;
 import zipkin.sparkstreaming.stream.kafka.KafkaStreamFactory;
 import zipkin.sparkstreaming.stream.kafka.ZookeeperBootstrapServers;
 
@@ -95,6 +96,16 @@ public class ZipkinKafkaStreamFactoryProperties {
     return result;
   }
 
+  /** Only valid when {@link Zookeeper#getConnect()} is set */
+  KafkaMessageSource.Builder toMessageSourceBuilder() {
+    KafkaMessageSource.Builder result = KafkaMessageSource.newBuilder();
+    if (topic != null) result.topic(topic);
+    if (groupId != null) result.groupId(groupId);
+    result.connect(zookeeper.getConnect());
+    if (zookeeper.sessionTimeout != null) result.sessionTimeout(zookeeper.sessionTimeout);
+    return result;
+  }
+
   private static String emptyToNull(String s) {
     return (s != null && !s.isEmpty()) ? s : null;
   }
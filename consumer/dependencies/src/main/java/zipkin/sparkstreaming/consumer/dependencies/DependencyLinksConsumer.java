@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import com.google.auto.value.AutoValue;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+import zipkin.DependencyLink;
+import zipkin.Span;
+import zipkin.sparkstreaming.StreamConsumer;
+
+/**
+ * Aggregates service dependency links from the stream, so the dependency graph is current without
+ * a separate job that re-reads traces from storage.
+ *
+ * <p>Each partition links its traces with Zipkin's {@code DependencyLinker}, bucketed by trace
+ * timestamp. Per-partition links are then summed with {@code reduceByKey}, and each batch's totals
+ * are upserted into the {@link DependencyLinksWriter writer} from the driver.
+ */
+@AutoValue
+public abstract class DependencyLinksConsumer implements StreamConsumer, Serializable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(DependencyLinksConsumer.class);
+
+  public enum Bucket {
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    final long millis;
+
+    Bucket(long millis) {
+      this.millis = millis;
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new AutoValue_DependencyLinksConsumer.Builder()
+        .bucket(Bucket.DAY);
+  }
+
+  @AutoValue.Builder
+  public interface Builder {
+    /** Period links are aggregated over, in UTC. Defaults to {@link Bucket#DAY}, like Zipkin. */
+    Builder bucket(Bucket bucket);
+
+    /** Stores links of each batch. */
+    Builder writer(DependencyLinksWriter writer);
+
+    DependencyLinksConsumer build();
+  }
+
+  abstract Bucket bucket();
+
+  abstract DependencyLinksWriter writer();
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  @Override public void consume(JavaDStream<Iterable<Span>> adjustedTraces) {
+    adjustedTraces
+        .mapPartitionsToPair(new LinkTraces(bucket().millis))
+        .reduceByKey(DependencyLinksConsumer::sum)
+        .foreachRDD(rdd -> {
+          write(rdd.collect()); // one entry per link and bucket, so small
+        });
+  }
+
+  /** Upserts links of a batch, bucket by bucket. */
+  void write(List<Tuple2<LinkKey, long[]>> batch) {
+    Map<Long, List<DependencyLink>> linksByBucket = new TreeMap<>();
+    for (Tuple2<LinkKey, long[]> entry : batch) {
+      List<DependencyLink> links = linksByBucket.get(entry._1.bucket);
+      if (links == null) linksByBucket.put(entry._1.bucket, links = new ArrayList<>());
+      links.add(DependencyLink.builder()
+          .parent(entry._1.parent)
+          .child(entry._1.child)
+          .callCount(entry._2[0])
+          .errorCount(entry._2[1])
+          .build());
+    }
+    for (Map.Entry<Long, List<DependencyLink>> entry : linksByBucket.entrySet()) {
+      try {
+        writer().upsert(entry.getKey(), entry.getValue());
+        log().debug("Wrote {} links to bucket {}", entry.getValue().size(), entry.getKey());
+      } catch (Exception e) {
+        // Like the storage consumer, this drops data vs failing the batch
+        log().warn("Dropped " + entry.getValue().size() + " links: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /** Sums call and error counts of the same link. */
+  static long[] sum(long[] left, long[] right) {
+    return new long[] {left[0] + right[0], left[1] + right[1]};
+  }
+
+  DependencyLinksConsumer() {
+  }
+}
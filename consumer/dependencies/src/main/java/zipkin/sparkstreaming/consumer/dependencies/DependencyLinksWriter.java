@@ -0,0 +1,31 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import zipkin.DependencyLink;
+
+/** Stores dependency links aggregated by {@link DependencyLinksConsumer}. Called on the driver. */
+public interface DependencyLinksWriter extends Serializable {
+  /**
+   * Adds the links to those already stored for the bucket: call and error counts of an existing
+   * parent and child pair are incremented, and new pairs are inserted.
+   *
+   * @param bucket epoch millis of the start of the hour or day
+   * @param links links from one batch, with distinct parent and child pairs
+   */
+  void upsert(long bucket, List<DependencyLink> links) throws IOException;
+}
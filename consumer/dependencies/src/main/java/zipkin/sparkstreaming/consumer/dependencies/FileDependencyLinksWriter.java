@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import zipkin.Codec;
+import zipkin.DependencyLink;
+import zipkin.internal.DependencyLinker;
+
+/**
+ * Writes links as a JSON file per bucket, named like "dependencies-2017-06-01-00.json" where the
+ * suffix is the UTC date and hour the bucket starts. The format is the same as the response of
+ * Zipkin's "/api/v1/dependencies" endpoint.
+ *
+ * <p>Files are replaced atomically, so readers never see a partial file.
+ */
+public final class FileDependencyLinksWriter implements DependencyLinksWriter {
+  private static final long serialVersionUID = 0L;
+
+  /** @param directory where to write files, created if missing */
+  public static FileDependencyLinksWriter create(String directory) {
+    if (directory == null) throw new NullPointerException("directory == null");
+    return new FileDependencyLinksWriter(directory);
+  }
+
+  final String directory;
+
+  FileDependencyLinksWriter(String directory) {
+    this.directory = directory;
+  }
+
+  @Override public synchronized void upsert(long bucket, List<DependencyLink> links)
+      throws IOException {
+    Path dir = new File(directory).toPath();
+    Files.createDirectories(dir);
+    Path file = dir.resolve(fileName(bucket));
+
+    List<DependencyLink> merged = new ArrayList<>(links);
+    if (Files.exists(file)) merged.addAll(Codec.JSON.readDependencyLinks(Files.readAllBytes(file)));
+    merged = DependencyLinker.merge(merged); // sums counts of the same parent and child
+
+    Path temp = Files.createTempFile(dir, "dependencies", ".tmp");
+    try {
+      Files.write(temp, Codec.JSON.writeDependencyLinks(merged));
+      Files.move(temp, file,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  static String fileName(long bucket) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return "dependencies-" + format.format(new Date(bucket)) + ".json";
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof FileDependencyLinksWriter)) return false;
+    return directory.equals(((FileDependencyLinksWriter) o).directory);
+  }
+
+  @Override public int hashCode() {
+    return directory.hashCode();
+  }
+
+  @Override public String toString() {
+    return "FileDependencyLinksWriter{directory=" + directory + "}";
+  }
+}
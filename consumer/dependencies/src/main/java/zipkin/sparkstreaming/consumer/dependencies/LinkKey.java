@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.io.Serializable;
+
+/** Identifies a dependency link within a time bucket. */
+final class LinkKey implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  final long bucket; // epoch millis of the bucket start
+  final String parent;
+  final String child;
+
+  LinkKey(long bucket, String parent, String child) {
+    this.bucket = bucket;
+    this.parent = parent;
+    this.child = child;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof LinkKey)) return false;
+    LinkKey that = (LinkKey) o;
+    return bucket == that.bucket && parent.equals(that.parent) && child.equals(that.child);
+  }
+
+  @Override public int hashCode() {
+    int h = 1;
+    h *= 1000003;
+    h ^= (int) ((bucket >>> 32) ^ bucket);
+    h *= 1000003;
+    h ^= parent.hashCode();
+    h *= 1000003;
+    h ^= child.hashCode();
+    return h;
+  }
+
+  @Override public String toString() {
+    return "LinkKey{bucket=" + bucket + ", parent=" + parent + ", child=" + child + "}";
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+import zipkin.DependencyLink;
+import zipkin.Span;
+import zipkin.internal.ApplyTimestampAndDuration;
+import zipkin.internal.DependencyLinker;
+
+/**
+ * Links all traces in a partition, with one {@link DependencyLinker} per time bucket. This emits
+ * one entry per distinct link and bucket, so the shuffle is as small as the dependency graph, not
+ * the count of traces.
+ *
+ * <p>Values are {@code [callCount, errorCount]}, so merging them doesn't allocate links.
+ */
+final class LinkTraces
+    implements PairFlatMapFunction<Iterator<Iterable<Span>>, LinkKey, long[]> {
+  private static final long serialVersionUID = 0L;
+
+  final long bucketMillis;
+
+  LinkTraces(long bucketMillis) {
+    this.bucketMillis = bucketMillis;
+  }
+
+  @Override public Iterable<Tuple2<LinkKey, long[]>> call(Iterator<Iterable<Span>> traces) {
+    Map<Long, DependencyLinker> linkersByBucket = new LinkedHashMap<>();
+    while (traces.hasNext()) {
+      Collection<Span> trace = asCollection(traces.next());
+      Long timestamp = timestamp(trace);
+      if (timestamp == null) continue; // we can't tell which bucket this belongs to
+      Long bucket = timestamp / 1000 / bucketMillis * bucketMillis;
+      DependencyLinker linker = linkersByBucket.get(bucket);
+      if (linker == null) linkersByBucket.put(bucket, linker = new DependencyLinker());
+      linker.putTrace(trace);
+    }
+
+    List<Tuple2<LinkKey, long[]>> result = new ArrayList<>();
+    for (Map.Entry<Long, DependencyLinker> entry : linkersByBucket.entrySet()) {
+      for (DependencyLink link : entry.getValue().link()) {
+        result.add(new Tuple2<>(
+            new LinkKey(entry.getKey(), link.parent, link.child),
+            new long[] {link.callCount, link.errorCount}
+        ));
+      }
+    }
+    return result;
+  }
+
+  /** Returns the earliest timestamp in the trace in epoch microseconds, or null if unknown. */
+  static Long timestamp(Collection<Span> trace) {
+    Long result = null;
+    for (Span span : trace) {
+      Long timestamp = span.timestamp != null
+          ? span.timestamp
+          : ApplyTimestampAndDuration.guessTimestamp(span);
+      if (timestamp != null && (result == null || timestamp < result)) result = timestamp;
+    }
+    return result;
+  }
+
+  static Collection<Span> asCollection(Iterable<Span> trace) {
+    if (trace instanceof Collection) return (Collection<Span>) trace; // adjusted traces are lists
+    List<Span> result = new ArrayList<>();
+    for (Span span : trace) result.add(span);
+    return result;
+  }
+}
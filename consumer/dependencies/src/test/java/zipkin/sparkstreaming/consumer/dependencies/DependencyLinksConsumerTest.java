@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import scala.Tuple2;
+import zipkin.Annotation;
+import zipkin.DependencyLink;
+import zipkin.Span;
+import zipkin.sparkstreaming.consumer.dependencies.DependencyLinksConsumer.Bucket;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.DAY;
+import static zipkin.TestObjects.LINKS;
+import static zipkin.TestObjects.TODAY;
+import static zipkin.TestObjects.TRACE;
+
+public class DependencyLinksConsumerTest {
+  Map<Long, List<DependencyLink>> written = new LinkedHashMap<>();
+  DependencyLinksConsumer consumer = DependencyLinksConsumer.newBuilder()
+      .writer((bucket, links) -> written.put(bucket, links))
+      .build();
+
+  @Test
+  public void linksTracesOfPartition() {
+    Map<LinkKey, long[]> links = call(new LinkTraces(Bucket.DAY.millis), TRACE, TRACE);
+
+    assertThat(links).hasSameSizeAs(LINKS);
+    for (DependencyLink link : LINKS) {
+      assertThat(links.get(new LinkKey(TODAY, link.parent, link.child)))
+          .containsExactly(link.callCount * 2, link.errorCount * 2);
+    }
+  }
+
+  @Test
+  public void bucketsByTraceTimestamp() {
+    List<Span> yesterday = new ArrayList<>();
+    for (Span span : TRACE) yesterday.add(shift(span, -DAY * 1000L));
+
+    Map<LinkKey, long[]> links = call(new LinkTraces(Bucket.DAY.millis), TRACE, yesterday);
+
+    assertThat(links).hasSize(LINKS.size() * 2);
+    DependencyLink first = LINKS.get(0);
+    assertThat(links).containsKey(new LinkKey(TODAY - DAY, first.parent, first.child));
+  }
+
+  @Test
+  public void skipsTracesWithoutTimestamps() {
+    List<Span> untimed = asList(Span.builder().traceId(1L).id(1L).name("get").build());
+
+    assertThat(call(new LinkTraces(Bucket.DAY.millis), untimed)).isEmpty();
+  }
+
+  @Test
+  public void writesEachBucket() {
+    consumer.write(asList(
+        new Tuple2<>(new LinkKey(TODAY, "web", "app"), new long[] {3L, 1L}),
+        new Tuple2<>(new LinkKey(TODAY - DAY, "web", "app"), new long[] {2L, 0L}),
+        new Tuple2<>(new LinkKey(TODAY, "app", "db"), new long[] {1L, 0L})
+    ));
+
+    assertThat(written.keySet()).containsExactly(TODAY - DAY, TODAY);
+    assertThat(written.get(TODAY)).containsExactly(
+        DependencyLink.builder().parent("web").child("app").callCount(3L).errorCount(1L).build(),
+        DependencyLink.builder().parent("app").child("db").callCount(1L).build()
+    );
+  }
+
+  @Test
+  public void writeFailureDoesntAffectOtherBuckets() {
+    DependencyLinksConsumer consumer = DependencyLinksConsumer.newBuilder()
+        .writer((bucket, links) -> {
+          if (bucket == TODAY - DAY) throw new IOException("disk full");
+          written.put(bucket, links);
+        }).build();
+
+    consumer.write(asList(
+        new Tuple2<>(new LinkKey(TODAY - DAY, "web", "app"), new long[] {2L, 0L}),
+        new Tuple2<>(new LinkKey(TODAY, "web", "app"), new long[] {3L, 1L})
+    ));
+
+    assertThat(written.keySet()).containsExactly(TODAY);
+  }
+
+  @Test
+  public void sum() {
+    assertThat(DependencyLinksConsumer.sum(new long[] {3L, 1L}, new long[] {2L, 0L}))
+        .containsExactly(5L, 1L);
+  }
+
+  static Map<LinkKey, long[]> call(LinkTraces linkTraces, Iterable<Span>... traces) {
+    Map<LinkKey, long[]> result = new LinkedHashMap<>();
+    for (Tuple2<LinkKey, long[]> entry : linkTraces.call(asList(traces).iterator())) {
+      assertThat(result.put(entry._1, entry._2)).isNull(); // keys are distinct
+    }
+    return result;
+  }
+
+  static Span shift(Span span, long micros) {
+    Span.Builder result = span.toBuilder().annotations(new ArrayList<>());
+    if (span.timestamp != null) result.timestamp(span.timestamp + micros);
+    for (Annotation a : span.annotations) {
+      result.addAnnotation(a.toBuilder().timestamp(a.timestamp + micros).build());
+    }
+    return result.build();
+  }
+}
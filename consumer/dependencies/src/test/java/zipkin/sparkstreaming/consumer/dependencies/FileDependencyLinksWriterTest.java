@@ -0,0 +1,67 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin.Codec;
+import zipkin.DependencyLink;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileDependencyLinksWriterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  static final long BUCKET = 1496275200000L; // 2017-06-01T00:00:00Z
+
+  @Test
+  public void fileNameIsUtcHour() {
+    assertThat(FileDependencyLinksWriter.fileName(BUCKET))
+        .isEqualTo("dependencies-2017-06-01-00.json");
+    assertThat(FileDependencyLinksWriter.fileName(BUCKET + 3_600_000L))
+        .isEqualTo("dependencies-2017-06-01-01.json");
+  }
+
+  @Test
+  public void upsertAddsToExistingCounts() throws IOException {
+    File directory = new File(folder.getRoot(), "links"); // doesn't exist yet
+    FileDependencyLinksWriter writer = FileDependencyLinksWriter.create(directory.getPath());
+
+    writer.upsert(BUCKET, asList(link("web", "app", 3L, 1L)));
+    writer.upsert(BUCKET, asList(link("web", "app", 2L, 0L), link("app", "db", 1L, 0L)));
+
+    assertThat(read(new File(directory, "dependencies-2017-06-01-00.json")))
+        .containsOnly(link("web", "app", 5L, 1L), link("app", "db", 1L, 0L));
+    assertThat(directory.list()).containsExactly("dependencies-2017-06-01-00.json");
+  }
+
+  static DependencyLink link(String parent, String child, long callCount, long errorCount) {
+    return DependencyLink.builder()
+        .parent(parent)
+        .child(child)
+        .callCount(callCount)
+        .errorCount(errorCount)
+        .build();
+  }
+
+  static List<DependencyLink> read(File file) throws IOException {
+    return Codec.JSON.readDependencyLinks(Files.readAllBytes(file.toPath()));
+  }
+}
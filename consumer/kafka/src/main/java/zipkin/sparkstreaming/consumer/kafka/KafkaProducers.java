@@ -0,0 +1,39 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.kafka;
+
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import zipkin.sparkstreaming.ExecutorSetup;
+
+/**
+ * Holds producers shared by all tasks in an executor. A producer batches records across tasks and
+ * holds connections to brokers, so one per task would defeat batching and churn connections.
+ * Producers are closed, flushing pending records, when the job stops.
+ */
+final class KafkaProducers {
+  /** Returns the executor-wide producer for the given configuration, creating it if needed. */
+  static Producer<byte[], byte[]> get(Map<String, Object> config) {
+    return ExecutorSetup.shared(key(config), () -> new KafkaProducer<byte[], byte[]>(config));
+  }
+
+  static Object key(Map<String, Object> config) {
+    return Arrays.asList(KafkaProducers.class, config);
+  }
+
+  KafkaProducers() {
+  }
+}
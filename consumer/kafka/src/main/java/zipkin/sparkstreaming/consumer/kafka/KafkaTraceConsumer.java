@@ -0,0 +1,212 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.kafka;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.Consumer;
+import zipkin.sparkstreaming.ExecutorSetup;
+import zipkin.sparkstreaming.Traces;
+
+/**
+ * Republishes adjusted traces to a Kafka topic, so that downstream systems can read the cleaned and
+ * sampled stream instead of the raw one.
+ *
+ * <p>Each trace is one message: a list of spans keyed by the lower-hex trace ID, so that all spans
+ * of a trace land in the same Kafka partition. This is the same encoding Zipkin's Kafka collector
+ * reads, so a Zipkin server can consume the topic as-is.
+ *
+ * <p>Sends are asynchronous and batched by an executor-wide producer. {@link #flush()}, called at
+ * the end of each partition, waits for sends of that partition to complete. Producers are closed,
+ * flushing pending records, when the job stops or {@link #close()} is called.
+ */
+@AutoValue
+public abstract class KafkaTraceConsumer implements Consumer, Flushable, Closeable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(KafkaTraceConsumer.class);
+
+  public enum Encoding {
+    JSON(Codec.JSON),
+    THRIFT(Codec.THRIFT);
+
+    final Codec codec;
+
+    Encoding(Codec codec) {
+      this.codec = codec;
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new AutoValue_KafkaTraceConsumer.Builder()
+        .topic("zipkin-adjusted")
+        .encoding(Encoding.THRIFT)
+        .lingerMs(5)
+        .batchSize(16384)
+        .compressionType("none");
+  }
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /** Topic adjusted traces are sent to. Defaults to "zipkin-adjusted" */
+    public abstract Builder topic(String topic);
+
+    /**
+     * Initial set of kafka servers to connect to; others may be discovered. Values are in host:port
+     * syntax. No default.
+     *
+     * @see ProducerConfig#BOOTSTRAP_SERVERS_CONFIG
+     */
+    public abstract Builder bootstrapServers(List<String> bootstrapServers);
+
+    /** Encoding of span lists. Defaults to {@link Encoding#THRIFT} */
+    public abstract Builder encoding(Encoding encoding);
+
+    /**
+     * Milliseconds a producer waits for more traces before sending a batch. Defaults to 5.
+     *
+     * @see ProducerConfig#LINGER_MS_CONFIG
+     */
+    public abstract Builder lingerMs(int lingerMs);
+
+    /**
+     * Maximum bytes a producer sends to a Kafka partition at once. Defaults to 16384.
+     *
+     * @see ProducerConfig#BATCH_SIZE_CONFIG
+     */
+    public abstract Builder batchSize(int batchSize);
+
+    /**
+     * One of "none", "gzip" or "snappy". Defaults to "none".
+     *
+     * @see ProducerConfig#COMPRESSION_TYPE_CONFIG
+     */
+    public abstract Builder compressionType(String compressionType);
+
+    public abstract KafkaTraceConsumer build();
+
+    Builder() {
+    }
+  }
+
+  abstract String topic();
+
+  abstract List<String> bootstrapServers();
+
+  abstract Encoding encoding();
+
+  abstract int lingerMs();
+
+  abstract int batchSize();
+
+  abstract String compressionType();
+
+  /** Sends of the current partition, not serialized as each task gets its own copy. */
+  transient volatile Queue<Future<RecordMetadata>> pending;
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  /** Producers are shared when they have the same configuration. */
+  @Memoized
+  Map<String, Object> producerConfig() {
+    Map<String, Object> config = new LinkedHashMap<>();
+    StringBuilder bootstrapServers = new StringBuilder();
+    for (String server : bootstrapServers()) {
+      if (bootstrapServers.length() > 0) bootstrapServers.append(',');
+      bootstrapServers.append(server);
+    }
+    config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers.toString());
+    config.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs());
+    config.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize());
+    config.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType());
+    config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+    config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+    return Collections.unmodifiableMap(config);
+  }
+
+  @Override public void accept(Iterable<Span> trace) {
+    List<Span> spans = Traces.asList(trace);
+    if (spans.isEmpty()) return;
+    byte[] key = spans.get(0).traceIdString().getBytes(Util.UTF_8);
+    try {
+      byte[] message = encoding().codec.writeSpans(spans);
+      pending().add(KafkaProducers.get(producerConfig())
+          .send(new ProducerRecord<>(topic(), key, message)));
+    } catch (RuntimeException e) {
+      log().warn("Dropped " + spans.size() + " spans: " + e.getMessage(), e);
+    }
+  }
+
+  /** Blocks until traces sent since the last flush are acknowledged, logging any failures. */
+  @Override public void flush() throws InterruptedIOException {
+    Queue<Future<RecordMetadata>> pending = this.pending;
+    if (pending == null) return;
+    int failures = 0;
+    Throwable lastFailure = null;
+    for (Future<RecordMetadata> next; (next = pending.poll()) != null; ) {
+      try {
+        next.get();
+      } catch (ExecutionException e) {
+        failures++;
+        lastFailure = e.getCause();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted waiting for kafka");
+      }
+    }
+    if (failures > 0) {
+      log().warn("Dropped " + failures + " traces: " + lastFailure.getMessage(), lastFailure);
+    }
+  }
+
+  /** Closes the executor-wide producer of this configuration, after sending pending records. */
+  @Override public void close() {
+    ExecutorSetup.release(KafkaProducers.key(producerConfig()));
+  }
+
+  Queue<Future<RecordMetadata>> pending() {
+    Queue<Future<RecordMetadata>> result = pending;
+    if (result == null) {
+      synchronized (this) {
+        result = pending;
+        if (result == null) pending = result = new ConcurrentLinkedQueue<>();
+      }
+    }
+    return result;
+  }
+
+  KafkaTraceConsumer() {
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.kafka;
+
+import java.util.Collections;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.TestObjects;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.ExecutorSetup;
+import zipkin.sparkstreaming.consumer.kafka.KafkaTraceConsumer.Encoding;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KafkaTraceConsumerTest {
+  KafkaTraceConsumer consumer = KafkaTraceConsumer.newBuilder()
+      .bootstrapServers(asList("127.0.0.1:9092", "127.0.0.1:9093"))
+      .build();
+  MockProducer producer = new MockProducer(false);
+
+  @Before
+  public void useMockProducer() {
+    ExecutorSetup.shared(KafkaProducers.key(consumer.producerConfig()), () -> producer);
+  }
+
+  @After
+  public void removeMockProducer() {
+    ExecutorSetup.release(KafkaProducers.key(consumer.producerConfig()));
+  }
+
+  @Test
+  public void producerConfig() {
+    assertThat(consumer.producerConfig())
+        .containsEntry("bootstrap.servers", "127.0.0.1:9092,127.0.0.1:9093")
+        .containsEntry("linger.ms", 5)
+        .containsEntry("batch.size", 16384)
+        .containsEntry("compression.type", "none");
+  }
+
+  @Test
+  public void closeReleasesProducer() {
+    consumer.close();
+
+    MockProducer next = new MockProducer(false);
+    assertThat(ExecutorSetup.shared(KafkaProducers.key(consumer.producerConfig()), () -> next))
+        .isSameAs(next);
+  }
+
+  @Test
+  public void sendsTraceKeyedByTraceId() throws Exception {
+    consumer.accept(TestObjects.TRACE);
+    producer.completeNext();
+    consumer.flush();
+
+    ProducerRecord<byte[], byte[]> record = producer.history().get(0);
+    assertThat(record.topic()).isEqualTo("zipkin-adjusted");
+    assertThat(new String(record.key(), Util.UTF_8))
+        .isEqualTo(TestObjects.TRACE.get(0).traceIdString());
+    assertThat(Codec.THRIFT.readSpans(record.value()))
+        .isEqualTo(TestObjects.TRACE);
+  }
+
+  @Test
+  public void canEncodeJson() throws Exception {
+    KafkaTraceConsumer consumer = KafkaTraceConsumer.newBuilder()
+        .bootstrapServers(asList("127.0.0.1:9092", "127.0.0.1:9093"))
+        .encoding(Encoding.JSON)
+        .build(); // encoding isn't producer config, so this uses the same producer
+
+    consumer.accept(TestObjects.TRACE);
+    producer.completeNext();
+    consumer.flush();
+
+    assertThat(Codec.JSON.readSpans(producer.history().get(0).value()))
+        .isEqualTo(TestObjects.TRACE);
+  }
+
+  @Test
+  public void skipsEmptyTraces() throws Exception {
+    consumer.accept(Collections.emptyList());
+    consumer.flush();
+
+    assertThat(producer.history()).isEmpty();
+  }
+
+  @Test
+  public void flushWaitsForAllSendsAndDropsFailures() throws Exception {
+    consumer.accept(TestObjects.TRACE);
+    consumer.accept(TestObjects.TRACE);
+    producer.errorNext(new IllegalStateException("broker down"));
+    producer.completeNext();
+
+    consumer.flush(); // doesn't throw
+
+    assertThat(consumer.pending).isEmpty();
+    assertThat(producer.history()).hasSize(2);
+  }
+
+  @Test
+  public void sharesProducerWithSameConfig() {
+    KafkaTraceConsumer sameConfig = KafkaTraceConsumer.newBuilder()
+        .bootstrapServers(asList("127.0.0.1:9092", "127.0.0.1:9093"))
+        .build();
+
+    assertThat(KafkaProducers.get(sameConfig.producerConfig())).isSameAs(producer);
+  }
+}
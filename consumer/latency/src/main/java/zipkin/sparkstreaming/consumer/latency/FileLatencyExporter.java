@@ -0,0 +1,129 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+/**
+ * Writes the latest window to a file named "latency.json", as an array of objects sorted by service
+ * and span name. Durations are in microseconds. For example:
+ * <pre>{@code
+ * [{"serviceName":"web","spanName":"get","timestamp":1496275200000,"count":120,"errorCount":2,
+ *   "ratePerSecond":2.0,"p50":1023,"p90":4351,"p99":9471,"max":9800}]
+ * }</pre>
+ *
+ * <p>The file is replaced atomically, so readers never see a partial file.
+ */
+public final class FileLatencyExporter implements LatencyExporter {
+  private static final long serialVersionUID = 0L;
+
+  static final String FILE_NAME = "latency.json";
+
+  /** @param directory where to write the file, created if missing */
+  public static FileLatencyExporter create(String directory) {
+    if (directory == null) throw new NullPointerException("directory == null");
+    return new FileLatencyExporter(directory);
+  }
+
+  final String directory;
+
+  FileLatencyExporter(String directory) {
+    this.directory = directory;
+  }
+
+  @Override public synchronized void export(long timestamp, long windowMillis,
+      Map<LatencyKey, LatencyHistogram> histograms) throws IOException {
+    Path dir = new File(directory).toPath();
+    Files.createDirectories(dir);
+    Path temp = Files.createTempFile(dir, "latency", ".tmp");
+    try {
+      Files.write(temp, toJson(timestamp, windowMillis, histograms).getBytes(Util.UTF_8));
+      Files.move(temp, dir.resolve(FILE_NAME),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  static String toJson(long timestamp, long windowMillis,
+      Map<LatencyKey, LatencyHistogram> histograms) {
+    List<LatencyKey> keys = new ArrayList<>(histograms.keySet());
+    Collections.sort(keys, new Comparator<LatencyKey>() {
+      @Override public int compare(LatencyKey left, LatencyKey right) {
+        int result = left.serviceName.compareTo(right.serviceName);
+        return result != 0 ? result : left.spanName.compareTo(right.spanName);
+      }
+    });
+
+    StringBuilder json = new StringBuilder().append('[');
+    for (LatencyKey key : keys) {
+      LatencyHistogram histogram = histograms.get(key);
+      if (json.length() > 1) json.append(',');
+      json.append("{\"serviceName\":");
+      appendString(json, key.serviceName);
+      json.append(",\"spanName\":");
+      appendString(json, key.spanName);
+      json.append(",\"timestamp\":").append(timestamp)
+          .append(",\"count\":").append(histogram.count())
+          .append(",\"errorCount\":").append(histogram.errorCount())
+          .append(",\"ratePerSecond\":").append(histogram.count() * 1000.0 / windowMillis)
+          .append(",\"p50\":").append(histogram.quantile(0.5))
+          .append(",\"p90\":").append(histogram.quantile(0.9))
+          .append(",\"p99\":").append(histogram.quantile(0.99))
+          .append(",\"max\":").append(histogram.max())
+          .append('}');
+    }
+    return json.append(']').toString();
+  }
+
+  static void appendString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof FileLatencyExporter)) return false;
+    return directory.equals(((FileLatencyExporter) o).directory);
+  }
+
+  @Override public int hashCode() {
+    return directory.hashCode();
+  }
+
+  @Override public String toString() {
+    return "FileLatencyExporter{directory=" + directory + "}";
+  }
+}
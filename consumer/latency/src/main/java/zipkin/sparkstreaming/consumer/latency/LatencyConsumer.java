@@ -0,0 +1,96 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import com.google.auto.value.AutoValue;
+import java.io.Serializable;
+import java.util.Map;
+import org.apache.spark.streaming.Duration;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Span;
+import zipkin.sparkstreaming.LatencyHistogram;
+import zipkin.sparkstreaming.StreamConsumer;
+
+/**
+ * Tracks rate, errors and duration of spans per service and span name, over a sliding window. This
+ * gives latency percentiles from the stream without querying storage.
+ *
+ * <p>Each partition records durations into a {@link LatencyHistogram} per key. Histograms are then
+ * merged with {@code reduceByKeyAndWindow}, and each window's result is passed to the {@link
+ * LatencyExporter exporter} on the driver.
+ */
+@AutoValue
+public abstract class LatencyConsumer implements StreamConsumer, Serializable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(LatencyConsumer.class);
+
+  public static Builder newBuilder() {
+    return new AutoValue_LatencyConsumer.Builder()
+        .windowMillis(60_000)
+        .slideMillis(0);
+  }
+
+  @AutoValue.Builder
+  public interface Builder {
+    /** Span durations recorded in this period are exported together. Defaults to one minute. */
+    Builder windowMillis(long windowMillis);
+
+    /**
+     * How often to export. Defaults to zero, which exports after each batch. Both this and {@link
+     * #windowMillis(long)} must be a multiple of the job's batch duration.
+     */
+    Builder slideMillis(long slideMillis);
+
+    /** Publishes histograms of each window. */
+    Builder exporter(LatencyExporter exporter);
+
+    LatencyConsumer build();
+  }
+
+  abstract long windowMillis();
+
+  abstract long slideMillis();
+
+  abstract LatencyExporter exporter();
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  @Override public void consume(JavaDStream<Iterable<Span>> adjustedTraces) {
+    Duration slide = slideMillis() == 0
+        ? adjustedTraces.dstream().slideDuration()
+        : new Duration(slideMillis());
+    adjustedTraces
+        .mapPartitionsToPair(new RecordLatencies())
+        .reduceByKeyAndWindow(LatencyHistogram::merge, new Duration(windowMillis()), slide)
+        .foreachRDD((rdd, time) -> {
+          export(time.milliseconds(), rdd.collectAsMap()); // one entry per key, so small
+        });
+  }
+
+  void export(long timestamp, Map<LatencyKey, LatencyHistogram> histograms) {
+    try {
+      exporter().export(timestamp, windowMillis(), histograms);
+      log().debug("Exported latency of {} endpoints", histograms.size());
+    } catch (Exception e) {
+      log().warn("Dropped latency of " + histograms.size() + " endpoints: " + e.getMessage(), e);
+    }
+  }
+
+  LatencyConsumer() {
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+/** Publishes latency histograms of each window. Called on the driver. */
+public interface LatencyExporter extends Serializable {
+  /**
+   * @param timestamp epoch millis the window ends at
+   * @param windowMillis duration of the window, for example to compute request rates
+   * @param histograms durations in microseconds, by service and span name
+   */
+  void export(long timestamp, long windowMillis, Map<LatencyKey, LatencyHistogram> histograms)
+      throws IOException;
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.io.Serializable;
+
+/** Latency is tracked per service and span name. */
+public final class LatencyKey implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  final String serviceName, spanName;
+
+  LatencyKey(String serviceName, String spanName) {
+    this.serviceName = serviceName;
+    this.spanName = spanName;
+  }
+
+  /** Lowercase name of the service that reported the span, such as the server */
+  public String serviceName() {
+    return serviceName;
+  }
+
+  /** The span name, such as "get /users/{id}" */
+  public String spanName() {
+    return spanName;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof LatencyKey)) return false;
+    LatencyKey that = (LatencyKey) o;
+    return serviceName.equals(that.serviceName) && spanName.equals(that.spanName);
+  }
+
+  @Override public int hashCode() {
+    return serviceName.hashCode() * 1000003 ^ spanName.hashCode();
+  }
+
+  @Override public String toString() {
+    return "LatencyKey{serviceName=" + serviceName + ", spanName=" + spanName + "}";
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+/**
+ * Records span durations of a partition into one histogram per service and span name. This emits
+ * one entry per distinct key, so the shuffle is as small as the count of endpoints, not spans.
+ */
+final class RecordLatencies
+    implements PairFlatMapFunction<Iterator<Iterable<Span>>, LatencyKey, LatencyHistogram> {
+  private static final long serialVersionUID = 0L;
+
+  @Override public Iterable<Tuple2<LatencyKey, LatencyHistogram>> call(
+      Iterator<Iterable<Span>> traces) {
+    Map<LatencyKey, LatencyHistogram> histograms = new LinkedHashMap<>();
+    while (traces.hasNext()) {
+      for (Span span : traces.next()) {
+        if (span.duration == null) continue;
+        String serviceName = serviceName(span);
+        if (serviceName == null) continue;
+        LatencyKey key = new LatencyKey(serviceName, span.name);
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) histograms.put(key, histogram = new LatencyHistogram());
+        histogram.record(span.duration, isError(span));
+      }
+    }
+
+    List<Tuple2<LatencyKey, LatencyHistogram>> result = new ArrayList<>(histograms.size());
+    for (Map.Entry<LatencyKey, LatencyHistogram> entry : histograms.entrySet()) {
+      result.add(new Tuple2<>(entry.getKey(), entry.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the service that recorded the span's duration: the server if there is one, otherwise
+   * the client, otherwise the local component. Returns null when unknown.
+   */
+  static String serviceName(Span span) {
+    Endpoint client = null, other = null;
+    for (Annotation a : span.annotations) {
+      if (a.endpoint == null) continue;
+      if (a.value.equals(Constants.SERVER_RECV)) return a.endpoint.serviceName;
+      if (a.value.equals(Constants.CLIENT_SEND)) client = a.endpoint;
+      if (other == null) other = a.endpoint;
+    }
+    if (client != null) return client.serviceName;
+    for (BinaryAnnotation b : span.binaryAnnotations) {
+      if (b.endpoint != null && b.key.equals(Constants.LOCAL_COMPONENT)) {
+        return b.endpoint.serviceName;
+      }
+    }
+    return other != null ? other.serviceName : null;
+  }
+
+  static boolean isError(Span span) {
+    for (BinaryAnnotation b : span.binaryAnnotations) {
+      if (b.key.equals(Constants.ERROR)) return true;
+    }
+    for (Annotation a : span.annotations) {
+      if (a.value.equals(Constants.ERROR)) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileLatencyExporterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  Map<LatencyKey, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+  @Test
+  public void writesSortedByServiceAndSpanName() {
+    histograms.put(new LatencyKey("web", "get"), histogram(10L, 20L));
+    histograms.put(new LatencyKey("app", "get"), histogram(5L));
+
+    assertThat(FileLatencyExporter.toJson(1000L, 2000L, histograms)).isEqualTo("["
+        + "{\"serviceName\":\"app\",\"spanName\":\"get\",\"timestamp\":1000,\"count\":1,"
+        + "\"errorCount\":0,\"ratePerSecond\":0.5,\"p50\":5,\"p90\":5,\"p99\":5,\"max\":5},"
+        + "{\"serviceName\":\"web\",\"spanName\":\"get\",\"timestamp\":1000,\"count\":2,"
+        + "\"errorCount\":0,\"ratePerSecond\":1.0,\"p50\":10,\"p90\":20,\"p99\":20,\"max\":20}"
+        + "]");
+  }
+
+  @Test
+  public void escapesNames() {
+    histograms.put(new LatencyKey("web", "get \"/\\\""), histogram(5L));
+
+    assertThat(FileLatencyExporter.toJson(1000L, 1000L, histograms))
+        .contains("\"spanName\":\"get \\\"/\\\\\\\"\"");
+  }
+
+  @Test
+  public void replacesFile() throws IOException {
+    File directory = new File(folder.getRoot(), "latency"); // doesn't exist yet
+    FileLatencyExporter exporter = FileLatencyExporter.create(directory.getPath());
+
+    histograms.put(new LatencyKey("web", "get"), histogram(10L));
+    exporter.export(1000L, 1000L, histograms);
+    histograms.clear();
+    exporter.export(2000L, 1000L, histograms);
+
+    assertThat(directory.list()).containsExactly("latency.json");
+    assertThat(new String(Files.readAllBytes(new File(directory, "latency.json").toPath()),
+        Util.UTF_8)).isEqualTo("[]");
+  }
+
+  static LatencyHistogram histogram(long... durations) {
+    LatencyHistogram result = new LatencyHistogram();
+    for (long duration : durations) result.record(duration, false);
+    return result;
+  }
+}
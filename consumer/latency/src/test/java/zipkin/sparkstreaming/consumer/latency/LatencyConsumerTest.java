@@ -0,0 +1,111 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.latency;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import scala.Tuple2;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Span;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
+public class LatencyConsumerTest {
+  Map<LatencyKey, LatencyHistogram> exported = new LinkedHashMap<>();
+  LatencyConsumer consumer = LatencyConsumer.newBuilder()
+      .exporter((timestamp, windowMillis, histograms) -> exported.putAll(histograms))
+      .build();
+
+  Span client = Span.builder().traceId(1L).id(2L).name("get").duration(200L)
+      .addAnnotation(Annotation.create(1L, Constants.CLIENT_SEND, WEB_ENDPOINT))
+      .build();
+  Span server = client.toBuilder().duration(150L)
+      .addAnnotation(Annotation.create(2L, Constants.SERVER_RECV, APP_ENDPOINT))
+      .build();
+
+  @Test
+  public void recordsDurationPerServiceAndSpanName() {
+    Map<LatencyKey, LatencyHistogram> histograms = call(asList(client), asList(server, client));
+
+    assertThat(histograms).containsOnlyKeys(
+        new LatencyKey("web", "get"), new LatencyKey("app", "get")
+    );
+    LatencyHistogram web = histograms.get(new LatencyKey("web", "get"));
+    assertThat(web.count()).isEqualTo(2L);
+    assertThat(web.max()).isEqualTo(200L);
+    assertThat(histograms.get(new LatencyKey("app", "get")).max()).isEqualTo(150L);
+  }
+
+  @Test
+  public void skipsSpansWithoutDuration() {
+    Span incomplete = client.toBuilder().duration(null).build();
+
+    assertThat(call(asList(incomplete))).isEmpty();
+  }
+
+  @Test
+  public void serviceNameOfLocalSpan() {
+    Span local = Span.builder().traceId(1L).id(1L).name("compute").duration(10L)
+        .addBinaryAnnotation(BinaryAnnotation.create(Constants.LOCAL_COMPONENT, "math", APP_ENDPOINT))
+        .build();
+
+    assertThat(RecordLatencies.serviceName(local)).isEqualTo("app");
+  }
+
+  @Test
+  public void countsErrors() {
+    Span failed = client.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.create(Constants.ERROR, "timeout", WEB_ENDPOINT))
+        .build();
+
+    assertThat(call(asList(failed, client)).get(new LatencyKey("web", "get")).errorCount())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void exportFailureIsLogged() {
+    LatencyConsumer consumer = LatencyConsumer.newBuilder()
+        .exporter((timestamp, windowMillis, histograms) -> {
+          throw new IOException("disk full");
+        }).build();
+
+    consumer.export(1L, call(asList(client))); // doesn't throw
+  }
+
+  @Test
+  public void exportsEachWindow() {
+    consumer.export(1L, call(asList(client)));
+
+    assertThat(exported).containsOnlyKeys(new LatencyKey("web", "get"));
+  }
+
+  static Map<LatencyKey, LatencyHistogram> call(List<Span>... traces) {
+    Map<LatencyKey, LatencyHistogram> result = new LinkedHashMap<>();
+    Iterable<Tuple2<LatencyKey, LatencyHistogram>> entries =
+        new RecordLatencies().call(asList((Iterable<Span>[]) traces).iterator());
+    for (Tuple2<LatencyKey, LatencyHistogram> entry : entries) {
+      assertThat(result.put(entry._1, entry._2)).isNull(); // keys are distinct
+    }
+    return result;
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.storage;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.spark.AccumulableParam;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+/**
+ * How many milliseconds after they started spans were written to storage, overall and by service.
+ * This is the delay before a trace is queryable, so is what ingest-latency targets are about.
+ *
+ * <p>Like {@link zipkin.sparkstreaming.PipelineMetrics}, tasks record into their local copy of an
+ * accumulable, which Spark merges on the driver. Record methods are synchronized, as worker threads
+ * share the copy when parallelism is above 1.
+ */
+public final class DataFreshness implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  final LatencyHistogram all = new LatencyHistogram();
+  final Map<String, LatencyHistogram> byService = new LinkedHashMap<>();
+
+  /** Distribution of freshness in milliseconds, across all services. */
+  public synchronized LatencyHistogram all() {
+    return LatencyHistogram.merge(all, new LatencyHistogram()); // copy
+  }
+
+  /** Distribution of freshness in milliseconds, by service name. */
+  public synchronized Map<String, LatencyHistogram> byService() {
+    Map<String, LatencyHistogram> result = new LinkedHashMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : byService.entrySet()) {
+      result.put(entry.getKey(), LatencyHistogram.merge(entry.getValue(), new LatencyHistogram()));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Records the freshness of spans just written to storage. Spans without a timestamp are skipped,
+   * as are those timestamped in the future, which are usually due to clock skew.
+   */
+  synchronized void record(List<Span> written, long nowMillis) {
+    for (int i = 0, length = written.size(); i < length; i++) {
+      Span span = written.get(i);
+      Long timestamp = timestamp(span);
+      if (timestamp == null) continue;
+      long millis = nowMillis - timestamp / 1000;
+      if (millis < 0) continue;
+      all.record(millis, false);
+      String serviceName = serviceName(span);
+      LatencyHistogram histogram = byService.get(serviceName);
+      if (histogram == null) byService.put(serviceName, histogram = new LatencyHistogram());
+      histogram.record(millis, false);
+    }
+  }
+
+  /** Adds the other's distributions to this. */
+  void add(DataFreshness other) {
+    if (other == this) throw new IllegalArgumentException("can't add to self");
+    synchronized (other) {
+      synchronized (this) {
+        all.add(other.all);
+        for (Map.Entry<String, LatencyHistogram> entry : other.byService.entrySet()) {
+          LatencyHistogram histogram = byService.get(entry.getKey());
+          if (histogram == null) byService.put(entry.getKey(), histogram = new LatencyHistogram());
+          histogram.add(entry.getValue());
+        }
+      }
+    }
+  }
+
+  /** Returns the span's timestamp in epoch microseconds, or the first annotation's if unset. */
+  static Long timestamp(Span span) {
+    if (span.timestamp != null) return span.timestamp;
+    return span.annotations.isEmpty() ? null : span.annotations.get(0).timestamp;
+  }
+
+  /** Returns the service of the first endpoint in the span, or "unknown" if there is none. */
+  static String serviceName(Span span) {
+    for (Annotation annotation : span.annotations) {
+      if (hasServiceName(annotation.endpoint)) return annotation.endpoint.serviceName;
+    }
+    for (BinaryAnnotation binaryAnnotation : span.binaryAnnotations) {
+      if (hasServiceName(binaryAnnotation.endpoint)) return binaryAnnotation.endpoint.serviceName;
+    }
+    return "unknown";
+  }
+
+  static boolean hasServiceName(Endpoint endpoint) {
+    return endpoint != null && !endpoint.serviceName.isEmpty();
+  }
+
+  /** Merges freshness recorded by tasks into the driver's copy. */
+  static final class Param implements AccumulableParam<DataFreshness, DataFreshness> {
+    private static final long serialVersionUID = 0L;
+
+    @Override public DataFreshness addAccumulator(DataFreshness sum, DataFreshness next) {
+      sum.add(next);
+      return sum;
+    }
+
+    @Override public DataFreshness addInPlace(DataFreshness sum, DataFreshness next) {
+      sum.add(next);
+      return sum;
+    }
+
+    @Override public DataFreshness zero(DataFreshness initialValue) {
+      return new DataFreshness();
+    }
+  }
+
+  @Override public synchronized String toString() {
+    return "DataFreshness{all=" + all + ", byService=" + byService + "}";
+  }
+}
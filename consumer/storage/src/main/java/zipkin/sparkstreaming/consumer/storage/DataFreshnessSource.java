@@ -0,0 +1,103 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.util.Map;
+import org.apache.spark.metrics.source.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.sparkstreaming.LatencyHistogram;
+
+/**
+ * Publishes {@link DataFreshness} of the last batch to Spark's metrics system under the source name
+ * "zipkin-storage", as gauges like "freshness.p99" and "freshness.service.frontend.p99".
+ *
+ * <p>When a target is set, this logs a warning once when the p99 of a batch exceeds it, and again
+ * at info when freshness recovered. This is only used on the driver.
+ */
+class DataFreshnessSource implements Source {
+  private static final Logger log = LoggerFactory.getLogger(DataFreshnessSource.class);
+
+  final long targetMillis;
+  final MetricRegistry registry = new MetricRegistry();
+  volatile DataFreshness lastBatch = new DataFreshness();
+  boolean degraded; // guarded by this
+
+  /** @param targetMillis p99 freshness above which to warn, or zero to not check */
+  DataFreshnessSource(long targetMillis) {
+    this.targetMillis = targetMillis;
+    registerGauges("freshness", null);
+  }
+
+  Logger log() { // Override for testing
+    return log;
+  }
+
+  @Override public String sourceName() {
+    return "zipkin-storage";
+  }
+
+  @Override public MetricRegistry metricRegistry() {
+    return registry;
+  }
+
+  synchronized void update(DataFreshness batch) {
+    lastBatch = batch;
+    Map<String, LatencyHistogram> byService = batch.byService();
+    for (String serviceName : byService.keySet()) {
+      String prefix = MetricRegistry.name("freshness", "service", serviceName);
+      if (!registry.getGauges().containsKey(prefix + ".p99")) registerGauges(prefix, serviceName);
+    }
+    LatencyHistogram all = batch.all();
+    if (targetMillis <= 0 || all.count() == 0) return;
+
+    long p99 = all.quantile(0.99);
+    boolean degraded = p99 > targetMillis;
+    if (degraded && !this.degraded) {
+      log().warn("Spans were written to storage {}ms after they started (p99), which exceeds the"
+          + " target of {}ms. The stalest service was {}.", p99, targetMillis, stalest(byService));
+    } else if (!degraded && this.degraded) {
+      log().info("Freshness is back within the target of {}ms (p99 {}ms)", targetMillis, p99);
+    }
+    this.degraded = degraded;
+  }
+
+  /** @param serviceName null for the distribution across all services */
+  void registerGauges(String prefix, String serviceName) {
+    registry.register(prefix + ".p50", (Gauge<Long>) () -> histogram(serviceName).quantile(0.5));
+    registry.register(prefix + ".p99", (Gauge<Long>) () -> histogram(serviceName).quantile(0.99));
+    registry.register(prefix + ".max", (Gauge<Long>) () -> histogram(serviceName).max());
+  }
+
+  LatencyHistogram histogram(String serviceName) {
+    if (serviceName == null) return lastBatch.all();
+    LatencyHistogram result = lastBatch.byService().get(serviceName);
+    return result != null ? result : new LatencyHistogram(); // not in the last batch
+  }
+
+  static String stalest(Map<String, LatencyHistogram> byService) {
+    String result = null;
+    long max = -1;
+    for (Map.Entry<String, LatencyHistogram> entry : byService.entrySet()) {
+      long p99 = entry.getValue().quantile(0.99);
+      if (p99 > max) {
+        max = p99;
+        result = entry.getKey();
+      }
+    }
+    return result;
+  }
+}
@@ -14,31 +14,67 @@
 package zipkin.sparkstreaming.consumer.storage;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import org.apache.spark.Accumulable;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin.Component;
 import zipkin.Span;
 import zipkin.internal.CallbackCaptor;
 import zipkin.sparkstreaming.Consumer;
+import zipkin.sparkstreaming.EmbeddedBatchAware;
+import zipkin.sparkstreaming.ExecutorSetup;
+import zipkin.sparkstreaming.Traces;
 import zipkin.storage.StorageComponent;
 
-/** A storage consumer which writes to storage on {@link #accept(Iterable)}. */
-public abstract class StorageConsumer implements Consumer, Component {
+/**
+ * A storage consumer which writes to storage on {@link #accept(Iterable)}.
+ *
+ * <p>After each successful write, this records the {@link DataFreshness freshness} of the spans
+ * written. Before each batch, the driver publishes what was recorded since the last one to Spark's
+ * metrics system. That is usually exactly the previous batch, as Spark runs one at a time. In an
+ * embedded job, which has no metrics system, freshness is only checked against the {@link
+ * #freshnessTargetMillis() target}.
+ */
+public abstract class StorageConsumer implements Consumer, Component, EmbeddedBatchAware {
   private static final Logger log = LoggerFactory.getLogger(StorageConsumer.class);
 
   Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
     return log;
   }
 
-  transient volatile StorageComponent instance; // not serializable
+  transient volatile StorageComponent instance; // not serializable, and only used without a key
+  volatile Accumulable<DataFreshness, DataFreshness> freshness; // set by the driver
+  transient DataFreshnessSource freshnessSource; // only on the driver
+  transient volatile DataFreshness localFreshness; // used instead of freshness in an embedded job
+
+  /**
+   * p99 milliseconds from span start to storage write, above which the driver logs a warning.
+   * Defaults to zero, which doesn't check.
+   */
+  protected long freshnessTargetMillis() {
+    return 0L;
+  }
 
   /** Subclasses should initialize this from serializable state. */
   protected abstract StorageComponent tryCompute();
 
+  /**
+   * When not null, copies of this consumer with an equal key share one storage component per JVM,
+   * instead of each task connecting anew. Implement by returning the serializable configuration
+   * used by {@link #tryCompute()}, along with the type. Defaults to null.
+   *
+   * <p>The shared component is looked up on each use instead of cached, so that once a copy closes
+   * it, other copies connect again instead of using the closed one.
+   */
+  protected Object storageKey() {
+    return null;
+  }
+
   @Override public final void accept(Iterable<Span> spansSharingId) {
-    List<Span> list = asList(spansSharingId);
+    List<Span> list = Traces.asList(spansSharingId);
     if (list.isEmpty()) {
       log().debug("Input was empty");
       return;
@@ -50,6 +86,13 @@ public abstract class StorageConsumer implements Consumer, Component {
       get().asyncSpanConsumer().accept(list, blockingCallback);
       blockingCallback.get();
       log().debug("Wrote {} spans", list.size());
+      Accumulable<DataFreshness, DataFreshness> freshness = this.freshness;
+      DataFreshness localFreshness = this.localFreshness;
+      if (freshness != null) {
+        freshness.localValue().record(list, System.currentTimeMillis());
+      } else if (localFreshness != null) {
+        localFreshness.record(list, System.currentTimeMillis());
+      }
     } catch (RuntimeException e) {
       Throwable toLog = e.getClass().equals(RuntimeException.class) && e.getCause() != null
           ? e.getCause() // callback captor wraps checked exceptions
@@ -65,14 +108,41 @@ public abstract class StorageConsumer implements Consumer, Component {
     }
   }
 
+  /** Publishes the freshness recorded since the last batch. */
+  @Override public void prepareBatch(JavaSparkContext context) {
+    if (freshnessSource == null) { // first batch, or the job was recovered from a checkpoint
+      // accumulators aren't restored from checkpoints, so recreate it
+      freshness = context.accumulable(new DataFreshness(), "zipkin-freshness",
+          new DataFreshness.Param());
+      freshnessSource = new DataFreshnessSource(freshnessTargetMillis());
+      SparkEnv.get().metricsSystem().registerSource(freshnessSource);
+      return;
+    }
+    DataFreshness batch = freshness.value();
+    freshness.setValue(new DataFreshness());
+    freshnessSource.update(batch);
+  }
+
+  /** Checks the freshness recorded since the last batch against the target. */
+  @Override public synchronized void prepareEmbeddedBatch() {
+    if (freshnessSource == null) { // first batch
+      localFreshness = new DataFreshness();
+      freshnessSource = new DataFreshnessSource(freshnessTargetMillis());
+      return;
+    }
+    DataFreshness batch = localFreshness;
+    localFreshness = new DataFreshness();
+    freshnessSource.update(batch);
+  }
+
   final StorageComponent get() {
+    Object key = storageKey();
+    if (key != null) return ExecutorSetup.shared(key, this::tryCompute);
     StorageComponent result = instance;
     if (result == null) {
       synchronized (this) {
         result = instance;
-        if (result == null) {
-          instance = result = tryCompute();
-        }
+        if (result == null) instance = result = tryCompute();
       }
     }
     return result;
@@ -83,14 +153,14 @@ public abstract class StorageConsumer implements Consumer, Component {
   }
 
   @Override public final void close() throws IOException {
+    Object key = storageKey();
+    if (key != null) {
+      ExecutorSetup.release(key); // closes the shared component
+      return;
+    }
     synchronized (this) {
       if (instance != null) instance.close();
+      instance = null;
     }
   }
-
-  static <E> List<E> asList(Iterable<E> iter) {
-    List<E> list = new ArrayList<E>();
-    for (E item : iter) list.add(item);
-    return list;
-  }
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.consumer.storage;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import slf4jtest.LogLevel;
+import slf4jtest.Settings;
+import slf4jtest.TestLogger;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static zipkin.Constants.SERVER_RECV;
+
+public class DataFreshnessTest {
+  static final long NOW = 1500000000000L; // epoch millis
+
+  Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1);
+  Endpoint backend = Endpoint.create("backend", 192 << 24 | 168 << 16 | 1);
+
+  DataFreshness freshness = new DataFreshness();
+  TestLogger logger = new Settings().enableAll().buildLogging().getLogger("");
+
+  @Test
+  public void recordsMillisSinceSpanTimestamp() {
+    freshness.record(asList(span(frontend, 2000L), span(backend, 500L)), NOW);
+
+    assertThat(freshness.all().count()).isEqualTo(2);
+    assertThat(freshness.all().max()).isEqualTo(2000L);
+    assertThat(freshness.byService()).containsOnlyKeys("frontend", "backend");
+    assertThat(freshness.byService().get("backend").max()).isEqualTo(500L);
+  }
+
+  @Test
+  public void fallsBackToFirstAnnotationTimestamp() {
+    Span span = span(frontend, 2000L).toBuilder().timestamp(null).build();
+    freshness.record(asList(span), NOW);
+
+    assertThat(freshness.all().max()).isEqualTo(2000L);
+  }
+
+  @Test
+  public void skipsSpansWithoutTimestampOrFromTheFuture() {
+    Span noTimestamp = Span.builder().traceId(1L).id(2L).name("get")
+        .addBinaryAnnotation(BinaryAnnotation.create("lc", "cache", frontend))
+        .build();
+    freshness.record(asList(noTimestamp, span(frontend, -1000L)), NOW);
+
+    assertThat(freshness.all().count()).isZero();
+    assertThat(freshness.byService()).isEmpty();
+  }
+
+  @Test
+  public void serviceNameFromBinaryAnnotation() {
+    Span span = Span.builder().traceId(1L).id(2L).name("get").timestamp((NOW - 10) * 1000)
+        .addBinaryAnnotation(BinaryAnnotation.create("lc", "cache", backend))
+        .build();
+
+    assertThat(DataFreshness.serviceName(span)).isEqualTo("backend");
+  }
+
+  @Test
+  public void serviceNameUnknownWithoutEndpoint() {
+    Span span = Span.builder().traceId(1L).id(2L).name("get").timestamp((NOW - 10) * 1000).build();
+
+    assertThat(DataFreshness.serviceName(span)).isEqualTo("unknown");
+  }
+
+  @Test
+  public void mergesAcrossTasks() {
+    DataFreshness task1 = new DataFreshness(), task2 = new DataFreshness();
+    task1.record(asList(span(frontend, 100L)), NOW);
+    task2.record(asList(span(frontend, 300L), span(backend, 200L)), NOW);
+
+    DataFreshness.Param param = new DataFreshness.Param();
+    DataFreshness merged = param.addInPlace(param.addInPlace(param.zero(null), task1), task2);
+
+    assertThat(merged.all().count()).isEqualTo(3);
+    assertThat(merged.byService().get("frontend").count()).isEqualTo(2);
+    assertThat(merged.byService().get("frontend").max()).isEqualTo(300L);
+  }
+
+  @Test
+  public void sourcePublishesLastBatchByService() {
+    DataFreshnessSource source = new DataFreshnessSource(0L);
+    freshness.record(asList(span(frontend, 100L), span(backend, 200L)), NOW);
+    source.update(freshness);
+
+    assertThat(source.metricRegistry().getGauges()).containsKeys(
+        "freshness.p99", "freshness.service.frontend.p99", "freshness.service.backend.max");
+    assertThat(source.metricRegistry().getGauges().get("freshness.max").getValue())
+        .isEqualTo(200L);
+
+    source.update(new DataFreshness()); // services absent from a batch read zero
+    assertThat(source.metricRegistry().getGauges().get("freshness.service.backend.max").getValue())
+        .isEqualTo(0L);
+  }
+
+  @Test
+  public void sourceWarnsOnceWhenFreshnessDegradesAndWhenItRecovers() {
+    DataFreshnessSource source = new DataFreshnessSource(1000L) {
+      @Override Logger log() {
+        return logger;
+      }
+    };
+
+    source.update(batch(span(frontend, 500L)));
+    source.update(batch(span(frontend, 500L), span(backend, 5000L)));
+    source.update(batch(span(backend, 5000L)));
+    source.update(batch(span(backend, 500L)));
+
+    assertThat(logger.lines()).extracting("level", "text").containsExactly(
+        tuple(LogLevel.WarnLevel, "Spans were written to storage 5000ms after they started (p99),"
+            + " which exceeds the target of 1000ms. The stalest service was backend."),
+        tuple(LogLevel.InfoLevel, "Freshness is back within the target of 1000ms (p99 500ms)")
+    );
+  }
+
+  DataFreshness batch(Span... spans) {
+    DataFreshness result = new DataFreshness();
+    result.record(asList(spans), NOW);
+    return result;
+  }
+
+  /** Returns a span that started this many milliseconds before {@link #NOW}. */
+  static Span span(Endpoint endpoint, long ageMillis) {
+    long timestamp = (NOW - ageMillis) * 1000;
+    return Span.builder().traceId(1L).id(1L).name("get").timestamp(timestamp)
+        .addAnnotation(Annotation.create(timestamp, SERVER_RECV, endpoint))
+        .build();
+  }
+}
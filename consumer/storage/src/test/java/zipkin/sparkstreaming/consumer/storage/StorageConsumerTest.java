@@ -90,6 +90,20 @@ public class StorageConsumerTest {
     )).isEqualTo(TestObjects.TRACE);
   }
 
+  @Test
+  public void embeddedBatchRecordsFreshness() {
+    storage = new InMemoryStorage();
+    storageConsumer.prepareEmbeddedBatch();
+
+    storageConsumer.accept(TestObjects.TRACE);
+    DataFreshness recorded = storageConsumer.localFreshness;
+    storageConsumer.prepareEmbeddedBatch();
+
+    assertThat(recorded.all().count()).isEqualTo(TestObjects.TRACE.size());
+    assertThat(storageConsumer.freshnessSource.lastBatch).isSameAs(recorded);
+    assertThat(storageConsumer.localFreshness.all().count()).isZero();
+  }
+
   @Test
   public void logsOnAcceptError() {
     IllegalStateException acceptException = new IllegalStateException("failed");
@@ -169,6 +183,41 @@ public class StorageConsumerTest {
     assertThat(provisionCount.get()).isEqualTo(1);
   }
 
+  @Test
+  public void get_sharesAcrossCopiesWithSameKey() throws IOException {
+    AtomicInteger provisionCount = new AtomicInteger();
+    StorageConsumer first = new KeyedStorageConsumer(provisionCount);
+    StorageConsumer second = new KeyedStorageConsumer(provisionCount);
+
+    assertThat(second.get()).isSameAs(first.get());
+    assertThat(provisionCount.get()).isEqualTo(1);
+
+    // closing releases the shared component, so copies provision again instead of using it
+    StorageComponent closed = first.get();
+    first.close();
+    StorageConsumer third = new KeyedStorageConsumer(provisionCount);
+    assertThat(second.get()).isNotSameAs(closed).isSameAs(third.get());
+    assertThat(provisionCount.get()).isEqualTo(2);
+    third.close();
+  }
+
+  static final class KeyedStorageConsumer extends StorageConsumer {
+    final AtomicInteger provisionCount;
+
+    KeyedStorageConsumer(AtomicInteger provisionCount) {
+      this.provisionCount = provisionCount;
+    }
+
+    @Override protected Object storageKey() {
+      return KeyedStorageConsumer.class;
+    }
+
+    @Override protected StorageComponent tryCompute() {
+      provisionCount.incrementAndGet();
+      return new InMemoryStorage();
+    }
+  }
+
   static <T> Answer answer(Consumer<Callback<T>> onCallback) {
     return invocation -> {
       onCallback.accept((Callback) invocation.getArguments()[invocation.getArguments().length - 1]);
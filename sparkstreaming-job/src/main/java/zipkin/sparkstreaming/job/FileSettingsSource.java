@@ -0,0 +1,140 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.job;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertiesPropertySource;
+import zipkin.sparkstreaming.Adjuster;
+import zipkin.sparkstreaming.Settings;
+import zipkin.sparkstreaming.SettingsSource;
+
+/**
+ * Reads sampler and adjuster properties from a properties file, or a directory of them, when it
+ * changes. Properties in the file take precedence over those the job was started with.
+ *
+ * <p>On change, the given configurations are loaded into a new application context, so adjusters
+ * are created exactly as they are at startup. For example, adding
+ * "zipkin.sparkstreaming.adjuster.slim.enabled=true" to the file enables span slimming.
+ */
+final class FileSettingsSource implements SettingsSource {
+  private static final Logger log = LoggerFactory.getLogger(FileSettingsSource.class);
+
+  final File path;
+  final ConfigurableEnvironment environment;
+  final Class<?>[] configurations;
+  String lastVersion; // guarded by this
+
+  /**
+   * @param path properties file, or directory of them, applied in name order
+   * @param environment holds the properties the job was started with
+   * @param configurations configurations that provide {@link Adjuster adjusters}
+   */
+  FileSettingsSource(File path, ConfigurableEnvironment environment,
+      Class<?>... configurations) {
+    this.path = path;
+    this.environment = environment;
+    this.configurations = configurations;
+  }
+
+  @Override public synchronized Settings poll() {
+    List<File> files = files();
+    String version = version(files);
+    if (version.equals(lastVersion)) return null;
+    lastVersion = version; // if loading fails, don't retry until the files change again
+
+    AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+    try {
+      MutablePropertySources sources = context.getEnvironment().getPropertySources();
+      for (File file : files) { // later files take precedence
+        sources.addFirst(new PropertiesPropertySource(file.getPath(), load(file)));
+      }
+      context.getEnvironment().merge(environment); // adds the job's properties after the files'
+      context.register(PropertyPlaceholderAutoConfiguration.class, SettingsConfiguration.class);
+      context.register(configurations);
+      context.refresh();
+
+      SettingsConfiguration settings = context.getBean(SettingsConfiguration.class);
+      log.info("loaded settings from {}", files);
+      return Settings.newBuilder()
+          .sampler(settings.properties.getSampler().toBuilder().build())
+          .adjusters(new ArrayList<>(settings.adjusters))
+          .build();
+    } finally {
+      context.close(); // adjusters are plain objects, so they outlive the context
+    }
+  }
+
+  /** Returns properties files to load, in name order. */
+  List<File> files() {
+    File[] files;
+    if (path.isDirectory()) {
+      files = path.listFiles((dir, name) -> name.endsWith(".properties"));
+      if (files == null) files = new File[0]; // deleted while listing
+    } else {
+      files = path.isFile() ? new File[] {path} : new File[0];
+    }
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  /** Changes when a file is added, removed or modified. */
+  static String version(List<File> files) {
+    StringBuilder result = new StringBuilder();
+    for (File file : files) {
+      result.append(file.getName()).append('@').append(file.lastModified()).append(';');
+    }
+    return result.toString();
+  }
+
+  static Properties load(File file) {
+    Properties result = new Properties();
+    try (InputStream input = new FileInputStream(file)) {
+      result.load(input);
+    } catch (IOException e) {
+      throw new IllegalStateException("unable to read " + file, e);
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "FileSettingsSource{path=" + path + "}";
+  }
+
+  /** Collects settings the same way {@link ZipkinSparkStreamingConfiguration} does */
+  @Configuration
+  @EnableConfigurationProperties(ZipkinSparkStreamingProperties.class)
+  static class SettingsConfiguration {
+    @Autowired ZipkinSparkStreamingProperties properties;
+
+    @Autowired(required = false)
+    List<Adjuster> adjusters = Collections.emptyList();
+  }
+}
@@ -13,6 +13,7 @@
  */
 package zipkin.sparkstreaming.job;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -25,12 +26,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
 import zipkin.sparkstreaming.Adjuster;
 import zipkin.sparkstreaming.Consumer;
+import zipkin.sparkstreaming.EmbeddedJob;
+import zipkin.sparkstreaming.MessageSource;
+import zipkin.sparkstreaming.SettingsSource;
 import zipkin.sparkstreaming.SparkStreamingJob;
+import zipkin.sparkstreaming.StreamConsumer;
 import zipkin.sparkstreaming.StreamFactory;
 
 @Configuration
@@ -41,14 +48,22 @@ public class ZipkinSparkStreamingConfiguration {
   @Autowired(required = false)
   List<Adjuster> adjusters = Collections.emptyList();
 
-  @Bean SparkStreamingJob sparkStreaming(
+  @Autowired(required = false)
+  List<StreamConsumer> streamConsumers = Collections.emptyList();
+
+  @Bean
+  @ConditionalOnProperty(name = "zipkin.sparkstreaming.engine", havingValue = "spark",
+      matchIfMissing = true)
+  SparkStreamingJob sparkStreaming(
       ZipkinSparkStreamingProperties sparkStreaming,
       @Value("${zipkin.log-level:info}") String zipkinLogLevel,
       StreamFactory streamFactory,
-      Consumer consumer
+      List<Consumer> consumers,
+      ConfigurableEnvironment environment
   ) {
     SparkStreamingJob.Builder builder = sparkStreaming.toBuilder();
     if (!"".equals(zipkinLogLevel)) builder.zipkinLogLevel(zipkinLogLevel);
+    builder.settingsSource(settingsSource(sparkStreaming, environment));
     if (sparkStreaming.getMaster() != null && sparkStreaming.getJars() == null) {
       List<String> pathToJars = pathToJars(ZipkinSparkStreamingJob.class, adjusters);
       if (pathToJars != null) {
@@ -58,11 +73,42 @@ public class ZipkinSparkStreamingConfiguration {
     }
     return builder.streamFactory(streamFactory)
         .adjusters(adjusters)
-        .consumer(consumer)
+        .consumer(sparkStreaming.getFanout().toConsumer(consumers))
+        .streamConsumers(streamConsumers)
+        .build()
+        .start();
+  }
+
+  /** Runs the pipeline in-process instead of on Spark */
+  @Bean
+  @ConditionalOnProperty(name = "zipkin.sparkstreaming.engine", havingValue = "embedded")
+  EmbeddedJob embedded(
+      ZipkinSparkStreamingProperties sparkStreaming,
+      @Value("${zipkin.log-level:info}") String zipkinLogLevel,
+      MessageSource messageSource,
+      List<Consumer> consumers,
+      ConfigurableEnvironment environment
+  ) {
+    if (!streamConsumers.isEmpty()) {
+      log.warn("Stream consumers need the spark engine; ignoring " + streamConsumers);
+    }
+    EmbeddedJob.Builder builder = sparkStreaming.toEmbeddedBuilder();
+    if (!"".equals(zipkinLogLevel)) builder.zipkinLogLevel(zipkinLogLevel);
+    return builder.settingsSource(settingsSource(sparkStreaming, environment))
+        .messageSource(messageSource)
+        .adjusters(adjusters)
+        .consumer(sparkStreaming.getFanout().toConsumer(consumers))
         .build()
         .start();
   }
 
+  static SettingsSource settingsSource(ZipkinSparkStreamingProperties sparkStreaming,
+      ConfigurableEnvironment environment) {
+    if (sparkStreaming.getSettingsPath() == null) return null;
+    return new FileSettingsSource(new File(sparkStreaming.getSettingsPath()), environment,
+        ZipkinSparkStreamingJob.ADJUSTER_CONFIGURATIONS);
+  }
+
   /**
    * This assumes everything is in the uber-jar except perhaps the adjusters (which are themselves
    * self-contained jars).
@@ -15,9 +15,19 @@ package zipkin.sparkstreaming.job;
 
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Import;
+import zipkin.sparkstreaming.EmbeddedJob;
 import zipkin.sparkstreaming.SparkStreamingJob;
+import zipkin.sparkstreaming.autoconfigure.adjuster.enrichment.ZipkinEnrichmentAdjusterAutoConfiguration;
 import zipkin.sparkstreaming.autoconfigure.adjuster.finagle.ZipkinFinagleAdjusterAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.adjuster.rules.ZipkinRuleBasedAdjusterAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.adjuster.slim.ZipkinSpanSlimmingAdjusterAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.adjuster.template.ZipkinSpanNameTemplateAdjusterAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.adjuster.trace.ZipkinTraceAdjusterAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.consumer.dependencies.ZipkinDependencyLinksConsumerAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.consumer.kafka.ZipkinKafkaTraceConsumerAutoConfiguration;
+import zipkin.sparkstreaming.autoconfigure.consumer.latency.ZipkinLatencyConsumerAutoConfiguration;
 import zipkin.sparkstreaming.autoconfigure.consumer.storage.ZipkinStorageConsumerAutoConfiguration;
 import zipkin.sparkstreaming.autoconfigure.stream.kafka.ZipkinKafkaStreamFactoryAutoConfiguration;
 
@@ -27,13 +37,36 @@ import zipkin.sparkstreaming.autoconfigure.stream.kafka.ZipkinKafkaStreamFactory
     // These need to be explicity included as the shade plugin squashes spring.properties
     ZipkinKafkaStreamFactoryAutoConfiguration.class,
     ZipkinFinagleAdjusterAutoConfiguration.class,
-    ZipkinStorageConsumerAutoConfiguration.class
+    ZipkinRuleBasedAdjusterAutoConfiguration.class,
+    ZipkinSpanNameTemplateAdjusterAutoConfiguration.class,
+    ZipkinSpanSlimmingAdjusterAutoConfiguration.class,
+    ZipkinTraceAdjusterAutoConfiguration.class,
+    ZipkinEnrichmentAdjusterAutoConfiguration.class,
+    ZipkinStorageConsumerAutoConfiguration.class,
+    ZipkinKafkaTraceConsumerAutoConfiguration.class,
+    ZipkinDependencyLinksConsumerAutoConfiguration.class,
+    ZipkinLatencyConsumerAutoConfiguration.class
 })
 public class ZipkinSparkStreamingJob {
+  /** Configurations that provide adjusters, re-read when "settings-path" changes. */
+  static final Class<?>[] ADJUSTER_CONFIGURATIONS = {
+      ZipkinFinagleAdjusterAutoConfiguration.class,
+      ZipkinRuleBasedAdjusterAutoConfiguration.class,
+      ZipkinSpanNameTemplateAdjusterAutoConfiguration.class,
+      ZipkinSpanSlimmingAdjusterAutoConfiguration.class,
+      ZipkinTraceAdjusterAutoConfiguration.class,
+      ZipkinEnrichmentAdjusterAutoConfiguration.class
+  };
 
   public static void main(String[] args) {
-    new SpringApplicationBuilder(ZipkinSparkStreamingJob.class)
-        .run(args)
-        .getBean(SparkStreamingJob.class).awaitTermination();
+    ConfigurableApplicationContext context =
+        new SpringApplicationBuilder(ZipkinSparkStreamingJob.class).run(args);
+    // only one engine is configured, per "zipkin.sparkstreaming.engine"
+    for (SparkStreamingJob job : context.getBeansOfType(SparkStreamingJob.class).values()) {
+      job.awaitTermination();
+    }
+    for (EmbeddedJob job : context.getBeansOfType(EmbeddedJob.class).values()) {
+      job.awaitTermination();
+    }
   }
 }
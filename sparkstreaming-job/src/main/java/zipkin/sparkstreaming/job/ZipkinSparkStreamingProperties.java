@@ -17,14 +17,39 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import zipkin.sparkstreaming.Consumer;
+import zipkin.sparkstreaming.EmbeddedJob;
+import zipkin.sparkstreaming.FanoutConsumer;
 import zipkin.sparkstreaming.SparkStreamingJob;
+import zipkin.sparkstreaming.TraceIdSampler;
 
 @ConfigurationProperties("zipkin.sparkstreaming")
 public class ZipkinSparkStreamingProperties {
+  String engine = "spark";
   String master;
   List<String> jars;
   Map<String, String> conf = new LinkedHashMap<>();
   Long batchDuration;
+  Integer parallelism;
+  Integer internCapacity;
+  Integer healthPort;
+  Boolean profileStages;
+  Boolean warmUp;
+  Boolean encodeShuffle;
+  String checkpointDirectory;
+  Long stopTimeout;
+  String settingsPath;
+  Sampler sampler = new Sampler();
+  Fanout fanout = new Fanout();
+  Embedded embedded = new Embedded();
+
+  public String getEngine() {
+    return engine;
+  }
+
+  public void setEngine(String engine) {
+    if (engine != null && !engine.isEmpty()) this.engine = engine;
+  }
 
   public String getMaster() {
     return master;
@@ -60,12 +85,206 @@ public class ZipkinSparkStreamingProperties {
     this.batchDuration = batchDuration;
   }
 
+  public Integer getParallelism() {
+    return parallelism;
+  }
+
+  public void setParallelism(Integer parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public Integer getInternCapacity() {
+    return internCapacity;
+  }
+
+  public void setInternCapacity(Integer internCapacity) {
+    this.internCapacity = internCapacity;
+  }
+
+  public Integer getHealthPort() {
+    return healthPort;
+  }
+
+  public void setHealthPort(Integer healthPort) {
+    this.healthPort = healthPort;
+  }
+
+  public Boolean getProfileStages() {
+    return profileStages;
+  }
+
+  public void setProfileStages(Boolean profileStages) {
+    this.profileStages = profileStages;
+  }
+
+  public Boolean getWarmUp() {
+    return warmUp;
+  }
+
+  public void setWarmUp(Boolean warmUp) {
+    this.warmUp = warmUp;
+  }
+
+  public Boolean getEncodeShuffle() {
+    return encodeShuffle;
+  }
+
+  public void setEncodeShuffle(Boolean encodeShuffle) {
+    this.encodeShuffle = encodeShuffle;
+  }
+
+  public String getCheckpointDirectory() {
+    return checkpointDirectory;
+  }
+
+  public void setCheckpointDirectory(String checkpointDirectory) {
+    this.checkpointDirectory = "".equals(checkpointDirectory) ? null : checkpointDirectory;
+  }
+
+  public Long getStopTimeout() {
+    return stopTimeout;
+  }
+
+  public void setStopTimeout(Long stopTimeout) {
+    this.stopTimeout = stopTimeout;
+  }
+
+  public String getSettingsPath() {
+    return settingsPath;
+  }
+
+  public void setSettingsPath(String settingsPath) {
+    this.settingsPath = "".equals(settingsPath) ? null : settingsPath;
+  }
+
+  public Sampler getSampler() {
+    return sampler;
+  }
+
+  public void setSampler(Sampler sampler) {
+    if (sampler != null) this.sampler = sampler;
+  }
+
+  public Fanout getFanout() {
+    return fanout;
+  }
+
+  public void setFanout(Fanout fanout) {
+    if (fanout != null) this.fanout = fanout;
+  }
+
+  public Embedded getEmbedded() {
+    return embedded;
+  }
+
+  public void setEmbedded(Embedded embedded) {
+    if (embedded != null) this.embedded = embedded;
+  }
+
+  public static class Sampler {
+    private Float rate;
+    private Map<String, Float> serviceRates = new LinkedHashMap<>();
+
+    public Float getRate() {
+      return rate;
+    }
+
+    public void setRate(Float rate) {
+      this.rate = rate;
+    }
+
+    public Map<String, Float> getServiceRates() {
+      return serviceRates;
+    }
+
+    public void setServiceRates(Map<String, Float> serviceRates) {
+      if (serviceRates != null) this.serviceRates = serviceRates;
+    }
+
+    TraceIdSampler.Builder toBuilder() {
+      TraceIdSampler.Builder result = TraceIdSampler.newBuilder();
+      if (rate != null) result.rate(rate);
+      if (!serviceRates.isEmpty()) result.serviceRates(serviceRates);
+      return result;
+    }
+  }
+
+  public static class Fanout {
+    private int concurrency = 1;
+    private int buffer = FanoutConsumer.DEFAULT_BUFFER;
+
+    public int getConcurrency() {
+      return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+      this.concurrency = concurrency;
+    }
+
+    public int getBuffer() {
+      return buffer;
+    }
+
+    public void setBuffer(int buffer) {
+      this.buffer = buffer;
+    }
+
+    /** Returns the only consumer, or one that delivers each trace to all of them. */
+    Consumer toConsumer(List<Consumer> consumers) {
+      if (consumers.size() == 1) return consumers.get(0);
+      FanoutConsumer.Builder result = FanoutConsumer.newBuilder();
+      for (Consumer consumer : consumers) result.addConsumer(consumer, concurrency, buffer);
+      return result.build();
+    }
+  }
+
+  public static class Embedded {
+    private Integer batchSize;
+    private Long commitInterval;
+
+    public Integer getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public Long getCommitInterval() {
+      return commitInterval;
+    }
+
+    public void setCommitInterval(Long commitInterval) {
+      this.commitInterval = commitInterval;
+    }
+  }
+
+  EmbeddedJob.Builder toEmbeddedBuilder() {
+    EmbeddedJob.Builder result = EmbeddedJob.newBuilder();
+    if (parallelism != null) result.parallelism(parallelism);
+    if (internCapacity != null) result.internCapacity(internCapacity);
+    if (stopTimeout != null && stopTimeout > 0) result.stopTimeout(stopTimeout);
+    if (embedded.batchSize != null) result.batchSize(embedded.batchSize);
+    if (embedded.commitInterval != null) result.commitInterval(embedded.commitInterval);
+    result.sampler(sampler.toBuilder().build());
+    return result;
+  }
+
   SparkStreamingJob.Builder toBuilder() {
     SparkStreamingJob.Builder result = SparkStreamingJob.newBuilder();
     if (master != null) result.master(master);
     if (jars != null) result.jars(jars);
     if (!conf.isEmpty()) result.conf(conf);
     if (batchDuration != null) result.batchDuration(batchDuration);
+    if (parallelism != null) result.parallelism(parallelism);
+    if (internCapacity != null) result.internCapacity(internCapacity);
+    if (healthPort != null) result.healthPort(healthPort);
+    if (profileStages != null) result.profileStages(profileStages);
+    if (warmUp != null) result.warmUp(warmUp);
+    if (encodeShuffle != null) result.encodeShuffle(encodeShuffle);
+    if (checkpointDirectory != null) result.checkpointDirectory(checkpointDirectory);
+    if (stopTimeout != null) result.stopTimeout(stopTimeout);
+    result.sampler(sampler.toBuilder().build());
     return result;
   }
 }
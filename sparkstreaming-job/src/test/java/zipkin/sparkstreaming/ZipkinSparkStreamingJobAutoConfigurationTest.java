@@ -16,6 +16,7 @@ package zipkin.sparkstreaming;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
 import org.apache.spark.api.java.JavaRDD;
 import org.junit.After;
@@ -77,6 +78,24 @@ public class ZipkinSparkStreamingJobAutoConfigurationTest {
     }
   }
 
+  @Configuration
+  static class MessageSourceConfiguration {
+
+    @Bean MessageSource messageSource() {
+      return new MessageSource() {
+        @Override public List<byte[]> poll(int maxMessages, long timeoutMillis) {
+          return Collections.emptyList();
+        }
+
+        @Override public void commit() {
+        }
+
+        @Override public void close() {
+        }
+      };
+    }
+  }
+
   @Configuration
   static class AdjusterConfiguration {
 
@@ -206,4 +225,210 @@ public class ZipkinSparkStreamingJobAutoConfigurationTest {
     job = context.getBean(SparkStreamingJob.class);
     assertThat(job.batchDuration()).isEqualTo(1_000);
   }
+
+  @Test
+  public void defaultSampler() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.sampler().alwaysSample()).isTrue();
+  }
+
+  @Test
+  public void canOverrideSampler() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.sampler.rate:0.5",
+        "zipkin.sparkstreaming.sampler.service-rates.frontend:0.1");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.sampler().rate()).isEqualTo(0.5f);
+    assertThat(job.sampler().serviceRates()).containsExactly(
+        entry("frontend", 0.1f)
+    );
+  }
+
+  @Configuration
+  static class SecondConsumerConfiguration {
+    static Consumer second = trace -> {
+    };
+
+    @Bean Consumer second() {
+      return second;
+    }
+  }
+
+  @Test
+  public void singleConsumerIsntWrapped() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.consumer()).isNotInstanceOf(FanoutConsumer.class);
+  }
+
+  @Test
+  public void fansOutToMultipleConsumers() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.fanout.concurrency:2",
+        "zipkin.sparkstreaming.fanout.buffer:16");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        SecondConsumerConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    FanoutConsumer fanout = (FanoutConsumer) job.consumer();
+    assertThat(fanout.consumers).hasSize(2).contains(SecondConsumerConfiguration.second);
+    assertThat(fanout.concurrency).containsExactly(2, 2);
+    assertThat(fanout.buffer).containsExactly(16, 16);
+  }
+
+  @Test
+  public void defaultParallelism() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.parallelism()).isEqualTo(1);
+  }
+
+  @Test
+  public void canOverrideParallelism() {
+    addEnvironment(context, "zipkin.sparkstreaming.parallelism:8");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.parallelism()).isEqualTo(8);
+  }
+
+  @Test
+  public void canOverrideInternCapacity() {
+    addEnvironment(context, "zipkin.sparkstreaming.intern-capacity:0");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.internCapacity()).isZero();
+  }
+
+  @Test
+  public void canOverrideHealthPort() {
+    addEnvironment(context, "zipkin.sparkstreaming.health-port:9412");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.healthPort()).isEqualTo(9412);
+  }
+
+  @Test
+  public void canOverrideProfileStages() {
+    addEnvironment(context, "zipkin.sparkstreaming.profile-stages:true");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.profileStages()).isTrue();
+  }
+
+  @Test
+  public void canOverrideWarmUp() {
+    addEnvironment(context, "zipkin.sparkstreaming.warm-up:true");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.warmUp()).isTrue();
+  }
+
+  @Test
+  public void canOverrideEncodeShuffle() {
+    addEnvironment(context, "zipkin.sparkstreaming.encode-shuffle:true");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.encodeShuffle()).isTrue();
+  }
+
+  @Test
+  public void canOverrideCheckpointDirectory() {
+    addEnvironment(context, "zipkin.sparkstreaming.checkpoint-directory:/tmp/zipkin-checkpoint");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.checkpointDirectory()).isEqualTo("/tmp/zipkin-checkpoint");
+  }
+
+  @Test
+  public void canOverrideStopTimeout() {
+    addEnvironment(context, "zipkin.sparkstreaming.stop-timeout:60000");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(job.stopTimeout()).isEqualTo(60000L);
+  }
+
+  @Test
+  public void sparkEngineByDefault() {
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        MessageSourceConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    job = context.getBean(SparkStreamingJob.class);
+    assertThat(context.getBeansOfType(EmbeddedJob.class)).isEmpty();
+  }
+
+  @Test
+  public void canSelectEmbeddedEngine() {
+    addEnvironment(context,
+        "zipkin.sparkstreaming.engine:embedded",
+        "zipkin.sparkstreaming.parallelism:4",
+        "zipkin.sparkstreaming.embedded.batch-size:100",
+        "zipkin.sparkstreaming.embedded.commit-interval:5000");
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        DummyConfiguration.class,
+        MessageSourceConfiguration.class,
+        ZipkinSparkStreamingConfiguration.class);
+    context.refresh();
+
+    EmbeddedJob embedded = context.getBean(EmbeddedJob.class);
+    assertThat(embedded.parallelism()).isEqualTo(4);
+    assertThat(embedded.batchSize()).isEqualTo(100);
+    assertThat(embedded.commitInterval()).isEqualTo(5000L);
+    assertThat(context.getBeansOfType(SparkStreamingJob.class)).isEmpty();
+  }
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import zipkin.internal.Util;
+import zipkin.sparkstreaming.Settings;
+import zipkin.sparkstreaming.TraceIdSampler;
+import zipkin.sparkstreaming.adjuster.slim.SpanSlimmingAdjuster;
+import zipkin.sparkstreaming.autoconfigure.adjuster.slim.ZipkinSpanSlimmingAdjusterAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileSettingsSourceTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  StandardEnvironment environment = new StandardEnvironment();
+
+  {
+    environment.getPropertySources().addFirst(new MapPropertySource("commandLineArgs",
+        Collections.singletonMap("zipkin.sparkstreaming.sampler.service-rates.healthcheck",
+            "0.01")));
+  }
+
+  @Test
+  public void readsSettingsFromFile() throws IOException {
+    File file = write(folder.newFile("settings.properties"), ""
+        + "zipkin.sparkstreaming.sampler.rate=0.5\n"
+        + "zipkin.sparkstreaming.adjuster.slim.enabled=true\n"
+        + "zipkin.sparkstreaming.adjuster.slim.max-value-bytes=1024\n");
+    FileSettingsSource source = newSource(file);
+
+    Settings settings = source.poll();
+
+    assertThat(settings.sampler()).isEqualTo(sampler(0.5f));
+    assertThat(settings.adjusters()).hasSize(1);
+    assertThat(settings.adjusters().get(0)).isInstanceOf(SpanSlimmingAdjuster.class)
+        .hasFieldOrPropertyWithValue("maxValueBytes", 1024);
+  }
+
+  @Test
+  public void returnsNullUntilFileChanges() throws IOException {
+    File file = write(folder.newFile("settings.properties"),
+        "zipkin.sparkstreaming.sampler.rate=0.5\n");
+    FileSettingsSource source = newSource(file);
+
+    assertThat(source.poll()).isNotNull();
+    assertThat(source.poll()).isNull();
+
+    write(file, "zipkin.sparkstreaming.sampler.rate=0.25\n");
+    file.setLastModified(file.lastModified() + 2000L); // in case the clock is coarse
+
+    assertThat(source.poll().sampler()).isEqualTo(sampler(0.25f));
+    assertThat(source.poll()).isNull();
+  }
+
+  @Test
+  public void laterFilesInDirectoryTakePrecedence() throws IOException {
+    write(folder.newFile("1-defaults.properties"), ""
+        + "zipkin.sparkstreaming.sampler.rate=0.5\n"
+        + "zipkin.sparkstreaming.adjuster.slim.enabled=true\n");
+    write(folder.newFile("2-overrides.properties"),
+        "zipkin.sparkstreaming.sampler.rate=0.1\n");
+    write(folder.newFile("notes.txt"), "zipkin.sparkstreaming.sampler.rate=0.0\n");
+    FileSettingsSource source = newSource(folder.getRoot());
+
+    Settings settings = source.poll();
+
+    assertThat(settings.sampler()).isEqualTo(sampler(0.1f));
+    assertThat(settings.adjusters()).hasSize(1);
+  }
+
+  /** Service rates come from the environment the job was started with */
+  static TraceIdSampler sampler(float rate) {
+    return TraceIdSampler.newBuilder()
+        .rate(rate)
+        .serviceRates(Collections.singletonMap("healthcheck", 0.01f))
+        .build();
+  }
+
+  FileSettingsSource newSource(File path) {
+    return new FileSettingsSource(path, environment,
+        ZipkinSpanSlimmingAdjusterAutoConfiguration.class);
+  }
+
+  static File write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(Util.UTF_8));
+    return file;
+  }
+}
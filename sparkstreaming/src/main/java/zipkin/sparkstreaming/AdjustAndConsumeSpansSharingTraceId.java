@@ -14,42 +14,212 @@
 package zipkin.sparkstreaming;
 
 import com.google.auto.value.AutoValue;
+import java.io.Flushable;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
 import org.apache.spark.api.java.function.VoidFunction;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import zipkin.Span;
+import zipkin.internal.Nullable;
 
 @AutoValue
 abstract class AdjustAndConsumeSpansSharingTraceId implements Serializable,
     VoidFunction<Iterator<Iterable<Span>>> {
   private static final long serialVersionUID = 0L;
-  private static final Logger log = LoggerFactory.getLogger(ReadSpans.class);
 
-  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
-    return log;
+  /** Runs once per executor JVM, before the first record. See {@link ExecutorSetup}. */
+  abstract Runnable executorSetup();
+
+  abstract AdjusterChain adjusterChain();
+
+  abstract Consumer consumer();
+
+  /** When greater than one, traces are processed on an executor-wide pool of this many threads. */
+  abstract int parallelism();
+
+  /**
+   * Size of the executor-wide {@link SpanInterner} tables, or zero to not intern. Traces are
+   * interned here, once grouped, as the shuffle drops whatever was shared before it.
+   */
+  abstract int internCapacity();
+
+  /** When present, tasks record how many traces they processed and how long stages took. */
+  @Nullable abstract PipelineMetricsSource metrics();
+
+  /**
+   * When true and metrics are present, tasks also record the CPU and allocation of each adjuster
+   * and the consumer.
+   */
+  abstract boolean profileStages();
+
+  /** Looked up once per task copy, instead of per trace */
+  transient volatile SpanInterner interner;
+
+  /** Returns a copy that uses the given adjusters. */
+  AdjustAndConsumeSpansSharingTraceId withAdjusterChain(AdjusterChain adjusterChain) {
+    return new AutoValue_AdjustAndConsumeSpansSharingTraceId(executorSetup(), adjusterChain,
+        consumer(), parallelism(), internCapacity(), metrics(), profileStages());
   }
 
-  abstract Runnable logInitializer();
+  /** Returns the executor-wide interner, or null if disabled. */
+  @Nullable SpanInterner interner() {
+    if (internCapacity() <= 0) return null;
+    SpanInterner result = interner;
+    if (result == null) interner = result = SpanInterner.get(internCapacity());
+    return result;
+  }
 
-  abstract List<Adjuster> adjusters();
+  /** Returns a function that only adjusts traces, for when they are consumed downstream. */
+  Function<Iterable<Span>, Iterable<Span>> adjustOnly() {
+    Runnable executorSetup = executorSetup();
+    AdjusterChain adjusterChain = adjusterChain();
+    PipelineMetricsSource metrics = metrics();
+    boolean profileStages = profileStages();
+    return trace -> {
+      executorSetup.run();
+      if (metrics == null) return adjusterChain.adjust(intern(interner(), trace, null));
+      PipelineMetrics local = metrics.localValue();
+      return adjust(adjusterChain, intern(interner(), trace, local), local, profileStages);
+    };
+  }
 
-  abstract Consumer consumer();
+  /** Called on the driver before each batch, so that adjusters and the consumer can prepare. */
+  void prepareBatch(JavaSparkContext context) {
+    adjusterChain().prepareBatch(context);
+    if (consumer() instanceof BatchAware) ((BatchAware) consumer()).prepareBatch(context);
+  }
 
-  @Override public void call(Iterator<Iterable<Span>> spansSharingTraceIds) {
-    logInitializer().run();
+  @Override public void call(Iterator<Iterable<Span>> spansSharingTraceIds) throws Exception {
+    executorSetup().run();
+    if (parallelism() > 1) {
+      callInParallel(spansSharingTraceIds, TraceWorkers.get(parallelism()));
+      return;
+    }
+    AdjusterChain adjusterChain = adjusterChain();
+    Consumer consumer = consumer();
+    SpanInterner interner = interner();
+    PipelineMetrics metrics = metrics() != null ? metrics().localValue() : null;
+    boolean profileStages = profileStages();
     while (spansSharingTraceIds.hasNext()) {
-      Iterable<Span> spansSharingTraceId = spansSharingTraceIds.next();
-      for (Adjuster adjuster : adjusters()) {
-        try {
-          spansSharingTraceId = adjuster.adjust(spansSharingTraceId);
-        } catch (RuntimeException e) {
-          log().warn("unable to adjust spans: " + spansSharingTraceId + " with " + adjuster, e);
+      Iterable<Span> trace = intern(interner, spansSharingTraceIds.next(), metrics);
+      adjustAndConsume(adjusterChain, consumer, trace, metrics, profileStages);
+    }
+    flush(consumer);
+  }
+
+  /** Shares repetitive values among spans of the trace, unless the interner is null. */
+  static Iterable<Span> intern(@Nullable SpanInterner interner, Iterable<Span> trace,
+      @Nullable PipelineMetrics metrics) {
+    return interner != null ? interner.intern(Traces.asList(trace), metrics) : trace;
+  }
+
+  /** Adjusts a trace and passes it to the consumer, recording metrics when not null. */
+  static void adjustAndConsume(AdjusterChain adjusterChain, Consumer consumer,
+      Iterable<Span> trace, @Nullable PipelineMetrics metrics, boolean profileStages) {
+    if (metrics == null) {
+      // adjusting is eager, so the consumer can iterate the result any number of times for free
+      consumer.accept(adjusterChain.adjust(trace));
+      return;
+    }
+    List<Span> adjusted = adjust(adjusterChain, trace, metrics, profileStages);
+    long start = System.nanoTime();
+    long cpuNanos = profileStages ? StageProfiler.cpuNanos() : 0L;
+    long allocatedBytes = profileStages ? StageProfiler.allocatedBytes() : 0L;
+    boolean failed = true;
+    try {
+      consumer.accept(adjusted);
+      failed = false;
+    } finally {
+      metrics.recordConsume(adjusted.size(), System.nanoTime() - start, failed);
+      if (profileStages) {
+        metrics.recordStage("consume", adjusted.size(), StageProfiler.cpuNanos() - cpuNanos,
+            StageProfiler.allocatedBytes() - allocatedBytes);
+      }
+    }
+  }
+
+  static List<Span> adjust(AdjusterChain adjusterChain, Iterable<Span> trace,
+      PipelineMetrics metrics, boolean profileStages) {
+    long[] adjustNanos = new long[adjusterChain.adjusters.length];
+    StageProfiler profiler =
+        profileStages ? new StageProfiler(adjusterChain.adjusters.length) : null;
+    PipelineMetrics previous = PipelineMetrics.CURRENT.get();
+    PipelineMetrics.CURRENT.set(metrics); // so adjusters can record their own metrics
+    List<Span> result;
+    try {
+      result = adjusterChain.adjust(trace, adjustNanos, profiler);
+    } finally {
+      PipelineMetrics.CURRENT.set(previous);
+    }
+    metrics.recordAdjust(adjusterChain, adjustNanos);
+    if (profiler != null) metrics.recordAdjust(adjusterChain, profiler);
+    return result;
+  }
+
+  /** Lets a consumer that buffers, such as {@link FanoutConsumer}, finish before the task ends. */
+  static void flush(Consumer consumer) throws Exception {
+    if (consumer instanceof Flushable) ((Flushable) consumer).flush();
+  }
+
+  /**
+   * Submits each trace to the worker pool, and doesn't return until all submitted traces completed.
+   * Otherwise, Spark could consider the partition done while traces are still being consumed.
+   *
+   * <p>The first failure stops reading the partition and is rethrown once in-flight traces finish,
+   * so that Spark retries the task as it would when processing sequentially.
+   *
+   * <p>Futures are drained in submission order. So that completed ones don't pile up behind a slow
+   * trace for the rest of the partition, at most as many as the pool can hold are kept: past that,
+   * this waits for the oldest.
+   */
+  void callInParallel(Iterator<Iterable<Span>> spansSharingTraceIds, ExecutorService workers)
+      throws Exception {
+    AdjusterChain adjusterChain = adjusterChain();
+    Consumer consumer = consumer();
+    SpanInterner interner = interner();
+    PipelineMetrics metrics = metrics() != null ? metrics().localValue() : null;
+    boolean profileStages = profileStages();
+    int maxPending = parallelism() * (TraceWorkers.QUEUE_SIZE_PER_THREAD + 1); // queued or running
+    Deque<Future<?>> pending = new ArrayDeque<>(maxPending);
+    Throwable failure = null;
+    try {
+      while (failure == null && spansSharingTraceIds.hasNext()) {
+        Iterable<Span> next = spansSharingTraceIds.next();
+        pending.add(workers.submit(() -> adjustAndConsume(adjusterChain, consumer,
+            intern(interner, next, metrics), metrics, profileStages)));
+        // drain completed traces, in submission order, so that failures surface early
+        while (failure == null && !pending.isEmpty()
+            && (pending.size() >= maxPending || pending.peek().isDone())) {
+          failure = failureOf(pending.poll());
         }
       }
-      consumer().accept(spansSharingTraceId);
+    } catch (InterruptedException | RuntimeException | Error e) {
+      for (Future<?> future : pending) future.cancel(true); // the task was killed or is broken
+      throw e;
+    }
+    while (!pending.isEmpty()) {
+      Throwable next = failureOf(pending.poll());
+      if (failure == null) failure = next;
+    }
+    if (failure == null) flush(consumer);
+    if (failure instanceof Exception) throw (Exception) failure;
+    if (failure instanceof Error) throw (Error) failure;
+  }
+
+  /** Waits for the trace to complete, returning what it threw, if anything. */
+  static Throwable failureOf(Future<?> future) throws InterruptedException {
+    try {
+      future.get();
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
     }
   }
 }
@@ -41,7 +41,7 @@ public abstract class Adjuster implements Serializable {
    *
    * <pre>
    *   <ul>
-   *     <li>If {@link #shouldAdjust(Span)}, {@link #adjust(Span)} is applied</li>
+   *     <li>If {@link #shouldAdjust(Span, long)}, {@link #adjust(Span)} is applied</li>
    *     <li>Otherwise, the span is returned as-is</li>
    *   </ul>
    * </pre>
@@ -56,6 +56,23 @@ public abstract class Adjuster implements Serializable {
     return false;
   }
 
+  /**
+   * Override to declare what {@link #shouldAdjust(Span, long)} looks for. When several adjusters
+   * run, spans are scanned once for all of their features. The result must not change between
+   * calls. By default, this returns null, which means no features are declared.
+   */
+  protected SpanFeatures features() {
+    return null;
+  }
+
+  /**
+   * Like {@link #shouldAdjust(Span)}, except includes a bit set of the {@link #features() features}
+   * found in the span. By default, this ignores the features and calls {@link #shouldAdjust(Span)}.
+   */
+  protected boolean shouldAdjust(Span span, long matchedFeatures) {
+    return shouldAdjust(span);
+  }
+
   /** By default, this returns the same span. */
   protected Span adjust(Span span) {
     return span;
@@ -79,7 +96,9 @@ public abstract class Adjuster implements Serializable {
     public final Span next() {
       if (!hasNext()) throw new NoSuchElementException();
       Span next = delegate.next();
-      if (!adjuster.shouldAdjust(next)) return next;
+      SpanFeatures features = adjuster.features();
+      long matchedFeatures = features != null ? features.match(next) : 0L;
+      if (!adjuster.shouldAdjust(next, matchedFeatures)) return next;
       return adjuster.adjust(next);
     }
 
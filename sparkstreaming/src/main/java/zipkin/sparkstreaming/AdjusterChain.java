@@ -0,0 +1,197 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+
+/**
+ * Applies a list of adjusters to spans sharing a trace ID, eagerly and exactly once.
+ *
+ * <p>{@link Adjuster#adjust(Iterable)} is lazy: chaining N adjusters results in N layers of
+ * iterators, re-evaluated each time the result is iterated. Exceptions also surface wherever the
+ * result is iterated, which is usually inside the consumer. Instead, this materializes the trace
+ * into a list, and runs consecutive span-level adjusters as a single fused pass per span.
+ *
+ * <p>Adjusters that override {@link Adjuster#adjust(Iterable)} need the whole trace, so they are
+ * applied to the list as-is, and their result is materialized immediately.
+ *
+ * <p>A failing adjuster is skipped for the span (or trace) it failed on: the input to that adjuster
+ * is passed along unchanged, so one bad span doesn't affect its siblings or other adjusters.
+ */
+class AdjusterChain implements Serializable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(AdjusterChain.class);
+
+  static AdjusterChain create(List<Adjuster> adjusters) {
+    int length = adjusters.size();
+    Adjuster[] array = adjusters.toArray(new Adjuster[length]);
+    boolean[] traceLevel = new boolean[length];
+    for (int i = 0; i < length; i++) {
+      traceLevel[i] = overridesAdjustTrace(array[i]);
+    }
+    return new AdjusterChain(array, traceLevel, SpanFeatureIndex.create(array));
+  }
+
+  final Adjuster[] adjusters;
+  final boolean[] traceLevel; // true when an adjuster overrides adjust(Iterable)
+  final SpanFeatureIndex featureIndex; // null when no adjuster declared features
+
+  AdjusterChain(Adjuster[] adjusters, boolean[] traceLevel, SpanFeatureIndex featureIndex) {
+    this.adjusters = adjusters;
+    this.traceLevel = traceLevel;
+    this.featureIndex = featureIndex;
+  }
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  /** Calls {@link BatchAware#prepareBatch} on adjusters that implement it. */
+  void prepareBatch(JavaSparkContext context) {
+    for (Adjuster adjuster : adjusters) {
+      if (adjuster instanceof BatchAware) ((BatchAware) adjuster).prepareBatch(context);
+    }
+  }
+
+  /** Calls {@link EmbeddedBatchAware#prepareEmbeddedBatch} on adjusters that implement it. */
+  void prepareEmbeddedBatch() {
+    for (Adjuster adjuster : adjusters) {
+      if (adjuster instanceof EmbeddedBatchAware) {
+        ((EmbeddedBatchAware) adjuster).prepareEmbeddedBatch();
+      }
+    }
+  }
+
+  /** Returns a new list holding the result of all adjusters. */
+  List<Span> adjust(Iterable<Span> spansSharingTraceId) {
+    return adjust(spansSharingTraceId, null);
+  }
+
+  /**
+   * Like {@link #adjust(Iterable)}, except adds the nanoseconds spent in each adjuster to {@code
+   * nanos}, which is indexed like {@link #adjusters}.
+   */
+  List<Span> adjust(Iterable<Span> spansSharingTraceId, @Nullable long[] nanos) {
+    return adjust(spansSharingTraceId, nanos, null);
+  }
+
+  /**
+   * Like {@link #adjust(Iterable, long[])}, except also adds the CPU time and bytes allocated by
+   * each adjuster to {@code profiler}, when not null.
+   */
+  List<Span> adjust(Iterable<Span> spansSharingTraceId, @Nullable long[] nanos,
+      @Nullable StageProfiler profiler) {
+    List<Span> result = copyOf(spansSharingTraceId);
+    int i = 0;
+    while (i < adjusters.length) {
+      if (traceLevel[i]) {
+        long start = nanos != null ? System.nanoTime() : 0L;
+        if (profiler != null) profiler.start();
+        result = adjustTrace(adjusters[i], result);
+        if (profiler != null) profiler.lap(i, result.size());
+        if (nanos != null) nanos[i] += System.nanoTime() - start;
+        i++;
+        continue;
+      }
+      int end = i + 1;
+      while (end < adjusters.length && !traceLevel[end]) end++;
+      adjustSpans(result, i, end, nanos, profiler);
+      i = end;
+    }
+    return result;
+  }
+
+  /**
+   * Applies span-level adjusters [from, to) to each span in place. Spans are scanned once for the
+   * features all adjusters declared, and only re-scanned when an adjuster changed the span.
+   */
+  void adjustSpans(List<Span> spans, int from, int to, @Nullable long[] nanos,
+      @Nullable StageProfiler profiler) {
+    long[] matches = new long[adjusters.length];
+    for (int s = 0, length = spans.size(); s < length; s++) {
+      Span span = spans.get(s);
+      // one clock read per adjuster, as each adjuster's time ends where the next one's starts
+      long start = nanos != null ? System.nanoTime() : 0L;
+      if (profiler != null) profiler.start();
+      if (featureIndex != null) featureIndex.match(span, matches);
+      for (int a = from; a < to; a++) {
+        Span adjusted = adjustSpan(adjusters[a], span, matches[a]);
+        if (adjusted != span && featureIndex != null && a + 1 < to) {
+          featureIndex.match(adjusted, matches);
+        }
+        span = adjusted;
+        if (profiler != null) profiler.lap(a, 1);
+        if (nanos != null) {
+          long now = System.nanoTime();
+          nanos[a] += now - start;
+          start = now;
+        }
+      }
+      spans.set(s, span);
+    }
+  }
+
+  Span adjustSpan(Adjuster adjuster, Span span, long matchedFeatures) {
+    try {
+      if (!adjuster.shouldAdjust(span, matchedFeatures)) return span;
+      Span result = adjuster.adjust(span);
+      if (result == null) throw new NullPointerException("adjusted span was null");
+      return result;
+    } catch (RuntimeException e) {
+      log().warn("unable to adjust span: " + span + " with " + adjuster, e);
+      return span;
+    }
+  }
+
+  List<Span> adjustTrace(Adjuster adjuster, List<Span> trace) {
+    try {
+      // materialize inside the try block, as lazy adjusters throw while iterating
+      return copyOf(adjuster.adjust(Collections.unmodifiableList(trace)));
+    } catch (RuntimeException e) {
+      log().warn("unable to adjust spans: " + trace + " with " + adjuster, e);
+      return trace;
+    }
+  }
+
+  @Override public String toString() {
+    List<String> names = new ArrayList<>();
+    for (Adjuster adjuster : adjusters) names.add(adjuster.toString());
+    return "AdjusterChain" + names;
+  }
+
+  static List<Span> copyOf(Iterable<Span> spans) {
+    if (spans instanceof Collection) return new ArrayList<>((Collection<Span>) spans);
+    List<Span> result = new ArrayList<>();
+    for (Span span : spans) result.add(span);
+    return result;
+  }
+
+  static boolean overridesAdjustTrace(Adjuster adjuster) {
+    try {
+      return adjuster.getClass().getMethod("adjust", Iterable.class).getDeclaringClass()
+          != Adjuster.class;
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e); // public method on Adjuster, so unexpected
+    }
+  }
+}
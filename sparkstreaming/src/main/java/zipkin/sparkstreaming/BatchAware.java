@@ -0,0 +1,29 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+
+/**
+ * Implemented by an {@link Adjuster} or {@link Consumer} that needs to run code on the driver
+ * before each batch. For example, to refresh a {@link Broadcast broadcast variable}.
+ *
+ * <p>Changes made to fields during {@link #prepareBatch} are visible to tasks of that batch, as
+ * tasks are serialized after it returns.
+ */
+public interface BatchAware {
+  /** Called on the driver, before each batch is processed. */
+  void prepareBatch(JavaSparkContext context);
+}
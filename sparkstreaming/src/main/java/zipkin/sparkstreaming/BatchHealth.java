@@ -0,0 +1,209 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.spark.streaming.scheduler.BatchInfo;
+import org.apache.spark.streaming.scheduler.StreamingListener;
+import org.apache.spark.streaming.scheduler.StreamingListenerBatchCompleted;
+import org.apache.spark.streaming.scheduler.StreamingListenerBatchStarted;
+import org.apache.spark.streaming.scheduler.StreamingListenerBatchSubmitted;
+import org.apache.spark.streaming.scheduler.StreamingListenerOutputOperationCompleted;
+import org.apache.spark.streaming.scheduler.StreamingListenerOutputOperationStarted;
+import org.apache.spark.streaming.scheduler.StreamingListenerReceiverError;
+import org.apache.spark.streaming.scheduler.StreamingListenerReceiverStarted;
+import org.apache.spark.streaming.scheduler.StreamingListenerReceiverStopped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Option;
+
+/**
+ * Keeps rolling statistics of batches, which the Spark UI would otherwise show, as the job disables
+ * it by default. This is a listener on the driver, so it doesn't affect tasks.
+ *
+ * <p>When processing time exceeded the batch duration in most of the last {@value
+ * #OVERLOAD_WINDOW} batches, this logs a warning once, and again at info when the job caught up.
+ */
+final class BatchHealth implements StreamingListener, BatchHealthMXBean {
+  private static final Logger log = LoggerFactory.getLogger(BatchHealth.class);
+
+  static final int WINDOW = 100;
+  static final int OVERLOAD_WINDOW = 10;
+  static final String OBJECT_NAME = "zipkin.sparkstreaming:type=BatchHealth";
+
+  final long batchDuration;
+  // ring buffers of the last WINDOW batches, guarded by this
+  final long[] processingTimes = new long[WINDOW];
+  final long[] schedulingDelays = new long[WINDOW];
+  final long[] records = new long[WINDOW];
+  long completedBatches;
+  int queuedBatches;
+  boolean overloaded;
+
+  BatchHealth(long batchDuration) {
+    this.batchDuration = batchDuration;
+  }
+
+  Logger log() {
+    return log;
+  }
+
+  @Override public synchronized void onBatchSubmitted(StreamingListenerBatchSubmitted event) {
+    queuedBatches++;
+  }
+
+  @Override public synchronized void onBatchStarted(StreamingListenerBatchStarted event) {
+    if (queuedBatches > 0) queuedBatches--;
+  }
+
+  @Override public void onBatchCompleted(StreamingListenerBatchCompleted event) {
+    BatchInfo info = event.batchInfo();
+    record(millis(info.processingDelay()), millis(info.schedulingDelay()), info.numRecords());
+  }
+
+  static long millis(Option<Object> option) {
+    return option.isDefined() ? (Long) option.get() : 0L;
+  }
+
+  synchronized void record(long processingTime, long schedulingDelay, long records) {
+    int i = (int) (completedBatches++ % WINDOW);
+    processingTimes[i] = processingTime;
+    schedulingDelays[i] = schedulingDelay;
+    this.records[i] = records;
+
+    if (completedBatches < OVERLOAD_WINDOW) return;
+    int slow = 0;
+    for (long j = completedBatches - OVERLOAD_WINDOW; j < completedBatches; j++) {
+      if (processingTimes[(int) (j % WINDOW)] > batchDuration) slow++;
+    }
+    boolean overloaded = slow * 2 > OVERLOAD_WINDOW;
+    if (overloaded && !this.overloaded) {
+      log().warn("Processing time exceeded the batch duration of {}ms in {} of the last {} batches."
+              + " Raise the batch duration or add capacity, or the job will fall behind.",
+          batchDuration, slow, OVERLOAD_WINDOW);
+    } else if (!overloaded && this.overloaded) {
+      log().info("Processing time is back within the batch duration of {}ms", batchDuration);
+    }
+    this.overloaded = overloaded;
+  }
+
+  /** Returns the value at the quantile of the recorded batches, or zero if there are none. */
+  synchronized long quantile(long[] window, double quantile) {
+    int length = (int) Math.min(completedBatches, WINDOW);
+    if (length == 0) return 0L;
+    long[] sorted = Arrays.copyOf(window, length);
+    Arrays.sort(sorted);
+    return sorted[Math.max(0, (int) Math.ceil(quantile * length) - 1)];
+  }
+
+  @Override public long getBatchDuration() {
+    return batchDuration;
+  }
+
+  @Override public synchronized long getCompletedBatches() {
+    return completedBatches;
+  }
+
+  @Override public synchronized int getQueuedBatches() {
+    return queuedBatches;
+  }
+
+  @Override public long getProcessingTimeP50() {
+    return quantile(processingTimes, 0.5);
+  }
+
+  @Override public long getProcessingTimeP99() {
+    return quantile(processingTimes, 0.99);
+  }
+
+  @Override public long getSchedulingDelayP50() {
+    return quantile(schedulingDelays, 0.5);
+  }
+
+  @Override public long getSchedulingDelayP99() {
+    return quantile(schedulingDelays, 0.99);
+  }
+
+  @Override public long getRecordsP50() {
+    return quantile(records, 0.5);
+  }
+
+  @Override public long getRecordsP99() {
+    return quantile(records, 0.99);
+  }
+
+  @Override public synchronized boolean isOverloaded() {
+    return overloaded;
+  }
+
+  synchronized String toJson() {
+    return "{\"batchDuration\":" + batchDuration
+        + ",\"completedBatches\":" + completedBatches
+        + ",\"queuedBatches\":" + queuedBatches
+        + ",\"processingTimeP50\":" + getProcessingTimeP50()
+        + ",\"processingTimeP99\":" + getProcessingTimeP99()
+        + ",\"schedulingDelayP50\":" + getSchedulingDelayP50()
+        + ",\"schedulingDelayP99\":" + getSchedulingDelayP99()
+        + ",\"recordsP50\":" + getRecordsP50()
+        + ",\"recordsP99\":" + getRecordsP99()
+        + ",\"overloaded\":" + overloaded
+        + "}";
+  }
+
+  /** Registers this in the platform MBean server, replacing any from a previous job. */
+  void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) server.unregisterMBean(name);
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      log().warn("unable to register " + OBJECT_NAME, e);
+    }
+  }
+
+  void unregisterMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) server.unregisterMBean(name);
+    } catch (JMException e) {
+      log().debug("unable to unregister " + OBJECT_NAME, e);
+    }
+  }
+
+  @Override public void onReceiverStarted(StreamingListenerReceiverStarted event) {
+  }
+
+  @Override public void onReceiverError(StreamingListenerReceiverError event) {
+  }
+
+  @Override public void onReceiverStopped(StreamingListenerReceiverStopped event) {
+  }
+
+  @Override public void onOutputOperationStarted(StreamingListenerOutputOperationStarted event) {
+  }
+
+  @Override
+  public void onOutputOperationCompleted(StreamingListenerOutputOperationCompleted event) {
+  }
+
+  @Override public String toString() {
+    return "BatchHealth" + toJson();
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+/**
+ * Statistics of recent batches, registered as "zipkin.sparkstreaming:type=BatchHealth". Times are
+ * in milliseconds, over the last {@value BatchHealth#WINDOW} completed batches.
+ */
+public interface BatchHealthMXBean {
+  /** The configured batch duration. Processing time should stay below this. */
+  long getBatchDuration();
+
+  /** Count of batches completed since the job started. */
+  long getCompletedBatches();
+
+  /** Count of batches submitted, but not yet started. A growing value means the job is behind. */
+  int getQueuedBatches();
+
+  long getProcessingTimeP50();
+
+  long getProcessingTimeP99();
+
+  /** How long batches waited for the previous ones to complete. */
+  long getSchedulingDelayP50();
+
+  long getSchedulingDelayP99();
+
+  /** Count of messages per batch. */
+  long getRecordsP50();
+
+  long getRecordsP99();
+
+  /** True when processing time exceeded the batch duration in most recent batches. */
+  boolean isOverloaded();
+}
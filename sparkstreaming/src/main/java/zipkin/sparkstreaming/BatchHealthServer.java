@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.internal.Util;
+
+/**
+ * Answers any HTTP GET on the driver with {@link BatchHealth} as JSON, for example to feed a
+ * dashboard or a health check. This serves one request at a time, which is plenty for polling, and
+ * avoids a dependency on an HTTP server.
+ */
+final class BatchHealthServer implements Closeable, Runnable {
+  private static final Logger log = LoggerFactory.getLogger(BatchHealthServer.class);
+
+  /** @param port port to listen on, or zero for an ephemeral one */
+  static BatchHealthServer start(BatchHealth health, int port) throws IOException {
+    ServerSocket socket = new ServerSocket();
+    socket.setReuseAddress(true);
+    socket.bind(new InetSocketAddress(port));
+    BatchHealthServer result = new BatchHealthServer(health, socket);
+    Thread thread = new Thread(result, "zipkin-batch-health");
+    thread.setDaemon(true);
+    thread.start();
+    log.info("Serving batch health on http://{}:{}/", socket.getInetAddress().getHostAddress(),
+        socket.getLocalPort());
+    return result;
+  }
+
+  final BatchHealth health;
+  final ServerSocket socket;
+
+  BatchHealthServer(BatchHealth health, ServerSocket socket) {
+    this.health = health;
+    this.socket = socket;
+  }
+
+  int port() {
+    return socket.getLocalPort();
+  }
+
+  @Override public void run() {
+    while (!socket.isClosed()) {
+      try (Socket connection = socket.accept()) {
+        connection.setSoTimeout(5000); // don't let a stuck client block others
+        respond(connection);
+      } catch (IOException e) {
+        if (!socket.isClosed()) log.debug("unable to serve batch health", e);
+      }
+    }
+  }
+
+  void respond(Socket connection) throws IOException {
+    BufferedReader request = new BufferedReader(
+        new InputStreamReader(connection.getInputStream(), Util.UTF_8));
+    String requestLine = request.readLine();
+    if (requestLine == null) return;
+    for (String header; (header = request.readLine()) != null && !header.isEmpty(); ) {
+      // skip headers, as the response doesn't depend on them
+    }
+
+    boolean get = requestLine.startsWith("GET ");
+    byte[] body = get ? health.toJson().getBytes(Util.UTF_8) : new byte[0];
+    String head = (get ? "HTTP/1.1 200 OK" : "HTTP/1.1 405 Method Not Allowed") + "\r\n"
+        + "Content-Type: application/json\r\n"
+        + "Content-Length: " + body.length + "\r\n"
+        + "Connection: close\r\n\r\n";
+    OutputStream out = connection.getOutputStream();
+    out.write(head.getBytes(Util.UTF_8));
+    out.write(body);
+    out.flush();
+  }
+
+  @Override public void close() throws IOException {
+    socket.close();
+  }
+}
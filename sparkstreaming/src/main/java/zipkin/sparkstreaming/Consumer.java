@@ -16,7 +16,16 @@ package zipkin.sparkstreaming;
 import java.io.Serializable;
 import zipkin.Span;
 
-/** Implementations must be serializable, which implies you need to feed them static configuration */
+/**
+ * Implementations must be serializable, which implies you need to feed them static configuration.
+ *
+ * <p>When the job's parallelism is above 1, {@link #accept} is called concurrently, so
+ * implementations must be thread-safe.
+ *
+ * <p>Implementations that complete work asynchronously can implement {@link java.io.Flushable}.
+ * It is called after the last trace of each partition, so that the partition isn't considered
+ * processed until it returns.
+ */
 public interface Consumer extends Serializable {
   void accept(Iterable<Span> trace);
 }
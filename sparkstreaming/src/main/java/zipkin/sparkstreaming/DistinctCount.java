@@ -0,0 +1,90 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+
+/**
+ * Estimates how many distinct values were added, in constant space, like HyperLogLog: each value
+ * is hashed, and each of 2048 registers keeps the longest run of leading zeros of the hashes it
+ * was chosen for. Estimates are typically within a few percent of the actual count, from one to
+ * billions.
+ *
+ * <p>Counts merge by keeping the larger of each register, so they can be recorded per partition
+ * and combined across partitions and batches, and a value added in several counts is only counted
+ * once. A count is 2KiB.
+ *
+ * <p>This isn't thread-safe.
+ */
+final class DistinctCount implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  static final int INDEX_BITS = 11, REGISTERS = 1 << INDEX_BITS;
+
+  final byte[] registers = new byte[REGISTERS];
+
+  void add(String value) {
+    add(hash(value));
+  }
+
+  void add(long hash) {
+    int index = (int) (hash >>> (64 - INDEX_BITS));
+    // the remaining bits, with a sentinel so that all zeros counts as the longest run
+    long rest = hash << INDEX_BITS | 1L << (INDEX_BITS - 1);
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers[index]) registers[index] = rank;
+  }
+
+  void add(DistinctCount other) {
+    for (int i = 0; i < REGISTERS; i++) {
+      if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+    }
+  }
+
+  long estimate() {
+    double sum = 0.0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) zeros++;
+    }
+    double alpha = 0.7213 / (1.0 + 1.079 / REGISTERS);
+    double result = alpha * REGISTERS * REGISTERS / sum;
+    // the raw estimate is biased when few registers are set, so count empty registers instead
+    if (result <= 2.5 * REGISTERS && zeros > 0) {
+      result = REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return Math.round(result);
+  }
+
+  /** 64-bit FNV-1a of the characters, mixed so that all bits depend on the input. */
+  static long hash(String value) {
+    long result = 0xcbf29ce484222325L;
+    for (int i = 0, length = value.length(); i < length; i++) {
+      result ^= value.charAt(i);
+      result *= 0x100000001b3L;
+    }
+    // finalizer of MurmurHash3
+    result ^= result >>> 33;
+    result *= 0xff51afd7ed558ccdL;
+    result ^= result >>> 33;
+    result *= 0xc4ceb93fe53e87ebL;
+    result ^= result >>> 33;
+    return result;
+  }
+
+  @Override public String toString() {
+    return "DistinctCount{estimate=" + estimate() + "}";
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+/**
+ * Implemented by a {@link BatchAware} adjuster or consumer that can also prepare batches of an
+ * {@link EmbeddedJob}, which has no Spark context. For example, by holding a value that would
+ * otherwise be broadcast.
+ *
+ * <p>{@link EmbeddedJob} warns about adjusters and consumers that are batch aware, but don't
+ * implement this, as they are never prepared there.
+ */
+public interface EmbeddedBatchAware extends BatchAware {
+  /**
+   * Called on the polling thread of an {@link EmbeddedJob}, before each batch is dispatched.
+   * Workers may still be processing the previous batch, using the same instance.
+   */
+  void prepareEmbeddedBatch();
+}
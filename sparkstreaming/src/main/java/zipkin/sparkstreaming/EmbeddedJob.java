@@ -0,0 +1,420 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import com.google.auto.value.AutoValue;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.internal.Util;
+import zipkin.storage.StorageComponent;
+
+/**
+ * Runs the same pipeline as {@link SparkStreamingJob}, in-process and without Spark. This suits
+ * single-node deployments, where a Spark master and executors would cost more than the work.
+ *
+ * <p>One thread polls the {@link MessageSource}, decodes and samples spans, then groups them by
+ * trace ID. Traces are hash-partitioned across worker threads, so that spans of a trace are always
+ * adjusted and consumed by the same worker, in the order they were read. Polling continues while
+ * workers process previous batches, until each worker has {@link #PIPELINE_DEPTH} batches queued.
+ *
+ * <p>Like in the Spark job, spans are grouped per batch: spans of a trace that arrive in different
+ * batches are consumed separately. As there's no Spark context, {@link BatchAware} adjusters and
+ * consumers are only prepared before each batch when they implement {@link EmbeddedBatchAware}.
+ * Others are logged as a warning when the job starts or settings change. {@link StreamConsumer
+ * Stream consumers} aren't supported.
+ *
+ * <p>Messages are committed once traces read from them were consumed, so delivery is at least
+ * once: traces read after the last commit are consumed again after a restart. Polling errors are
+ * retried. Otherwise, if a batch can't be dispatched or a partition is dropped after {@link
+ * #MAX_ATTEMPTS}, the job stops without committing, and {@link #awaitTermination()} throws.
+ */
+@AutoValue
+public abstract class EmbeddedJob implements Closeable {
+  static final Logger log = LoggerFactory.getLogger(EmbeddedJob.class);
+
+  /** How many batches each worker can have queued before polling blocks. */
+  static final int PIPELINE_DEPTH = 2;
+  /** Like Spark's default "spark.task.maxFailures", how many times a partition is consumed. */
+  static final int MAX_ATTEMPTS = 4;
+  /** Bounds how long polling blocks, so that close is noticed. */
+  static final long POLL_TIMEOUT_MILLIS = 100;
+
+  public static Builder newBuilder() {
+    return new AutoValue_EmbeddedJob.Builder()
+        .sampler(TraceIdSampler.newBuilder().build())
+        .internCapacity(4096)
+        .adjusters(Collections.emptyList())
+        .parallelism(1)
+        .batchSize(1000)
+        .commitInterval(1000)
+        .stopTimeout(30000)
+        .zipkinLogLevel("INFO");
+  }
+
+  @AutoValue.Builder
+  public interface Builder {
+    /** Produces serialized span messages (thrift or json lists) */
+    Builder messageSource(MessageSource messageSource);
+
+    /** Drops spans by trace ID before they are grouped. Defaults to retain all traces. */
+    Builder sampler(TraceIdSampler sampler);
+
+    /**
+     * Size of the tables used to share equal strings, endpoints and tags among spans grouped by
+     * trace ID. Rounded up to a power of two. Defaults to 4096. Zero disables interning.
+     */
+    Builder internCapacity(int internCapacity);
+
+    /** Conditionally adjusts spans grouped by trace ID. For example, pruning data */
+    Builder adjusters(List<Adjuster> adjusters);
+
+    /**
+     * Polled before each batch, to replace the {@link #sampler(TraceIdSampler) sampler} and {@link
+     * #adjusters(List) adjusters} without restarting the job. Defaults to none.
+     */
+    Builder settingsSource(@Nullable SettingsSource settingsSource);
+
+    /** Accepts spans grouped by trace ID. For example, writing to a {@link StorageComponent} */
+    Builder consumer(Consumer consumer);
+
+    /**
+     * Count of worker threads that adjust and consume traces. Defaults to 1. Values above 1 help
+     * when the consumer blocks, for example on storage writes, and require a thread-safe consumer.
+     */
+    Builder parallelism(int parallelism);
+
+    /** Maximum count of messages polled into one batch. Defaults to 1000. */
+    Builder batchSize(int batchSize);
+
+    /**
+     * Minimum interval in milliseconds between commits to the message source. Defaults to 1000.
+     * Polling pauses while batches read since the last commit finish.
+     */
+    Builder commitInterval(long commitInterval);
+
+    /**
+     * How long {@link #close()} waits for batches already read to be consumed, in milliseconds.
+     * Defaults to 30000.
+     */
+    Builder stopTimeout(long stopTimeout);
+
+    /** Log4J level used for the "zipkin" category. */
+    Builder zipkinLogLevel(String zipkinLogLevel);
+
+    EmbeddedJob build();
+  }
+
+  abstract MessageSource messageSource();
+
+  abstract TraceIdSampler sampler();
+
+  abstract int internCapacity();
+
+  abstract List<Adjuster> adjusters();
+
+  @Nullable abstract SettingsSource settingsSource();
+
+  abstract Consumer consumer();
+
+  abstract int parallelism();
+
+  abstract int batchSize();
+
+  abstract long commitInterval();
+
+  abstract long stopTimeout();
+
+  abstract String zipkinLogLevel();
+
+  final AtomicBoolean started = new AtomicBoolean(false);
+  final AtomicBoolean closed = new AtomicBoolean(false);
+  final CountDownLatch terminated = new CountDownLatch(1);
+  volatile boolean stopping;
+  volatile Thread poller;
+  volatile ThreadPoolExecutor[] workers;
+  /** Why the job stopped before it was closed, in which case it didn't commit since. */
+  volatile Throwable failure;
+
+  // below are only accessed by the poller thread, or before it starts
+  ReadSpans readSpans;
+  @Nullable SpanInterner interner;
+  TraceIdSampler currentSampler;
+  AdjusterChain currentChain;
+  final Deque<Future<?>> inFlight = new ArrayDeque<>(); // partitions not known to be consumed
+  boolean uncommitted;
+  long lastCommit;
+
+  /** Starts polling messages on a new thread. Use {@link #close()} to stop it */
+  public EmbeddedJob start() {
+    if (!started.compareAndSet(false, true)) return this;
+
+    Runnable logInitializer = LogInitializer.create(zipkinLogLevel());
+    logInitializer.run(); // Ensures local log commands emit
+    readSpans = new AutoValue_ReadSpans(
+        ExecutorSetup.create(Collections.singletonList(logInitializer)), null, false);
+    interner = internCapacity() > 0 ? SpanInterner.get(internCapacity()) : null;
+    currentSampler = sampler();
+    currentChain = AdjusterChain.create(adjusters());
+    warnUnprepared((Object[]) currentChain.adjusters);
+    warnUnprepared(consumer());
+    lastCommit = System.currentTimeMillis();
+    workers = newWorkers(parallelism());
+    Thread poller = new Thread(this::pollUntilClosed, "zipkin-embedded-poller");
+    this.poller = poller;
+    poller.start();
+    return this;
+  }
+
+  static ThreadPoolExecutor[] newWorkers(int count) {
+    ThreadPoolExecutor[] result = new ThreadPoolExecutor[count];
+    TraceWorkers.WorkerThreadFactory threadFactory = new TraceWorkers.WorkerThreadFactory();
+    for (int i = 0; i < count; i++) {
+      // one thread per worker, so partitions of consecutive batches are consumed in order
+      result[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(PIPELINE_DEPTH),
+          threadFactory,
+          new TraceWorkers.BlockWhenFull());
+    }
+    return result;
+  }
+
+  /**
+   * Use this to block on {@link #close()}
+   *
+   * @throws IllegalStateException if the job stopped on a failure
+   */
+  public void awaitTermination() {
+    if (!started.get()) return;
+    try {
+      terminated.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    Throwable failure = this.failure;
+    if (failure != null) throw new IllegalStateException("embedded job failed", failure);
+  }
+
+  void pollUntilClosed() {
+    try {
+      while (!stopping && failure == null) {
+        List<byte[]> messages;
+        try {
+          messages = messageSource().poll(batchSize(), POLL_TIMEOUT_MILLIS);
+        } catch (IOException | RuntimeException e) { // nothing was read, so it's safe to retry
+          log.warn("unable to poll messages from " + messageSource() + "; retrying", e);
+          Thread.sleep(POLL_TIMEOUT_MILLIS);
+          continue;
+        }
+        if (!messages.isEmpty()) {
+          inFlight.addAll(dispatch(messages));
+          uncommitted = true;
+        }
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) awaitConsumed(inFlight.poll());
+        if (System.currentTimeMillis() - lastCommit >= commitInterval()) commit();
+      }
+      commit();
+    } catch (InterruptedException e) {
+      log.warn("stopped before consuming traces read since the last commit");
+    } catch (IOException | RuntimeException | Error e) {
+      if (failure == null) failure = e;
+      log.error("stopped polling messages from " + messageSource()
+          + " without committing; messages since the last commit will be read again", e);
+    } finally {
+      terminated.countDown();
+    }
+  }
+
+  /**
+   * Decodes, samples and groups spans by trace ID, then submits each worker its partition of the
+   * traces. Returns the futures of the submitted partitions.
+   */
+  List<Future<?>> dispatch(List<byte[]> messages) throws InterruptedException {
+    SettingsSource settingsSource = settingsSource();
+    if (settingsSource != null) refresh(settingsSource);
+    TraceIdSampler sampler = currentSampler;
+    AdjusterChain chain = currentChain; // pinned to the batch, as settings can change later
+    chain.prepareEmbeddedBatch();
+    if (consumer() instanceof EmbeddedBatchAware) {
+      ((EmbeddedBatchAware) consumer()).prepareEmbeddedBatch();
+    }
+    boolean alwaysSample = sampler.alwaysSample();
+
+    ThreadPoolExecutor[] workers = this.workers;
+    List<Map<String, List<Span>>> partitions = new ArrayList<>(workers.length);
+    for (int i = 0; i < workers.length; i++) partitions.add(new LinkedHashMap<>());
+    for (byte[] message : messages) {
+      for (Span span : decode(message)) {
+        if (!alwaysSample && !sampler.call(span)) continue;
+        String traceId = Util.toLowerHex(span.traceIdHigh, span.traceId);
+        Map<String, List<Span>> partition =
+            partitions.get((traceId.hashCode() & Integer.MAX_VALUE) % workers.length);
+        List<Span> trace = partition.get(traceId);
+        if (trace == null) partition.put(traceId, trace = new ArrayList<>());
+        trace.add(span);
+      }
+    }
+
+    List<Future<?>> result = new ArrayList<>(workers.length);
+    for (int i = 0; i < workers.length; i++) {
+      Collection<List<Span>> traces = partitions.get(i).values();
+      if (sampler.hasServiceRates()) { // decided per trace, see TraceIdSampler
+        for (Iterator<List<Span>> trace = traces.iterator(); trace.hasNext(); ) {
+          if (!sampler.sampleTrace(trace.next())) trace.remove();
+        }
+      }
+      if (traces.isEmpty()) continue;
+      try {
+        result.add(workers[i].submit(() -> consumePartition(chain, traces)));
+      } catch (RejectedExecutionException e) { // interrupted while waiting for a worker
+        if (e.getCause() instanceof InterruptedException) throw (InterruptedException) e.getCause();
+        throw e;
+      }
+    }
+    return result;
+  }
+
+  Iterable<Span> decode(byte[] message) {
+    try {
+      return readSpans.call(message);
+    } catch (Exception e) { // ReadSpans handles decode errors, so this is unexpected
+      log.warn("unable to read spans from message", e);
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Adjusts and consumes the traces, then flushes the consumer. Like a failed Spark task, a
+   * partition that fails is consumed again, so the consumer may see some traces more than once.
+   */
+  void consumePartition(AdjusterChain chain, Collection<List<Span>> traces) {
+    Consumer consumer = consumer();
+    for (int attempt = 1; ; attempt++) {
+      try {
+        for (List<Span> trace : traces) {
+          AdjustAndConsumeSpansSharingTraceId.adjustAndConsume(chain, consumer,
+              AdjustAndConsumeSpansSharingTraceId.intern(interner, trace, null), null, false);
+        }
+        AdjustAndConsumeSpansSharingTraceId.flush(consumer);
+        return;
+      } catch (Exception e) {
+        if (attempt == MAX_ATTEMPTS) {
+          // stop the job, as committing would skip these traces
+          if (failure == null) failure = e;
+          log.error("dropped " + traces.size() + " traces after " + attempt + " attempts", e);
+          return;
+        }
+        log.warn("unable to consume " + traces.size() + " traces; retrying", e);
+      }
+    }
+  }
+
+  /**
+   * Waits for batches read so far to be consumed, then commits them unless traces were dropped.
+   */
+  void commit() throws IOException, InterruptedException {
+    lastCommit = System.currentTimeMillis();
+    if (!uncommitted) return;
+    while (!inFlight.isEmpty()) {
+      awaitConsumed(inFlight.peek());
+      inFlight.poll();
+    }
+    Throwable failure = this.failure;
+    if (failure != null) throw new IllegalStateException("traces were dropped", failure);
+    messageSource().commit();
+    uncommitted = false;
+  }
+
+  void awaitConsumed(Future<?> partition) throws InterruptedException {
+    try {
+      partition.get();
+    } catch (ExecutionException e) { // consumePartition handles failures, so this is unexpected
+      if (failure == null) failure = e.getCause();
+    }
+  }
+
+  void refresh(SettingsSource source) {
+    Settings update;
+    try {
+      update = source.poll();
+    } catch (RuntimeException e) {
+      log.warn("unable to poll settings from " + source + "; keeping the current ones", e);
+      return;
+    }
+    if (update == null) return;
+    currentSampler = update.sampler();
+    currentChain = AdjusterChain.create(update.adjusters());
+    log.info("updated settings to sampler {} and {}", currentSampler, currentChain);
+    warnUnprepared((Object[]) currentChain.adjusters);
+  }
+
+  /** Warns about components that need a Spark context to prepare batches, including nested ones. */
+  static void warnUnprepared(Object... components) {
+    for (Object component : components) {
+      if (component instanceof FanoutConsumer) {
+        warnUnprepared((Object[]) ((FanoutConsumer) component).consumers);
+      } else if (component instanceof BatchAware && !(component instanceof EmbeddedBatchAware)) {
+        log.warn("{} needs a Spark context to prepare batches, so isn't prepared in the embedded"
+            + " job. It may not work as configured.", component);
+      }
+    }
+  }
+
+  /**
+   * Stops polling, then waits up to the {@link Builder#stopTimeout(long) stop timeout} for traces
+   * already read to be consumed and committed.
+   */
+  @Override public void close() throws IOException {
+    if (!started.get() || !closed.compareAndSet(false, true)) return;
+    stopping = true;
+    try {
+      if (!terminated.await(stopTimeout(), TimeUnit.MILLISECONDS)) {
+        poller.interrupt(); // uncommitted messages will be read again
+        terminated.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (ThreadPoolExecutor worker : workers) worker.shutdownNow();
+    messageSource().close();
+    if (consumer() instanceof Closeable) {
+      ((Closeable) consumer()).close();
+    }
+    ExecutorSetup.releaseAll();
+  }
+
+  EmbeddedJob() {
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.internal.Util;
+
+/**
+ * Groups spans by trace ID as thrift bytes, instead of as {@link Span} objects.
+ *
+ * <p>Otherwise, Spark java-serializes each span and its hex trace ID into the shuffle, which costs
+ * several times the encoded size, and keeps the objects on heap until the trace is consumed. Here,
+ * the key is the trace ID as two longs, and spans are decoded after the shuffle, right before they
+ * are adjusted.
+ *
+ * <p>Decoding is recorded like reading messages: its cost adds to the "decode" stage, and spans that
+ * can't be decoded, such as from a corrupt shuffle block, are skipped and counted as thrift decode
+ * failures.
+ */
+final class EncodedTraces {
+  private static final Logger log = LoggerFactory.getLogger(EncodedTraces.class);
+
+  /** @param readSpans what read the spans, which decides how to record them */
+  static JavaDStream<Iterable<Span>> groupByTraceId(JavaDStream<Span> spans, ReadSpans readSpans) {
+    return spans.mapToPair(EncodedTraces::encode)
+        .groupByKey()
+        .map(trace -> decode(trace, readSpans));
+  }
+
+  static Tuple2<TraceKey, byte[]> encode(Span span) {
+    return new Tuple2<>(new TraceKey(span.traceIdHigh, span.traceId), Codec.THRIFT.writeSpan(span));
+  }
+
+  static Iterable<Span> decode(Tuple2<TraceKey, Iterable<byte[]>> trace, ReadSpans readSpans) {
+    readSpans.executorSetup().run();
+    PipelineMetrics metrics = readSpans.metrics() != null ? readSpans.metrics().localValue() : null;
+    boolean profile = readSpans.profileStages() && metrics != null;
+    long cpuNanos = profile ? StageProfiler.cpuNanos() : 0L;
+    long allocatedBytes = profile ? StageProfiler.allocatedBytes() : 0L;
+    List<Span> result = new ArrayList<>();
+    for (byte[] span : trace._2) {
+      try {
+        result.add(Codec.THRIFT.readSpan(span));
+      } catch (RuntimeException e) {
+        log.warn("unable to decode span of trace " + trace._1 + "; skipping it", e);
+        if (metrics != null) metrics.recordDecodeFailure(false);
+      }
+    }
+    if (profile) { // spans were counted when read, so this only adds cost to them
+      metrics.recordStage("decode", 0L,
+          StageProfiler.cpuNanos() - cpuNanos, StageProfiler.allocatedBytes() - allocatedBytes);
+    }
+    return result;
+  }
+
+  /** The 128-bit trace ID, which hashes and compares without allocating a string. */
+  static final class TraceKey implements Serializable {
+    private static final long serialVersionUID = 0L;
+
+    final long high, low;
+
+    TraceKey(long high, long low) {
+      this.high = high;
+      this.low = low;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof TraceKey)) return false;
+      TraceKey that = (TraceKey) o;
+      return high == that.high && low == that.low;
+    }
+
+    @Override public int hashCode() {
+      int h = 1;
+      h *= 1000003;
+      h ^= (int) ((high >>> 32) ^ high);
+      h *= 1000003;
+      h ^= (int) ((low >>> 32) ^ low);
+      return h;
+    }
+
+    @Override public String toString() {
+      return Util.toLowerHex(high, low);
+    }
+  }
+
+  EncodedTraces() {
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The one place for state set up once per executor JVM instead of per task or record: setup, such
+ * as {@link LogInitializer logging}, and resources shared by all tasks, such as the span interner,
+ * worker pools, storage components and Kafka producers.
+ *
+ * <p>Tasks are deserialized on executors, so each gets its own copy of this. The first copy to run
+ * on a JVM runs the setup tasks, and records their fingerprint in a JVM-wide registry. Later copies
+ * find the fingerprint and skip. Afterwards, each copy only reads a volatile field.
+ *
+ * <p>The fingerprint is the list of setup tasks itself, so tasks must implement equals and hashCode
+ * based on their configuration, as {@link com.google.auto.value.AutoValue} types do. This means a
+ * job restarted in the same JVM with different settings runs its setup again. Likewise, {@link
+ * #shared(Object, Factory) shared resources} are keyed by their configuration.
+ *
+ * <p>Shared resources that are {@link Closeable}, or an {@link ExecutorService}, are released when
+ * the job stops, or otherwise when the JVM exits.
+ */
+public final class ExecutorSetup implements Serializable, Runnable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(ExecutorSetup.class);
+
+  /** Creates a resource shared by all tasks in an executor. */
+  public interface Factory<T> {
+    T create();
+  }
+
+  /** Setup fingerprints and shared resources, by key. */
+  static final Map<Object, Entry> registry = new LinkedHashMap<>(); // guarded by ExecutorSetup
+  static Thread releaseOnExit; // guarded by ExecutorSetup
+
+  /**
+   * Returns the resource for the key, creating it on first use in this JVM. The key must implement
+   * equals and hashCode based on the configuration of the resource, for example a list holding
+   * the type of the resource and its settings. Resources of equal keys must be of the same type.
+   *
+   * <p>When the factory throws, nothing is cached, so the next call retries.
+   */
+  public static <T> T shared(Object key, Factory<T> factory) {
+    Entry entry;
+    synchronized (ExecutorSetup.class) {
+      entry = registry.get(key);
+      if (entry == null) registry.put(key, entry = new Entry());
+      if (releaseOnExit == null) {
+        releaseOnExit = new Thread(ExecutorSetup::releaseAll, "zipkin-release-shared");
+        Runtime.getRuntime().addShutdownHook(releaseOnExit);
+      }
+    }
+    @SuppressWarnings("unchecked") // equal keys have values of the same type
+    T result = (T) entry.get(factory); // outside the registry lock, as factories can be slow
+    return result;
+  }
+
+  /** Removes the resource for the key, closing it if it was created. */
+  public static void release(Object key) {
+    Entry entry;
+    synchronized (ExecutorSetup.class) {
+      entry = registry.remove(key);
+    }
+    if (entry != null) entry.release();
+  }
+
+  /** Removes all setup and shared resources, closing them. Called when the job stops. */
+  static void releaseAll() {
+    List<Entry> entries;
+    synchronized (ExecutorSetup.class) {
+      entries = new ArrayList<>(registry.values());
+      registry.clear();
+    }
+    for (Entry entry : entries) entry.release();
+  }
+
+  static final class Entry {
+    Object value; // guarded by this
+
+    synchronized Object get(Factory<?> factory) {
+      if (value == null) value = factory.create();
+      return value;
+    }
+
+    synchronized void release() {
+      Object value = this.value;
+      this.value = null;
+      try {
+        if (value instanceof Closeable) {
+          ((Closeable) value).close();
+        } else if (value instanceof ExecutorService) {
+          ((ExecutorService) value).shutdown();
+        }
+      } catch (IOException | RuntimeException e) {
+        log.warn("error releasing " + value, e);
+      }
+    }
+  }
+
+  static ExecutorSetup create(List<Runnable> tasks) {
+    return new ExecutorSetup(Collections.unmodifiableList(new ArrayList<>(tasks)));
+  }
+
+  final List<Runnable> tasks;
+  transient volatile boolean done;
+
+  ExecutorSetup(List<Runnable> tasks) {
+    this.tasks = tasks;
+  }
+
+  @Override public void run() {
+    if (done) return;
+    // a failed task isn't recorded, so it is retried by the next record
+    shared(tasks, () -> {
+      for (Runnable task : tasks) task.run();
+      return Boolean.TRUE;
+    });
+    done = true;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof ExecutorSetup)) return false;
+    return tasks.equals(((ExecutorSetup) o).tasks);
+  }
+
+  @Override public int hashCode() {
+    return tasks.hashCode();
+  }
+
+  @Override public String toString() {
+    return "ExecutorSetup" + tasks;
+  }
+}
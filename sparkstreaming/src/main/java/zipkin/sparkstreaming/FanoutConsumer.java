@@ -0,0 +1,244 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Span;
+
+/**
+ * Delivers each adjusted trace to several consumers, so that writing to storage and, for example,
+ * forwarding to another system doesn't require a second job reading and decoding the same topic.
+ *
+ * <p>The trace is materialized once and shared read-only by all consumers. Each consumer has its
+ * own lane: worker threads and a bounded buffer of traces. A slow consumer only holds back the
+ * others once its buffer is full, and a consumer that throws only loses the trace it failed on.
+ * Lane threads and buffers are shared by all tasks in an executor, see {@link ExecutorSetup}, so
+ * concurrency and buffer sizes are per executor, not per task.
+ *
+ * <p>Traces are processed asynchronously, so {@link #flush()} waits for all lanes to drain. This
+ * is called at the end of each partition, so that Spark doesn't consider a partition complete
+ * while traces are still in a buffer.
+ */
+public final class FanoutConsumer implements Consumer, Flushable, EmbeddedBatchAware {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(FanoutConsumer.class);
+
+  /** Default count of traces each consumer can fall behind before the others wait. */
+  public static final int DEFAULT_BUFFER = 64;
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    final List<Consumer> consumers = new ArrayList<>();
+    final List<Integer> concurrency = new ArrayList<>();
+    final List<Integer> buffer = new ArrayList<>();
+
+    /** Adds a consumer with one thread and a buffer of {@link #DEFAULT_BUFFER} traces. */
+    public Builder addConsumer(Consumer consumer) {
+      return addConsumer(consumer, 1, DEFAULT_BUFFER);
+    }
+
+    /**
+     * @param concurrency count of threads calling the consumer
+     * @param buffer count of traces queued for the consumer before {@link #accept} blocks
+     */
+    public Builder addConsumer(Consumer consumer, int concurrency, int buffer) {
+      if (consumer == null) throw new NullPointerException("consumer == null");
+      if (concurrency < 1) throw new IllegalArgumentException("concurrency < 1");
+      if (buffer < 1) throw new IllegalArgumentException("buffer < 1");
+      this.consumers.add(consumer);
+      this.concurrency.add(concurrency);
+      this.buffer.add(buffer);
+      return this;
+    }
+
+    public FanoutConsumer build() {
+      if (consumers.isEmpty()) throw new IllegalArgumentException("no consumers");
+      return new FanoutConsumer(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final Consumer[] consumers;
+  final int[] concurrency, buffer;
+  transient volatile Lane[] lanes; // not serializable, so created on first use
+
+  FanoutConsumer(Builder builder) {
+    int length = builder.consumers.size();
+    consumers = builder.consumers.toArray(new Consumer[length]);
+    concurrency = new int[length];
+    buffer = new int[length];
+    for (int i = 0; i < length; i++) {
+      concurrency[i] = builder.concurrency.get(i);
+      buffer[i] = builder.buffer.get(i);
+    }
+  }
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  @Override public void accept(Iterable<Span> trace) {
+    // adjusted traces are already materialized lists, so this only copies other input
+    List<Span> shared = Collections.unmodifiableList(Traces.asList(trace));
+    for (Lane lane : lanes()) lane.submit(shared);
+  }
+
+  /** Blocks until all lanes are drained, then flushes consumers that implement {@link Flushable}. */
+  @Override public void flush() throws IOException {
+    Lane[] lanes = this.lanes;
+    if (lanes == null) return; // nothing was accepted
+    for (Lane lane : lanes) lane.awaitIdle();
+    for (Consumer consumer : consumers) {
+      if (consumer instanceof Flushable) ((Flushable) consumer).flush();
+    }
+  }
+
+  /** Calls {@link BatchAware#prepareBatch} on consumers that implement it. */
+  @Override public void prepareBatch(JavaSparkContext context) {
+    for (Consumer consumer : consumers) {
+      if (consumer instanceof BatchAware) ((BatchAware) consumer).prepareBatch(context);
+    }
+  }
+
+  /** Calls {@link EmbeddedBatchAware#prepareEmbeddedBatch} on consumers that implement it. */
+  @Override public void prepareEmbeddedBatch() {
+    for (Consumer consumer : consumers) {
+      if (consumer instanceof EmbeddedBatchAware) {
+        ((EmbeddedBatchAware) consumer).prepareEmbeddedBatch();
+      }
+    }
+  }
+
+  Lane[] lanes() {
+    Lane[] result = lanes;
+    if (result == null) {
+      synchronized (this) {
+        result = lanes;
+        if (result == null) {
+          result = new Lane[consumers.length];
+          for (int i = 0; i < consumers.length; i++) {
+            result[i] = new Lane(consumers[i], workers(i));
+          }
+          lanes = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the executor-wide threads and buffer of the consumer at the given index. Each task
+   * deserializes its own copy of this, so creating threads per copy would leak them.
+   */
+  ThreadPoolExecutor workers(int index) {
+    String name = consumers[index].getClass().getSimpleName();
+    int concurrency = this.concurrency[index], buffer = this.buffer[index];
+    return ExecutorSetup.shared(
+        Arrays.asList(FanoutConsumer.class, index, name, concurrency, buffer), () -> {
+          ThreadPoolExecutor result = new ThreadPoolExecutor(concurrency, concurrency, 60,
+              TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(buffer),
+              new LaneThreadFactory(name),
+              new TraceWorkers.BlockWhenFull());
+          result.allowCoreThreadTimeOut(true); // don't hold threads when the job is idle
+          return result;
+        });
+  }
+
+  /**
+   * A consumer of this copy, and the count of its traces in the shared buffer. Only the count is
+   * per copy, so that a task's flush doesn't wait for other tasks' traces.
+   */
+  final class Lane {
+    final Consumer consumer;
+    final ThreadPoolExecutor workers;
+    int pending; // guarded by this
+
+    Lane(Consumer consumer, ThreadPoolExecutor workers) {
+      this.consumer = consumer;
+      this.workers = workers;
+    }
+
+    void submit(List<Span> trace) {
+      synchronized (this) {
+        pending++;
+      }
+      try {
+        workers.execute(() -> {
+          try {
+            consumer.accept(trace);
+          } catch (RuntimeException e) {
+            log().warn("Dropped " + trace.size() + " spans in " + consumer + ": " + e.getMessage(),
+                e);
+          } finally {
+            done();
+          }
+        });
+      } catch (RuntimeException e) { // rejected, such as when interrupted
+        done();
+        throw e;
+      }
+    }
+
+    synchronized void done() {
+      if (--pending == 0) notifyAll();
+    }
+
+    synchronized void awaitIdle() throws IOException {
+      try {
+        while (pending > 0) wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted waiting for " + consumer, e);
+      }
+    }
+  }
+
+  static final class LaneThreadFactory implements ThreadFactory {
+    final String name;
+    final AtomicInteger count = new AtomicInteger();
+
+    LaneThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override public Thread newThread(Runnable r) {
+      Thread result = new Thread(r, "zipkin-fanout-" + name + "-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
+  @Override public String toString() {
+    return "FanoutConsumer" + Arrays.toString(consumers);
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Counts durations into log-linear buckets, like HdrHistogram: values under 64 have their own
+ * bucket, and each higher power of two is split into 32 linear buckets. Quantiles are within about
+ * 3% of the recorded value, regardless of its magnitude.
+ *
+ * <p>Histograms merge by adding counts, so they can be recorded per partition and combined across
+ * partitions and batches without losing precision. Counts are a primitive array sized to the
+ * largest value recorded, and only non-zero buckets are serialized, so a typical latency
+ * distribution is a few hundred bytes on the wire.
+ *
+ * <p>This isn't thread-safe.
+ */
+public final class LatencyHistogram implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  static final int SUB_BUCKET_BITS = 5, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int LINEAR_LIMIT = SUB_BUCKETS * 2; // values below this are their own bucket
+  /** Values above this are counted as this, which in microseconds is over 35 years. */
+  static final long MAX_VALUE = (1L << 50) - 1;
+
+  transient long[] counts = new long[LINEAR_LIMIT];
+  transient long count, errorCount, sum, min = Long.MAX_VALUE, max;
+
+  /** Records a duration, such as a span's duration in microseconds. Negative values count as 0. */
+  public void record(long value, boolean error) {
+    value = Math.max(0L, Math.min(value, MAX_VALUE));
+    int index = index(value);
+    if (index >= counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+    }
+    counts[index]++;
+    count++;
+    if (error) errorCount++;
+    sum += value;
+    if (value < min) min = value;
+    if (value > max) max = value;
+  }
+
+  /** Adds the counts of the other histogram to this one. */
+  public void add(LatencyHistogram other) {
+    if (other.counts.length > counts.length) counts = Arrays.copyOf(counts, other.counts.length);
+    for (int i = 0; i < other.counts.length; i++) counts[i] += other.counts[i];
+    count += other.count;
+    errorCount += other.errorCount;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /** Returns a new histogram holding the counts of both inputs, which are left unchanged. */
+  public static LatencyHistogram merge(LatencyHistogram left, LatencyHistogram right) {
+    LatencyHistogram result = new LatencyHistogram();
+    result.add(left);
+    result.add(right);
+    return result;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public long errorCount() {
+    return errorCount;
+  }
+
+  public long min() {
+    return count == 0 ? 0L : min;
+  }
+
+  public long max() {
+    return max;
+  }
+
+  public double mean() {
+    return count == 0 ? 0.0 : (double) sum / count;
+  }
+
+  /**
+   * Returns the value at the given quantile, such as 0.99 for the 99th percentile, or zero if
+   * nothing was recorded. This is the middle of the bucket holding the value, bounded by the
+   * minimum and maximum recorded.
+   */
+  public long quantile(double quantile) {
+    if (quantile < 0.0 || quantile > 1.0) {
+      throw new IllegalArgumentException("quantile should be between 0.0 and 1.0: " + quantile);
+    }
+    if (count == 0) return 0L;
+    long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+    long seen = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        long middle = (lowerBound(i) + lowerBound(i + 1) - 1) / 2;
+        return Math.max(min, Math.min(max, middle));
+      }
+    }
+    return max; // unreachable unless counts were corrupted
+  }
+
+  static int index(long value) {
+    if (value < LINEAR_LIMIT) return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKETS; // top bits are 1xxxxx
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBound(int index) {
+    if (index < LINEAR_LIMIT) return index;
+    int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+    long top = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+    return top << shift;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.writeLong(count);
+    out.writeLong(errorCount);
+    out.writeLong(sum);
+    out.writeLong(min);
+    out.writeLong(max);
+    int nonZero = 0, length = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        nonZero++;
+        length = i + 1;
+      }
+    }
+    out.writeInt(length);
+    out.writeInt(nonZero);
+    for (int i = 0; i < length; i++) {
+      if (counts[i] == 0) continue;
+      out.writeInt(i);
+      out.writeLong(counts[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException {
+    count = in.readLong();
+    errorCount = in.readLong();
+    sum = in.readLong();
+    min = in.readLong();
+    max = in.readLong();
+    counts = new long[Math.max(LINEAR_LIMIT, in.readInt())];
+    for (int i = 0, nonZero = in.readInt(); i < nonZero; i++) {
+      counts[in.readInt()] = in.readLong();
+    }
+  }
+
+  @Override public String toString() {
+    return "LatencyHistogram{count=" + count + ", errorCount=" + errorCount
+        + ", p50=" + quantile(0.5) + ", p99=" + quantile(0.99) + ", max=" + max() + "}";
+  }
+}
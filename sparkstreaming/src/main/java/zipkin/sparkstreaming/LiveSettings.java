@@ -0,0 +1,162 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.spark.streaming.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.internal.Nullable;
+
+/**
+ * Holds the sampler and adjusters of the running job, replacing them when the {@link
+ * SettingsSource} has new ones. This is only used on the driver.
+ *
+ * <p>Spark creates the RDDs of a batch before it runs them, and may create the next batch's while
+ * the current one still runs. So, settings are polled when a batch's RDDs are created, and pinned
+ * to that batch's time until its output runs.
+ *
+ * <p>Adjusters replaced by new settings may hold driver state, such as a broadcast. Once no batch
+ * uses them, those that implement {@link Closeable} are closed.
+ */
+final class LiveSettings implements Serializable {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(LiveSettings.class);
+
+  static final AdjusterChain NO_ADJUSTERS = AdjusterChain.create(Collections.emptyList());
+
+  /**
+   * The source of the job recovering from a checkpoint on this thread. Sources aren't part of a
+   * checkpoint, so the job sets this while it reads one, and recovered settings keep it.
+   */
+  static final ThreadLocal<SettingsSource> RECOVERING_SOURCE = new ThreadLocal<>();
+
+  // transient as sources are driver-side resources, such as a file watcher
+  @Nullable transient volatile SettingsSource source;
+  final ConcurrentMap<Time, AdjustAndConsumeSpansSharingTraceId> batches =
+      new ConcurrentHashMap<>();
+  volatile TraceIdSampler sampler;
+  volatile AdjustAndConsumeSpansSharingTraceId adjustAndConsume;
+  /** Chains replaced by new settings, which batches may still use. Guarded by this. */
+  final List<AdjusterChain> retired = new ArrayList<>();
+
+  LiveSettings(@Nullable SettingsSource source, TraceIdSampler sampler,
+      AdjustAndConsumeSpansSharingTraceId adjustAndConsume) {
+    this.source = source;
+    this.sampler = sampler;
+    this.adjustAndConsume = adjustAndConsume;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    source = RECOVERING_SOURCE.get();
+  }
+
+  Logger log() { // Override for testing. Instance variables won't work as Logger isn't serializable
+    return log;
+  }
+
+  /** Polls for new settings and pins them to the batch. Returns the sampler for the batch. */
+  TraceIdSampler startBatch(Time time) {
+    SettingsSource source = this.source;
+    if (source != null) refresh(source);
+    batches.put(time, adjustAndConsume);
+    return sampler;
+  }
+
+  /**
+   * Returns the sampler of the batch whose RDDs are being created. Call this only while creating
+   * them, after {@link #startBatch(Time)}.
+   */
+  TraceIdSampler currentSampler() {
+    return sampler;
+  }
+
+  /**
+   * Returns what adjusts and consumes traces of the batch, unpinning it. Batches end in order, so
+   * earlier batches still pinned are unpinned, too. Their output was skipped or failed to start.
+   */
+  AdjustAndConsumeSpansSharingTraceId endBatch(Time time) {
+    AdjustAndConsumeSpansSharingTraceId result = batches.remove(time);
+    for (Iterator<Time> i = batches.keySet().iterator(); i.hasNext(); ) {
+      if (i.next().milliseconds() < time.milliseconds()) i.remove();
+    }
+    if (result == null) result = adjustAndConsume;
+    closeRetired(result.adjusterChain());
+    return result;
+  }
+
+  /** Closes adjusters of retired chains, except those the ending or a pending batch uses. */
+  synchronized void closeRetired(AdjusterChain ending) {
+    if (retired.isEmpty()) return;
+    Set<Object> inUse = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    addInUse(inUse, ending);
+    addInUse(inUse, adjustAndConsume.adjusterChain());
+    for (AdjustAndConsumeSpansSharingTraceId pending : batches.values()) {
+      addInUse(inUse, pending.adjusterChain());
+    }
+    for (Iterator<AdjusterChain> i = retired.iterator(); i.hasNext(); ) {
+      AdjusterChain chain = i.next();
+      if (inUse.contains(chain)) continue;
+      i.remove();
+      for (Adjuster adjuster : chain.adjusters) {
+        // settings may reuse an adjuster instance, so only close those no longer in any chain
+        if (!(adjuster instanceof Closeable) || inUse.contains(adjuster)) continue;
+        try {
+          ((Closeable) adjuster).close();
+        } catch (IOException | RuntimeException e) {
+          log().warn("unable to close replaced adjuster " + adjuster, e);
+        }
+      }
+    }
+  }
+
+  static void addInUse(Set<Object> inUse, AdjusterChain chain) {
+    inUse.add(chain);
+    Collections.addAll(inUse, chain.adjusters);
+  }
+
+  /** Returns what consumes traces that were already adjusted, so they aren't adjusted twice. */
+  AdjustAndConsumeSpansSharingTraceId consumeOnly() {
+    return adjustAndConsume.withAdjusterChain(NO_ADJUSTERS);
+  }
+
+  void refresh(SettingsSource source) {
+    Settings update;
+    try {
+      update = source.poll();
+    } catch (RuntimeException e) {
+      log().warn("unable to poll settings from " + source + "; keeping the current ones", e);
+      return;
+    }
+    if (update == null) return;
+    sampler = update.sampler();
+    synchronized (this) {
+      retired.add(adjustAndConsume.adjusterChain());
+    }
+    adjustAndConsume = adjustAndConsume.withAdjusterChain(AdjusterChain.create(update.adjusters()));
+    log().info("updated settings to sampler {} and {}", sampler, adjustAndConsume.adjusterChain());
+  }
+}
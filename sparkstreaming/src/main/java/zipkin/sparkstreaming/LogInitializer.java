@@ -53,8 +53,8 @@ import zipkin.internal.DependencyLinker;
  * is reliable setup with no custom bootstrap needed. The tradeoff is the explicitness of the task.
  */
 // This is implemented as a runnable to avoid creating and publishing a new dependency shared across
-// all storage implementations. It would be nice to use some sort of lifecycle hook that would run
-// after an task deserializes on an executor. Until such is available, this is the least touch way.
+// all storage implementations. Tasks run it through ExecutorSetup, so it runs once per executor JVM
+// after the first task deserializes, as opposed to on each record.
 @AutoValue
 abstract class LogInitializer implements Serializable, Runnable {
   private static final long serialVersionUID = 0L;
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Like {@link StreamFactory}, except read in-process by the {@link EmbeddedJob embedded engine}
+ * instead of by Spark. Messages are serialized spans (thrift or json lists).
+ *
+ * <p>Methods are called from a single thread, so implementations needn't be thread-safe.
+ */
+public interface MessageSource extends Closeable {
+
+  /**
+   * Returns up to {@code maxMessages} messages, waiting up to {@code timeoutMillis} for the first.
+   * Returns an empty list if none arrived in time.
+   */
+  List<byte[]> poll(int maxMessages, long timeoutMillis) throws IOException;
+
+  /**
+   * Marks all messages polled so far as processed, so that they aren't read again after a restart.
+   * This is only called once the traces in those messages were consumed.
+   */
+  void commit() throws IOException;
+}
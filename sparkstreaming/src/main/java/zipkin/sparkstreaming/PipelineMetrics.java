@@ -0,0 +1,366 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.spark.AccumulableParam;
+import zipkin.internal.Nullable;
+
+/**
+ * Counts and timings of each stage of the job, summed across tasks of a batch with a Spark {@link
+ * org.apache.spark.Accumulable accumulable}.
+ *
+ * <p>Tasks record into their local copy, which Spark merges on the driver as tasks complete. Record
+ * methods are synchronized, as worker threads share the copy when parallelism is above 1.
+ *
+ * <p>Spark only applies accumulator updates once per task in output operations. Elsewhere, such as
+ * reading messages before the shuffle, or adjusting traces for stream consumers, a retried task or
+ * a recomputed partition records again. So, metrics are approximate: they can over-count when
+ * tasks fail or shuffle data is lost, which is rare compared to their volume.
+ *
+ * <p>While an adjuster runs, the task's copy is {@link #current()}, so adjusters can record their
+ * own metrics, such as with {@link #increment(String, long)} or {@link #recordDistinct(String,
+ * String)}.
+ */
+public final class PipelineMetrics implements Serializable {
+  private static final long serialVersionUID = 0L;
+  static final ThreadLocal<PipelineMetrics> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Returns the metrics of the task adjusting spans on the calling thread, or null when the job
+   * doesn't record metrics.
+   */
+  @Nullable public static PipelineMetrics current() {
+    return CURRENT.get();
+  }
+
+  long messages, bytes, spans, jsonDecodeFailures, thriftDecodeFailures;
+  long traces, consumeFailures;
+  long internLookups, internHits, internEvictions;
+  final LatencyHistogram spansPerTrace = new LatencyHistogram();
+  final LatencyHistogram consumeMicros = new LatencyHistogram();
+  final Map<String, Long> adjustNanos = new LinkedHashMap<>();
+  final Map<String, StageCost> stageCosts = new LinkedHashMap<>();
+  final Map<String, Long> counters = new LinkedHashMap<>();
+  final Map<String, DistinctCount> distinctCounts = new LinkedHashMap<>();
+
+  /**
+   * Runs the task with this as the {@link #current() current} metrics of the calling thread. The
+   * job does this around adjusters, and tests of adjusters that record metrics can, too.
+   */
+  public void runRecording(Runnable task) {
+    PipelineMetrics previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      task.run();
+    } finally {
+      if (previous != null) {
+        CURRENT.set(previous);
+      } else {
+        CURRENT.remove();
+      }
+    }
+  }
+
+  /**
+   * Adds the delta to the count recorded under the name. The metrics source publishes a counter of
+   * the name, totalling deltas since the job started.
+   */
+  public synchronized void increment(String name, long delta) {
+    Long total = counters.get(name);
+    counters.put(name, total == null ? delta : total + delta);
+  }
+
+  /** Count recorded under each name with {@link #increment(String, long)}. */
+  public synchronized Map<String, Long> counters() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+  }
+
+  /**
+   * Adds a value to the estimate of distinct values recorded under the name. The metrics source
+   * publishes a gauge of the name, estimating distinct values since the job started. Adding the
+   * same value again, in any task or batch, doesn't change the estimate.
+   */
+  public synchronized void recordDistinct(String name, String value) {
+    DistinctCount count = distinctCounts.get(name);
+    if (count == null) distinctCounts.put(name, count = new DistinctCount());
+    count.add(value);
+  }
+
+  /** Estimated count of distinct values recorded under each name. */
+  public synchronized Map<String, Long> distinctCounts() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (Map.Entry<String, DistinctCount> entry : distinctCounts.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().estimate());
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /** Count of messages read from the stream. */
+  public synchronized long messages() {
+    return messages;
+  }
+
+  /** Sum of the sizes of messages read from the stream. */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /** Count of spans decoded from messages. */
+  public synchronized long spans() {
+    return spans;
+  }
+
+  /** Count of messages that looked like json, but couldn't be decoded. */
+  public synchronized long jsonDecodeFailures() {
+    return jsonDecodeFailures;
+  }
+
+  /** Count of messages that looked like thrift, but couldn't be decoded. */
+  public synchronized long thriftDecodeFailures() {
+    return thriftDecodeFailures;
+  }
+
+  /** Count of values looked up in the span interner, when spans are interned. */
+  public synchronized long internLookups() {
+    return internLookups;
+  }
+
+  /** Count of interner lookups that returned a cached value. */
+  public synchronized long internHits() {
+    return internHits;
+  }
+
+  /** Count of interner lookups that replaced a different cached value. */
+  public synchronized long internEvictions() {
+    return internEvictions;
+  }
+
+  /** Ratio of interner lookups that hit, or zero when there were none. */
+  public synchronized double internHitRate() {
+    return internLookups == 0 ? 0.0 : (double) internHits / internLookups;
+  }
+
+  /** Count of traces passed to the consumer. */
+  public synchronized long traces() {
+    return traces;
+  }
+
+  /** Count of traces the consumer threw on. */
+  public synchronized long consumeFailures() {
+    return consumeFailures;
+  }
+
+  /** Distribution of the count of spans in each adjusted trace. */
+  public synchronized LatencyHistogram spansPerTrace() {
+    return LatencyHistogram.merge(spansPerTrace, new LatencyHistogram()); // copy
+  }
+
+  /** Distribution of the microseconds the consumer took per trace. */
+  public synchronized LatencyHistogram consumeMicros() {
+    return LatencyHistogram.merge(consumeMicros, new LatencyHistogram()); // copy
+  }
+
+  /** Nanoseconds spent in each adjuster, by simple class name. */
+  public synchronized Map<String, Long> adjustNanos() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(adjustNanos));
+  }
+
+  /**
+   * CPU time and allocation of each stage, when the job profiles stages. Stages are "decode",
+   * "consume", and one per adjuster, named like "adjust.FinagleAdjuster".
+   */
+  public synchronized Map<String, StageCost> stageCosts() {
+    Map<String, StageCost> result = new LinkedHashMap<>();
+    for (Map.Entry<String, StageCost> entry : stageCosts.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().copy());
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /** The cost of a stage of the pipeline, summed across the spans it processed. */
+  public static final class StageCost implements Serializable {
+    private static final long serialVersionUID = 0L;
+
+    long spans, cpuNanos, allocatedBytes;
+
+    public long spans() {
+      return spans;
+    }
+
+    /** CPU time spent in the stage, or zero if the JVM can't measure it. */
+    public long cpuNanos() {
+      return cpuNanos;
+    }
+
+    /** Bytes allocated in the stage, or zero if the JVM can't measure it. */
+    public long allocatedBytes() {
+      return allocatedBytes;
+    }
+
+    public long cpuNanosPerSpan() {
+      return spans == 0 ? 0L : cpuNanos / spans;
+    }
+
+    public long allocatedBytesPerSpan() {
+      return spans == 0 ? 0L : allocatedBytes / spans;
+    }
+
+    void add(long spans, long cpuNanos, long allocatedBytes) {
+      this.spans += spans;
+      this.cpuNanos += cpuNanos;
+      this.allocatedBytes += allocatedBytes;
+    }
+
+    StageCost copy() {
+      StageCost result = new StageCost();
+      result.add(spans, cpuNanos, allocatedBytes);
+      return result;
+    }
+
+    @Override public String toString() {
+      return "StageCost{spans=" + spans + ", cpuNanos=" + cpuNanos
+          + ", allocatedBytes=" + allocatedBytes + "}";
+    }
+  }
+
+  synchronized void recordMessage(int bytes, int spans) {
+    this.messages++;
+    this.bytes += bytes;
+    this.spans += spans;
+  }
+
+  synchronized void recordDecodeFailure(boolean json) {
+    this.messages++;
+    if (json) {
+      jsonDecodeFailures++;
+    } else {
+      thriftDecodeFailures++;
+    }
+  }
+
+  synchronized void recordIntern(int lookups, int hits, int evictions) {
+    internLookups += lookups;
+    internHits += hits;
+    internEvictions += evictions;
+  }
+
+  /** @param nanos time spent in each adjuster of the chain, in the same order */
+  synchronized void recordAdjust(AdjusterChain chain, long[] nanos) {
+    for (int i = 0; i < nanos.length; i++) {
+      if (nanos[i] == 0L) continue;
+      String name = name(chain.adjusters[i]);
+      Long total = adjustNanos.get(name);
+      adjustNanos.put(name, total == null ? nanos[i] : total + nanos[i]);
+    }
+  }
+
+  /** Adds the cost of each adjuster in the chain, profiled in the same order. */
+  synchronized void recordAdjust(AdjusterChain chain, StageProfiler profiler) {
+    for (int i = 0; i < profiler.spans.length; i++) {
+      if (profiler.spans[i] == 0L) continue;
+      recordStage("adjust." + name(chain.adjusters[i]), profiler.spans[i], profiler.cpuNanos[i],
+          profiler.allocatedBytes[i]);
+    }
+  }
+
+  synchronized void recordStage(String stage, long spans, long cpuNanos, long allocatedBytes) {
+    StageCost cost = stageCosts.get(stage);
+    if (cost == null) stageCosts.put(stage, cost = new StageCost());
+    cost.add(spans, cpuNanos, allocatedBytes);
+  }
+
+  synchronized void recordConsume(int spans, long nanos, boolean failed) {
+    traces++;
+    if (failed) consumeFailures++;
+    spansPerTrace.record(spans, false);
+    consumeMicros.record(nanos / 1000, failed);
+  }
+
+  /** Adds the other's counts and timings to this. */
+  void add(PipelineMetrics other) {
+    if (other == this) throw new IllegalArgumentException("can't add to self");
+    synchronized (other) {
+      synchronized (this) {
+        messages += other.messages;
+        bytes += other.bytes;
+        spans += other.spans;
+        jsonDecodeFailures += other.jsonDecodeFailures;
+        thriftDecodeFailures += other.thriftDecodeFailures;
+        traces += other.traces;
+        consumeFailures += other.consumeFailures;
+        internLookups += other.internLookups;
+        internHits += other.internHits;
+        internEvictions += other.internEvictions;
+        spansPerTrace.add(other.spansPerTrace);
+        consumeMicros.add(other.consumeMicros);
+        for (Map.Entry<String, Long> entry : other.adjustNanos.entrySet()) {
+          Long total = adjustNanos.get(entry.getKey());
+          adjustNanos.put(entry.getKey(),
+              total == null ? entry.getValue() : total + entry.getValue());
+        }
+        for (Map.Entry<String, StageCost> entry : other.stageCosts.entrySet()) {
+          StageCost cost = entry.getValue();
+          recordStage(entry.getKey(), cost.spans, cost.cpuNanos, cost.allocatedBytes);
+        }
+        for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+          increment(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, DistinctCount> entry : other.distinctCounts.entrySet()) {
+          DistinctCount count = distinctCounts.get(entry.getKey());
+          if (count == null) distinctCounts.put(entry.getKey(), count = new DistinctCount());
+          count.add(entry.getValue());
+        }
+      }
+    }
+  }
+
+  static String name(Adjuster adjuster) {
+    String result = adjuster.getClass().getSimpleName();
+    return result.isEmpty() ? adjuster.getClass().getName() : result; // anonymous
+  }
+
+  /** Merges metrics of tasks into the driver's copy. */
+  static final class Param implements AccumulableParam<PipelineMetrics, PipelineMetrics> {
+    private static final long serialVersionUID = 0L;
+
+    @Override public PipelineMetrics addAccumulator(PipelineMetrics sum, PipelineMetrics next) {
+      sum.add(next);
+      return sum;
+    }
+
+    @Override public PipelineMetrics addInPlace(PipelineMetrics sum, PipelineMetrics next) {
+      sum.add(next);
+      return sum;
+    }
+
+    @Override public PipelineMetrics zero(PipelineMetrics initialValue) {
+      return new PipelineMetrics();
+    }
+  }
+
+  @Override public synchronized String toString() {
+    return "PipelineMetrics{messages=" + messages + ", bytes=" + bytes + ", spans=" + spans
+        + ", jsonDecodeFailures=" + jsonDecodeFailures
+        + ", thriftDecodeFailures=" + thriftDecodeFailures
+        + ", traces=" + traces + ", consumeFailures=" + consumeFailures
+        + ", internLookups=" + internLookups + ", internHits=" + internHits
+        + ", internEvictions=" + internEvictions
+        + ", adjustNanos=" + adjustNanos + ", stageCosts=" + stageCosts
+        + ", counters=" + counters + ", distinctCounts=" + distinctCounts + "}";
+  }
+}
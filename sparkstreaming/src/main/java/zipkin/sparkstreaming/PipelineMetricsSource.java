@@ -0,0 +1,183 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.spark.Accumulable;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.metrics.source.Source;
+import zipkin.sparkstreaming.PipelineMetrics.StageCost;
+
+/**
+ * Publishes {@link PipelineMetrics} to Spark's metrics system under the source name "zipkin", so
+ * they reach the sinks configured in "metrics.properties", like other Spark metrics.
+ *
+ * <p>Counters are totals since the job started. Gauges prefixed "batch" describe the last batch.
+ * Adjust time is a counter per adjuster, named like "adjust.FinagleAdjuster.nanos". When spans are
+ * interned, "intern.lookups", "intern.hits" and "intern.evictions" count the interner's work, and
+ * "batch.intern.hit-rate" is its hit rate in the last batch. Counts adjusters record with {@link
+ * PipelineMetrics#increment(String, long)} are a counter of the name they are recorded under.
+ * Values adjusters record with {@link PipelineMetrics#recordDistinct(String, String)} are a gauge
+ * of the name they are recorded under, estimating distinct values since the job started.
+ *
+ * <p>When the job profiles stages, each stage has counters like "stage.decode.cpu-nanos", and
+ * gauges of the last batch like "batch.stage.decode.allocated-bytes-per-span".
+ *
+ * <p>Tasks reference this to record into {@link #localValue()}. Otherwise, it is only used on the
+ * driver. It is serializable as the closures that reference it are, including when checkpointed.
+ */
+final class PipelineMetricsSource implements Source, Serializable {
+  private static final long serialVersionUID = 0L;
+
+  static PipelineMetricsSource create(JavaSparkContext context) {
+    return new PipelineMetricsSource(newAccumulable(context));
+  }
+
+  static Accumulable<PipelineMetrics, PipelineMetrics> newAccumulable(JavaSparkContext context) {
+    return context.accumulable(new PipelineMetrics(), "zipkin", new PipelineMetrics.Param());
+  }
+
+  /** Tasks record into this. Spark merges their copies into the driver's value. */
+  volatile Accumulable<PipelineMetrics, PipelineMetrics> accumulable;
+  transient MetricRegistry registry; // guarded by this
+  transient volatile PipelineMetrics lastBatch;
+  transient Map<String, DistinctCount> distinctCounts; // guarded by this
+  // transient so that after recovery from a checkpoint, the accumulable is replaced and registered
+  transient boolean live, registered; // guarded by this
+
+  PipelineMetricsSource(Accumulable<PipelineMetrics, PipelineMetrics> accumulable) {
+    this.accumulable = accumulable;
+    this.live = true;
+  }
+
+  /** Returns the copy of the metrics that the current task records into. */
+  PipelineMetrics localValue() {
+    return accumulable.localValue();
+  }
+
+  /**
+   * Called on the driver before tasks of each batch are created. The first call registers this
+   * with Spark's metrics system.
+   *
+   * <p>Spark doesn't restore accumulators from a checkpoint, so after recovery, this replaces the
+   * accumulable before any task reads it.
+   */
+  synchronized void prepareBatch(JavaSparkContext context) {
+    if (registered) return;
+    if (!live) accumulable = newAccumulable(context);
+    SparkEnv.get().metricsSystem().registerSource(this);
+    live = registered = true;
+  }
+
+  @Override public String sourceName() {
+    return "zipkin";
+  }
+
+  @Override public synchronized MetricRegistry metricRegistry() {
+    if (registry != null) return registry;
+    registry = new MetricRegistry();
+    lastBatch = new PipelineMetrics();
+    distinctCounts = new LinkedHashMap<>();
+    registry.register("batch.spans-per-trace.p50",
+        (Gauge<Long>) () -> lastBatch.spansPerTrace.quantile(0.5));
+    registry.register("batch.spans-per-trace.p99",
+        (Gauge<Long>) () -> lastBatch.spansPerTrace.quantile(0.99));
+    registry.register("batch.consume-micros.p50",
+        (Gauge<Long>) () -> lastBatch.consumeMicros.quantile(0.5));
+    registry.register("batch.consume-micros.p99",
+        (Gauge<Long>) () -> lastBatch.consumeMicros.quantile(0.99));
+    registry.register("batch.consume-micros.max",
+        (Gauge<Long>) () -> lastBatch.consumeMicros.max());
+    registry.register("batch.intern.hit-rate",
+        (Gauge<Double>) () -> lastBatch.internHitRate());
+    return registry;
+  }
+
+  /**
+   * Called on the driver once a batch's output completed, so that all its tasks were merged.
+   * Publishes what they recorded, then resets the accumulable for the next batch.
+   */
+  void collectBatch() {
+    PipelineMetrics batch = accumulable.value();
+    accumulable.setValue(new PipelineMetrics());
+    update(batch);
+  }
+
+  synchronized void update(PipelineMetrics batch) {
+    MetricRegistry registry = metricRegistry();
+    registry.counter("messages").inc(batch.messages());
+    registry.counter("bytes").inc(batch.bytes());
+    registry.counter("spans").inc(batch.spans());
+    registry.counter("decode-failures.json").inc(batch.jsonDecodeFailures());
+    registry.counter("decode-failures.thrift").inc(batch.thriftDecodeFailures());
+    registry.counter("traces").inc(batch.traces());
+    registry.counter("consume-failures").inc(batch.consumeFailures());
+    registry.counter("intern.lookups").inc(batch.internLookups());
+    registry.counter("intern.hits").inc(batch.internHits());
+    registry.counter("intern.evictions").inc(batch.internEvictions());
+    for (Map.Entry<String, Long> entry : batch.adjustNanos().entrySet()) {
+      registry.counter(MetricRegistry.name("adjust", entry.getKey(), "nanos"))
+          .inc(entry.getValue());
+    }
+    for (Map.Entry<String, StageCost> entry : batch.stageCosts().entrySet()) {
+      String stage = entry.getKey();
+      StageCost cost = entry.getValue();
+      registry.counter(MetricRegistry.name("stage", stage, "spans")).inc(cost.spans());
+      registry.counter(MetricRegistry.name("stage", stage, "cpu-nanos")).inc(cost.cpuNanos());
+      registry.counter(MetricRegistry.name("stage", stage, "allocated-bytes"))
+          .inc(cost.allocatedBytes());
+      String gauge = MetricRegistry.name("batch", "stage", stage);
+      if (!registry.getGauges().containsKey(gauge + ".cpu-nanos-per-span")) {
+        registerStageGauges(gauge, stage);
+      }
+    }
+    for (Map.Entry<String, Long> entry : batch.counters().entrySet()) {
+      registry.counter(entry.getKey()).inc(entry.getValue());
+    }
+    synchronized (batch) {
+      for (Map.Entry<String, DistinctCount> entry : batch.distinctCounts.entrySet()) {
+        String name = entry.getKey();
+        DistinctCount total = distinctCounts.get(name);
+        if (total == null) {
+          distinctCounts.put(name, total = new DistinctCount());
+          registry.register(name, (Gauge<Long>) () -> distinctCount(name));
+        }
+        total.add(entry.getValue());
+      }
+    }
+    lastBatch = batch;
+  }
+
+  void registerStageGauges(String prefix, String stage) {
+    registry.register(prefix + ".cpu-nanos-per-span",
+        (Gauge<Long>) () -> lastBatchCost(stage).cpuNanosPerSpan());
+    registry.register(prefix + ".allocated-bytes-per-span",
+        (Gauge<Long>) () -> lastBatchCost(stage).allocatedBytesPerSpan());
+  }
+
+  synchronized long distinctCount(String name) {
+    return distinctCounts.get(name).estimate();
+  }
+
+  /** Returns the cost of the stage in the last batch, or zero if it didn't run. */
+  StageCost lastBatchCost(String stage) {
+    StageCost result = lastBatch.stageCosts().get(stage);
+    return result != null ? result : new StageCost();
+  }
+}
@@ -16,18 +16,27 @@ package zipkin.sparkstreaming;
 import com.google.auto.value.AutoValue;
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.List;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import zipkin.Codec;
 import zipkin.Span;
+import zipkin.internal.Nullable;
 
 @AutoValue
 abstract class ReadSpans implements Serializable, FlatMapFunction<byte[], Span> {
   private static final long serialVersionUID = 0L;
   private static final Logger log = LoggerFactory.getLogger(ReadSpans.class);
 
-  abstract Runnable logInitializer();
+  /** Runs once per executor JVM, before the first record. See {@link ExecutorSetup}. */
+  abstract Runnable executorSetup();
+
+  /** When present, tasks record messages and spans read, and decode failures. */
+  @Nullable abstract PipelineMetricsSource metrics();
+
+  /** When true and metrics are present, tasks also record the CPU and allocation of decoding. */
+  abstract boolean profileStages();
 
   // In TBinaryProtocol encoding, the first byte is the TType, in a range 0-16
   // .. If the first byte isn't in that range, it isn't a thrift.
@@ -38,22 +47,34 @@ abstract class ReadSpans implements Serializable, FlatMapFunction<byte[], Span>
   // .. When serializing a Span (Struct), the first byte will be the type of a field
   // .. When serializing a List[ThriftSpan], the first byte is the member type, TType.STRUCT(12)
   // .. As ThriftSpan has no STRUCT fields: so, if the first byte is TType.STRUCT(12), it is a list.
-  @Override public Iterable<Span> call(byte[] bytes) throws Exception {
-    logInitializer().run();
+  @Override public Iterable<Span> call(byte[] bytes) {
+    executorSetup().run();
     if (bytes.length == 0) return Collections.emptyList();
+    boolean profile = profileStages() && metrics() != null;
+    long cpuNanos = profile ? StageProfiler.cpuNanos() : 0L;
+    long allocatedBytes = profile ? StageProfiler.allocatedBytes() : 0L;
+    List<Span> spans = Collections.emptyList();
     try {
       if (bytes[0] == '[') {
-        return Codec.JSON.readSpans(bytes);
+        spans = Codec.JSON.readSpans(bytes);
       } else {
         if (bytes[0] == 12 /* TType.STRUCT */) {
-          return Codec.THRIFT.readSpans(bytes);
+          spans = Codec.THRIFT.readSpans(bytes);
         } else { // historical kafka encoding of single thrift span per message
-          return Collections.singletonList(Codec.THRIFT.readSpan(bytes));
+          spans = Collections.singletonList(Codec.THRIFT.readSpan(bytes));
         }
       }
     } catch (RuntimeException e) {
       log.warn("unable to decode spans", e);
+      if (metrics() != null) metrics().localValue().recordDecodeFailure(bytes[0] == '[');
       return Collections.emptyList();
+    } finally {
+      if (profile) { // failures count too, as they cost as much as successes
+        metrics().localValue().recordStage("decode", spans.size(),
+            StageProfiler.cpuNanos() - cpuNanos, StageProfiler.allocatedBytes() - allocatedBytes);
+      }
     }
+    if (metrics() != null) metrics().localValue().recordMessage(bytes.length, spans.size());
+    return spans;
   }
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import com.google.auto.value.AutoValue;
+import java.util.Collections;
+import java.util.List;
+
+/** Settings of a running job that can be replaced between batches. See {@link SettingsSource}. */
+@AutoValue
+public abstract class Settings {
+
+  public static Builder newBuilder() {
+    return new AutoValue_Settings.Builder()
+        .sampler(TraceIdSampler.newBuilder().build())
+        .adjusters(Collections.emptyList());
+  }
+
+  @AutoValue.Builder
+  public interface Builder {
+    /** See {@link SparkStreamingJob.Builder#sampler(TraceIdSampler)}. Defaults to retain all. */
+    Builder sampler(TraceIdSampler sampler);
+
+    /** See {@link SparkStreamingJob.Builder#adjusters(List)}. Defaults to none. */
+    Builder adjusters(List<Adjuster> adjusters);
+
+    Settings build();
+  }
+
+  public abstract TraceIdSampler sampler();
+
+  public abstract List<Adjuster> adjusters();
+
+  Settings() {
+  }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import zipkin.internal.Nullable;
+
+/**
+ * Supplies {@link Settings} to a running job, so that sampling and adjustments can change without
+ * restarting it. Restarting a stream usually implies reprocessing messages and catching up.
+ *
+ * <p>This is polled on the driver, once per batch, before the batch's tasks are created. New
+ * settings apply to whole batches: spans of a batch are sampled and adjusted with the same ones.
+ */
+public interface SettingsSource {
+  /**
+   * Returns settings when they changed since the last call, or null to keep the current ones. If
+   * this throws, the error is logged and the current settings are kept.
+   */
+  @Nullable Settings poll();
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Util;
+
+/**
+ * Combines the {@link SpanFeatures} of several adjusters, so that a span is scanned once regardless
+ * of how many adjusters look at it. Lookups of annotation values, tag keys and service names are
+ * hash-based, and
+ * tag values are compared as bytes, so matching doesn't allocate.
+ */
+final class SpanFeatureIndex implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  /** Returns null when no adjuster declared features. */
+  static SpanFeatureIndex create(Adjuster[] adjusters) {
+    Builder builder = new Builder();
+    boolean empty = true;
+    for (int a = 0; a < adjusters.length; a++) {
+      SpanFeatures features = adjusters[a].features();
+      if (features == null) continue;
+      for (int i = 0; i < features.types.length; i++) {
+        builder.add(features.types[i], features.values[i], a, 1L << i);
+        empty = false;
+      }
+    }
+    return empty ? null : builder.build();
+  }
+
+  /** Which adjusters are interested in a feature, and at which bit. */
+  static final class Postings implements Serializable {
+    private static final long serialVersionUID = 0L;
+
+    int[] adjusters = new int[0];
+    long[] bits = new long[0];
+
+    void add(int adjuster, long bit) {
+      for (int i = 0; i < adjusters.length; i++) {
+        if (adjusters[i] == adjuster) {
+          bits[i] |= bit;
+          return;
+        }
+      }
+      adjusters = Arrays.copyOf(adjusters, adjusters.length + 1);
+      bits = Arrays.copyOf(bits, bits.length + 1);
+      adjusters[adjusters.length - 1] = adjuster;
+      bits[bits.length - 1] = bit;
+    }
+
+    void applyTo(long[] matches) {
+      for (int i = 0; i < adjusters.length; i++) {
+        matches[adjusters[i]] |= bits[i];
+      }
+    }
+  }
+
+  static final class Builder {
+    final Map<String, Postings> annotationValues = new LinkedHashMap<>();
+    final Map<String, Postings> tagKeys = new LinkedHashMap<>();
+    final Map<String, Postings> tagKeySubstrings = new LinkedHashMap<>();
+    final Map<String, Postings> tagValues = new LinkedHashMap<>();
+    final Map<String, Postings> serviceNames = new LinkedHashMap<>();
+
+    void add(SpanFeatures.Type type, String value, int adjuster, long bit) {
+      Map<String, Postings> map;
+      switch (type) {
+        case ANNOTATION_VALUE:
+          map = annotationValues;
+          break;
+        case TAG_KEY:
+          map = tagKeys;
+          break;
+        case TAG_KEY_CONTAINING:
+          map = tagKeySubstrings;
+          break;
+        case TAG_VALUE:
+          map = tagValues;
+          break;
+        case SERVICE_NAME:
+          map = serviceNames;
+          break;
+        default:
+          throw new AssertionError(type);
+      }
+      Postings postings = map.get(value);
+      if (postings == null) map.put(value, postings = new Postings());
+      postings.add(adjuster, bit);
+    }
+
+    SpanFeatureIndex build() {
+      return new SpanFeatureIndex(this);
+    }
+  }
+
+  final Map<String, Postings> annotationValues;
+  final Map<String, Postings> tagKeys;
+  final String[] tagKeySubstrings;
+  final Postings[] tagKeySubstringPostings;
+  final byte[][] tagValues;
+  final Postings[] tagValuePostings;
+  final Map<String, Postings> serviceNames;
+
+  SpanFeatureIndex(Builder builder) {
+    annotationValues = builder.annotationValues;
+    tagKeys = builder.tagKeys;
+    tagKeySubstrings = builder.tagKeySubstrings.keySet().toArray(new String[0]);
+    tagKeySubstringPostings = builder.tagKeySubstrings.values().toArray(new Postings[0]);
+    List<byte[]> tagValues = new ArrayList<>();
+    for (String tagValue : builder.tagValues.keySet()) {
+      tagValues.add(tagValue.getBytes(Util.UTF_8));
+    }
+    this.tagValues = tagValues.toArray(new byte[0][]);
+    tagValuePostings = builder.tagValues.values().toArray(new Postings[0]);
+    serviceNames = builder.serviceNames;
+  }
+
+  /**
+   * Overwrites {@code matches}, indexed by adjuster, with the bit set of features each adjuster
+   * declared and were found in the span.
+   */
+  void match(Span span, long[] matches) {
+    Arrays.fill(matches, 0L);
+    if (!annotationValues.isEmpty() || !serviceNames.isEmpty()) {
+      for (int i = 0, length = span.annotations.size(); i < length; i++) {
+        Annotation a = span.annotations.get(i);
+        if (!annotationValues.isEmpty()) {
+          Postings postings = annotationValues.get(a.value);
+          if (postings != null) postings.applyTo(matches);
+        }
+        matchServiceName(a.endpoint, matches);
+      }
+    }
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = span.binaryAnnotations.get(i);
+      matchServiceName(b.endpoint, matches);
+      if (!tagKeys.isEmpty()) {
+        Postings postings = tagKeys.get(b.key);
+        if (postings != null) postings.applyTo(matches);
+      }
+      for (int j = 0; j < tagKeySubstrings.length; j++) {
+        if (b.key.indexOf(tagKeySubstrings[j]) != -1) tagKeySubstringPostings[j].applyTo(matches);
+      }
+      for (int j = 0; j < tagValues.length; j++) {
+        if (SpanFeatures.bytesEqual(tagValues[j], b.value)) tagValuePostings[j].applyTo(matches);
+      }
+    }
+  }
+
+  void matchServiceName(Endpoint endpoint, long[] matches) {
+    if (endpoint == null || serviceNames.isEmpty()) return;
+    Postings postings = serviceNames.get(endpoint.serviceName);
+    if (postings != null) postings.applyTo(matches);
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Util;
+
+import static zipkin.internal.Util.checkNotNull;
+
+/**
+ * Declares the parts of a span an {@link Adjuster} looks at to decide whether to adjust it.
+ *
+ * <p>When several adjusters run, spans are scanned once for the union of their features, instead
+ * of once per adjuster. The result is passed to {@link Adjuster#shouldAdjust(Span, long)} as a bit
+ * set: the first feature added sets bit 0 ({@code 1L << 0}), the second bit 1, and so on.
+ *
+ * <p>Ex. To look for a "finagle.flush" annotation on a span tagged "Hit" or "Miss"
+ * <pre>{@code
+ * static final SpanFeatures FEATURES = SpanFeatures.newBuilder()
+ *     .addAnnotationValue("finagle.flush") // bit 0
+ *     .addTagValue("Hit") // bit 1
+ *     .addTagValue("Miss") // bit 2
+ *     .build();
+ * }</pre>
+ */
+public final class SpanFeatures implements Serializable {
+  private static final long serialVersionUID = 0L;
+
+  /** Maximum count of features, as they must fit in a long. */
+  public static final int MAX_FEATURES = 64;
+
+  enum Type {
+    ANNOTATION_VALUE, TAG_KEY, TAG_KEY_CONTAINING, TAG_VALUE, SERVICE_NAME
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    final List<Type> types = new ArrayList<>();
+    final List<String> values = new ArrayList<>();
+
+    /** Matches when any {@link Annotation#value} equals the input. */
+    public Builder addAnnotationValue(String annotationValue) {
+      return add(Type.ANNOTATION_VALUE, annotationValue);
+    }
+
+    /** Matches when any {@link BinaryAnnotation#key} equals the input. */
+    public Builder addTagKey(String key) {
+      return add(Type.TAG_KEY, key);
+    }
+
+    /** Matches when any {@link BinaryAnnotation#key} contains the input. */
+    public Builder addTagKeyContaining(String keySubstring) {
+      return add(Type.TAG_KEY_CONTAINING, keySubstring);
+    }
+
+    /** Matches when any {@link BinaryAnnotation#value} is the UTF-8 encoding of the input. */
+    public Builder addTagValue(String value) {
+      return add(Type.TAG_VALUE, value);
+    }
+
+    /** Matches when the endpoint of any annotation or tag has the (lowercase) service name. */
+    public Builder addServiceName(String serviceName) {
+      return add(Type.SERVICE_NAME, serviceName);
+    }
+
+    Builder add(Type type, String value) {
+      checkNotNull(value, type.name().toLowerCase());
+      if (types.size() == MAX_FEATURES) {
+        throw new IllegalArgumentException("more than " + MAX_FEATURES + " features");
+      }
+      types.add(type);
+      values.add(value);
+      return this;
+    }
+
+    public SpanFeatures build() {
+      return new SpanFeatures(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final Type[] types;
+  final String[] values;
+  final byte[][] utf8Values; // only set for TAG_VALUE, to avoid decoding tag values
+
+  SpanFeatures(Builder builder) {
+    int length = builder.types.size();
+    types = builder.types.toArray(new Type[length]);
+    values = builder.values.toArray(new String[length]);
+    utf8Values = new byte[length][];
+    for (int i = 0; i < length; i++) {
+      if (types[i] == Type.TAG_VALUE) utf8Values[i] = values[i].getBytes(Util.UTF_8);
+    }
+  }
+
+  /** Returns a bit set of the features present in the span. */
+  public long match(Span span) {
+    long result = 0L;
+    for (int i = 0; i < types.length; i++) {
+      if (matches(types[i], values[i], utf8Values[i], span)) result |= 1L << i;
+    }
+    return result;
+  }
+
+  static boolean matches(Type type, String value, byte[] utf8Value, Span span) {
+    switch (type) {
+      case ANNOTATION_VALUE:
+        for (int i = 0, length = span.annotations.size(); i < length; i++) {
+          if (value.equals(span.annotations.get(i).value)) return true;
+        }
+        return false;
+      case TAG_KEY:
+        for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+          if (value.equals(span.binaryAnnotations.get(i).key)) return true;
+        }
+        return false;
+      case TAG_KEY_CONTAINING:
+        for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+          if (span.binaryAnnotations.get(i).key.indexOf(value) != -1) return true;
+        }
+        return false;
+      case TAG_VALUE:
+        for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+          if (bytesEqual(utf8Value, span.binaryAnnotations.get(i).value)) return true;
+        }
+        return false;
+      case SERVICE_NAME:
+        for (int i = 0, length = span.annotations.size(); i < length; i++) {
+          if (hasServiceName(span.annotations.get(i).endpoint, value)) return true;
+        }
+        for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+          if (hasServiceName(span.binaryAnnotations.get(i).endpoint, value)) return true;
+        }
+        return false;
+      default:
+        throw new AssertionError(type);
+    }
+  }
+
+  static boolean hasServiceName(Endpoint endpoint, String serviceName) {
+    return endpoint != null && serviceName.equals(endpoint.serviceName);
+  }
+
+  static boolean bytesEqual(byte[] expected, byte[] actual) {
+    if (expected.length != actual.length) return false;
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] != actual[i]) return false;
+    }
+    return true;
+  }
+
+  @Override public String toString() {
+    StringBuilder result = new StringBuilder("SpanFeatures{");
+    for (int i = 0; i < types.length; i++) {
+      if (i > 0) result.append(", ");
+      result.append(types[i].name().toLowerCase()).append('=').append(values[i]);
+    }
+    return result.append('}').toString();
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+
+/**
+ * Replaces equal strings, endpoints and tags in decoded spans with shared instances. Decoding
+ * allocates a copy of each service name, span name, annotation value and tag per span, and all of
+ * them stay live until the batch is consumed.
+ *
+ * <p>Each kind of value is cached in a fixed-size table indexed by hash code. A miss overwrites the
+ * slot, so values that rarely repeat evict each other instead of growing the cache. Tables are
+ * shared by all tasks in an executor without locking: racing writers overwrite each other, which
+ * is harmless as cached values are immutable.
+ *
+ * <p>Lookups, hits and evictions are recorded into the job's {@link PipelineMetrics}, so the
+ * capacity can be tuned from the published hit rate.
+ */
+final class SpanInterner {
+  /** Returns the executor-wide interner of the given capacity, creating it if needed. */
+  static SpanInterner get(int capacity) {
+    return ExecutorSetup.shared(Arrays.asList(SpanInterner.class, capacity),
+        () -> new SpanInterner(capacity));
+  }
+
+  final int capacity;
+  final int mask;
+  final String[] strings;
+  final Endpoint[] endpoints;
+  final BinaryAnnotation[] binaryAnnotations;
+
+  SpanInterner(int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+    this.capacity = capacity;
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    mask = size - 1;
+    strings = new String[size];
+    endpoints = new Endpoint[size];
+    binaryAnnotations = new BinaryAnnotation[size];
+  }
+
+  /** Returns a list with interned spans. */
+  List<Span> intern(List<Span> spans) {
+    return intern(spans, null);
+  }
+
+  /** Like {@link #intern(List)}, except records counts when metrics are present. */
+  List<Span> intern(List<Span> spans, @Nullable PipelineMetrics metrics) {
+    Counts counts = new Counts();
+    List<Span> result = new ArrayList<>(spans.size());
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      result.add(intern(spans.get(i), counts));
+    }
+    if (metrics != null) metrics.recordIntern(counts.lookups, counts.hits, counts.evictions);
+    return result;
+  }
+
+  Span intern(Span span, Counts counts) {
+    String name = string(span.name, counts);
+
+    Annotation[] annotations = null; // allocated on the first changed annotation
+    for (int i = 0, length = span.annotations.size(); i < length; i++) {
+      Annotation a = span.annotations.get(i);
+      String value = string(a.value, counts);
+      Endpoint endpoint = endpoint(a.endpoint, counts);
+      if (value == a.value && endpoint == a.endpoint) continue;
+      if (annotations == null) annotations = span.annotations.toArray(new Annotation[length]);
+      annotations[i] = Annotation.create(a.timestamp, value, endpoint);
+    }
+
+    BinaryAnnotation[] binaryAnnotations = null;
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = span.binaryAnnotations.get(i);
+      BinaryAnnotation interned = binaryAnnotation(b, counts);
+      if (interned == b) continue;
+      if (binaryAnnotations == null) {
+        binaryAnnotations = span.binaryAnnotations.toArray(new BinaryAnnotation[length]);
+      }
+      binaryAnnotations[i] = interned;
+    }
+
+    if (name == span.name && annotations == null && binaryAnnotations == null) return span;
+    Span.Builder builder = span.toBuilder().name(name);
+    if (annotations != null) builder.annotations(Arrays.asList(annotations));
+    if (binaryAnnotations != null) builder.binaryAnnotations(Arrays.asList(binaryAnnotations));
+    return builder.build();
+  }
+
+  String string(String value, Counts counts) {
+    if (value == null) return null;
+    int i = index(value.hashCode());
+    String cached = strings[i];
+    counts.lookups++;
+    if (value.equals(cached)) {
+      counts.hits++;
+      return cached;
+    }
+    if (cached != null) counts.evictions++;
+    strings[i] = value;
+    return value;
+  }
+
+  Endpoint endpoint(Endpoint endpoint, Counts counts) {
+    if (endpoint == null) return null;
+    int i = index(endpoint.hashCode());
+    Endpoint cached = endpoints[i];
+    counts.lookups++;
+    if (endpoint.equals(cached)) {
+      counts.hits++;
+      return cached;
+    }
+    if (cached != null) counts.evictions++;
+    String serviceName = string(endpoint.serviceName, counts);
+    if (serviceName != endpoint.serviceName) {
+      endpoint = endpoint.toBuilder().serviceName(serviceName).build();
+    }
+    endpoints[i] = endpoint;
+    return endpoint;
+  }
+
+  BinaryAnnotation binaryAnnotation(BinaryAnnotation b, Counts counts) {
+    int i = index(b.hashCode());
+    BinaryAnnotation cached = binaryAnnotations[i];
+    counts.lookups++;
+    if (b.equals(cached)) {
+      counts.hits++;
+      return cached;
+    }
+    if (cached != null) counts.evictions++;
+    String key = string(b.key, counts);
+    Endpoint endpoint = endpoint(b.endpoint, counts);
+    if (key != b.key || endpoint != b.endpoint) {
+      b = b.toBuilder().key(key).endpoint(endpoint).build();
+    }
+    binaryAnnotations[i] = b;
+    return b;
+  }
+
+  int index(int hashCode) {
+    return (hashCode ^ (hashCode >>> 16)) & mask;
+  }
+
+  /** Counts for one call, so that metrics are recorded once per call, not per value. */
+  static final class Counts {
+    int hits, lookups, evictions;
+  }
+
+  @Override public String toString() {
+    return "SpanInterner{capacity=" + capacity + "}";
+  }
+}
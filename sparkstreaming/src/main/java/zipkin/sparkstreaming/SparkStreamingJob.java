@@ -23,17 +23,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function0;
 import org.apache.spark.streaming.Duration;
 import org.apache.spark.streaming.api.java.JavaDStream;
-import org.apache.spark.streaming.api.java.JavaPairDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scala.Tuple2;
 import zipkin.Span;
+import zipkin.internal.Nullable;
 import zipkin.internal.Util;
 import zipkin.storage.StorageComponent;
 
 @AutoValue
 public abstract class SparkStreamingJob implements Closeable {
+  static final Logger log = LoggerFactory.getLogger(SparkStreamingJob.class);
 
   public static Builder newBuilder() {
     Map<String, String> conf = new LinkedHashMap<>();
@@ -42,8 +47,17 @@ public abstract class SparkStreamingJob implements Closeable {
         .master("local[*]")
         .jars(Collections.emptyList())
         .conf(conf)
+        .sampler(TraceIdSampler.newBuilder().build())
         .adjusters(Collections.emptyList())
+        .streamConsumers(Collections.emptyList())
+        .parallelism(1)
+        .internCapacity(4096)
         .batchDuration(10_000)
+        .healthPort(0)
+        .profileStages(false)
+        .warmUp(false)
+        .encodeShuffle(false)
+        .stopTimeout(0)
         .zipkinLogLevel("INFO");
   }
 
@@ -59,7 +73,10 @@ public abstract class SparkStreamingJob implements Closeable {
     /** When set, this indicates which jars to distribute to the cluster. */
     Builder jars(List<String> jars);
 
-    /** Overrides the properties used to create a {@link SparkConf}. */
+    /**
+     * Overrides the properties used to create a {@link SparkConf}. Unless set here,
+     * "spark.streaming.stopGracefullyOnShutdown" is true.
+     */
     Builder conf(Map<String, String> conf);
 
     /** The time interval at which streaming data will be divided into batches. Defaults to 10s. */
@@ -68,12 +85,93 @@ public abstract class SparkStreamingJob implements Closeable {
     /** Produces a stream of serialized span messages (thrift or json lists) */
     Builder streamFactory(StreamFactory streamFactory);
 
+    /**
+     * Drops spans by trace ID before they are grouped, so that dropped traces don't cost a shuffle.
+     * Defaults to retain all traces.
+     */
+    Builder sampler(TraceIdSampler sampler);
+
+    /**
+     * Size of each executor's tables used to share equal strings, endpoints and tags among spans
+     * grouped by trace ID, lowering heap used by traces until they are consumed. Rounded up to a
+     * power of two. Defaults to 4096. Zero disables interning.
+     */
+    Builder internCapacity(int internCapacity);
+
     /** Conditionally adjusts spans grouped by trace ID. For example, pruning data */
     Builder adjusters(List<Adjuster> adjusters);
 
+    /**
+     * Polled on the driver before each batch, to replace the {@link #sampler(TraceIdSampler)
+     * sampler} and {@link #adjusters(List) adjusters} without restarting the job. Defaults to
+     * none, which keeps them for the life of the job.
+     */
+    Builder settingsSource(@Nullable SettingsSource settingsSource);
+
     /** Accepts spans grouped by trace ID. For example, writing to a {@link StorageComponent} */
     Builder consumer(Consumer consumer);
 
+    /**
+     * Consume the stream of adjusted traces as a whole, in addition to the {@link
+     * #consumer(Consumer) consumer}. For example, to aggregate dependency links. Defaults to none.
+     */
+    Builder streamConsumers(List<StreamConsumer> streamConsumers);
+
+    /**
+     * Count of threads each executor uses to adjust and consume traces. Defaults to 1, which
+     * processes traces one at a time on the Spark task thread.
+     *
+     * <p>Values above 1 help when the consumer blocks, for example on storage writes. Threads are
+     * shared by all tasks running on an executor, and the consumer must be thread-safe.
+     */
+    Builder parallelism(int parallelism);
+
+    /**
+     * When positive, the driver serves statistics of recent batches as JSON over HTTP on this port.
+     * Defaults to zero, which disables it. Statistics are also registered over JMX, as {@link
+     * BatchHealthMXBean}.
+     */
+    Builder healthPort(int healthPort);
+
+    /**
+     * When true, tasks record the CPU time and bytes allocated by decoding, each adjuster and the
+     * consumer, published as metrics per span. Defaults to false, as sampling thread counters costs
+     * a little per span and adjuster.
+     */
+    Builder profileStages(boolean profileStages);
+
+    /**
+     * When true, {@link #start()} first runs a Spark job that warms up each executor: it decodes
+     * and adjusts synthetic spans, and initializes the consumer, for example connecting to storage.
+     * Streaming starts after, so the first batch isn't slowed by cold executors. Defaults to false.
+     */
+    Builder warmUp(boolean warmUp);
+
+    /**
+     * When true, spans are grouped by trace ID as thrift bytes, and only decoded once grouped.
+     * Defaults to false, which groups span objects. See {@link EncodedTraces}.
+     *
+     * <p>This lowers heap used by buffered spans and bytes shuffled between executors, at the cost
+     * of encoding and decoding each span once more.
+     */
+    Builder encodeShuffle(boolean encodeShuffle);
+
+    /**
+     * When set, the job checkpoints its streams to this directory, such as on HDFS. After a restart
+     * with the same directory, the driver resumes from the checkpoint, including stream offsets and
+     * batches that were queued, instead of starting over. Defaults to none.
+     *
+     * <p>Settings in the checkpoint win over those of this builder until the directory is deleted,
+     * except the {@link #settingsSource(SettingsSource) settings source}, which is reattached.
+     */
+    Builder checkpointDirectory(@Nullable String checkpointDirectory);
+
+    /**
+     * How long {@link #close()} waits for received batches to complete, in milliseconds. Defaults
+     * to zero, which is Spark's default of 10 batch durations.
+     */
+    Builder stopTimeout(long stopTimeout);
+
     /** Log4J level used for the "zipkin" category. Important when running in a cluster. */
     Builder zipkinLogLevel(String zipkinLogLevel);
 
@@ -90,16 +188,59 @@ public abstract class SparkStreamingJob implements Closeable {
 
   abstract StreamFactory streamFactory();
 
+  abstract TraceIdSampler sampler();
+
+  abstract int internCapacity();
+
   abstract List<Adjuster> adjusters();
 
+  @Nullable abstract SettingsSource settingsSource();
+
   abstract Consumer consumer();
 
+  abstract List<StreamConsumer> streamConsumers();
+
+  abstract int parallelism();
+
+  abstract int healthPort();
+
+  abstract boolean profileStages();
+
+  abstract boolean warmUp();
+
+  abstract boolean encodeShuffle();
+
+  @Nullable abstract String checkpointDirectory();
+
+  abstract long stopTimeout();
+
   abstract String zipkinLogLevel();
 
   final AtomicBoolean started = new AtomicBoolean(false);
+  volatile BatchHealth health;
+  volatile BatchHealthServer healthServer;
 
+  /**
+   * Returns the context with its streams set up. When there's a checkpoint directory with a
+   * checkpoint in it, the context and streams are restored from it instead.
+   */
   @Memoized
   JavaStreamingContext jsc() {
+    if (checkpointDirectory() == null) return createContext();
+    // typed, as the lambda would also match the deprecated JavaStreamingContextFactory overload
+    Function0<JavaStreamingContext> create = () -> {
+      log.info("No checkpoint in {}; starting over", checkpointDirectory());
+      return createContext();
+    };
+    LiveSettings.RECOVERING_SOURCE.set(settingsSource()); // checkpoints are read on this thread
+    try {
+      return JavaStreamingContext.getOrCreate(checkpointDirectory(), create);
+    } finally {
+      LiveSettings.RECOVERING_SOURCE.remove();
+    }
+  }
+
+  JavaStreamingContext createContext() {
     SparkConf conf = new SparkConf(true)
         .setMaster(master())
         .setAppName(getClass().getName());
@@ -107,25 +248,67 @@ public abstract class SparkStreamingJob implements Closeable {
     for (Map.Entry<String, String> entry : conf().entrySet()) {
       conf.set(entry.getKey(), entry.getValue());
     }
-    return new JavaStreamingContext(conf, new Duration(batchDuration()));
+    // finish received batches on shutdown, unless configured otherwise
+    conf.setIfMissing("spark.streaming.stopGracefullyOnShutdown", "true");
+    if (stopTimeout() > 0) conf.set("spark.streaming.gracefulStopTimeout", stopTimeout() + "ms");
+    JavaStreamingContext result = new JavaStreamingContext(conf, new Duration(batchDuration()));
+    if (checkpointDirectory() != null) result.checkpoint(checkpointDirectory());
+
+    PipelineMetricsSource metrics = PipelineMetricsSource.create(result.sparkContext());
+    streamSpansToStorage(
+        streamFactory().create(result),
+        new AutoValue_ReadSpans(executorSetup(), metrics, profileStages()),
+        new LiveSettings(settingsSource(), sampler(),
+            new AutoValue_AdjustAndConsumeSpansSharingTraceId(
+                executorSetup(),
+                AdjusterChain.create(adjusters()),
+                consumer(),
+                parallelism(),
+                internCapacity(),
+                metrics,
+                profileStages()
+            )
+        ),
+        streamConsumers(),
+        metrics,
+        encodeShuffle()
+    );
+    return result;
+  }
+
+  @Memoized
+  Runnable executorSetup() {
+    return ExecutorSetup.create(
+        Collections.<Runnable>singletonList(LogInitializer.create(zipkinLogLevel())));
   }
 
   /** Starts the streaming job. Use {@link #close()} to stop it */
   public SparkStreamingJob start() {
     if (!started.compareAndSet(false, true)) return this;
 
-    Runnable logInitializer = LogInitializer.create(zipkinLogLevel());
-    logInitializer.run(); // Ensures local log commands emit
-    streamSpansToStorage(
-        streamFactory().create(jsc()),
-        new AutoValue_ReadSpans(logInitializer),
-        new AutoValue_AdjustAndConsumeSpansSharingTraceId(logInitializer, adjusters(), consumer())
-    );
-
-    jsc().start();
+    LogInitializer.create(zipkinLogLevel()).run(); // Ensures local log commands emit
+    JavaStreamingContext jsc = jsc();
+    startHealth();
+    if (warmUp()) {
+      WarmUp.run(jsc.sparkContext(), executorSetup(), AdjusterChain.create(adjusters()),
+          consumer());
+    }
+    jsc.start();
     return this;
   }
 
+  void startHealth() {
+    health = new BatchHealth(batchDuration());
+    jsc().addStreamingListener(health);
+    health.registerMBean();
+    if (healthPort() <= 0) return;
+    try {
+      healthServer = BatchHealthServer.start(health, healthPort());
+    } catch (IOException e) {
+      throw new IllegalStateException("unable to serve batch health on port " + healthPort(), e);
+    }
+  }
+
   /** Use this to block on {@link #close()} */
   public void awaitTermination() {
     if (started.get()) jsc().awaitTermination();
@@ -136,28 +319,88 @@ public abstract class SparkStreamingJob implements Closeable {
   static void streamSpansToStorage(
       JavaDStream<byte[]> stream,
       ReadSpans readSpans,
-      AdjustAndConsumeSpansSharingTraceId adjustAndConsumeSpansSharingTraceId
+      LiveSettings settings,
+      List<StreamConsumer> streamConsumers,
+      PipelineMetricsSource metrics,
+      boolean encodeShuffle
   ) {
-    JavaDStream<Span> spans = stream.flatMap(readSpans);
+    JavaDStream<Span> spans = stream.flatMap(readSpans)
+        // This runs on the driver when the batch is created, so it picks the batch's settings.
+        // Sampling before grouping means dropped traces are never shuffled.
+        .transform((rdd, time) -> {
+          metrics.prepareBatch(JavaSparkContext.fromSparkContext(rdd.context()));
+          TraceIdSampler sampler = settings.startBatch(time);
+          return sampler.alwaysSample() ? rdd : rdd.filter(sampler);
+        });
+
+    JavaDStream<Iterable<Span>> traces = encodeShuffle
+        ? EncodedTraces.groupByTraceId(spans, readSpans)
+        : spans.mapToPair(s -> new Tuple2<>(Util.toLowerHex(s.traceIdHigh, s.traceId), s))
+            .groupByKey()
+            .map(t -> t._2);
+
+    // Service rates are decided per trace, so need grouped spans. Like the sampling above, this
+    // runs on the driver when the batch is created, right after it, so reads the same sampler.
+    traces = traces.transform(rdd -> {
+      TraceIdSampler sampler = settings.currentSampler();
+      return sampler.hasServiceRates() ? rdd.filter(sampler.traceFilter()) : rdd;
+    });
 
-    // TODO: plug in some filter to drop spans regardless of trace ID
-    // spans = spans.filter(spanFilter);
+    if (!streamConsumers.isEmpty()) {
+      streamAdjustedTraces(traces, settings, streamConsumers, metrics);
+      return;
+    }
 
-    JavaPairDStream<String, Iterable<Span>> tracesById = spans
-        .mapToPair(s -> new Tuple2<>(Util.toLowerHex(s.traceIdHigh, s.traceId), s))
-        .groupByKey();
+    traces.foreachRDD((rdd, time) -> {
+      AdjustAndConsumeSpansSharingTraceId adjustAndConsumeSpansSharingTraceId =
+          settings.endBatch(time);
+      // This block runs on the driver, so it can prepare state that tasks of this batch will read
+      JavaSparkContext context = JavaSparkContext.fromSparkContext(rdd.context());
+      adjustAndConsumeSpansSharingTraceId.prepareBatch(context);
+      rdd.foreachPartition(adjustAndConsumeSpansSharingTraceId);
+      metrics.collectBatch();
+    });
+  }
 
-    tracesById.foreachRDD(rdd -> {
-      rdd.values().foreachPartition(adjustAndConsumeSpansSharingTraceId);
+  /**
+   * Adjusts traces into a cached stream, read by the consumer and each stream consumer. Otherwise,
+   * each would re-run adjusters on the grouped spans.
+   */
+  static void streamAdjustedTraces(
+      JavaDStream<Iterable<Span>> traces,
+      LiveSettings settings,
+      List<StreamConsumer> streamConsumers,
+      PipelineMetricsSource metrics
+  ) {
+    JavaDStream<Iterable<Span>> adjustedTraces = traces.transform((rdd, time) -> {
+      AdjustAndConsumeSpansSharingTraceId batch = settings.endBatch(time);
+      batch.prepareBatch(JavaSparkContext.fromSparkContext(rdd.context()));
+      return rdd.map(batch.adjustOnly());
+    }).cache();
+
+    adjustedTraces.foreachRDD(rdd -> {
+      rdd.foreachPartition(settings.consumeOnly());
+      metrics.collectBatch(); // the first output of the batch, so it read and adjusted traces
     });
+    for (StreamConsumer streamConsumer : streamConsumers) {
+      streamConsumer.consume(adjustedTraces);
+    }
   }
 
+  /**
+   * Stops receiving, then waits for received batches to complete, up to the {@link
+   * Builder#stopTimeout(long) stop timeout}. Tasks flush their consumer before completing. Then,
+   * this releases resources shared by tasks in this JVM, such as storage and producers.
+   */
   @Override public void close() throws IOException {
-    jsc().close();
+    if (healthServer != null) healthServer.close();
+    if (health != null) health.unregisterMBean();
+    if (started.get()) jsc().stop(true, true);
     // not sure how to get spark to close things
     if (consumer() instanceof Closeable) {
       ((Closeable) consumer()).close();
     }
+    ExecutorSetup.releaseAll(); // other executors release when their JVM exits
   }
 
   SparkStreamingJob() {
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Accumulates the CPU time and bytes allocated by the current thread into slots, such as one per
+ * adjuster, along with how many spans each slot processed.
+ *
+ * <p>Call {@link #start()}, then {@link #lap(int, int)} after each stage: the cost since the last
+ * call is added to that stage's slot. This is confined to one thread, and only used when the job
+ * profiles stages, as each sample reads the thread's counters from the JVM.
+ *
+ * <p>CPU time is zero when the JVM doesn't support measuring it. Allocated bytes are zero unless
+ * the JVM is HotSpot (or OpenJDK), which counts them per thread.
+ */
+final class StageProfiler {
+  static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  static final boolean CPU_SUPPORTED = enableCpuTime();
+  static final Method ALLOCATED_BYTES = allocatedBytesMethod(); // null when unsupported
+  /** Arguments of {@link #ALLOCATED_BYTES} for the current thread, boxed once per thread. */
+  static final ThreadLocal<Sample> SAMPLES = new ThreadLocal<>();
+  /** Bytes each sample allocates itself, such as its boxed result, which aren't counted. */
+  static final long SAMPLE_BYTES = sampleBytes();
+
+  final long[] spans, cpuNanos, allocatedBytes;
+  long lastCpuNanos, lastAllocatedBytes;
+
+  StageProfiler(int slots) {
+    spans = new long[slots];
+    cpuNanos = new long[slots];
+    allocatedBytes = new long[slots];
+  }
+
+  void start() {
+    lastCpuNanos = cpuNanos();
+    lastAllocatedBytes = allocatedBytes();
+  }
+
+  /** Adds the cost since the last call to the slot, which processed the given count of spans. */
+  void lap(int slot, int spanCount) {
+    long cpuNanos = cpuNanos(), allocatedBytes = allocatedBytes();
+    spans[slot] += spanCount;
+    this.cpuNanos[slot] += cpuNanos - lastCpuNanos;
+    this.allocatedBytes[slot] += allocatedBytes - lastAllocatedBytes;
+    lastCpuNanos = cpuNanos;
+    lastAllocatedBytes = allocatedBytes;
+  }
+
+  /** Returns the CPU time of the current thread, or zero if unsupported. */
+  static long cpuNanos() {
+    return CPU_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0L;
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread so far, or zero if unsupported. Bytes
+   * allocated by earlier calls on this thread are excluded, so that differences between two calls
+   * only include the work between them.
+   */
+  static long allocatedBytes() {
+    if (ALLOCATED_BYTES == null) return 0L;
+    Sample sample = SAMPLES.get();
+    if (sample == null) SAMPLES.set(sample = new Sample());
+    long result = sample.read();
+    return result - sample.count++ * SAMPLE_BYTES;
+  }
+
+  static final class Sample {
+    final Object[] args = {Thread.currentThread().getId()};
+    long count;
+
+    long read() {
+      try {
+        return (Long) ALLOCATED_BYTES.invoke(THREADS, args);
+      } catch (Exception e) {
+        return 0L; // the method doesn't throw for a live thread
+      }
+    }
+  }
+
+  static boolean enableCpuTime() {
+    try {
+      if (!THREADS.isCurrentThreadCpuTimeSupported()) return false;
+      if (!THREADS.isThreadCpuTimeEnabled()) THREADS.setThreadCpuTimeEnabled(true);
+      return true;
+    } catch (RuntimeException e) { // SecurityException or UnsupportedOperationException
+      return false;
+    }
+  }
+
+  /**
+   * Looks up {@code com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)} reflectively, as
+   * it isn't a standard API.
+   */
+  static Method allocatedBytesMethod() {
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      if (!type.isInstance(THREADS)) return null;
+      if (!(Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)) {
+        return null;
+      }
+      return type.getMethod("getThreadAllocatedBytes", long.class);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Measures what a sample allocates, such as boxing its result. Reflection allocates more during
+   * its first calls, so this warms up first, then takes the smallest of several measurements.
+   */
+  static long sampleBytes() {
+    if (ALLOCATED_BYTES == null) return 0L;
+    Sample sample = new Sample();
+    for (int i = 0; i < 32; i++) sample.read();
+    long result = Long.MAX_VALUE;
+    for (int i = 0; i < 8; i++) {
+      long before = sample.read();
+      result = Math.min(result, sample.read() - before);
+    }
+    return Math.max(0L, result);
+  }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import org.apache.spark.streaming.api.java.JavaDStream;
+import zipkin.Span;
+
+/**
+ * Consumes the stream of adjusted traces as a whole, for results that combine many traces, such as
+ * dependency links or latency histograms.
+ *
+ * <p>Unlike {@link Consumer}, this is called once, on the driver, before the job starts. It can
+ * add any operations to the stream, such as {@code reduceByKey} or windows. Each trace is a list of
+ * spans sharing a trace ID, after adjusters ran. Adjusted traces are cached for the batch, so they
+ * are computed once no matter how many consumers read them.
+ */
+public interface StreamConsumer {
+  void consume(JavaDStream<Iterable<Span>> adjustedTraces);
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.spark.api.java.function.Function;
+import zipkin.Span;
+
+/**
+ * Drops spans before they are grouped by trace ID, so that dropped data never reaches the shuffle.
+ *
+ * <p>The decision is a function of the lower 64 bits of the trace ID: a span is kept when the
+ * absolute value of its trace ID is at or below a boundary derived from the sample rate. As this is
+ * deterministic, all executors and batches agree, and a trace is either kept or dropped in whole.
+ *
+ * <p>Rates can be overridden by service name. The rate of a trace is the highest rate of its
+ * services, where services without an override have the default rate. So, a lower rate only drops
+ * traces that stay within services sampled at that rate or lower, such as health checks. As the
+ * services of a trace aren't known until spans are grouped, overrides are applied in two steps:
+ * <ol>
+ *   <li>Before grouping, {@link #call(Span)} drops spans whose trace would be dropped at every
+ *   rate, default or override.</li>
+ *   <li>After grouping, {@link #sampleTrace(Iterable)} decides on the whole trace, by the highest
+ *   rate of the services of its spans.</li>
+ * </ol>
+ *
+ * <p>As the same boundary test is used for every rate, a trace kept at a low rate is also kept at
+ * any higher rate, so the second step never needs spans dropped by the first. The decision only
+ * depends on the trace ID and services of the grouped spans, not on which span is the root. When
+ * spans of a trace arrive in different batches, each batch is decided by the services it has.
+ * Traces with a debug span are always kept.
+ */
+@AutoValue
+public abstract class TraceIdSampler implements Function<Span, Boolean> {
+  private static final long serialVersionUID = 0L;
+
+  public static Builder newBuilder() {
+    return new AutoValue_TraceIdSampler.Builder()
+        .rate(1.0f)
+        .serviceRates(Collections.<String, Float>emptyMap());
+  }
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /** Percentage of traces to retain, from 0.0 (none) to 1.0 (all). Defaults to 1.0 */
+    public abstract Builder rate(float rate);
+
+    /**
+     * Overrides {@link #rate(float)} for spans reported by the given service names. Service names
+     * are compared case-insensitively. Defaults to no overrides.
+     */
+    public abstract Builder serviceRates(Map<String, Float> serviceRates);
+
+    abstract float rate();
+
+    abstract Map<String, Float> serviceRates();
+
+    abstract TraceIdSampler autoBuild();
+
+    public final TraceIdSampler build() {
+      checkRate("rate", rate());
+      Map<String, Float> serviceRates = new LinkedHashMap<>();
+      for (Map.Entry<String, Float> entry : serviceRates().entrySet()) {
+        checkRate("rate of " + entry.getKey(), entry.getValue());
+        serviceRates.put(entry.getKey().toLowerCase(), entry.getValue());
+      }
+      serviceRates(Collections.unmodifiableMap(serviceRates));
+      return autoBuild();
+    }
+
+    Builder() {
+    }
+  }
+
+  abstract float rate();
+
+  abstract Map<String, Float> serviceRates();
+
+  /**
+   * True when the rate of some service differs from the default, so traces must also be sampled
+   * after grouping. See {@link #sampleTrace(Iterable)}.
+   */
+  boolean hasServiceRates() {
+    for (Float rate : serviceRates().values()) {
+      if (rate != rate()) return true;
+    }
+    return false;
+  }
+
+  /** True when no span could be dropped, so callers can skip filtering altogether. */
+  boolean alwaysSample() {
+    if (rate() != 1.0f) return false;
+    for (Float rate : serviceRates().values()) {
+      if (rate != 1.0f) return false;
+    }
+    return true;
+  }
+
+  @Memoized long defaultBoundary() {
+    return boundary(rate());
+  }
+
+  @Memoized Map<String, Long> serviceBoundaries() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (Map.Entry<String, Float> entry : serviceRates().entrySet()) {
+      result.put(entry.getKey(), boundary(entry.getValue()));
+    }
+    return result;
+  }
+
+  /** The boundary of the highest rate, default or override. */
+  @Memoized long maxBoundary() {
+    long result = defaultBoundary();
+    for (Long boundary : serviceBoundaries().values()) result = Math.max(result, boundary);
+    return result;
+  }
+
+  /** Keeps the span unless its trace would be dropped at every rate. */
+  @Override public Boolean call(Span span) {
+    if (Boolean.TRUE.equals(span.debug)) return true;
+    return keep(span.traceId, maxBoundary());
+  }
+
+  /** Decides on spans grouped by trace ID, by the highest rate of their services. */
+  boolean sampleTrace(Iterable<Span> trace) {
+    long traceId = 0L, boundary = Long.MIN_VALUE;
+    for (Span span : trace) {
+      if (Boolean.TRUE.equals(span.debug)) return true;
+      traceId = span.traceId;
+      boundary = Math.max(boundary, boundary(span));
+    }
+    return keep(traceId, boundary);
+  }
+
+  /** Like {@link #sampleTrace(Iterable)}, except as a function to filter grouped traces in Spark. */
+  Function<Iterable<Span>, Boolean> traceFilter() {
+    return this::sampleTrace;
+  }
+
+  static boolean keep(long traceId, long boundary) {
+    // The absolute value of Long.MIN_VALUE is larger than a long, so Math.abs returns identity.
+    long t = traceId == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(traceId);
+    return t <= boundary;
+  }
+
+  /** Returns the highest boundary of the span's services. */
+  long boundary(Span span) {
+    Map<String, Long> serviceBoundaries = serviceBoundaries();
+    if (serviceBoundaries.isEmpty()) return defaultBoundary();
+
+    Set<String> serviceNames = span.serviceNames();
+    if (serviceNames.isEmpty()) return defaultBoundary();
+
+    long result = Long.MIN_VALUE;
+    for (String serviceName : serviceNames) {
+      Long boundary = serviceBoundaries.get(serviceName);
+      result = Math.max(result, boundary != null ? boundary : defaultBoundary());
+    }
+    return result;
+  }
+
+  static long boundary(float rate) {
+    if (rate == 0.0f) return Long.MIN_VALUE; // never keep, not even trace ID zero
+    return (long) (Long.MAX_VALUE * rate); // safe cast as rate <= 1
+  }
+
+  static void checkRate(String name, Float rate) {
+    if (rate == null || rate < 0.0f || rate > 1.0f) {
+      throw new IllegalArgumentException(name + " should be between 0.0 and 1.0: was " + rate);
+    }
+  }
+
+  TraceIdSampler() {
+  }
+}
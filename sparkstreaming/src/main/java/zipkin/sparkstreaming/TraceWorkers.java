@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the worker pool shared by all tasks in an executor, used to adjust and consume traces in
+ * parallel. The pool's queue is bounded: when it is full, submitting blocks, which keeps tasks from
+ * reading their partition faster than traces can be processed.
+ */
+final class TraceWorkers {
+  /** How many traces can wait per worker thread before submitters block. */
+  static final int QUEUE_SIZE_PER_THREAD = 4;
+
+  /** Returns the executor-wide pool, growing it if needed to at least the given thread count. */
+  static ExecutorService get(int threads) {
+    ThreadPoolExecutor pool = ExecutorSetup.shared(TraceWorkers.class, () -> {
+      ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD),
+          new WorkerThreadFactory(),
+          new BlockWhenFull());
+      result.allowCoreThreadTimeOut(true); // don't hold threads when the job is idle
+      return result;
+    });
+    synchronized (pool) {
+      if (pool.getMaximumPoolSize() < threads) {
+        pool.setMaximumPoolSize(threads);
+        pool.setCorePoolSize(threads);
+      }
+    }
+    return pool;
+  }
+
+  static final class BlockWhenFull implements RejectedExecutionHandler {
+    @Override public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) throw new RejectedExecutionException("worker pool is shutdown");
+      try {
+        executor.getQueue().put(r);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("interrupted waiting for a worker", e);
+      }
+    }
+  }
+
+  static final class WorkerThreadFactory implements ThreadFactory {
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override public Thread newThread(Runnable r) {
+      Thread result = new Thread(r, "zipkin-trace-worker-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
+  TraceWorkers() {
+  }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.List;
+import zipkin.Span;
+
+/** Utilities for the traces passed to adjusters and consumers. */
+public final class Traces {
+
+  /**
+   * Returns the trace as a list, copying it only when it isn't one. Adjusted traces are already
+   * materialized lists, so consumers rarely pay for a copy.
+   */
+  public static List<Span> asList(Iterable<Span> trace) {
+    if (trace instanceof List) return (List<Span>) trace;
+    return AdjusterChain.copyOf(trace);
+  }
+
+  Traces() {
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Codec;
+import zipkin.Component;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+/**
+ * Runs a Spark job before streaming starts, so that the first batch doesn't pay for cold executors.
+ *
+ * <p>On each executor, this runs {@link ExecutorSetup}, then decodes and adjusts synthetic spans
+ * enough times for the JIT to compile the codecs and adjusters. Then, it initializes the consumer
+ * by calling {@link Component#check()}, which for storage opens connections and checks the schema.
+ * Synthetic spans are never passed to the consumer. The warm-up runs on its own copy of the
+ * consumer, so this only helps tasks when the consumer keeps what it initialized in the executor,
+ * as storage consumers with a storage key do. See {@link ExecutorSetup#shared}.
+ *
+ * <p>This is best effort. There's one partition per core, so that every executor registered so
+ * far usually gets one, but the scheduler may place several on the same executor. Executors report
+ * their readiness, which the driver logs, along with a warning when fewer executors reported than
+ * are registered. Those warm up with the first batch instead. Each executor warms up once per run:
+ * other partitions on the same executor wait for and share its report. Reports are released with
+ * other executor state when the job stops, so a job started again in the same JVM warms up again.
+ */
+final class WarmUp implements Serializable, FlatMapFunction<Iterator<Integer>, String> {
+  private static final long serialVersionUID = 0L;
+  private static final Logger log = LoggerFactory.getLogger(WarmUp.class);
+
+  /** How many times to decode and adjust the synthetic trace, in each encoding. */
+  static final int ITERATIONS = 5000;
+
+  /** Blocks until executors that got a partition warmed up, logging the readiness of each. */
+  static void run(JavaSparkContext context, Runnable executorSetup, AdjusterChain adjusterChain,
+      Consumer consumer) {
+    adjusterChain.prepareBatch(context); // adjusters that need driver state, like a broadcast
+    WarmUp warmUp = new WarmUp(executorSetup, adjusterChain, consumer);
+    // the driver is registered too, except in local mode, where it is the only executor
+    int executors = Math.max(1, context.sc().getExecutorMemoryStatus().size() - 1);
+    int partitions = Math.max(executors, context.defaultParallelism());
+    List<Integer> slices = new ArrayList<>();
+    for (int i = 0; i < partitions; i++) slices.add(i);
+
+    long start = System.currentTimeMillis();
+    Set<String> reports = new LinkedHashSet<>(
+        context.parallelize(slices, partitions).mapPartitions(warmUp).collect());
+    for (String report : reports) log.info(report);
+    log.info("Warmed up {} executors in {}ms", reports.size(), System.currentTimeMillis() - start);
+    if (reports.size() < executors) {
+      log.warn("Only {} of {} executors warmed up; others will with the first batch",
+          reports.size(), executors);
+    }
+  }
+
+  final String id = UUID.randomUUID().toString(); // distinguishes runs of warm-up
+  final ReadSpans readSpans;
+  final AdjusterChain adjusterChain;
+  final Consumer consumer;
+  final byte[] json, thrift;
+
+  WarmUp(Runnable executorSetup, AdjusterChain adjusterChain, Consumer consumer) {
+    // no metrics, so synthetic spans don't count
+    this.readSpans = new AutoValue_ReadSpans(executorSetup, null, false);
+    this.adjusterChain = adjusterChain;
+    this.consumer = consumer;
+    List<Span> trace = syntheticTrace();
+    this.json = Codec.JSON.writeSpans(trace);
+    this.thrift = Codec.THRIFT.writeSpans(trace);
+  }
+
+  @Override public Iterable<String> call(Iterator<Integer> partition) {
+    return Collections.singletonList(ExecutorSetup.shared(key(), this::warmUp));
+  }
+
+  /** Partitions of this run share a report, while later runs warm up again. */
+  Object key() {
+    return Arrays.asList(WarmUp.class, id);
+  }
+
+  String warmUp() {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ITERATIONS; i++) {
+      adjusterChain.adjust(readSpans.call(json));
+      adjusterChain.adjust(readSpans.call(thrift));
+    }
+    long codecMillis = System.currentTimeMillis() - start;
+    String consumerStatus = check(consumer);
+    return "Executor " + SparkEnv.get().executorId() + " on "
+        + SparkEnv.get().blockManager().blockManagerId().host() + " warmed up codecs and adjusters"
+        + " in " + codecMillis + "ms; consumer " + consumerStatus + " after "
+        + (System.currentTimeMillis() - start) + "ms";
+  }
+
+  /** Initializes the consumer, or each consumer of a fanout, returning their status. */
+  static String check(Consumer consumer) {
+    if (consumer instanceof FanoutConsumer) {
+      List<String> result = new ArrayList<>();
+      for (Consumer next : ((FanoutConsumer) consumer).consumers) result.add(check(next));
+      return result.toString();
+    }
+    if (!(consumer instanceof Component)) return "ready";
+    try {
+      Component.CheckResult result = ((Component) consumer).check();
+      return result.ok ? "ready" : "not ready: " + result.exception;
+    } catch (RuntimeException e) {
+      return "not ready: " + e;
+    }
+  }
+
+  /** Returns a small RPC trace, with the annotations and tags adjusters usually look for. */
+  static List<Span> syntheticTrace() {
+    Endpoint frontend = Endpoint.create("warmup-frontend", 127 << 24 | 1);
+    Endpoint backend = Endpoint.create("warmup-backend", 127 << 24 | 2);
+    long timestamp = System.currentTimeMillis() * 1000;
+    Span root = Span.builder().traceId(1L).id(1L).name("get").timestamp(timestamp).duration(300L)
+        .addAnnotation(Annotation.create(timestamp, Constants.SERVER_RECV, frontend))
+        .addAnnotation(Annotation.create(timestamp + 300, Constants.SERVER_SEND, frontend))
+        .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", frontend))
+        .build();
+    Span client = Span.builder().traceId(1L).parentId(1L).id(2L).name("query")
+        .timestamp(timestamp + 50).duration(200L)
+        .addAnnotation(Annotation.create(timestamp + 50, Constants.CLIENT_SEND, frontend))
+        .addAnnotation(Annotation.create(timestamp + 250, Constants.CLIENT_RECV, frontend))
+        .addBinaryAnnotation(BinaryAnnotation.address(Constants.SERVER_ADDR, backend))
+        .build();
+    Span server = Span.builder().traceId(1L).parentId(1L).id(2L).name("query")
+        .addAnnotation(Annotation.create(timestamp + 60, Constants.SERVER_RECV, backend))
+        .addAnnotation(Annotation.create(timestamp + 240, Constants.SERVER_SEND, backend))
+        .addBinaryAnnotation(BinaryAnnotation.create("sql.query", "select 1", backend))
+        .build();
+    return Arrays.asList(root, client, server);
+  }
+}
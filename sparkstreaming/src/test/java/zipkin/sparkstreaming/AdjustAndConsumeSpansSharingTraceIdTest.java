@@ -0,0 +1,176 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class AdjustAndConsumeSpansSharingTraceIdTest {
+  List<Iterable<Span>> traces = new ArrayList<>();
+
+  {
+    for (long traceId = 1; traceId <= 100; traceId++) {
+      traces.add(asList(Span.builder().traceId(traceId).id(1L).name("get").build()));
+    }
+  }
+
+  @After
+  public void releaseInterner() {
+    ExecutorSetup.releaseAll();
+  }
+
+  @Test
+  public void sequential_consumesInOrder() throws Exception {
+    List<Iterable<Span>> consumed = new ArrayList<>();
+
+    adjustAndConsume(consumed::add, 1).call(traces.iterator());
+
+    assertThat(consumed).isEqualTo(traces);
+  }
+
+  @Test
+  public void parallel_consumesAllBeforeReturning() throws Exception {
+    List<Iterable<Span>> consumed = Collections.synchronizedList(new ArrayList<>());
+
+    adjustAndConsume(trace -> {
+      sleep(1); // make sure traces are in flight
+      consumed.add(trace);
+    }, 4).call(traces.iterator());
+
+    assertThat(consumed).containsOnlyElementsOf(traces).hasSameSizeAs(traces);
+  }
+
+  @Test
+  public void parallel_rethrowsFirstFailure() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    IllegalStateException failure = new IllegalStateException("storage is down");
+
+    try {
+      adjustAndConsume(trace -> {
+        inFlight.incrementAndGet();
+        try {
+          sleep(1);
+          if (trace.iterator().next().traceId == 10L) throw failure;
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      }, 4).call(traces.iterator());
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    }
+
+    assertThat(inFlight.get()) // nothing left running once the task returns
+        .isZero();
+  }
+
+  @Test
+  public void parallel_boundsTracesPendingBehindASlowOne() throws Exception {
+    CountDownLatch slow = new CountDownLatch(1);
+    AtomicInteger read = new AtomicInteger();
+    Iterator<Iterable<Span>> iterator = traces.iterator();
+    Iterator<Iterable<Span>> counting = new Iterator<Iterable<Span>>() {
+      @Override public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override public Iterable<Span> next() {
+        read.incrementAndGet();
+        return iterator.next();
+      }
+
+      @Override public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+
+    Thread task = new Thread(() -> {
+      try {
+        adjustAndConsume(trace -> {
+          if (trace.iterator().next().traceId != 1L) return;
+          try {
+            slow.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }, 4).call(counting);
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+    task.start();
+    sleep(100); // other traces complete meanwhile
+
+    assertThat(read.get()) // the slow trace, plus up to what the pool holds
+        .isLessThanOrEqualTo(1 + 4 * (TraceWorkers.QUEUE_SIZE_PER_THREAD + 1));
+    slow.countDown();
+    task.join();
+    assertThat(read.get()).isEqualTo(traces.size());
+  }
+
+  @Test
+  public void internsGroupedTraces() throws Exception {
+    List<Iterable<Span>> consumed = new ArrayList<>();
+    List<Iterable<Span>> sameTraceTwice = asList(
+        Codec.THRIFT.readSpans(Codec.THRIFT.writeSpans(TestObjects.TRACE)),
+        Codec.THRIFT.readSpans(Codec.THRIFT.writeSpans(TestObjects.TRACE))
+    );
+
+    adjustAndConsume(consumed::add, 1, 16).call(sameTraceTwice.iterator());
+
+    Span first = consumed.get(0).iterator().next(), second = consumed.get(1).iterator().next();
+    assertThat(second).isEqualTo(first);
+    assertThat(second.annotations.get(0).endpoint).isSameAs(first.annotations.get(0).endpoint);
+  }
+
+  static AdjustAndConsumeSpansSharingTraceId adjustAndConsume(Consumer consumer, int parallelism) {
+    return adjustAndConsume(consumer, parallelism, 0);
+  }
+
+  static AdjustAndConsumeSpansSharingTraceId adjustAndConsume(Consumer consumer, int parallelism,
+      int internCapacity) {
+    return new AutoValue_AdjustAndConsumeSpansSharingTraceId(
+        () -> {
+        },
+        AdjusterChain.create(Collections.emptyList()),
+        consumer,
+        parallelism,
+        internCapacity,
+        null,
+        false
+    );
+  }
+
+  static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AssertionError(e);
+    }
+  }
+}
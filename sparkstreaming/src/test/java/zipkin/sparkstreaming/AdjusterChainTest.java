@@ -0,0 +1,206 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.Test;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.internal.ApplyTimestampAndDuration;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdjusterChainTest {
+  AtomicInteger adjustCount = new AtomicInteger();
+
+  Adjuster countingRenamer = new Adjuster() {
+    @Override protected boolean shouldAdjust(Span span) {
+      return true;
+    }
+
+    @Override protected Span adjust(Span span) {
+      adjustCount.incrementAndGet();
+      return span.toBuilder().name("renamed").build();
+    }
+  };
+
+  Adjuster applyTimestampAndDuration = new Adjuster() {
+    @Override protected boolean shouldAdjust(Span span) {
+      return true;
+    }
+
+    @Override protected Span adjust(Span span) {
+      return ApplyTimestampAndDuration.apply(span);
+    }
+  };
+
+  @Test
+  public void emptyChainCopiesInput() {
+    AdjusterChain chain = AdjusterChain.create(Collections.emptyList());
+
+    List<Span> adjusted = chain.adjust(TestObjects.TRACE);
+    assertThat(adjusted)
+        .isNotSameAs(TestObjects.TRACE)
+        .containsExactlyElementsOf(TestObjects.TRACE);
+  }
+
+  @Test
+  public void sameResultAsLazyAdjusters() {
+    AdjusterChain chain = AdjusterChain.create(asList(countingRenamer, applyTimestampAndDuration));
+
+    Iterable<Span> lazy =
+        applyTimestampAndDuration.adjust(countingRenamer.adjust(TestObjects.TRACE));
+    assertThat(chain.adjust(TestObjects.TRACE))
+        .containsExactlyElementsOf(lazy);
+  }
+
+  @Test
+  public void adjustsOnceRegardlessOfIteration() {
+    AdjusterChain chain = AdjusterChain.create(asList(countingRenamer));
+
+    List<Span> adjusted = chain.adjust(TestObjects.TRACE);
+    for (int i = 0; i < 3; i++) {
+      assertThat(adjusted).extracting(s -> s.name).containsOnly("renamed");
+    }
+    assertThat(adjustCount.get()).isEqualTo(TestObjects.TRACE.size());
+  }
+
+  @Test
+  public void isolatesFailuresToSpan() {
+    Adjuster failsOnRoot = new Adjuster() {
+      @Override protected boolean shouldAdjust(Span span) {
+        if (span.parentId == null) throw new IllegalStateException("root");
+        return false;
+      }
+    };
+    AdjusterChain chain = AdjusterChain.create(asList(failsOnRoot, countingRenamer));
+
+    assertThat(chain.adjust(TestObjects.TRACE))
+        .extracting(s -> s.name).containsOnly("renamed");
+  }
+
+  @Test
+  public void catchesLazyTraceLevelFailures() {
+    Adjuster failsWhenIterated = new Adjuster() {
+      @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+        return () -> new Iterator<Span>() {
+          @Override public boolean hasNext() {
+            return true;
+          }
+
+          @Override public Span next() {
+            throw new IllegalStateException("lazy");
+          }
+        };
+      }
+    };
+    AdjusterChain chain = AdjusterChain.create(asList(countingRenamer, failsWhenIterated));
+
+    assertThat(chain.traceLevel).containsExactly(false, true);
+    assertThat(chain.adjust(TestObjects.TRACE))
+        .extracting(s -> s.name).containsOnly("renamed");
+  }
+
+  @Test
+  public void traceLevelAdjusterSeesPreviousAdjustments() {
+    Adjuster dropsRenamed = new Adjuster() {
+      @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+        for (Span span : trace) assertThat(span.name).isEqualTo("renamed");
+        return asList();
+      }
+    };
+    AdjusterChain chain = AdjusterChain.create(asList(countingRenamer, dropsRenamed));
+
+    assertThat(chain.adjust(TestObjects.TRACE)).isEmpty();
+  }
+
+  @Test
+  public void addsTimeSpentInEachAdjuster() {
+    Adjuster slowRenamer = new Adjuster() {
+      @Override protected boolean shouldAdjust(Span span) {
+        return true;
+      }
+
+      @Override protected Span adjust(Span span) {
+        AdjustAndConsumeSpansSharingTraceIdTest.sleep(1);
+        return countingRenamer.adjust(span);
+      }
+    };
+    Adjuster passThrough = new Adjuster() {
+      @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+        return trace;
+      }
+    };
+    AdjusterChain chain = AdjusterChain.create(asList(slowRenamer, passThrough));
+    long[] nanos = new long[2];
+
+    chain.adjust(TestObjects.TRACE, nanos);
+
+    assertThat(nanos[0]).isGreaterThanOrEqualTo(TestObjects.TRACE.size() * 1_000_000L);
+    assertThat(nanos[1]).isLessThan(nanos[0]);
+  }
+
+  @Test
+  public void profilesEachAdjuster() {
+    Adjuster allocates = new Adjuster() {
+      @Override protected boolean shouldAdjust(Span span) {
+        return true;
+      }
+
+      @Override protected Span adjust(Span span) {
+        return span.toBuilder().name(new String(new char[10_000])).build();
+      }
+    };
+    Adjuster passThrough = new Adjuster() {
+      @Override public Iterable<Span> adjust(Iterable<Span> trace) {
+        return trace;
+      }
+    };
+    AdjusterChain chain = AdjusterChain.create(asList(allocates, passThrough));
+    StageProfiler profiler = new StageProfiler(2);
+
+    chain.adjust(TestObjects.TRACE, null, profiler);
+
+    assertThat(profiler.spans).containsExactly(TestObjects.TRACE.size(), TestObjects.TRACE.size());
+    if (StageProfiler.ALLOCATED_BYTES != null) {
+      assertThat(profiler.allocatedBytes[0])
+          .isGreaterThan(TestObjects.TRACE.size() * 10_000L)
+          .isGreaterThan(profiler.allocatedBytes[1]);
+    }
+  }
+
+  @Test
+  public void prepareBatchCallsBatchAwareAdjusters() {
+    BatchAwareAdjuster batchAware = new BatchAwareAdjuster();
+    AdjusterChain chain = AdjusterChain.create(asList(countingRenamer, batchAware));
+
+    chain.prepareBatch(null);
+    chain.prepareBatch(null);
+
+    assertThat(batchAware.batches).isEqualTo(2);
+  }
+
+  static final class BatchAwareAdjuster extends Adjuster implements BatchAware {
+    int batches;
+
+    @Override public void prepareBatch(JavaSparkContext context) {
+      batches++;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.internal.Util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchHealthTest {
+  BatchHealth health = new BatchHealth(1000L);
+
+  @After
+  public void unregister() {
+    health.unregisterMBean();
+  }
+
+  @Test
+  public void quantilesAreZeroWithoutBatches() {
+    assertThat(health.getProcessingTimeP50()).isZero();
+    assertThat(health.getProcessingTimeP99()).isZero();
+  }
+
+  @Test
+  public void quantiles() {
+    for (long i = 1; i <= 100; i++) health.record(i * 10, i, i * 100);
+
+    assertThat(health.getCompletedBatches()).isEqualTo(100);
+    assertThat(health.getProcessingTimeP50()).isEqualTo(500);
+    assertThat(health.getProcessingTimeP99()).isEqualTo(990);
+    assertThat(health.getSchedulingDelayP50()).isEqualTo(50);
+    assertThat(health.getRecordsP99()).isEqualTo(9900);
+  }
+
+  @Test
+  public void quantilesOnlyIncludeLastWindowOfBatches() {
+    for (int i = 0; i < BatchHealth.WINDOW; i++) health.record(5000, 0, 0);
+    for (int i = 0; i < BatchHealth.WINDOW; i++) health.record(10, 0, 0);
+
+    assertThat(health.getProcessingTimeP99()).isEqualTo(10);
+  }
+
+  @Test
+  public void queuedBatches() {
+    health.onBatchSubmitted(null);
+    health.onBatchSubmitted(null);
+    health.onBatchStarted(null);
+
+    assertThat(health.getQueuedBatches()).isEqualTo(1);
+  }
+
+  @Test
+  public void overloadedWhenMostRecentBatchesAreSlow() {
+    for (int i = 0; i < BatchHealth.OVERLOAD_WINDOW; i++) health.record(100, 0, 0);
+    assertThat(health.isOverloaded()).isFalse();
+
+    for (int i = 0; i <= BatchHealth.OVERLOAD_WINDOW / 2; i++) health.record(1500, 0, 0);
+    assertThat(health.isOverloaded()).isTrue();
+
+    for (int i = 0; i < BatchHealth.OVERLOAD_WINDOW; i++) health.record(100, 0, 0);
+    assertThat(health.isOverloaded()).isFalse();
+  }
+
+  @Test
+  public void toJson() {
+    health.record(200, 10, 42);
+
+    assertThat(health.toJson()).isEqualTo("{\"batchDuration\":1000"
+        + ",\"completedBatches\":1"
+        + ",\"queuedBatches\":0"
+        + ",\"processingTimeP50\":200"
+        + ",\"processingTimeP99\":200"
+        + ",\"schedulingDelayP50\":10"
+        + ",\"schedulingDelayP99\":10"
+        + ",\"recordsP50\":42"
+        + ",\"recordsP99\":42"
+        + ",\"overloaded\":false}");
+  }
+
+  @Test
+  public void registersMBean() throws Exception {
+    health.record(200, 10, 42);
+    health.registerMBean();
+    health.registerMBean(); // replaces, as a previous job in the same JVM might not have closed
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(BatchHealth.OBJECT_NAME);
+    assertThat(server.getAttribute(name, "ProcessingTimeP50")).isEqualTo(200L);
+    assertThat(server.getAttribute(name, "Overloaded")).isEqualTo(false);
+
+    health.unregisterMBean();
+    assertThat(server.isRegistered(name)).isFalse();
+  }
+
+  @Test
+  public void servesJson() throws Exception {
+    health.record(200, 10, 42);
+
+    try (BatchHealthServer server = BatchHealthServer.start(health, 0)) {
+      assertThat(request(server.port(), "GET / HTTP/1.1"))
+          .startsWith("HTTP/1.1 200 OK")
+          .endsWith(health.toJson());
+
+      assertThat(request(server.port(), "POST / HTTP/1.1"))
+          .startsWith("HTTP/1.1 405");
+    }
+  }
+
+  static String request(int port, String requestLine) throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      OutputStream out = socket.getOutputStream();
+      out.write((requestLine + "\r\nHost: localhost\r\n\r\n").getBytes(Util.UTF_8));
+      out.flush();
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(socket.getInputStream(), Util.UTF_8));
+      StringBuilder result = new StringBuilder();
+      for (String line; (line = in.readLine()) != null; ) result.append(line).append('\n');
+      return result.toString().trim();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Percentage.withPercentage;
+
+public class DistinctCountTest {
+  DistinctCount count = new DistinctCount();
+
+  @Test
+  public void empty() {
+    assertThat(count.estimate()).isZero();
+  }
+
+  @Test
+  public void repeatedValuesCountOnce() {
+    for (int i = 0; i < 1000; i++) count.add("/users/{id}");
+
+    assertThat(count.estimate()).isEqualTo(1L);
+  }
+
+  @Test
+  public void smallCountsAreExact() {
+    for (int i = 0; i < 100; i++) count.add("/users/" + i);
+
+    assertThat(count.estimate()).isEqualTo(100L);
+  }
+
+  @Test
+  public void largeCountsAreApproximate() {
+    for (int i = 0; i < 1_000_000; i++) count.add("/users/" + i);
+
+    assertThat(count.estimate()).isCloseTo(1_000_000L, withPercentage(5));
+  }
+
+  @Test
+  public void mergeCountsOverlapOnce() {
+    DistinctCount other = new DistinctCount();
+    for (int i = 0; i < 10_000; i++) count.add("/users/" + i);
+    for (int i = 5_000; i < 15_000; i++) other.add("/users/" + i);
+
+    count.add(other);
+
+    assertThat(count.estimate()).isCloseTo(15_000L, withPercentage(5));
+  }
+}
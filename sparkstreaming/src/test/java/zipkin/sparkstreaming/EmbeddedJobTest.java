@@ -0,0 +1,232 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class EmbeddedJobTest {
+  FakeMessageSource source = new FakeMessageSource();
+  List<List<Span>> consumed = new CopyOnWriteArrayList<>();
+  EmbeddedJob job;
+
+  @After
+  public void close() throws Exception {
+    if (job != null) job.close();
+  }
+
+  @Test
+  public void groupsSpansOfABatchByTraceId() throws Exception {
+    List<Span> trace = TestObjects.TRACE;
+    source.batches.add(asList(
+        Codec.JSON.writeSpans(trace.subList(0, 1)),
+        Codec.THRIFT.writeSpans(trace.subList(1, trace.size()))
+    ));
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> consumed.add(AdjusterChain.copyOf(t)))
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(consumed).hasSize(1);
+    assertThat(consumed.get(0)).containsExactlyElementsOf(trace);
+  }
+
+  @Test
+  public void partitionsTracesAcrossWorkers() throws Exception {
+    List<byte[]> messages = new ArrayList<>();
+    for (long traceId = 1; traceId <= 10; traceId++) {
+      messages.add(Codec.JSON.writeSpans(asList(span(traceId, 1L), span(traceId, 2L))));
+    }
+    source.batches.add(messages);
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> consumed.add(AdjusterChain.copyOf(t)))
+        .parallelism(3)
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(consumed).hasSize(10);
+    for (List<Span> trace : consumed) {
+      for (Span span : trace) assertThat(span.traceId).isEqualTo(trace.get(0).traceId);
+    }
+  }
+
+  @Test
+  public void commitsOnlyAfterConsuming() throws Exception {
+    source.batches.add(singletonList(Codec.JSON.writeSpans(TestObjects.TRACE)));
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> {
+          assertThat(source.commits.get()).isZero();
+          consumed.add(AdjusterChain.copyOf(t));
+        })
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(consumed).hasSize(1);
+    assertThat(source.commits.get()).isEqualTo(1);
+    assertThat(source.closed).isTrue();
+  }
+
+  @Test
+  public void retriesFailedPartitions() throws Exception {
+    source.batches.add(singletonList(Codec.JSON.writeSpans(TestObjects.TRACE)));
+    AtomicInteger attempts = new AtomicInteger();
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> {
+          if (attempts.incrementAndGet() == 1) throw new IllegalStateException("storage is down");
+          consumed.add(AdjusterChain.copyOf(t));
+        })
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(consumed).hasSize(1);
+    assertThat(source.commits.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void stopsWithoutCommittingDroppedTraces() throws Exception {
+    source.batches.add(singletonList(Codec.JSON.writeSpans(TestObjects.TRACE)));
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> {
+          throw new IllegalStateException("storage is down");
+        })
+        .build().start();
+
+    try {
+      job.awaitTermination();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).hasRootCauseInstanceOf(IllegalStateException.class);
+    }
+    assertThat(source.commits.get()).isZero();
+  }
+
+  @Test
+  public void retriesFailedPolls() throws Exception {
+    source.batches.add(singletonList(Codec.JSON.writeSpans(TestObjects.TRACE)));
+    source.pollFailures.set(2);
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> consumed.add(AdjusterChain.copyOf(t)))
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(consumed).hasSize(1);
+    assertThat(source.commits.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void preparesEmbeddedBatchAwareConsumer() throws Exception {
+    source.batches.add(singletonList(Codec.JSON.writeSpans(TestObjects.TRACE)));
+    PreparedConsumer consumer = new PreparedConsumer();
+
+    job = EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(consumer)
+        .build().start();
+    awaitDrained();
+    job.close();
+
+    assertThat(consumer.preparedOnAccept).containsExactly(1);
+  }
+
+  @Test
+  public void closeWithoutStart() throws Exception {
+    EmbeddedJob.newBuilder()
+        .messageSource(source)
+        .consumer(t -> {
+        })
+        .build().close();
+
+    assertThat(source.closed).isFalse();
+  }
+
+  void awaitDrained() throws InterruptedException {
+    for (int i = 0; i < 100 && !source.batches.isEmpty(); i++) Thread.sleep(10L);
+    assertThat(source.batches).isEmpty();
+  }
+
+  static Span span(long traceId, long id) {
+    return Span.builder().traceId(traceId).id(id).name("get").build();
+  }
+
+  static final class PreparedConsumer implements Consumer, EmbeddedBatchAware {
+    final List<Integer> preparedOnAccept = new CopyOnWriteArrayList<>();
+    final AtomicInteger prepared = new AtomicInteger();
+
+    @Override public void prepareBatch(JavaSparkContext context) {
+      throw new AssertionError("embedded jobs have no spark context");
+    }
+
+    @Override public void prepareEmbeddedBatch() {
+      prepared.incrementAndGet();
+    }
+
+    @Override public void accept(Iterable<Span> trace) {
+      preparedOnAccept.add(prepared.get());
+    }
+  }
+
+  static final class FakeMessageSource implements MessageSource {
+    final ConcurrentLinkedDeque<List<byte[]>> batches = new ConcurrentLinkedDeque<>();
+    final AtomicInteger commits = new AtomicInteger();
+    final AtomicInteger pollFailures = new AtomicInteger();
+    volatile boolean closed;
+
+    @Override public List<byte[]> poll(int maxMessages, long timeoutMillis) {
+      if (pollFailures.getAndDecrement() > 0) throw new IllegalStateException("broker is down");
+      List<byte[]> next = batches.poll();
+      return next != null ? next : Collections.emptyList();
+    }
+
+    @Override public void commit() {
+      commits.incrementAndGet();
+    }
+
+    @Override public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import scala.Tuple2;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.sparkstreaming.EncodedTraces.TraceKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncodedTracesTest {
+  ReadSpans readSpans = new AutoValue_ReadSpans(
+      ExecutorSetup.create(Collections.emptyList()), null, false);
+
+  @Test
+  public void decodesWhatWasEncoded() {
+    assertThat(decode(encode(TestObjects.TRACE), readSpans))
+        .containsExactlyElementsOf(TestObjects.TRACE);
+  }
+
+  @Test
+  public void skipsSpansThatCantBeDecoded() {
+    List<byte[]> encoded = encode(TestObjects.TRACE);
+    encoded.add(1, new byte[] {1, 2, 3}); // ex. a corrupt shuffle block
+
+    assertThat(decode(encoded, readSpans)).containsExactlyElementsOf(TestObjects.TRACE);
+  }
+
+  @Test
+  public void keyIsTheTraceId() {
+    Span span = TestObjects.TRACE.get(0);
+    Span sameTrace = TestObjects.TRACE.get(1);
+    Span otherTrace = span.toBuilder().traceIdHigh(1L).build();
+
+    TraceKey key = EncodedTraces.encode(span)._1;
+    assertThat(key).isEqualTo(EncodedTraces.encode(sameTrace)._1);
+    assertThat(key.hashCode()).isEqualTo(EncodedTraces.encode(sameTrace)._1.hashCode());
+    assertThat(key).isNotEqualTo(EncodedTraces.encode(otherTrace)._1);
+  }
+
+  @Test
+  public void encodedSpanIsSmallerThanJavaSerialized() throws Exception {
+    Span span = TestObjects.TRACE.get(1);
+
+    assertThat(EncodedTraces.encode(span)._2.length)
+        .isLessThan(ExecutorSetupTest.serialize(span).length);
+  }
+
+  static List<byte[]> encode(List<Span> trace) {
+    List<byte[]> result = new ArrayList<>();
+    for (Span span : trace) result.add(EncodedTraces.encode(span)._2);
+    return result;
+  }
+
+  static List<Span> decode(List<byte[]> encoded, ReadSpans readSpans) {
+    TraceKey key = EncodedTraces.encode(TestObjects.TRACE.get(0))._1;
+    List<Span> result = new ArrayList<>();
+    for (Span span : EncodedTraces.decode(new Tuple2<>(key, encoded), readSpans)) result.add(span);
+    return result;
+  }
+}
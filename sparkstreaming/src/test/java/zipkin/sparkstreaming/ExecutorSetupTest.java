@@ -0,0 +1,157 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+
+public class ExecutorSetupTest {
+  static final Map<String, Integer> runs = new LinkedHashMap<>();
+
+  @After
+  public void clear() {
+    runs.clear();
+    ExecutorSetup.releaseAll();
+  }
+
+  @Test
+  public void runsOncePerJvm_acrossDeserializedCopies() throws Exception {
+    ExecutorSetup setup = ExecutorSetup.create(asList(new Task("log"), new Task("cache")));
+
+    // each task deserializes its own copy, as Spark does
+    for (int i = 0; i < 3; i++) {
+      ExecutorSetup copy = deserialize(serialize(setup));
+      copy.run();
+      copy.run();
+    }
+
+    assertThat(runs).containsExactly(entry("log", 1), entry("cache", 1));
+  }
+
+  @Test
+  public void runsAgainForDifferentConfiguration() {
+    ExecutorSetup.create(singletonList(new Task("log"))).run();
+    ExecutorSetup.create(singletonList(new Task("log"))).run();
+    ExecutorSetup.create(singletonList(new Task("debug log"))).run();
+
+    assertThat(runs).containsExactly(entry("log", 1), entry("debug log", 1));
+  }
+
+  @Test
+  public void retriesAfterFailure() {
+    ExecutorSetup setup = ExecutorSetup.create(singletonList(new Task("fails once")));
+
+    try {
+      setup.run();
+    } catch (IllegalStateException expected) {
+    }
+    setup.run();
+    setup.run();
+
+    assertThat(runs).containsExactly(entry("fails once", 2));
+  }
+
+  @Test
+  public void shared_createsOncePerKey() {
+    Object first = ExecutorSetup.shared(asList("pool", 2), Object::new);
+
+    assertThat(ExecutorSetup.shared(asList("pool", 2), Object::new)).isSameAs(first);
+    assertThat(ExecutorSetup.shared(asList("pool", 3), Object::new)).isNotSameAs(first);
+  }
+
+  @Test
+  public void release_closesResource() {
+    Closer closer = ExecutorSetup.shared("closer", Closer::new);
+
+    ExecutorSetup.release("closer");
+
+    assertThat(closer.closed).isTrue();
+    assertThat(ExecutorSetup.shared("closer", Closer::new)).isNotSameAs(closer);
+  }
+
+  @Test
+  public void releaseAll_closesResourcesAndRerunsSetup() {
+    ExecutorSetup.create(singletonList(new Task("log"))).run();
+    Closer closer = ExecutorSetup.shared("closer", Closer::new);
+
+    ExecutorSetup.releaseAll();
+    ExecutorSetup.create(singletonList(new Task("log"))).run();
+
+    assertThat(closer.closed).isTrue();
+    assertThat(runs).containsExactly(entry("log", 2));
+  }
+
+  static final class Closer implements Closeable {
+    boolean closed;
+
+    @Override public void close() {
+      closed = true;
+    }
+  }
+
+  static final class Task implements Runnable, Serializable {
+    private static final long serialVersionUID = 0L;
+
+    final String name;
+
+    Task(String name) {
+      this.name = name;
+    }
+
+    @Override public void run() {
+      Integer count = runs.get(name);
+      runs.put(name, count == null ? 1 : count + 1);
+      if (name.equals("fails once") && count == null) throw new IllegalStateException("failed");
+    }
+
+    @Override public boolean equals(Object o) {
+      return o instanceof Task && ((Task) o).name.equals(name);
+    }
+
+    @Override public int hashCode() {
+      return name.hashCode();
+    }
+  }
+
+  static byte[] serialize(Object object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(object);
+    }
+    return bytes.toByteArray();
+  }
+
+  static ExecutorSetup deserialize(byte[] bytes) throws Exception {
+    return (ExecutorSetup) deserializeObject(bytes);
+  }
+
+  static Object deserializeObject(byte[] bytes) throws Exception {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    }
+  }
+}
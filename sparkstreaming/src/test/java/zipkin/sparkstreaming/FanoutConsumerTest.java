@@ -0,0 +1,216 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FanoutConsumerTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  List<Iterable<Span>> traces = new ArrayList<>();
+
+  {
+    for (long traceId = 1; traceId <= 3; traceId++) {
+      traces.add(asList(Span.builder().traceId(traceId).id(1L).name("get").build()));
+    }
+  }
+
+  List<Iterable<Span>> one = Collections.synchronizedList(new ArrayList<>());
+  List<Iterable<Span>> two = Collections.synchronizedList(new ArrayList<>());
+
+  @After
+  public void releaseLanes() {
+    ExecutorSetup.releaseAll();
+  }
+
+  @Test
+  public void deliversEachTraceToAllConsumers() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(one::add)
+        .addConsumer(two::add, 2, 1)
+        .build();
+
+    for (Iterable<Span> trace : traces) fanout.accept(trace);
+    fanout.flush();
+
+    assertThat(one).isEqualTo(traces);
+    assertThat(two).containsOnlyElementsOf(traces).hasSameSizeAs(traces);
+  }
+
+  @Test
+  public void failingConsumerDoesntAffectOthers() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(trace -> {
+          throw new IllegalStateException("storage is down");
+        })
+        .addConsumer(one::add)
+        .build();
+
+    for (Iterable<Span> trace : traces) fanout.accept(trace);
+    fanout.flush();
+
+    assertThat(one).isEqualTo(traces);
+  }
+
+  @Test
+  public void slowConsumerDoesntBlockOthersUntilBufferIsFull() throws Exception {
+    CountDownLatch unblock = new CountDownLatch(1);
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(trace -> {
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+          two.add(trace);
+        }, 1, traces.size()) // buffer fits all traces
+        .addConsumer(one::add)
+        .build();
+
+    for (Iterable<Span> trace : traces) fanout.accept(trace); // doesn't block
+    while (one.size() < traces.size()) Thread.sleep(1);
+
+    assertThat(two).isEmpty();
+    unblock.countDown();
+    fanout.flush();
+    assertThat(two).isEqualTo(traces);
+  }
+
+  @Test
+  public void consumersShareReadOnlyTrace() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(one::add)
+        .addConsumer(two::add)
+        .build();
+
+    fanout.accept(new ArrayList<>((List<Span>) traces.get(0))); // mutable copy
+    fanout.flush();
+
+    assertThat(one.get(0)).isSameAs(two.get(0));
+    thrown.expect(UnsupportedOperationException.class);
+    ((List<Span>) one.get(0)).clear();
+  }
+
+  @Test
+  public void flushesFlushableConsumers() throws Exception {
+    AtomicBoolean flushed = new AtomicBoolean();
+    class FlushableConsumer implements Consumer, Flushable {
+      @Override public void accept(Iterable<Span> trace) {
+      }
+
+      @Override public void flush() {
+        flushed.set(true);
+      }
+    }
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(new FlushableConsumer())
+        .build();
+
+    fanout.accept(traces.get(0));
+    fanout.flush();
+
+    assertThat(flushed).isTrue();
+  }
+
+  @Test
+  public void adjustAndConsumeFlushesAtEndOfPartition() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(one::add)
+        .build();
+
+    AdjustAndConsumeSpansSharingTraceIdTest.adjustAndConsume(fanout, 1).call(traces.iterator());
+
+    assertThat(one).isEqualTo(traces); // no need to wait, as call() flushed
+  }
+
+  @Test
+  public void lanesAreCreatedAfterDeserialization() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(new CountingConsumer())
+        .build();
+    fanout.accept(traces.get(0));
+
+    FanoutConsumer copy = deserialize(fanout);
+    assertThat(copy.lanes).isNull();
+    copy.accept(traces.get(0));
+    copy.flush();
+
+    assertThat(((CountingConsumer) copy.consumers[0]).count).isEqualTo(1);
+  }
+
+  @Test
+  public void deserializedCopiesShareThreads() throws Exception {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(new CountingConsumer())
+        .build();
+
+    // each task deserializes its own copy, as Spark does
+    FanoutConsumer copy1 = deserialize(fanout), copy2 = deserialize(fanout);
+    for (FanoutConsumer copy : asList(copy1, copy2)) {
+      for (Iterable<Span> trace : traces) copy.accept(trace);
+      copy.flush();
+    }
+
+    ThreadPoolExecutor workers = copy1.lanes()[0].workers;
+    assertThat(copy2.lanes()[0].workers).isSameAs(workers);
+    assertThat(workers.getLargestPoolSize()).isEqualTo(1);
+    // each copy counts only its own traces
+    assertThat(((CountingConsumer) copy2.consumers[0]).count).isEqualTo(traces.size());
+  }
+
+  @Test
+  public void consumersAreRequired() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("no consumers");
+
+    FanoutConsumer.newBuilder().build();
+  }
+
+  static final class CountingConsumer implements Consumer {
+    transient int count; // starts at zero after deserialization
+
+    @Override public synchronized void accept(Iterable<Span> trace) {
+      count++;
+    }
+  }
+
+  static FanoutConsumer deserialize(FanoutConsumer fanout) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(fanout);
+    }
+    ByteArrayInputStream serialized = new ByteArrayInputStream(bytes.toByteArray());
+    try (ObjectInputStream in = new ObjectInputStream(serialized)) {
+      return (FanoutConsumer) in.readObject();
+    }
+  }
+}
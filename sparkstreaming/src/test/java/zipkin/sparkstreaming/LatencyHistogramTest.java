@@ -0,0 +1,119 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramTest {
+  LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void empty() {
+    assertThat(histogram.count()).isZero();
+    assertThat(histogram.min()).isZero();
+    assertThat(histogram.max()).isZero();
+    assertThat(histogram.mean()).isZero();
+    assertThat(histogram.quantile(0.99)).isZero();
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    int maxIndex = LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+    for (int i = 0; i <= maxIndex; i++) {
+      assertThat(LatencyHistogram.index(LatencyHistogram.lowerBound(i))).isEqualTo(i);
+      assertThat(LatencyHistogram.index(LatencyHistogram.lowerBound(i + 1) - 1)).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void quantilesAreWithinThreePercent() {
+    for (long value = 1; value <= 1_000_000; value++) histogram.record(value, false);
+
+    assertThat(histogram.count()).isEqualTo(1_000_000L);
+    assertThat(histogram.min()).isEqualTo(1L);
+    assertThat(histogram.max()).isEqualTo(1_000_000L);
+    assertThat(histogram.mean()).isCloseTo(500_000.5, within(0.001));
+    assertThat((double) histogram.quantile(0.5)).isCloseTo(500_000.0, within(15_000.0));
+    assertThat((double) histogram.quantile(0.99)).isCloseTo(990_000.0, within(30_000.0));
+    assertThat(histogram.quantile(1.0)).isEqualTo(1_000_000L);
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    for (long value = 0; value < 64; value++) histogram.record(value, false);
+
+    assertThat(histogram.quantile(0.5)).isEqualTo(31L);
+  }
+
+  @Test
+  public void countsErrors() {
+    histogram.record(10L, true);
+    histogram.record(10L, false);
+
+    assertThat(histogram.errorCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void mergeEqualsRecordingAll() {
+    LatencyHistogram left = new LatencyHistogram(), right = new LatencyHistogram();
+    Random random = new Random(0L);
+    for (int i = 0; i < 10_000; i++) {
+      long value = (long) Math.abs(random.nextGaussian() * 100_000);
+      histogram.record(value, i % 10 == 0);
+      (i % 2 == 0 ? left : right).record(value, i % 10 == 0);
+    }
+
+    LatencyHistogram merged = LatencyHistogram.merge(left, right);
+
+    assertThat(merged).hasToString(histogram.toString());
+    assertThat(merged.mean()).isEqualTo(histogram.mean());
+    assertThat(left.count()).isEqualTo(5_000L); // inputs are unchanged
+  }
+
+  @Test
+  public void serializesOnlyNonZeroBuckets() throws Exception {
+    histogram.record(1_000L, false);
+    histogram.record(10_000_000L, true);
+
+    byte[] serialized = serialize(histogram);
+    LatencyHistogram deserialized = deserialize(serialized);
+
+    assertThat(serialized.length).isLessThan(200);
+    assertThat(deserialized).hasToString(histogram.toString());
+    assertThat(deserialized.min()).isEqualTo(1_000L);
+  }
+
+  static byte[] serialize(Object object) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(object);
+    }
+    return bytes.toByteArray();
+  }
+
+  static LatencyHistogram deserialize(byte[] bytes) throws Exception {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (LatencyHistogram) in.readObject();
+    }
+  }
+}
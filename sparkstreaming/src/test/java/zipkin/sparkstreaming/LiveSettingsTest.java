@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.apache.spark.streaming.Time;
+import org.junit.Test;
+import zipkin.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.sparkstreaming.AdjustAndConsumeSpansSharingTraceIdTest.adjustAndConsume;
+
+public class LiveSettingsTest {
+  TraceIdSampler sampler = TraceIdSampler.newBuilder().build();
+  AdjustAndConsumeSpansSharingTraceId initial = adjustAndConsume(trace -> {
+  }, 1);
+  Deque<Object> updates = new ArrayDeque<>(); // Settings, null or a RuntimeException
+  SettingsSource source = () -> {
+    Object next = updates.poll();
+    if (next instanceof RuntimeException) throw (RuntimeException) next;
+    return (Settings) next;
+  };
+  LiveSettings settings = new LiveSettings(source, sampler, initial);
+
+  Adjuster renamer = new Adjuster() {
+    @Override protected boolean shouldAdjust(Span span) {
+      return true;
+    }
+
+    @Override protected Span adjust(Span span) {
+      return span.toBuilder().name("renamed").build();
+    }
+  };
+
+  @Test
+  public void keepsSettingsWhenUnchanged() {
+    assertThat(settings.startBatch(new Time(1000L))).isSameAs(sampler);
+    assertThat(settings.endBatch(new Time(1000L))).isSameAs(initial);
+  }
+
+  @Test
+  public void replacesSettingsWhenChanged() {
+    TraceIdSampler halfSampler = TraceIdSampler.newBuilder().rate(0.5f).build();
+    updates.add(Settings.newBuilder().sampler(halfSampler).adjusters(asList(renamer)).build());
+
+    assertThat(settings.startBatch(new Time(1000L))).isSameAs(halfSampler);
+    AdjustAndConsumeSpansSharingTraceId batch = settings.endBatch(new Time(1000L));
+
+    assertThat(batch.adjusterChain().adjusters).containsExactly(renamer);
+    assertThat(batch.consumer()).isSameAs(initial.consumer());
+  }
+
+  @Test
+  public void pinsSettingsToTheBatch() {
+    settings.startBatch(new Time(1000L));
+    updates.add(Settings.newBuilder().adjusters(asList(renamer)).build());
+    settings.startBatch(new Time(2000L)); // next batch is created before the first one runs
+
+    assertThat(settings.endBatch(new Time(1000L))).isSameAs(initial);
+    assertThat(settings.endBatch(new Time(2000L)).adjusterChain().adjusters)
+        .containsExactly(renamer);
+    assertThat(settings.batches).isEmpty();
+  }
+
+  @Test
+  public void keepsSettingsWhenSourceFails() {
+    updates.add(new IllegalStateException("invalid rule"));
+
+    assertThat(settings.startBatch(new Time(1000L))).isSameAs(sampler);
+    assertThat(settings.endBatch(new Time(1000L))).isSameAs(initial);
+  }
+
+  @Test
+  public void fixedWithoutSource() {
+    LiveSettings settings = new LiveSettings(null, sampler, initial);
+
+    assertThat(settings.startBatch(new Time(1000L))).isSameAs(sampler);
+    assertThat(settings.endBatch(new Time(1000L))).isSameAs(initial);
+  }
+
+  @Test
+  public void endBatchUnpinsEarlierBatches() {
+    settings.startBatch(new Time(1000L)); // say its output was skipped
+    settings.startBatch(new Time(2000L));
+
+    settings.endBatch(new Time(2000L));
+
+    assertThat(settings.batches).isEmpty();
+  }
+
+  @Test
+  public void closesReplacedAdjustersOnceNoBatchUsesThem() {
+    ClosingAdjuster replaced = new ClosingAdjuster();
+    updates.add(Settings.newBuilder().adjusters(asList(replaced)).build());
+    settings.startBatch(new Time(1000L));
+    updates.add(Settings.newBuilder().adjusters(asList(renamer)).build());
+    settings.startBatch(new Time(2000L));
+
+    assertThat(settings.endBatch(new Time(1000L)).adjusterChain().adjusters)
+        .containsExactly(replaced);
+    assertThat(replaced.closed).isZero(); // the ending batch uses it
+
+    settings.endBatch(new Time(2000L));
+    assertThat(replaced.closed).isEqualTo(1);
+    assertThat(settings.retired).isEmpty();
+  }
+
+  @Test
+  public void doesntCloseAdjustersKeptByNewSettings() {
+    ClosingAdjuster kept = new ClosingAdjuster();
+    updates.add(Settings.newBuilder().adjusters(asList(kept)).build());
+    settings.startBatch(new Time(1000L));
+    updates.add(Settings.newBuilder().adjusters(asList(kept, renamer)).build());
+    settings.startBatch(new Time(2000L));
+
+    settings.endBatch(new Time(1000L));
+    settings.endBatch(new Time(2000L));
+
+    assertThat(kept.closed).isZero();
+  }
+
+  @Test
+  public void pollsRecoveredSource() throws Exception {
+    // lambdas aren't serializable, so this checkpoints settings of serializable components
+    byte[] checkpoint = ExecutorSetupTest.serialize(new LiveSettings(source, sampler,
+        new AutoValue_AdjustAndConsumeSpansSharingTraceId(ExecutorSetup.create(asList()),
+            LiveSettings.NO_ADJUSTERS, new NoopConsumer(), 1, 0, null, false)));
+    LiveSettings.RECOVERING_SOURCE.set(source);
+    LiveSettings recovered;
+    try {
+      recovered = (LiveSettings) ExecutorSetupTest.deserializeObject(checkpoint);
+    } finally {
+      LiveSettings.RECOVERING_SOURCE.remove();
+    }
+    updates.add(Settings.newBuilder().adjusters(asList(renamer)).build());
+
+    recovered.startBatch(new Time(1000L));
+
+    assertThat(recovered.endBatch(new Time(1000L)).adjusterChain().adjusters)
+        .containsExactly(renamer);
+  }
+
+  @Test
+  public void consumeOnlyDoesntAdjust() {
+    updates.add(Settings.newBuilder().adjusters(asList(renamer)).build());
+    settings.startBatch(new Time(1000L));
+
+    AdjustAndConsumeSpansSharingTraceId consumeOnly = settings.consumeOnly();
+
+    assertThat(consumeOnly.adjusterChain().adjusters).isEmpty();
+    assertThat(consumeOnly.consumer()).isSameAs(initial.consumer());
+  }
+
+  static final class NoopConsumer implements Consumer {
+    @Override public void accept(Iterable<Span> trace) {
+    }
+  }
+
+  static final class ClosingAdjuster extends Adjuster implements Closeable {
+    int closed;
+
+    @Override protected boolean shouldAdjust(Span span) {
+      return false;
+    }
+
+    @Override protected Span adjust(Span span) {
+      return span;
+    }
+
+    @Override public void close() {
+      closed++;
+    }
+  }
+}
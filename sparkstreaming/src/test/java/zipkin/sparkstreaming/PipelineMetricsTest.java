@@ -0,0 +1,252 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.MapEntry.entry;
+
+public class PipelineMetricsTest {
+  PipelineMetrics metrics = new PipelineMetrics();
+
+  static class Renamer extends Adjuster {
+    @Override protected boolean shouldAdjust(Span span) {
+      return true;
+    }
+
+    @Override protected Span adjust(Span span) {
+      return span.toBuilder().name("renamed").build();
+    }
+  }
+
+  AdjusterChain chain = AdjusterChain.create(asList(new Renamer(), new Adjuster() {
+  }));
+
+  @Test
+  public void recordsMessagesAndDecodeFailures() {
+    metrics.recordMessage(100, 3);
+    metrics.recordMessage(50, 1);
+    metrics.recordDecodeFailure(true);
+    metrics.recordDecodeFailure(false);
+
+    assertThat(metrics.messages()).isEqualTo(4L);
+    assertThat(metrics.bytes()).isEqualTo(150L);
+    assertThat(metrics.spans()).isEqualTo(4L);
+    assertThat(metrics.jsonDecodeFailures()).isEqualTo(1L);
+    assertThat(metrics.thriftDecodeFailures()).isEqualTo(1L);
+  }
+
+  @Test
+  public void recordsAdjustTimeBySimpleClassName() {
+    metrics.recordAdjust(chain, new long[] {10L, 0L});
+    metrics.recordAdjust(chain, new long[] {5L, 3L});
+
+    assertThat(metrics.adjustNanos()).containsExactly(
+        entry("Renamer", 15L),
+        entry(PipelineMetricsTest.class.getName() + "$1", 3L) // anonymous
+    );
+  }
+
+  @Test
+  public void adjustAndConsumeRecordsEachTrace() {
+    List<Iterable<Span>> consumed = new ArrayList<>();
+
+    AdjustAndConsumeSpansSharingTraceId.adjustAndConsume(
+        chain, consumed::add, TestObjects.TRACE, metrics, false);
+
+    assertThat(consumed).hasSize(1);
+    assertThat(metrics.traces()).isEqualTo(1L);
+    assertThat(metrics.spansPerTrace().max()).isEqualTo(TestObjects.TRACE.size());
+    assertThat(metrics.adjustNanos()).containsKey("Renamer");
+  }
+
+  @Test
+  public void adjustAndConsumeRecordsFailures() {
+    try {
+      AdjustAndConsumeSpansSharingTraceId.adjustAndConsume(chain, trace -> {
+        throw new IllegalStateException("storage is down");
+      }, TestObjects.TRACE, metrics, false);
+    } catch (IllegalStateException expected) {
+    }
+
+    assertThat(metrics.traces()).isEqualTo(1L);
+    assertThat(metrics.consumeFailures()).isEqualTo(1L);
+    assertThat(metrics.consumeMicros().errorCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void adjustAndConsumeProfilesStages() {
+    AdjustAndConsumeSpansSharingTraceId.adjustAndConsume(
+        chain, trace -> {
+        }, TestObjects.TRACE, metrics, true);
+
+    assertThat(metrics.stageCosts()).containsOnlyKeys("adjust.Renamer",
+        "adjust." + PipelineMetricsTest.class.getName() + "$1", "consume");
+    assertThat(metrics.stageCosts().get("consume").spans()).isEqualTo(TestObjects.TRACE.size());
+  }
+
+  @Test
+  public void stageCostsPerSpan() {
+    metrics.recordStage("decode", 4, 4000L, 1000L);
+    metrics.recordStage("decode", 1, 1000L, 0L);
+
+    PipelineMetrics.StageCost decode = metrics.stageCosts().get("decode");
+    assertThat(decode.cpuNanosPerSpan()).isEqualTo(1000L);
+    assertThat(decode.allocatedBytesPerSpan()).isEqualTo(200L);
+  }
+
+  @Test
+  public void paramMergesTaskCopies() {
+    PipelineMetrics.Param param = new PipelineMetrics.Param();
+    PipelineMetrics task1 = param.zero(metrics), task2 = param.zero(metrics);
+    task1.recordMessage(100, 3);
+    task1.recordAdjust(chain, new long[] {10L, 0L});
+    task2.recordMessage(50, 1);
+    task2.recordAdjust(chain, new long[] {5L, 0L});
+    task2.recordConsume(4, 2000L, false);
+    task1.recordStage("decode", 3, 300L, 30L);
+    task2.recordStage("decode", 1, 100L, 10L);
+
+    PipelineMetrics sum = param.addInPlace(param.addInPlace(metrics, task1), task2);
+
+    assertThat(sum.messages()).isEqualTo(2L);
+    assertThat(sum.spans()).isEqualTo(4L);
+    assertThat(sum.traces()).isEqualTo(1L);
+    assertThat(sum.consumeMicros().max()).isEqualTo(2L);
+    assertThat(sum.adjustNanos()).containsExactly(entry("Renamer", 15L));
+    assertThat(sum.stageCosts().get("decode").allocatedBytes()).isEqualTo(40L);
+  }
+
+  @Test
+  public void sourceAddsBatchesToCounters() {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+    metrics.recordMessage(100, 3);
+    metrics.recordAdjust(chain, new long[] {10L, 0L});
+    metrics.recordConsume(3, 2000L, false);
+
+    source.update(metrics);
+    source.update(metrics);
+
+    MetricRegistry registry = source.metricRegistry();
+    assertThat(registry.counter("messages").getCount()).isEqualTo(2L);
+    assertThat(registry.counter("spans").getCount()).isEqualTo(6L);
+    assertThat(registry.counter("adjust.Renamer.nanos").getCount()).isEqualTo(20L);
+    assertThat(registry.getGauges().get("batch.spans-per-trace.p50").getValue()).isEqualTo(3L);
+  }
+
+  @Test
+  public void sourcePublishesStageCosts() {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+    metrics.recordStage("decode", 3, 3000L, 600L);
+
+    source.update(metrics);
+    source.update(new PipelineMetrics()); // a batch without profiling
+
+    MetricRegistry registry = source.metricRegistry();
+    assertThat(registry.counter("stage.decode.spans").getCount()).isEqualTo(3L);
+    assertThat(registry.counter("stage.decode.allocated-bytes").getCount()).isEqualTo(600L);
+    assertThat(registry.getGauges().get("batch.stage.decode.cpu-nanos-per-span").getValue())
+        .isEqualTo(0L);
+
+    source.update(metrics);
+    assertThat(registry.getGauges().get("batch.stage.decode.allocated-bytes-per-span").getValue())
+        .isEqualTo(200L);
+  }
+
+  @Test
+  public void sourcePublishesInternerCounts() {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+    PipelineMetrics task1 = new PipelineMetrics(), task2 = new PipelineMetrics();
+    task1.recordIntern(10, 6, 1);
+    task2.recordIntern(10, 9, 0);
+    metrics.add(task1);
+    metrics.add(task2);
+
+    source.update(metrics);
+
+    MetricRegistry registry = source.metricRegistry();
+    assertThat(registry.counter("intern.lookups").getCount()).isEqualTo(20L);
+    assertThat(registry.counter("intern.hits").getCount()).isEqualTo(15L);
+    assertThat(registry.counter("intern.evictions").getCount()).isEqualTo(1L);
+    assertThat(registry.getGauges().get("batch.intern.hit-rate").getValue()).isEqualTo(0.75);
+  }
+
+  @Test
+  public void adjustersRecordIntoCurrent() {
+    Adjuster recording = new Adjuster() {
+      @Override protected boolean shouldAdjust(Span span) {
+        PipelineMetrics.current().recordDistinct("names", span.name);
+        return false;
+      }
+    };
+
+    AdjustAndConsumeSpansSharingTraceId.adjust(AdjusterChain.create(asList(recording)),
+        TestObjects.TRACE, metrics, false);
+
+    Set<String> names = new LinkedHashSet<>();
+    for (Span span : TestObjects.TRACE) names.add(span.name);
+    assertThat(PipelineMetrics.current()).isNull();
+    assertThat(metrics.distinctCounts()).containsExactly(entry("names", (long) names.size()));
+  }
+
+  @Test
+  public void sourcePublishesDistinctCountsSinceStart() {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+    PipelineMetrics batch1 = new PipelineMetrics(), batch2 = new PipelineMetrics();
+    batch1.recordDistinct("names", "a");
+    batch1.recordDistinct("names", "b");
+    batch2.recordDistinct("names", "b");
+    batch2.recordDistinct("names", "c");
+
+    source.update(batch1);
+    source.update(batch2);
+
+    assertThat(source.metricRegistry().getGauges().get("names").getValue()).isEqualTo(3L);
+  }
+
+  @Test
+  public void sourcePublishesCountersSinceStart() {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+    PipelineMetrics task1 = new PipelineMetrics(), task2 = new PipelineMetrics();
+    task1.increment("trimmed", 3L);
+    task2.increment("trimmed", 4L);
+    task1.add(task2);
+
+    source.update(task1);
+    source.update(task2);
+
+    assertThat(source.metricRegistry().getCounters().get("trimmed").getCount()).isEqualTo(11L);
+  }
+
+  @Test
+  public void sourceReplacesAccumulableAfterRecovery() throws Exception {
+    PipelineMetricsSource source = new PipelineMetricsSource(null);
+
+    PipelineMetricsSource recovered = (PipelineMetricsSource) ExecutorSetupTest.deserializeObject(
+        ExecutorSetupTest.serialize(source)
+    );
+
+    assertThat(source.live).isTrue();
+    assertThat(recovered.live).isFalse(); // so prepareBatch makes a new accumulable
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.Constants.SERVER_RECV;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
+public class SpanFeaturesTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  SpanFeatures features = SpanFeatures.newBuilder()
+      .addAnnotationValue("finagle.flush") // bit 0
+      .addTagKey("sql.query") // bit 1
+      .addTagKeyContaining("finagle.version") // bit 2
+      .addTagValue("Hit") // bit 3
+      .build();
+
+  Span span = Span.builder().traceId(1L).id(1L).name("get")
+      .addAnnotation(Annotation.create(1L, SERVER_RECV, WEB_ENDPOINT))
+      .build();
+
+  @Test
+  public void noMatches() {
+    assertThat(features.match(span)).isZero();
+  }
+
+  @Test
+  public void matchesEachFeature() {
+    Span matchesAll = span.toBuilder()
+        .addAnnotation(Annotation.create(2L, "finagle.flush", WEB_ENDPOINT))
+        .addBinaryAnnotation(BinaryAnnotation.create("sql.query", "select 1", WEB_ENDPOINT))
+        .addBinaryAnnotation(BinaryAnnotation.create("srv/finagle.version", "6.28", WEB_ENDPOINT))
+        .addBinaryAnnotation(BinaryAnnotation.create("memcached", "Hit", WEB_ENDPOINT))
+        .build();
+
+    assertThat(features.match(matchesAll)).isEqualTo(0b1111L);
+  }
+
+  @Test
+  public void tagValueComparesWholeValue() {
+    Span hitCount = span.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.create("memcached", "Hits", WEB_ENDPOINT))
+        .build();
+
+    assertThat(features.match(hitCount)).isZero();
+  }
+
+  @Test
+  public void matchesServiceNameOfAnyEndpoint() {
+    SpanFeatures byService = SpanFeatures.newBuilder()
+        .addServiceName("db") // bit 0
+        .addServiceName(WEB_ENDPOINT.serviceName) // bit 1
+        .build();
+    Span withTag = span.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.create("sql.query", "select 1",
+            Endpoint.create("db", 127 << 24 | 2)))
+        .build();
+
+    assertThat(byService.match(span)).isEqualTo(0b10L);
+    assertThat(byService.match(withTag)).isEqualTo(0b11L);
+
+    long[] matches = new long[1];
+    SpanFeatureIndex.create(new Adjuster[] {adjusterWithFeatures(byService)})
+        .match(withTag, matches);
+    assertThat(matches).containsExactly(0b11L);
+  }
+
+  @Test
+  public void tooManyFeatures() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("more than 64 features");
+
+    SpanFeatures.Builder builder = SpanFeatures.newBuilder();
+    for (int i = 0; i <= SpanFeatures.MAX_FEATURES; i++) builder.addTagKey("key" + i);
+  }
+
+  @Test
+  public void indexMatchesSameBitsAsEachAdjuster() {
+    Adjuster one = adjusterWithFeatures(features);
+    Adjuster two = adjusterWithFeatures(SpanFeatures.newBuilder()
+        .addTagValue("Hit") // bit 0
+        .addAnnotationValue(SERVER_RECV) // bit 1
+        .build());
+    Adjuster none = new Adjuster() {
+    };
+    SpanFeatureIndex index = SpanFeatureIndex.create(new Adjuster[] {one, none, two});
+
+    Span hit = span.toBuilder()
+        .addBinaryAnnotation(BinaryAnnotation.create("memcached", "Hit", WEB_ENDPOINT))
+        .build();
+    long[] matches = new long[3];
+    index.match(hit, matches);
+
+    assertThat(matches).containsExactly(
+        one.features().match(hit), 0L, two.features().match(hit)
+    );
+    assertThat(matches).containsExactly(1L << 3, 0L, 1L << 0 | 1L << 1);
+  }
+
+  @Test
+  public void indexIsNullWithoutFeatures() {
+    assertThat(SpanFeatureIndex.create(new Adjuster[] {new Adjuster() {
+    }})).isNull();
+  }
+
+  @Test
+  public void chainRescansAfterSpanChanges() {
+    List<Long> seenFeatures = new ArrayList<>();
+    Adjuster addsHit = new Adjuster() {
+      @Override protected boolean shouldAdjust(Span span) {
+        return true;
+      }
+
+      @Override protected Span adjust(Span span) {
+        return span.toBuilder()
+            .addBinaryAnnotation(BinaryAnnotation.create("memcached", "Hit", WEB_ENDPOINT))
+            .build();
+      }
+    };
+    Adjuster recordsFeatures = new Adjuster() {
+      @Override protected SpanFeatures features() {
+        return features;
+      }
+
+      @Override protected boolean shouldAdjust(Span span, long matchedFeatures) {
+        seenFeatures.add(matchedFeatures);
+        return false;
+      }
+    };
+
+    AdjusterChain.create(asList(addsHit, recordsFeatures)).adjust(asList(span));
+
+    assertThat(seenFeatures).containsExactly(1L << 3);
+  }
+
+  static Adjuster adjusterWithFeatures(SpanFeatures features) {
+    return new Adjuster() {
+      @Override protected SpanFeatures features() {
+        return features;
+      }
+    };
+  }
+}
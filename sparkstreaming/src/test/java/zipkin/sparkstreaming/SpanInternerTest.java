@@ -0,0 +1,80 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpanInternerTest {
+  SpanInterner interner = new SpanInterner(1024);
+
+  @Test
+  public void internedSpansAreEqual() {
+    List<Span> decoded = Codec.JSON.readSpans(Codec.JSON.writeSpans(TestObjects.TRACE));
+
+    assertThat(interner.intern(decoded)).isEqualTo(TestObjects.TRACE);
+  }
+
+  @Test
+  public void sharesInstancesAcrossDecodedSpans() {
+    byte[] encoded = Codec.THRIFT.writeSpans(TestObjects.TRACE);
+    PipelineMetrics metrics = new PipelineMetrics();
+    Span first = interner.intern(Codec.THRIFT.readSpans(encoded), metrics).get(0);
+    Span second = interner.intern(Codec.THRIFT.readSpans(encoded), metrics).get(0);
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.name).isSameAs(first.name);
+    assertThat(second.annotations.get(0).value).isSameAs(first.annotations.get(0).value);
+    assertThat(second.annotations.get(0).endpoint).isSameAs(first.annotations.get(0).endpoint);
+    if (!first.binaryAnnotations.isEmpty()) {
+      assertThat(second.binaryAnnotations.get(0)).isSameAs(first.binaryAnnotations.get(0));
+    }
+    assertThat(metrics.internLookups()).isGreaterThan(metrics.internHits());
+    assertThat(metrics.internHitRate()).isGreaterThan(0.0);
+  }
+
+  @Test
+  public void collisionsEvict() {
+    SpanInterner tiny = new SpanInterner(1);
+    SpanInterner.Counts counts = new SpanInterner.Counts();
+
+    tiny.string(new String("a"), counts);
+    tiny.string(new String("b"), counts);
+    String a = new String("a");
+
+    assertThat(tiny.string(a, counts)).isSameAs(a); // "b" evicted "a"
+    assertThat(counts.hits).isZero();
+    assertThat(counts.lookups).isEqualTo(3);
+    assertThat(counts.evictions).isEqualTo(2);
+  }
+
+  @Test
+  public void roundsCapacityUpToPowerOfTwo() {
+    assertThat(new SpanInterner(1000).strings).hasSize(1024);
+    assertThat(new SpanInterner(1024).strings).hasSize(1024);
+  }
+
+  @Test
+  public void executorWideInstanceIsPerCapacity() {
+    SpanInterner first = SpanInterner.get(16);
+
+    assertThat(SpanInterner.get(16)).isSameAs(first);
+    assertThat(SpanInterner.get(32)).isNotSameAs(first);
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import zipkin.Annotation;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Percentage.withPercentage;
+import static zipkin.Constants.SERVER_RECV;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
+public class TraceIdSamplerTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  Random random = new Random(1L);
+
+  @Test
+  public void defaultsToAlwaysSample() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder().build();
+
+    assertThat(sampler.alwaysSample()).isTrue();
+    for (Span span : TestObjects.TRACE) {
+      assertThat(sampler.call(span)).isTrue();
+    }
+  }
+
+  @Test
+  public void zeroRateDropsEverything() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder().rate(0.0f).build();
+
+    assertThat(sampler.call(span(0L, WEB_ENDPOINT.serviceName))).isFalse();
+    assertThat(sampler.call(span(Long.MIN_VALUE, WEB_ENDPOINT.serviceName))).isFalse();
+  }
+
+  @Test
+  public void retainsApproximateRate() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder().rate(0.1f).build();
+
+    assertThat(countSampled(sampler, WEB_ENDPOINT.serviceName, 100_000))
+        .isCloseTo(10_000, withPercentage(3));
+  }
+
+  @Test
+  public void decisionIsConsistentForTheSameTraceId() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder().rate(0.5f).build();
+
+    for (int i = 0; i < 1000; i++) {
+      long traceId = random.nextLong();
+      assertThat(sampler.call(span(traceId, WEB_ENDPOINT.serviceName)))
+          .isEqualTo(sampler.call(span(traceId, APP_ENDPOINT.serviceName)));
+    }
+  }
+
+  @Test
+  public void serviceRateOverridesDefault() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder()
+        .rate(1.0f)
+        .serviceRates(Collections.singletonMap("WEB", 0.0f))
+        .build();
+
+    assertThat(sampler.alwaysSample()).isFalse();
+    assertThat(sampler.hasServiceRates()).isTrue();
+    assertThat(sampler.sampleTrace(asList(span(1L, WEB_ENDPOINT.serviceName)))).isFalse();
+    assertThat(sampler.sampleTrace(asList(span(1L, APP_ENDPOINT.serviceName)))).isTrue();
+  }
+
+  @Test
+  public void spansAreOnlyDroppedWhenEveryRateWould() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder()
+        .rate(0.0f)
+        .serviceRates(Collections.singletonMap("web", 1.0f))
+        .build();
+
+    // before grouping, other services of the trace aren't known, so spans of any service are kept
+    assertThat(sampler.call(span(1L, APP_ENDPOINT.serviceName))).isTrue();
+  }
+
+  @Test
+  public void traceCrossingServicesIsDecidedByHighestRate() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder()
+        .rate(1.0f)
+        .serviceRates(Collections.singletonMap("app", 0.0f))
+        .build();
+    Span root = span(1L, WEB_ENDPOINT.serviceName);
+    Span child = span(1L, APP_ENDPOINT.serviceName).toBuilder().parentId(1L).id(2L).build();
+
+    // web keeps the whole trace, including the app span, regardless of which is the root
+    assertThat(sampler.call(child)).isTrue();
+    assertThat(sampler.sampleTrace(asList(root, child))).isTrue();
+    assertThat(sampler.sampleTrace(asList(root.toBuilder().parentId(2L).build(),
+        child.toBuilder().parentId(null).build()))).isTrue();
+
+    // spans only of app are dropped
+    assertThat(sampler.sampleTrace(asList(child))).isFalse();
+  }
+
+  @Test
+  public void decisionDoesntDependOnRoot() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder()
+        .rate(1.0f)
+        .serviceRates(Collections.singletonMap("app", 0.0f))
+        .build();
+    Span root = span(1L, APP_ENDPOINT.serviceName);
+    Span child = root.toBuilder().parentId(1L).id(2L).build();
+
+    // the decision is the same whether or not the root is in the batch
+    assertThat(sampler.sampleTrace(asList(root, child))).isFalse();
+    assertThat(sampler.sampleTrace(asList(child))).isFalse();
+  }
+
+  @Test
+  public void lowerRateIsSubsetOfHigherRate() {
+    TraceIdSampler low = TraceIdSampler.newBuilder().rate(0.1f).build();
+    TraceIdSampler high = TraceIdSampler.newBuilder().rate(0.5f).build();
+
+    for (int i = 0; i < 1000; i++) {
+      Span span = span(random.nextLong(), WEB_ENDPOINT.serviceName);
+      if (low.call(span)) assertThat(high.call(span)).isTrue();
+    }
+  }
+
+  @Test
+  public void debugIsAlwaysSampled() {
+    TraceIdSampler sampler = TraceIdSampler.newBuilder().rate(0.0f).build();
+
+    Span span = span(1L, WEB_ENDPOINT.serviceName).toBuilder().debug(true).build();
+    assertThat(sampler.call(span)).isTrue();
+  }
+
+  @Test
+  public void rateCantBeNegative() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("rate should be between 0.0 and 1.0: was -1.0");
+
+    TraceIdSampler.newBuilder().rate(-1.0f).build();
+  }
+
+  @Test
+  public void serviceRateCantBeOverOne() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("rate of web should be between 0.0 and 1.0: was 1.1");
+
+    TraceIdSampler.newBuilder().serviceRates(Collections.singletonMap("web", 1.1f)).build();
+  }
+
+  int countSampled(TraceIdSampler sampler, String serviceName, int count) {
+    int sampled = 0;
+    for (int i = 0; i < count; i++) {
+      if (sampler.call(span(random.nextLong(), serviceName))) sampled++;
+    }
+    return sampled;
+  }
+
+  static Span span(long traceId, String serviceName) {
+    return Span.builder().traceId(traceId).id(traceId).name("get")
+        .addAnnotation(Annotation.create(1L, SERVER_RECV,
+            WEB_ENDPOINT.toBuilder().serviceName(serviceName).build()))
+        .build();
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.util.List;
+import org.junit.Test;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TracesTest {
+
+  @Test
+  public void asList_returnsListsAsIs() {
+    assertThat(Traces.asList(TestObjects.TRACE)).isSameAs(TestObjects.TRACE);
+  }
+
+  @Test
+  public void asList_copiesOtherIterables() {
+    Iterable<Span> iterable = () -> TestObjects.TRACE.iterator();
+
+    List<Span> list = Traces.asList(iterable);
+
+    assertThat(list).isNotSameAs(TestObjects.TRACE).isEqualTo(TestObjects.TRACE);
+  }
+}
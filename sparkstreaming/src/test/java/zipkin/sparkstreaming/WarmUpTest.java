@@ -0,0 +1,98 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import zipkin.Component;
+import zipkin.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WarmUpTest {
+  List<Iterable<Span>> consumed = new ArrayList<>();
+  WarmUp warmUp = new WarmUp(() -> {
+  }, AdjusterChain.create(Collections.emptyList()), consumed::add);
+
+  @Test
+  public void syntheticTraceDecodesInBothEncodings() throws Exception {
+    List<Span> trace = WarmUp.syntheticTrace();
+
+    assertThat(warmUp.readSpans.call(warmUp.json)).hasSameSizeAs(trace);
+    assertThat(warmUp.readSpans.call(warmUp.thrift)).hasSameSizeAs(trace);
+  }
+
+  @Test
+  public void warmUpDoesntRecordMetrics() {
+    assertThat(warmUp.readSpans.metrics()).isNull();
+  }
+
+  @Test
+  public void copiesShareReport_butRunsDont() throws Exception {
+    Runnable setup = ExecutorSetup.create(Collections.emptyList());
+    AdjusterChain chain = AdjusterChain.create(Collections.emptyList());
+    WarmUp run = new WarmUp(setup, chain, consumed::add);
+    WarmUp copy = (WarmUp) ExecutorSetupTest.deserializeObject(ExecutorSetupTest.serialize(run));
+
+    assertThat(copy.key()).isEqualTo(run.key());
+    assertThat(new WarmUp(setup, chain, consumed::add).key()).isNotEqualTo(run.key());
+  }
+
+  @Test
+  public void checkDoesntConsume() {
+    assertThat(WarmUp.check(consumed::add)).isEqualTo("ready");
+    assertThat(consumed).isEmpty();
+  }
+
+  @Test
+  public void checkReportsComponentStatus() {
+    assertThat(WarmUp.check(new CheckedConsumer(Component.CheckResult.OK)))
+        .isEqualTo("ready");
+    assertThat(WarmUp.check(new CheckedConsumer(
+        Component.CheckResult.failed(new IllegalStateException("no keyspace")))))
+        .isEqualTo("not ready: java.lang.IllegalStateException: no keyspace");
+  }
+
+  @Test
+  public void checkReportsEachConsumerOfFanout() {
+    FanoutConsumer fanout = FanoutConsumer.newBuilder()
+        .addConsumer(new CheckedConsumer(Component.CheckResult.OK))
+        .addConsumer(new CheckedConsumer(Component.CheckResult.failed(new IOException("down"))))
+        .build();
+
+    assertThat(WarmUp.check(fanout)).isEqualTo("[ready, not ready: java.io.IOException: down]");
+  }
+
+  static final class CheckedConsumer implements Consumer, Component {
+    final CheckResult result;
+
+    CheckedConsumer(CheckResult result) {
+      this.result = result;
+    }
+
+    @Override public void accept(Iterable<Span> spansSharingTraceId) {
+      throw new AssertionError("warm-up shouldn't consume synthetic spans");
+    }
+
+    @Override public CheckResult check() {
+      return result;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
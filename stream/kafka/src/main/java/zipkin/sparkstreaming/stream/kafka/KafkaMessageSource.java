@@ -0,0 +1,127 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.stream.kafka;
+
+import com.google.auto.value.AutoValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import kafka.consumer.ConsumerConfig;
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
+import kafka.consumer.KafkaStream;
+import kafka.javaapi.consumer.ConsumerConnector;
+import zipkin.sparkstreaming.MessageSource;
+
+/**
+ * Reads encoded lists of spans from a Kafka topic, for the {@link zipkin.sparkstreaming.EmbeddedJob
+ * embedded engine}.
+ *
+ * <p>This uses Kafka's high-level consumer, so it connects via Zookeeper. Offsets are committed to
+ * the consumer group, so that a restarted job resumes where it left off. Without committed offsets,
+ * reading starts at the latest messages, like {@link KafkaStreamFactory}.
+ */
+@AutoValue
+public abstract class KafkaMessageSource implements MessageSource {
+  /** How long an empty topic blocks reading, before checking if the poll timed out. */
+  static final int CONSUMER_TIMEOUT_MILLIS = 10;
+
+  public static Builder newBuilder() {
+    return new AutoValue_KafkaMessageSource.Builder()
+        .topic("zipkin")
+        .groupId("zipkin")
+        .sessionTimeout(10000);
+  }
+
+  @AutoValue.Builder
+  public interface Builder {
+
+    /** Kafka topic encoded lists of spans are be consumed from. Defaults to "zipkin" */
+    Builder topic(String topic);
+
+    /** Consumer group this process is consuming on behalf of. Defaults to "zipkin" */
+    Builder groupId(String groupId);
+
+    /**
+     * Zookeeper host string. host:port pairs corresponding to a Zookeeper server with an optional
+     * chroot suffix. No default
+     */
+    Builder connect(String connect);
+
+    /** Zookeeper session timeout in milliseconds. Defaults to 10000 */
+    Builder sessionTimeout(int sessionTimeout);
+
+    KafkaMessageSource build();
+  }
+
+  abstract String topic();
+
+  abstract String groupId();
+
+  abstract String connect();
+
+  abstract int sessionTimeout();
+
+  // only accessed by the polling thread, and on close after polling stopped
+  ConsumerConnector connector;
+  ConsumerIterator<byte[], byte[]> iterator;
+
+  @Override public List<byte[]> poll(int maxMessages, long timeoutMillis) {
+    if (iterator == null) open();
+    List<byte[]> result = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (result.size() < maxMessages) {
+      try {
+        if (!iterator.hasNext()) break; // shutdown
+        result.add(iterator.next().message());
+      } catch (ConsumerTimeoutException e) { // the iterator can be reused after this
+        if (!result.isEmpty() || System.currentTimeMillis() >= deadline) break;
+      }
+    }
+    return result;
+  }
+
+  void open() {
+    connector = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(config()));
+    List<KafkaStream<byte[], byte[]>> streams =
+        connector.createMessageStreams(Collections.singletonMap(topic(), 1)).get(topic());
+    iterator = streams.get(0).iterator();
+  }
+
+  Properties config() {
+    Properties result = new Properties();
+    result.put("zookeeper.connect", connect());
+    result.put("zookeeper.session.timeout.ms", String.valueOf(sessionTimeout()));
+    result.put("group.id", groupId());
+    result.put("auto.commit.enable", "false"); // committed once traces were consumed
+    result.put("consumer.timeout.ms", String.valueOf(CONSUMER_TIMEOUT_MILLIS));
+    return result;
+  }
+
+  @Override public void commit() {
+    if (connector != null) connector.commitOffsets();
+  }
+
+  @Override public void close() {
+    if (connector != null) connector.shutdown();
+  }
+
+  @Override public String toString() {
+    return "KafkaMessageSource{topic=" + topic() + ", connect=" + connect() + "}";
+  }
+
+  KafkaMessageSource() {
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.sparkstreaming.stream.kafka;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class KafkaMessageSourceTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void commitsManually() throws Exception {
+    KafkaMessageSource source = KafkaMessageSource.newBuilder()
+        .connect("127.0.0.1:2181")
+        .build();
+
+    assertThat(source.config()).contains(
+        entry("zookeeper.connect", "127.0.0.1:2181"),
+        entry("group.id", "zipkin"),
+        entry("auto.commit.enable", "false")
+    );
+  }
+
+  @Test
+  public void closeBeforePoll() throws Exception {
+    KafkaMessageSource source = KafkaMessageSource.newBuilder()
+        .connect("127.0.0.1:2181")
+        .build();
+
+    source.commit();
+    source.close(); // doesn't connect
+  }
+
+  @Test
+  public void buildFailOnMissingProperties() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Missing required properties: connect");
+    KafkaMessageSource.newBuilder().build();
+  }
+}